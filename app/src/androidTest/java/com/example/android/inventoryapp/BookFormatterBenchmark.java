@@ -0,0 +1,62 @@
+package com.example.android.inventoryapp;
+
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Times the {@link BookFormatter} calls made while binding rows, on the device's runtime,
+ * and compares the buffer formatting with the substring concatenation it replaced.
+ * Reports the time of each call in logcat.
+ */
+public class BookFormatterBenchmark extends InstrumentationTestCase {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = BookFormatterBenchmark.class.getSimpleName();
+
+    /** Calls made in each timing **/
+    private static final int TIMED_CALLS = 100000;
+
+    public void testTimePerCall() {
+        final char[] buffer = new char[BookFormatter.MAX_PHONE_LENGTH];
+        final BookFormatter formatter = new BookFormatter(Locale.US);
+
+        logTime("formatPhone into buffer", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < TIMED_CALLS; i++) {
+                    BookFormatter.formatPhone(2100600000L + i, buffer);
+                }
+            }
+        });
+        logTime("substring concatenation", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < TIMED_CALLS; i++) {
+                    String phone = String.valueOf(2100600000L + i);
+                    buffer[0] = ("(" + phone.substring(0, 3) + ") " + phone.substring(3, 6) + "-"
+                            + phone.substring(6)).charAt(0);
+                }
+            }
+        });
+        logTime("formatPrice", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < TIMED_CALLS; i++) {
+                    buffer[0] = formatter.formatPrice(i / 100.0).charAt(0);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the calls once to warm up the JIT, then again timed, and logs the time per call.
+     */
+    private static void logTime(String name, Runnable calls) {
+        calls.run();
+        long start = System.nanoTime();
+        calls.run();
+        Log.i(LOG_TAG, name + ": " + (System.nanoTime() - start) / TIMED_CALLS + " ns per call");
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.v7.widget.RecyclerView;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.ViewTreeObserver;
+
+import com.example.android.inventoryapp.data.CatalogPrefetcher;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_IDS;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_SELECTION;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_DELETE_BOOKS;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_PURGE_DELETED;
+
+/**
+ * Measures the time from launching CatalogActivity to the first rendered row.
+ *
+ * The provider is created with the instrumentation's process, before any test runs, and starts
+ * reading the first catalog page right away. Writing books in the same run would warm the provider
+ * and discard that page, so the catalog is seeded and removed in their own instrumentation runs,
+ * each of which starts a new process:
+ *
+ *   am instrument -w -e class com.example.android.inventoryapp.ColdStartBenchmark#testSeedCatalog ...
+ *   am instrument -w -e class com.example.android.inventoryapp.ColdStartBenchmark#testTimeToFirstRenderedRow ...
+ *   am instrument -w -e class com.example.android.inventoryapp.ColdStartBenchmark#testRemoveCatalog ...
+ *
+ * Compare the time logged with the "Fully drawn" line that CatalogActivity reports in logcat.
+ */
+public class ColdStartBenchmark extends ActivityInstrumentationTestCase2<CatalogActivity> {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = ColdStartBenchmark.class.getSimpleName();
+
+    /** Number of books in the catalog during the benchmark **/
+    private static final int BOOK_COUNT = 500;
+
+    /** Longest time to wait for the first row **/
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    /** Supplier name that marks the books inserted by this benchmark **/
+    private static final String BENCHMARK_SUPPLIER = "ColdStartBenchmark";
+
+    /** Selection of the books inserted by this benchmark **/
+    private static final String BENCHMARK_SELECTION = BookEntry.COLUMN_BOOK_SUPPLIER_NAME + "=" +
+            DatabaseUtils.sqlEscapeString(BENCHMARK_SUPPLIER);
+
+    /** Set when this process wrote the catalog, so the measurement in it wouldn't be cold **/
+    private static boolean sWroteCatalog;
+
+    public ColdStartBenchmark() {
+        super(CatalogActivity.class);
+    }
+
+    /**
+     * Replaces the benchmark's books. Run it on its own before the measurement.
+     */
+    public void testSeedCatalog() {
+        sWroteCatalog = true;
+        removeBenchmarkBooks();
+        ContentValues[] books = new ContentValues[BOOK_COUNT];
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_BOOK_NAME, "Book " + i);
+            values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author " + i);
+            values.put(BookEntry.COLUMN_BOOK_PRICE, 9.99);
+            values.put(BookEntry.COLUMN_BOOK_QUANTITY, 10);
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, BENCHMARK_SUPPLIER);
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, 2100601414L);
+            books[i] = values;
+        }
+        assertEquals(BOOK_COUNT, getContentResolver().bulkInsert(BookEntry.CONTENT_URI, books));
+    }
+
+    /**
+     * Removes the benchmark's books. Run it on its own after the measurement.
+     */
+    public void testRemoveCatalog() {
+        sWroteCatalog = true;
+        removeBenchmarkBooks();
+        assertEquals(0, countBenchmarkBooks());
+    }
+
+    /**
+     * Launches the activity and waits until the RecyclerView has laid out its first row.
+     * The catalog must have been seeded by an earlier run, and the test fails if it runs in the same process.
+     */
+    public void testTimeToFirstRenderedRow() throws Exception {
+        // The android.test runner has no skipped result, so a run that can't measure a cold start fails
+        // instead of passing without a number
+        assertFalse("Not measured, since the catalog was written in this process. Run the test on its own.",
+                sWroteCatalog);
+        final CountDownLatch firstRowLatch = new CountDownLatch(1);
+        final long[] firstRowTime = new long[1];
+        long start = SystemClock.elapsedRealtime();
+        CatalogActivity activity = getActivity();
+        final RecyclerView recyclerView = (RecyclerView) activity.findViewById(R.id.recycler_view);
+
+        // Records the first layout with a row, which may have happened while the activity launched
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                if (recyclerView.getChildCount() > 0) {
+                    firstRowTime[0] = SystemClock.elapsedRealtime();
+                    firstRowLatch.countDown();
+                    return;
+                }
+                recyclerView.getViewTreeObserver().addOnGlobalLayoutListener(
+                        new ViewTreeObserver.OnGlobalLayoutListener() {
+                            @Override
+                            public void onGlobalLayout() {
+                                if (recyclerView.getChildCount() > 0 && firstRowLatch.getCount() > 0) {
+                                    firstRowTime[0] = SystemClock.elapsedRealtime();
+                                    firstRowLatch.countDown();
+                                }
+                            }
+                        });
+            }
+        });
+
+        assertTrue("No row rendered within " + TIMEOUT_MILLIS + " ms",
+                firstRowLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        Log.i(LOG_TAG, "Time to first rendered row: " + (firstRowTime[0] - start) + " ms");
+
+        // Checked after the measurement, so the query doesn't warm the database before it
+        assertEquals("Seed the catalog first with testSeedCatalog", BOOK_COUNT, countBenchmarkBooks());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        // Closes a prefetched page the activity didn't take, e.g. when the measurement couldn't be made
+        Cursor prefetched = CatalogPrefetcher.take();
+        if (prefetched != null) {
+            prefetched.close();
+        }
+        super.tearDown();
+    }
+
+    private ContentResolver getContentResolver() {
+        return getInstrumentation().getTargetContext().getContentResolver();
+    }
+
+    /**
+     * Deletes the benchmark's books and purges them right away, so they don't stay in the database
+     * file until the maintenance purges them.
+     */
+    private void removeBenchmarkBooks() {
+        Bundle extras = new Bundle();
+        extras.putString(EXTRA_SELECTION, BENCHMARK_SELECTION);
+        Bundle deleted = getContentResolver().call(BookEntry.CONTENT_URI, METHOD_DELETE_BOOKS,
+                BookEntry.CONTENT_URI.toString(), extras);
+        extras = new Bundle();
+        extras.putLongArray(EXTRA_IDS, deleted.getLongArray(EXTRA_IDS));
+        getContentResolver().call(BookEntry.CONTENT_URI, METHOD_PURGE_DELETED, null, extras);
+    }
+
+    private int countBenchmarkBooks() {
+        Cursor cursor = getContentResolver().query(BookEntry.CONTENT_URI, new String[] { BookEntry._ID },
+                BENCHMARK_SELECTION, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
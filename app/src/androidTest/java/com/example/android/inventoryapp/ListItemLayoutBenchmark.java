@@ -0,0 +1,293 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.InstrumentationTestCase;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.RelativeLayout;
+import android.widget.TextView;
+
+/**
+ * Inflates, measures and lays out catalog rows the way the RecyclerView does, and reports in logcat
+ * the views and depth of a row, the onMeasure() and onLayout() calls per row and the time of each step.
+ * The framework views of the row are replaced by subclasses that count their passes, so the test
+ * runs unchanged on any version of list_item.xml, and the passes of a root that isn't one of them are counted
+ * as it is laid out. Compare the numbers logged before and after a layout change on the same device.
+ */
+public class ListItemLayoutBenchmark extends InstrumentationTestCase {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = ListItemLayoutBenchmark.class.getSimpleName();
+
+    /** Rows inflated and laid out in each timing **/
+    private static final int ROW_COUNT = 200;
+
+    /** Counts of the passes of the current rows **/
+    private final PassCounter mCounter = new PassCounter();
+
+    private Context mContext;
+    private LayoutInflater mInflater;
+    private RecyclerView mRecyclerView;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new ContextThemeWrapper(getInstrumentation().getTargetContext(), R.style.AppTheme);
+        mInflater = LayoutInflater.from(mContext).cloneInContext(mContext);
+        mInflater.setFactory2(new CountingViewFactory());
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRecyclerView = new RecyclerView(mContext);
+                mRecyclerView.setLayoutManager(new LinearLayoutManager(mContext));
+            }
+        });
+    }
+
+    public void testMeasureAndLayoutPasses() {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                measureRows();
+            }
+        });
+    }
+
+    /**
+     * Inflates ROW_COUNT rows and lays each out once, as for a new row,
+     * then binds new text to each and lays it out again, as for a recycled row.
+     */
+    private void measureRows() {
+        int width = mContext.getResources().getDisplayMetrics().widthPixels;
+        View[] rows = new View[ROW_COUNT];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows[i] = mInflater.inflate(R.layout.list_item, mRecyclerView, false);
+        }
+        long inflateNanos = System.nanoTime() - start;
+
+        mCounter.reset();
+        start = System.nanoTime();
+        for (View row : rows) {
+            layOut(row, width);
+        }
+        long firstLayoutNanos = System.nanoTime() - start;
+        String firstPasses = mCounter.perRow();
+
+        mCounter.reset();
+        start = System.nanoTime();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            bind(rows[i], i);
+            layOut(rows[i], width);
+        }
+        long reboundLayoutNanos = System.nanoTime() - start;
+        String reboundPasses = mCounter.perRow();
+
+        Log.i(LOG_TAG, "Row: " + countViews(rows[0]) + " views, " + getDepth(rows[0]) + " levels deep" +
+                ", inflated in " + inflateNanos / ROW_COUNT / 1000 + " us");
+        Log.i(LOG_TAG, "New row: " + firstPasses + ", laid out in " + firstLayoutNanos / ROW_COUNT / 1000 + " us");
+        Log.i(LOG_TAG, "Rebound row: " + reboundPasses + ", laid out in " +
+                reboundLayoutNanos / ROW_COUNT / 1000 + " us");
+    }
+
+    /**
+     * Measures the row with the full width of the list and any height, like LinearLayoutManager does,
+     * and lays it out. The root may be a library view the factory doesn't create, so its passes
+     * are counted here: with the same measure spec, measure() and layout() only call onMeasure()
+     * and onLayout() when a layout was requested.
+     */
+    private void layOut(View row, int listWidth) {
+        boolean countRoot = row.isLayoutRequested() && !(row instanceof CountingView);
+        ViewGroup.MarginLayoutParams params = (ViewGroup.MarginLayoutParams) row.getLayoutParams();
+        int width = listWidth - params.leftMargin - params.rightMargin;
+        row.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        row.layout(0, 0, row.getMeasuredWidth(), row.getMeasuredHeight());
+        if (countRoot) {
+            mCounter.measures++;
+            mCounter.layouts++;
+        }
+    }
+
+    /**
+     * Sets text of another length on the row's list columns, as binding another book does.
+     */
+    private static void bind(View row, int position) {
+        ((TextView) row.findViewById(R.id.name_text_view)).setText("Rebound book " + position);
+        ((TextView) row.findViewById(R.id.author_text_view)).setText("Author " + position);
+        ((TextView) row.findViewById(R.id.price_text_view)).setText("$" + position + ".99");
+        ((TextView) row.findViewById(R.id.quantity_text_view)).setText(String.valueOf(position));
+    }
+
+    private static int countViews(View view) {
+        int count = 1;
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                count += countViews(group.getChildAt(i));
+            }
+        }
+        return count;
+    }
+
+    private static int getDepth(View view) {
+        int depth = 0;
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                depth = Math.max(depth, getDepth(group.getChildAt(i)));
+            }
+        }
+        return depth + 1;
+    }
+
+    /**
+     * onMeasure() and onLayout() calls of the counted views since the last reset.
+     */
+    private static final class PassCounter {
+        int measures;
+        int layouts;
+
+        void reset() {
+            measures = 0;
+            layouts = 0;
+        }
+
+        String perRow() {
+            return measures / (float) ROW_COUNT + " measures and " + layouts / (float) ROW_COUNT + " layouts";
+        }
+    }
+
+    /** Marks the views that count their own passes **/
+    private interface CountingView {
+    }
+
+    /**
+     * Creates counting subclasses in place of the framework views the rows are made of.
+     */
+    private class CountingViewFactory implements LayoutInflater.Factory2 {
+
+        @Override
+        public View onCreateView(View parent, String name, Context context, AttributeSet attrs) {
+            return onCreateView(name, context, attrs);
+        }
+
+        @Override
+        public View onCreateView(String name, Context context, AttributeSet attrs) {
+            switch (name) {
+                case "TextView":
+                    return new CountingTextView(context, attrs);
+                case "Button":
+                    return new CountingButton(context, attrs);
+                case "ImageView":
+                    return new CountingImageView(context, attrs);
+                case "RelativeLayout":
+                    return new CountingRelativeLayout(context, attrs);
+                case "LinearLayout":
+                    return new CountingLinearLayout(context, attrs);
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private class CountingTextView extends TextView implements CountingView {
+        CountingTextView(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            mCounter.measures++;
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+            mCounter.layouts++;
+            super.onLayout(changed, left, top, right, bottom);
+        }
+    }
+
+    private class CountingButton extends Button implements CountingView {
+        CountingButton(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            mCounter.measures++;
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+            mCounter.layouts++;
+            super.onLayout(changed, left, top, right, bottom);
+        }
+    }
+
+    private class CountingImageView extends ImageView implements CountingView {
+        CountingImageView(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            mCounter.measures++;
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+            mCounter.layouts++;
+            super.onLayout(changed, left, top, right, bottom);
+        }
+    }
+
+    private class CountingRelativeLayout extends RelativeLayout implements CountingView {
+        CountingRelativeLayout(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            mCounter.measures++;
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+            mCounter.layouts++;
+            super.onLayout(changed, left, top, right, bottom);
+        }
+    }
+
+    private class CountingLinearLayout extends LinearLayout implements CountingView {
+        CountingLinearLayout(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            mCounter.measures++;
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+            mCounter.layouts++;
+            super.onLayout(changed, left, top, right, bottom);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_FAILURES;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_MAX_WAIT_MICROS;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_RETRIES;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_TOTAL_HOLD_MICROS;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_TOTAL_WAIT_MICROS;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_TRANSACTIONS;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_GET_WRITE_STATS;
+
+/**
+ * Runs concurrent writers and readers against {@link com.example.android.inventoryapp.data.BookProvider}
+ * and reports the throughput and tail latency of each in logcat, with the provider's write lock statistics.
+ * Writers sell and restock the same few books, like checkouts and deliveries at a busy store,
+ * and readers load the catalog. Every sale is matched by a restock, so each book must end
+ * with the quantity it started with.
+ */
+public class ProviderStressTest extends InstrumentationTestCase {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = ProviderStressTest.class.getSimpleName();
+
+    /** Number of threads writing and reading at the same time **/
+    private static final int WRITER_COUNT = 4;
+    private static final int READER_COUNT = 4;
+
+    /** Number of calls made by each thread **/
+    private static final int CALLS_PER_THREAD = 250;
+
+    /** Number of books the writers share, kept small so they contend for the same rows **/
+    private static final int BOOK_COUNT = 10;
+
+    /** Starting quantity of each book **/
+    private static final int START_QUANTITY = 100;
+
+    /** Supplier name that marks the books inserted by this test **/
+    private static final String STRESS_SUPPLIER = "ProviderStressTest";
+
+    private ContentResolver mContentResolver;
+    private Uri[] mBookUris;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContentResolver = getInstrumentation().getTargetContext().getContentResolver();
+        mBookUris = new Uri[BOOK_COUNT];
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_BOOK_NAME, "Stress book " + i);
+            values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author " + i);
+            values.put(BookEntry.COLUMN_BOOK_PRICE, 9.99);
+            values.put(BookEntry.COLUMN_BOOK_QUANTITY, START_QUANTITY);
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, STRESS_SUPPLIER);
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, 2100601414L);
+            mBookUris[i] = mContentResolver.insert(BookEntry.CONTENT_URI, values);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContentResolver.delete(BookEntry.CONTENT_URI,
+                BookEntry.COLUMN_BOOK_SUPPLIER_NAME + "=?", new String[] { STRESS_SUPPLIER });
+        super.tearDown();
+    }
+
+    public void testConcurrentWritersAndReaders() throws Exception {
+        Bundle statsBefore = mContentResolver.call(BookEntry.CONTENT_URI, METHOD_GET_WRITE_STATS, null, null);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Worker> writers = new ArrayList<>();
+        List<Worker> readers = new ArrayList<>();
+        for (int i = 0; i < WRITER_COUNT; i++) {
+            writers.add(new Worker(start, i, true));
+        }
+        for (int i = 0; i < READER_COUNT; i++) {
+            readers.add(new Worker(start, i, false));
+        }
+        List<Worker> workers = new ArrayList<>(writers);
+        workers.addAll(readers);
+        for (Worker worker : workers) {
+            worker.start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Worker worker : workers) {
+            worker.join();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        for (Worker worker : workers) {
+            if (worker.mError != null) {
+                throw new AssertionError(worker.getName() + " failed: " + worker.mError);
+            }
+        }
+        report("Writes", writers, elapsedNanos);
+        report("Reads", readers, elapsedNanos);
+
+        Bundle statsAfter = mContentResolver.call(BookEntry.CONTENT_URI, METHOD_GET_WRITE_STATS, null, null);
+        long transactions = delta(statsBefore, statsAfter, EXTRA_TRANSACTIONS);
+        Log.i(LOG_TAG, "Write transactions: " + transactions +
+                ", retries: " + delta(statsBefore, statsAfter, EXTRA_RETRIES) +
+                ", failures: " + delta(statsBefore, statsAfter, EXTRA_FAILURES) +
+                ", mean lock wait: " + mean(delta(statsBefore, statsAfter, EXTRA_TOTAL_WAIT_MICROS), transactions) + " us" +
+                ", mean lock hold: " + mean(delta(statsBefore, statsAfter, EXTRA_TOTAL_HOLD_MICROS), transactions) + " us" +
+                ", longest wait since start: " + statsAfter.getLong(EXTRA_MAX_WAIT_MICROS) + " us");
+
+        // No sale or restock was lost or applied twice
+        for (Uri bookUri : mBookUris) {
+            Cursor cursor = mContentResolver.query(bookUri, new String[] { BookEntry.COLUMN_BOOK_QUANTITY },
+                    null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(START_QUANTITY, cursor.getInt(0));
+            } finally {
+                cursor.close();
+            }
+        }
+        assertEquals(0, delta(statsBefore, statsAfter, EXTRA_FAILURES));
+    }
+
+    /**
+     * Logs the calls per second of all the workers and the median, 99th percentile and slowest call.
+     */
+    private static void report(String name, List<Worker> workers, long elapsedNanos) {
+        long[] latencies = new long[workers.size() * CALLS_PER_THREAD];
+        int count = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.mLatencies, 0, latencies, count, CALLS_PER_THREAD);
+            count += CALLS_PER_THREAD;
+        }
+        Arrays.sort(latencies);
+        Log.i(LOG_TAG, name + ": " + count * 1000000000L / elapsedNanos + " per second" +
+                ", p50 " + latencies[count / 2] / 1000 + " us" +
+                ", p99 " + latencies[count * 99 / 100] / 1000 + " us" +
+                ", max " + latencies[count - 1] / 1000 + " us");
+    }
+
+    private static long delta(Bundle before, Bundle after, String key) {
+        return after.getLong(key) - before.getLong(key);
+    }
+
+    private static long mean(long total, long count) {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * Thread that makes CALLS_PER_THREAD provider calls once the start latch opens and records each call's latency.
+     * A writer alternates a sale and a restock of a random book, and a reader loads the catalog.
+     */
+    private class Worker extends Thread {
+
+        private final CountDownLatch mStart;
+        private final boolean mWriter;
+        private final Random mRandom;
+        private final long[] mLatencies = new long[CALLS_PER_THREAD];
+        private volatile Throwable mError;
+
+        Worker(CountDownLatch start, int index, boolean writer) {
+            super((writer ? "Writer " : "Reader ") + index);
+            mStart = start;
+            mWriter = writer;
+            mRandom = new Random(index);
+        }
+
+        @Override
+        public void run() {
+            try {
+                mStart.await();
+                Uri bookUri = null;
+                for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                    long callStart = System.nanoTime();
+                    if (mWriter) {
+                        // Sells a random book on even calls and restocks it on the next call
+                        if (i % 2 == 0) {
+                            bookUri = mBookUris[mRandom.nextInt(BOOK_COUNT)];
+                        }
+                        adjust(bookUri, i % 2 == 0 ? -1 : 1);
+                    } else {
+                        read();
+                    }
+                    mLatencies[i] = System.nanoTime() - callStart;
+                }
+            } catch (Throwable e) {
+                mError = e;
+            }
+        }
+
+        private void adjust(Uri bookUri, int delta) {
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.KEY_QUANTITY_DELTA, delta);
+            if (mContentResolver.update(bookUri, values, null, null) != 1) {
+                throw new AssertionError("Stock change not applied to " + bookUri);
+            }
+        }
+
+        private void read() {
+            Cursor cursor = mContentResolver.query(BookEntry.CONTENT_URI, BookEntry.LIST_PROJECTION,
+                    null, null, BookEntry.LIST_SORT_ORDER);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Build;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.v7.widget.RecyclerView;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.ViewConfiguration;
+import android.view.ViewTreeObserver;
+
+import com.example.android.inventoryapp.data.BookProvider;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.CONTENT_AUTHORITY;
+
+/**
+ * Flings the catalog list of CatalogActivity with 1,000, 50,000 and 500,000 books inserted
+ * through the provider into a database of their own, and reports in logcat the frame durations, rows bound, allocations and
+ * garbage collections per second. Changes to {@link BookCursorAdapter} and the list item layout
+ * are measured against the numbers logged by earlier runs on the same device.
+ * Run each size on its own, since the larger ones take minutes to insert.
+ */
+public class ScrollBenchmark extends ActivityInstrumentationTestCase2<CatalogActivity> {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = ScrollBenchmark.class.getSimpleName();
+
+    /** Books inserted in each bulk insert, kept well below the binder transaction limit **/
+    private static final int INSERT_BATCH_SIZE = 2000;
+
+    /** Number of flings timed, alternating down and up **/
+    private static final int FLING_COUNT = 10;
+
+    /** Longest time to wait for the catalog to load or a fling to settle **/
+    private static final long TIMEOUT_MILLIS = 120000;
+
+    /** Frames longer than this missed at least one 60 Hz display refresh **/
+    private static final long JANK_THRESHOLD_NANOS = 17000000;
+
+    /** Database the provider keeps the books in during the benchmark, so the user's books aren't changed **/
+    private static final String BENCHMARK_DATABASE_NAME = "ScrollBenchmark.db";
+
+    /** Supplier name of the inserted books **/
+    private static final String BENCHMARK_SUPPLIER = "ScrollBenchmark";
+
+    private ContentResolver mContentResolver;
+    private ContentProviderClient mProviderClient;
+    private BookProvider mProvider;
+
+    public ScrollBenchmark() {
+        super(CatalogActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContentResolver = getInstrumentation().getTargetContext().getContentResolver();
+        // The test runs in the app's process, so the provider is a local object
+        mProviderClient = mContentResolver.acquireContentProviderClient(CONTENT_AUTHORITY);
+        mProvider = (BookProvider) mProviderClient.getLocalContentProvider();
+        getInstrumentation().getTargetContext().deleteDatabase(BENCHMARK_DATABASE_NAME);
+        mProvider.useDatabase(BENCHMARK_DATABASE_NAME);
+    }
+
+    /**
+     * Moves the provider back to the app's database and deletes the benchmark's.
+     * The activity is finished first, so its loader doesn't query the database being closed.
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mProvider.useDatabase(null);
+        mProviderClient.release();
+        getInstrumentation().getTargetContext().deleteDatabase(BENCHMARK_DATABASE_NAME);
+    }
+
+    public void testScroll1k() throws Exception {
+        runBenchmark(1000);
+    }
+
+    public void testScroll50k() throws Exception {
+        runBenchmark(50000);
+    }
+
+    public void testScroll500k() throws Exception {
+        runBenchmark(500000);
+    }
+
+    /**
+     * Inserts the books, opens the catalog once they are all loaded, then flings it FLING_COUNT times
+     * while recording every frame, and logs the results.
+     */
+    private void runBenchmark(final int bookCount) throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            Log.w(LOG_TAG, "Frame callbacks need Android 4.1");
+            return;
+        }
+        insertBooks(bookCount);
+        CatalogActivity activity = getActivity();
+        final RecyclerView recyclerView = (RecyclerView) activity.findViewById(R.id.recycler_view);
+        final BookCursorAdapter adapter = (BookCursorAdapter) recyclerView.getAdapter();
+        final int[] bindCount = new int[1];
+
+        // Waits for the loader's cursor, since the startup page only has the first rows.
+        // The list is laid out again once the adapter has the loader's rows.
+        final CountDownLatch loaded = new CountDownLatch(1);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                if (adapter.getItemCount() >= bookCount) {
+                    loaded.countDown();
+                    return;
+                }
+                recyclerView.getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
+                    @Override
+                    public void onGlobalLayout() {
+                        if (adapter.getItemCount() >= bookCount) {
+                            recyclerView.getViewTreeObserver().removeOnGlobalLayoutListener(this);
+                            loaded.countDown();
+                        }
+                    }
+                });
+            }
+        });
+        assertTrue("Catalog not loaded within " + TIMEOUT_MILLIS + " ms",
+                loaded.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        final int velocity = ViewConfiguration.get(activity).getScaledMaximumFlingVelocity();
+        final FrameRecorder frameRecorder = new FrameRecorder(recyclerView);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                bindCount[0] = adapter.getBindCount();
+                frameRecorder.start();
+            }
+        });
+        long gcCountBefore = getGcCount();
+        startAllocCounting();
+        long start = SystemClock.elapsedRealtime();
+
+        for (int i = 0; i < FLING_COUNT; i++) {
+            fling(recyclerView, i % 2 == 0 ? velocity : -velocity);
+        }
+
+        long elapsedMillis = SystemClock.elapsedRealtime() - start;
+        int allocations = stopAllocCounting();
+        long gcCount = getGcCount() - gcCountBefore;
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                frameRecorder.stop();
+                bindCount[0] = adapter.getBindCount() - bindCount[0];
+            }
+        });
+
+        long[] frames = frameRecorder.getFrameNanos();
+        Arrays.sort(frames);
+        int janky = 0;
+        for (long frame : frames) {
+            if (frame > JANK_THRESHOLD_NANOS) {
+                janky++;
+            }
+        }
+        Log.i(LOG_TAG, bookCount + " books: " + frames.length + " frames in " + elapsedMillis + " ms" +
+                ", median " + percentileMillis(frames, 50) + " ms" +
+                ", 90th " + percentileMillis(frames, 90) + " ms" +
+                ", 99th " + percentileMillis(frames, 99) + " ms" +
+                ", " + janky + " over 17 ms" +
+                ", " + perSecond(bindCount[0], elapsedMillis) + " binds/s" +
+                ", " + perSecond(allocations, elapsedMillis) + " allocations/s" +
+                (gcCount < 0 ? "" : ", " + perSecond(gcCount, elapsedMillis) + " GCs/s"));
+    }
+
+    /**
+     * Starts counting the allocations of the process from zero.
+     * The Debug counters are deprecated, but they are the only allocation count available on
+     * Android 4.1 to 6.0, and without them the runs couldn't be compared with the earlier ones.
+     */
+    @SuppressWarnings("deprecation")
+    private static void startAllocCounting() {
+        Debug.resetGlobalAllocCount();
+        Debug.startAllocCounting();
+    }
+
+    /**
+     * Stops counting the allocations and returns their number, see startAllocCounting().
+     */
+    @SuppressWarnings("deprecation")
+    private static int stopAllocCounting() {
+        Debug.stopAllocCounting();
+        return Debug.getGlobalAllocCount();
+    }
+
+    /**
+     * Inserts the books through the provider, the way an import does.
+     */
+    private void insertBooks(int bookCount) {
+        for (int first = 0; first < bookCount; first += INSERT_BATCH_SIZE) {
+            ContentValues[] books = new ContentValues[Math.min(INSERT_BATCH_SIZE, bookCount - first)];
+            for (int i = 0; i < books.length; i++) {
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.COLUMN_BOOK_NAME, "Book " + (first + i));
+                values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author " + (first + i) % 997);
+                values.put(BookEntry.COLUMN_BOOK_PRICE, 9.99 + i % 40);
+                values.put(BookEntry.COLUMN_BOOK_QUANTITY, i % 25);
+                values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, BENCHMARK_SUPPLIER);
+                values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, 2100601414L);
+                books[i] = values;
+            }
+            assertEquals(books.length, mContentResolver.bulkInsert(BookEntry.CONTENT_URI, books));
+        }
+    }
+
+    /**
+     * Flings the list and waits until it has stopped scrolling.
+     * A fling at the end of the list doesn't scroll, so it doesn't wait.
+     */
+    private void fling(final RecyclerView recyclerView, final int velocityY) throws InterruptedException {
+        final CountDownLatch idle = new CountDownLatch(1);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recyclerView.fling(0, velocityY);
+                if (recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE) {
+                    idle.countDown();
+                    return;
+                }
+                recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                    @Override
+                    public void onScrollStateChanged(RecyclerView view, int newState) {
+                        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                            view.removeOnScrollListener(this);
+                            idle.countDown();
+                        }
+                    }
+                });
+            }
+        });
+        assertTrue("Fling not settled within " + TIMEOUT_MILLIS + " ms",
+                idle.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Returns the number of garbage collections since the process started,
+     * or -1 before Android 6.0, which doesn't report it.
+     */
+    private static long getGcCount() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return -1;
+        }
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.gc-count"));
+    }
+
+    private static String percentileMillis(long[] sortedNanos, int percentile) {
+        if (sortedNanos.length == 0) {
+            return "-";
+        }
+        long nanos = sortedNanos[Math.min(sortedNanos.length - 1, sortedNanos.length * percentile / 100)];
+        return String.valueOf(nanos / 100000 / 10.0);
+    }
+
+    private static long perSecond(long count, long elapsedMillis) {
+        return elapsedMillis == 0 ? 0 : count * 1000 / elapsedMillis;
+    }
+
+    /**
+     * Records the time between consecutive frames while the list scrolls, from the display's vsync
+     * timestamps. Frames while the list is idle between flings are left out.
+     * Must be started and stopped on the main thread.
+     */
+    private static class FrameRecorder implements Choreographer.FrameCallback {
+
+        private final RecyclerView mRecyclerView;
+        private long[] mFrameNanos = new long[1024];
+        private int mFrameCount;
+        private long mLastFrameTimeNanos;
+        private boolean mRunning;
+
+        FrameRecorder(RecyclerView recyclerView) {
+            mRecyclerView = recyclerView;
+        }
+
+        void start() {
+            mRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mRunning = false;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            if (mLastFrameTimeNanos != 0 && mRecyclerView.getScrollState() != RecyclerView.SCROLL_STATE_IDLE) {
+                if (mFrameCount == mFrameNanos.length) {
+                    mFrameNanos = Arrays.copyOf(mFrameNanos, mFrameCount * 2);
+                }
+                mFrameNanos[mFrameCount++] = frameTimeNanos - mLastFrameTimeNanos;
+            }
+            mLastFrameTimeNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        long[] getFrameNanos() {
+            return Arrays.copyOf(mFrameNanos, mFrameCount);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.os.Bundle;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_COUNT;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_STOCK_VALUE;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_TOTAL_QUANTITY;
+import static com.example.android.inventoryapp.data.BookContract.MovementEntry;
+
+/**
+ * Checks that a {@link BookStore} behaves the way {@link BookProvider} relies on,
+ * and reports the store's throughput in logcat. Each backend runs it through a subclass.
+ */
+public abstract class BookStoreContractTest extends InstrumentationTestCase {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = BookStoreContractTest.class.getSimpleName();
+
+    /** Number of books written and read by the throughput test **/
+    private static final int PERFORMANCE_BOOK_COUNT = 1000;
+
+    /** Columns read back by the checks **/
+    private static final String[] PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+            BookEntry.COLUMN_BOOK_ISBN };
+
+    protected BookStore mStore;
+
+    /**
+     * Returns a new, empty store.
+     */
+    protected abstract BookStore createStore();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStore = createStore();
+    }
+
+    public void testInsertAndQuery() {
+        long id = mStore.insertBook(newBook("Dune", 9.5, 3, "9780441013593"));
+        assertTrue(id != -1);
+
+        Cursor cursor = mStore.queryBooks(PROJECTION, BookEntry._ID + "=?",
+                new String[] { String.valueOf(id) }, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Dune", cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME)));
+            assertEquals(9.5, cursor.getDouble(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE)), 0);
+            assertEquals(3, cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY)));
+            assertEquals(2100601414L, cursor.getLong(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE)));
+            assertEquals(id, mStore.findBookIdByIsbn("9780441013593"));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testIsbnIsUnique() {
+        assertTrue(mStore.insertBook(newBook("Dune", 9.5, 3, "9780441013593")) != -1);
+        assertEquals(-1, mStore.insertBook(newBook("Dune again", 9.5, 3, "9780441013593")));
+
+        long id = mStore.insertBook(newBook("Emma", 4, 1, "9780141439587"));
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_ISBN, "9780441013593");
+        try {
+            mStore.updateBooks(values, BookEntry._ID + "=?", new String[] { String.valueOf(id) });
+            fail("The ISBN of another book was accepted");
+        } catch (SQLiteConstraintException expected) {
+            // The update must fail like the database's unique index
+        }
+    }
+
+    public void testUpdateAndAdjustQuantity() {
+        long id = mStore.insertBook(newBook("Dune", 9.5, 3, null));
+        String[] args = { String.valueOf(id) };
+
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_PRICE, 12.0);
+        assertEquals(1, mStore.updateBooks(values, BookEntry._ID + "=?", args));
+
+        // A sale larger than the stock changes nothing
+        assertEquals(0, mStore.adjustQuantity(-4, MovementEntry.REASON_SALE, BookEntry._ID + "=?", args));
+        assertEquals(1, mStore.adjustQuantity(-2, MovementEntry.REASON_SALE, BookEntry._ID + "=?", args));
+
+        Bundle totals = mStore.getTotals();
+        assertEquals(1, totals.getInt(EXTRA_COUNT));
+        assertEquals(1, totals.getLong(EXTRA_TOTAL_QUANTITY));
+        assertEquals(12.0, totals.getDouble(EXTRA_STOCK_VALUE), 0.001);
+    }
+
+    public void testIdListSelection() {
+        long dune = mStore.insertBook(newBook("Dune", 9.5, 3, null));
+        long emma = mStore.insertBook(newBook("Emma", 4, 0, null));
+        long ulysses = mStore.insertBook(newBook("Ulysses", 12, 5, null));
+        String selection = BookEntry.buildIdSelection(new long[] { ulysses, emma, dune, emma });
+
+        // Books without stock are left out of a sale and each book changes once
+        assertEquals(2, mStore.adjustQuantity(-1, MovementEntry.REASON_SALE, selection, null));
+        assertEquals(2, mStore.adjustQuantity(-1, MovementEntry.REASON_SALE,
+                selection + " AND " + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + "=?", new String[] { "Supplier" }));
+        assertEquals(3, mStore.adjustQuantity(10, MovementEntry.REASON_RESTOCK, selection, null));
+        assertEquals(11 + 10 + 13, mStore.getTotals().getLong(EXTRA_TOTAL_QUANTITY));
+
+        assertEquals(2, mStore.deleteBooks(BookEntry.buildIdSelection(new long[] { dune, emma }), null, 1000).length);
+        assertEquals(1, countBooks());
+    }
+
+    public void testReprice() {
+        mStore.insertBook(newBook("Dune", 9.5, 3, null));
+        long emma = mStore.insertBook(newBook("Emma", 4, 1, null));
+        mStore.insertBook(newBook("Ulysses", 12, 5, null));
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Other");
+        mStore.updateBooks(values, BookEntry._ID + "=?", new String[] { String.valueOf(emma) });
+
+        // A 10% raise of one supplier's books, then a cut that would make Emma's price negative
+        assertEquals(2, mStore.repriceBooks(1.1, 0, BookEntry.COLUMN_BOOK_SUPPLIER_NAME + "=?",
+                new String[] { "Supplier" }));
+        assertEquals(2, mStore.repriceBooks(1, -5, null, null));
+        assertEquals(0, mStore.repriceBooks(1, 0, null, null));
+        assertEquals(5.45 * 3 + 4 + 8.2 * 5, mStore.getTotals().getDouble(EXTRA_STOCK_VALUE), 0.001);
+    }
+
+    public void testDeleteRestoreAndPurge() {
+        long id = mStore.insertBook(newBook("Dune", 9.5, 3, "9780441013593"));
+        mStore.insertBook(newBook("Emma", 4, 1, null));
+        String[] args = { String.valueOf(id) };
+
+        long[] deletedIds = mStore.deleteBooks(BookEntry._ID + "=?", args, 1000);
+        assertEquals(1, deletedIds.length);
+        assertEquals(id, deletedIds[0]);
+        assertEquals(1, countBooks());
+        assertEquals(id, mStore.findBookIdByIsbn("9780441013593"));
+
+        // Deleting again finds nothing, since deleted books are left out of selections
+        assertEquals(0, mStore.deleteBooks(BookEntry._ID + "=?", args, 1000).length);
+        assertEquals(1, mStore.restoreBook(id));
+        assertEquals(0, mStore.restoreBook(id));
+        assertEquals(2, countBooks());
+
+        assertEquals(1, mStore.deleteBooks(BookEntry._ID + "=?", args, 1000).length);
+        assertEquals(0, mStore.purgeDeletedBooks(1000, 10));
+        assertEquals(1, mStore.purgeDeletedBooks(1001, 10));
+        assertEquals(0, mStore.restoreBook(id));
+        assertEquals(-1, mStore.findBookIdByIsbn("9780441013593"));
+        assertEquals(1, countBooks());
+    }
+
+    public void testPurgeByIdKeepsBooksNotDeleted() {
+        long dune = mStore.insertBook(newBook("Dune", 9.5, 3, null));
+        long emma = mStore.insertBook(newBook("Emma", 4, 1, null));
+        long ulysses = mStore.insertBook(newBook("Ulysses", 12, 5, null));
+        mStore.deleteBooks(BookEntry.buildIdSelection(new long[] { dune, ulysses }), null, 1000);
+
+        // Emma isn't deleted, so only the two deleted books go, without waiting for the grace period
+        assertEquals(2, mStore.purgeBooks(new long[] { ulysses, emma, dune }));
+        assertEquals(0, mStore.purgeBooks(new long[] { dune }));
+        assertEquals(0, mStore.restoreBook(dune));
+        assertEquals(1, countBooks());
+    }
+
+    public void testBulkInsertIsAllOrNone() {
+        ContentValues[] values = {
+                newBook("Dune", 9.5, 3, "9780441013593"),
+                newBook("Dune again", 9.5, 3, "9780441013593") };
+        assertFalse(mStore.insertBooks(values));
+        assertEquals(0, countBooks());
+
+        values[1] = newBook("Emma", 4, 1, "9780141439587");
+        assertTrue(mStore.insertBooks(values));
+        assertEquals(2, countBooks());
+    }
+
+    public void testDataVersionIncreasesWithEachChange() {
+        long version = mStore.getDataVersion();
+        long id = mStore.insertBook(newBook("Dune", 9.5, 3, null));
+        String selection = BookEntry._ID + "=" + id;
+        assertTrue(mStore.getDataVersion() > version);
+
+        version = mStore.getDataVersion();
+        mStore.adjustQuantity(-1, MovementEntry.REASON_SALE, selection, null);
+        assertTrue(mStore.getDataVersion() > version);
+
+        version = mStore.getDataVersion();
+        mStore.deleteBooks(selection, null, 1000);
+        assertTrue(mStore.getDataVersion() > version);
+
+        // A query isn't a change
+        version = mStore.getDataVersion();
+        countBooks();
+        assertEquals(version, mStore.getDataVersion());
+    }
+
+    /**
+     * Inserts books one at a time, sells each once, then reads the whole catalog,
+     * and logs the rate of each with the store's name.
+     */
+    public void testThroughput() {
+        long start = System.nanoTime();
+        for (int i = 0; i < PERFORMANCE_BOOK_COUNT; i++) {
+            assertTrue(mStore.insertBook(newBook("Book " + i, 9.99, 10, null)) != -1);
+        }
+        long insertNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int id = 1; id <= PERFORMANCE_BOOK_COUNT; id++) {
+            mStore.adjustQuantity(-1, MovementEntry.REASON_SALE, BookEntry._ID + "=?",
+                    new String[] { String.valueOf(id) });
+        }
+        long saleNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Cursor cursor = mStore.queryBooks(PROJECTION, null, null, BookEntry.COLUMN_BOOK_NAME + " ASC");
+        try {
+            assertEquals(PERFORMANCE_BOOK_COUNT, cursor.getCount());
+            while (cursor.moveToNext()) {
+                cursor.getDouble(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE));
+            }
+        } finally {
+            cursor.close();
+        }
+        long queryNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, mStore.getClass().getSimpleName() + ": " +
+                PERFORMANCE_BOOK_COUNT * 1000000000L / insertNanos + " inserts/s, " +
+                PERFORMANCE_BOOK_COUNT * 1000000000L / saleNanos + " sales/s, " +
+                PERFORMANCE_BOOK_COUNT * 1000000000L / queryNanos + " rows read/s");
+    }
+
+    private int countBooks() {
+        Cursor cursor = mStore.queryBooks(PROJECTION, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the values of a checked book, the way the provider passes them to the store.
+     */
+    protected static ContentValues newBook(String name, double price, int quantity, String isbn) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_NAME, name);
+        values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+        values.put(BookEntry.COLUMN_BOOK_PRICE, price);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier");
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, 2100601414L);
+        if (isbn != null) {
+            values.put(BookEntry.COLUMN_BOOK_ISBN, isbn);
+        }
+        return values;
+    }
+}
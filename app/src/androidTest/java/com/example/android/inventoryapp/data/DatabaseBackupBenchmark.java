@@ -0,0 +1,142 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Bundle;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_BACKUP_TIME;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_PAGE_COUNT;
+import static com.example.android.inventoryapp.data.BookContract.MovementEntry;
+
+/**
+ * Times single sales, like the checkout does, first alone and then while {@link DatabaseBackup}
+ * runs back to back on another thread, and reports in logcat the median and worst latencies of each.
+ * The backup copies the file a few pages at a time and pauses between steps, so the median sale
+ * during the backups should stay within a few times the median sale alone on the same device.
+ * Runs on its own database file and backup directory, so the app's books aren't touched.
+ */
+public class DatabaseBackupBenchmark extends InstrumentationTestCase {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = DatabaseBackupBenchmark.class.getSimpleName();
+
+    /** File name of the benchmark database and name of its backup directory **/
+    private static final String DATABASE_NAME = "DatabaseBackupBenchmark.db";
+    private static final String BACKUP_DIR_NAME = "DatabaseBackupBenchmark";
+
+    /** Books in the database, enough for a backup to take many steps **/
+    private static final int BOOK_COUNT = 5000;
+
+    /** Sales timed with and without a backup running **/
+    private static final int SALE_COUNT = 300;
+
+    private Context mContext;
+    private File mBackupDir;
+    private BookDbHelper mDbHelper;
+    private SqliteBookStore mStore;
+    private DatabaseBackup mBackup;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mBackupDir = new File(mContext.getCacheDir(), BACKUP_DIR_NAME);
+        deleteBackups();
+        mDbHelper = new BookDbHelper(mContext, DATABASE_NAME, false);
+        WriteCoordinator writer = new WriteCoordinator(mDbHelper);
+        mStore = new SqliteBookStore(mDbHelper, writer);
+        mBackup = new DatabaseBackup(mDbHelper, writer, mBackupDir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        deleteBackups();
+        super.tearDown();
+    }
+
+    public void testSaleLatencyDuringBackup() throws InterruptedException {
+        ContentValues[] books = new ContentValues[BOOK_COUNT];
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_BOOK_NAME, "Book " + i);
+            values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+            values.put(BookEntry.COLUMN_BOOK_PRICE, 9.99);
+            values.put(BookEntry.COLUMN_BOOK_QUANTITY, 10);
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier");
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, 2100601414L);
+            books[i] = values;
+        }
+        assertTrue(mStore.insertBooks(books));
+
+        long[] alone = timeSales();
+
+        final int[] backups = new int[1];
+        final long[] pages = new long[1];
+        final boolean[] done = new boolean[1];
+        Thread backupThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!isDone()) {
+                    Bundle result = mBackup.backup();
+                    if (result.getLong(EXTRA_BACKUP_TIME) != 0) {
+                        backups[0]++;
+                        pages[0] = result.getLong(EXTRA_PAGE_COUNT);
+                    }
+                }
+            }
+
+            private boolean isDone() {
+                synchronized (done) {
+                    return done[0];
+                }
+            }
+        });
+        backupThread.start();
+        long[] duringBackup = timeSales();
+        synchronized (done) {
+            done[0] = true;
+        }
+        backupThread.join();
+
+        assertTrue(backups[0] > 0);
+        Log.i(LOG_TAG, "Sales alone: median " + alone[SALE_COUNT / 2] / 1000 + " us, max " +
+                alone[SALE_COUNT - 1] / 1000 + " us");
+        Log.i(LOG_TAG, "Sales during " + backups[0] + " backups of " + pages[0] + " pages: median " +
+                duringBackup[SALE_COUNT / 2] / 1000 + " us, max " + duringBackup[SALE_COUNT - 1] / 1000 + " us");
+    }
+
+    /**
+     * Sells one copy of SALE_COUNT books in turn. Returns the latency of each in nanoseconds, sorted.
+     */
+    private long[] timeSales() {
+        long[] latencies = new long[SALE_COUNT];
+        for (int i = 0; i < SALE_COUNT; i++) {
+            String[] selectionArgs = { String.valueOf(i % BOOK_COUNT + 1) };
+            long start = System.nanoTime();
+            assertEquals(1, mStore.adjustQuantity(-1, MovementEntry.REASON_SALE, BookEntry._ID + "=?",
+                    selectionArgs));
+            latencies[i] = System.nanoTime() - start;
+            mStore.adjustQuantity(1, MovementEntry.REASON_RESTOCK, BookEntry._ID + "=?", selectionArgs);
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private void deleteBackups() {
+        File[] files = mBackupDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.test.InstrumentationTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_BACKUP_TIME;
+
+/**
+ * Checks that {@link DatabaseBackup} restores what it copied, including commits still in the
+ * write-ahead log, and skips corrupted backups. The latency of sales during a backup is
+ * reported by DatabaseBackupBenchmark.
+ * Runs on its own database file and backup directory, so the app's books aren't touched.
+ */
+public class DatabaseBackupTest extends InstrumentationTestCase {
+
+    /** File name of the test database and name of its backup directory **/
+    private static final String DATABASE_NAME = "DatabaseBackupTest.db";
+    private static final String BACKUP_DIR_NAME = "DatabaseBackupTest";
+
+    /** Columns read back by the checks **/
+    private static final String[] PROJECTION = { BookEntry._ID, BookEntry.COLUMN_BOOK_NAME };
+
+    private Context mContext;
+    private File mBackupDir;
+    private BookDbHelper mDbHelper;
+    private SqliteBookStore mStore;
+    private DatabaseBackup mBackup;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mBackupDir = new File(mContext.getCacheDir(), BACKUP_DIR_NAME);
+        deleteBackups();
+        mDbHelper = new BookDbHelper(mContext, DATABASE_NAME, false);
+        WriteCoordinator writer = new WriteCoordinator(mDbHelper);
+        mStore = new SqliteBookStore(mDbHelper, writer);
+        mBackup = new DatabaseBackup(mDbHelper, writer, mBackupDir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        deleteBackups();
+        super.tearDown();
+    }
+
+    public void testRestoreReturnsTheBackedUpBooks() {
+        mStore.insertBook(newBook("Dune"));
+        mStore.insertBook(newBook("Emma"));
+        long backupTime = mBackup.backup().getLong(EXTRA_BACKUP_TIME);
+        assertTrue(backupTime != 0);
+
+        mStore.deleteBooks(BookEntry.COLUMN_BOOK_NAME + "=?", new String[] { "Dune" }, 1000);
+        mStore.insertBook(newBook("Ulysses"));
+
+        assertEquals(backupTime, mBackup.restore(0).getLong(EXTRA_BACKUP_TIME));
+        assertEquals("[Dune, Emma]", Arrays.toString(readNames()));
+
+        // The triggers and AUTOINCREMENT counter are restored with the tables
+        assertEquals(3, mStore.insertBook(newBook("Ulysses")));
+    }
+
+    public void testCorruptedBackupIsSkipped() throws IOException, InterruptedException {
+        mStore.insertBook(newBook("Dune"));
+        long olderTime = mBackup.backup().getLong(EXTRA_BACKUP_TIME);
+        Thread.sleep(2);
+        mStore.insertBook(newBook("Emma"));
+        assertTrue(mBackup.backup().getLong(EXTRA_BACKUP_TIME) != 0);
+
+        // Flips one byte in the middle of the newest backup
+        RandomAccessFile file = new RandomAccessFile(mBackup.listBackups().get(0), "rw");
+        try {
+            file.seek(file.length() / 2);
+            int value = file.read();
+            file.seek(file.length() / 2);
+            file.write(value ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        assertEquals(olderTime, mBackup.restore(0).getLong(EXTRA_BACKUP_TIME));
+        assertEquals("[Dune]", Arrays.toString(readNames()));
+    }
+
+    /**
+     * A commit still in the write-ahead log, not yet checkpointed into the database file, is in the backup.
+     */
+    public void testBackupIncludesCommitsStillInTheWal() {
+        mStore.insertBook(newBook("Dune"));
+        File walFile = new File(mDbHelper.getWritableDatabase().getPath() + "-wal");
+        assertTrue("Commit not in the WAL", walFile.length() > 0);
+        assertTrue(mBackup.backup().getLong(EXTRA_BACKUP_TIME) != 0);
+
+        mStore.deleteBooks(BookEntry.COLUMN_BOOK_NAME + "=?", new String[] { "Dune" }, 1000);
+        assertTrue(mBackup.restore(0).getLong(EXTRA_BACKUP_TIME) != 0);
+        assertEquals("[Dune]", Arrays.toString(readNames()));
+    }
+
+    private String[] readNames() {
+        Cursor cursor = mStore.queryBooks(PROJECTION, null, null, BookEntry._ID + " ASC");
+        try {
+            String[] names = new String[cursor.getCount()];
+            while (cursor.moveToNext()) {
+                names[cursor.getPosition()] = cursor.getString(1);
+            }
+            return names;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteBackups() {
+        File[] files = mBackupDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static ContentValues newBook(String name) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_NAME, name);
+        values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+        values.put(BookEntry.COLUMN_BOOK_PRICE, 9.99);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, 10);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier");
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, 2100601414L);
+        return values;
+    }
+}
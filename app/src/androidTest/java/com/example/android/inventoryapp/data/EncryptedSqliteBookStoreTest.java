@@ -0,0 +1,51 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.DatabaseUtils;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_STOCK_VALUE;
+import static com.example.android.inventoryapp.data.BookContract.PriceHistoryEntry;
+
+/**
+ * Runs the {@link SqliteBookStore} checks on a database that encrypts its sensitive columns,
+ * so the repricing, totals and price history that decrypt them in Java are covered too.
+ */
+public class EncryptedSqliteBookStoreTest extends SqliteBookStoreTest {
+
+    /** File name of the test database **/
+    private static final String DATABASE_NAME = "EncryptedBookStoreContractTest.db";
+
+    @Override
+    protected String getDatabaseName() {
+        return DATABASE_NAME;
+    }
+
+    @Override
+    protected boolean isEncrypted() {
+        return true;
+    }
+
+    public void testRepriceRoundTripsThroughTheCipher() {
+        long id = mStore.insertBook(newBook("Dune", 10, 3, null));
+        String[] args = { String.valueOf(id) };
+        assertEquals(1, mStore.repriceBooks(1.05, 0, BookEntry._ID + "=?", args));
+        assertEquals(10.5 * 3, mStore.getTotals().getDouble(EXTRA_STOCK_VALUE), 0.001);
+
+        // The price and its history are stored encrypted, not as numbers SQL could compare
+        assertEquals("blob", DatabaseUtils.stringForQuery(mDbHelper.getReadableDatabase(),
+                "SELECT typeof(" + BookEntry.COLUMN_BOOK_PRICE + ") FROM " + BookEntry.TABLE_NAME, null));
+        assertEquals("blob", DatabaseUtils.stringForQuery(mDbHelper.getReadableDatabase(),
+                "SELECT typeof(" + PriceHistoryEntry.COLUMN_PRICE_NEW + ") FROM " + PriceHistoryEntry.TABLE_NAME, null));
+    }
+
+    public void testSqlOnEncryptedColumnsIsRejected() {
+        ColumnCipher cipher = mDbHelper.getCipher();
+        cipher.checkNotReferenced(BookEntry.COLUMN_BOOK_SUPPLIER_NAME + "=?");
+        try {
+            cipher.checkNotReferenced(BookEntry.COLUMN_BOOK_PRICE + " DESC");
+            fail("A sort order on the encrypted price was accepted");
+        } catch (IllegalArgumentException expected) {
+            // SQLite would sort the encrypted bytes
+        }
+    }
+}
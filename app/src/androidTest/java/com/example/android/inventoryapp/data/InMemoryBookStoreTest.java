@@ -0,0 +1,12 @@
+package com.example.android.inventoryapp.data;
+
+/**
+ * Runs the {@link BookStore} checks on {@link InMemoryBookStore}.
+ */
+public class InMemoryBookStoreTest extends BookStoreContractTest {
+
+    @Override
+    protected BookStore createStore() {
+        return new InMemoryBookStore();
+    }
+}
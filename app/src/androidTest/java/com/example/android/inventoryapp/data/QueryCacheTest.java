@@ -0,0 +1,207 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.MovementEntry;
+
+/**
+ * Checks that {@link QueryCache} returns the same values as the query it kept, drops them after a write
+ * and stays within its budget, that {@link CacheRegistry} trims it in tiers, and reports in logcat the time of a catalog query with and without it.
+ * Runs on its own database file, so the app's books aren't touched.
+ */
+public class QueryCacheTest extends InstrumentationTestCase {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = QueryCacheTest.class.getSimpleName();
+
+    /** File name of the test database **/
+    private static final String DATABASE_NAME = "QueryCacheTest.db";
+
+    /** Books in the catalog that is queried **/
+    private static final int BOOK_COUNT = 1000;
+
+    /** Times the catalog is queried with and without the cache **/
+    private static final int QUERY_ROUNDS = 20;
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private WriteCoordinator mWriter;
+    private SqliteBookStore mStore;
+    private QueryCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, DATABASE_NAME, false);
+        mWriter = new WriteCoordinator(mDbHelper);
+        mStore = new SqliteBookStore(mDbHelper, mWriter);
+        mCache = new QueryCache(1024 * 1024);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testKeyIsNormalized() {
+        String[] projection = { BookEntry._ID };
+        assertEquals(QueryCache.buildKey(projection, " name  = ? ", new String[] { "Dune" }, null),
+                QueryCache.buildKey(projection, "name = ?", new String[] { "Dune" }, ""));
+        // Whitespace in literals and the boundaries of the arguments are kept
+        assertFalse(QueryCache.buildKey(projection, "name = 'a  b'", null, null)
+                .equals(QueryCache.buildKey(projection, "name = 'a b'", null, null)));
+        assertFalse(QueryCache.buildKey(projection, null, new String[] { "a", "b" }, null)
+                .equals(QueryCache.buildKey(projection, null, new String[] { "ab" }, null)));
+    }
+
+    public void testHitUntilWrite() {
+        insertBooks(3);
+        String key = QueryCache.buildKey(BookEntry.LIST_PROJECTION, null, null, BookEntry.LIST_SORT_ORDER);
+        long version = mWriter.getWriteVersion();
+        assertNull(mCache.get(key, version));
+        assertEquals(3, countAndClose(mCache.put(key, version, queryCatalog())));
+
+        Cursor cached = mCache.get(key, version);
+        Cursor queried = queryCatalog();
+        try {
+            assertEquals(queried.getCount(), cached.getCount());
+            while (queried.moveToNext()) {
+                assertTrue(cached.moveToNext());
+                for (int column = 0; column < queried.getColumnCount(); column++) {
+                    assertEquals(queried.getType(column), cached.getType(column));
+                    assertEquals(queried.getString(column), cached.getString(column));
+                }
+            }
+        } finally {
+            cached.close();
+            queried.close();
+        }
+
+        // A sale is a write, so the kept result is out of date
+        mStore.adjustQuantity(-1, MovementEntry.REASON_SALE, null, null);
+        assertTrue(mWriter.getWriteVersion() > version);
+        assertNull(mCache.get(key, mWriter.getWriteVersion()));
+        assertEquals(0, mCache.getSize());
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        QueryCache cache = new QueryCache(64 * 1024);
+        for (int i = 0; i < 100; i++) {
+            MatrixCursor cursor = new MatrixCursor(new String[] { BookEntry._ID, BookEntry.COLUMN_BOOK_NAME });
+            for (int row = 0; row < 20; row++) {
+                cursor.addRow(new Object[] { (long) row, "Book " + row });
+            }
+            countAndClose(cache.put("query " + i, 0, cursor));
+            assertTrue(cache.getSize() <= 64 * 1024);
+        }
+        Cursor last = cache.get("query 99", 0);
+        assertNotNull(last);
+        last.close();
+        assertNull(cache.get("query 0", 0));
+    }
+
+    public void testTrimmedByRegistry() {
+        for (int i = 0; i < 8; i++) {
+            MatrixCursor cursor = new MatrixCursor(new String[] { BookEntry._ID, BookEntry.COLUMN_BOOK_NAME });
+            for (int row = 0; row < 100; row++) {
+                cursor.addRow(new Object[] { (long) row, "Book " + row });
+            }
+            countAndClose(mCache.put("query " + i, 0, cursor));
+        }
+        int size = mCache.getSize();
+        CacheRegistry.register("Test query results", mCache);
+        try {
+            // Hiding the app keeps half, low memory while running a quarter, and the end of the kill list nothing
+            CacheRegistry.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+            assertTrue(mCache.getSize() <= size / 2);
+            assertTrue(mCache.getSize() > 0);
+            CacheRegistry.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+            assertTrue(mCache.getSize() <= size / 8);
+            CacheRegistry.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            assertEquals(0, mCache.getSize());
+        } finally {
+            CacheRegistry.unregister(mCache);
+        }
+    }
+
+    /**
+     * Reads the whole catalog QUERY_ROUNDS times from SQLite, then from the cache, and logs both times.
+     */
+    public void testCatalogQueryTime() {
+        insertBooks(BOOK_COUNT);
+        String key = QueryCache.buildKey(BookEntry.LIST_PROJECTION, null, null, BookEntry.LIST_SORT_ORDER);
+        long version = mWriter.getWriteVersion();
+        countAndClose(mCache.put(key, version, queryCatalog()));
+
+        long start = System.nanoTime();
+        for (int round = 0; round < QUERY_ROUNDS; round++) {
+            assertEquals(BOOK_COUNT, readAndClose(queryCatalog()));
+        }
+        long queryNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < QUERY_ROUNDS; round++) {
+            assertEquals(BOOK_COUNT, readAndClose(mCache.get(key, version)));
+        }
+        long cacheNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, BOOK_COUNT + " books: " + queryNanos / QUERY_ROUNDS / 1000 + " us from SQLite, " +
+                cacheNanos / QUERY_ROUNDS / 1000 + " us from the cache, " + mCache.getSize() / 1024 + " KiB kept");
+    }
+
+    private Cursor queryCatalog() {
+        return mStore.queryBooks(BookEntry.LIST_PROJECTION, null, null, BookEntry.LIST_SORT_ORDER);
+    }
+
+    private void insertBooks(int count) {
+        ContentValues[] books = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_BOOK_NAME, "Book " + i);
+            values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author " + i % 97);
+            values.put(BookEntry.COLUMN_BOOK_PRICE, 9.99 + i % 40);
+            values.put(BookEntry.COLUMN_BOOK_QUANTITY, 1 + i % 25);
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier");
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, 2100601414L);
+            books[i] = values;
+        }
+        assertTrue(mStore.insertBooks(books));
+    }
+
+    private static int countAndClose(Cursor cursor) {
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads every column of every row, the way the catalog binds them, and returns the row count.
+     */
+    private static int readAndClose(Cursor cursor) {
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < cursor.getColumnCount(); column++) {
+                    cursor.getString(column);
+                }
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+}
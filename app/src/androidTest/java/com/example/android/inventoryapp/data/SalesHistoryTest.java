@@ -0,0 +1,153 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.MovementEntry;
+import static com.example.android.inventoryapp.data.BookContract.SalesEntry;
+
+/**
+ * Checks that the sale trigger fills the hourly and daily buckets, that {@link SalesHistory}
+ * reads the velocity over whole days without the deleted books, and that pruning only removes
+ * old hourly buckets. Runs on its own unencrypted database file.
+ */
+public class SalesHistoryTest extends InstrumentationTestCase {
+
+    /** File name of the test database **/
+    private static final String DATABASE_NAME = "SalesHistoryTest.db";
+
+    /** Start of a day long past, so the buckets don't depend on when the test runs **/
+    private static final long DAY = 17000 * SalesEntry.DAY_MILLIS;
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, DATABASE_NAME, false);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    public void testSalesAreAddedToHourlyAndDailyBuckets() {
+        long bookId = insertBook();
+        long hour = DAY + SalesEntry.HOUR_MILLIS;
+        insertMovement(bookId, -2, MovementEntry.REASON_SALE, hour + 10 * 60 * 1000);
+        insertMovement(bookId, -3, MovementEntry.REASON_SALE, hour + 30 * 60 * 1000);
+        insertMovement(bookId, -1, MovementEntry.REASON_SALE, hour + SalesEntry.HOUR_MILLIS);
+        // Neither a restock nor an adjustment is a sale
+        insertMovement(bookId, 5, MovementEntry.REASON_RESTOCK, hour);
+        insertMovement(bookId, -4, MovementEntry.REASON_ADJUSTMENT, hour);
+
+        Cursor cursor = queryBuckets(SalesEntry.HOURLY_TABLE_NAME);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(hour, cursor.getLong(0));
+            assertEquals(5, cursor.getInt(1));
+            assertTrue(cursor.moveToNext());
+            assertEquals(hour + SalesEntry.HOUR_MILLIS, cursor.getLong(0));
+            assertEquals(1, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+
+        cursor = queryBuckets(SalesEntry.DAILY_TABLE_NAME);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(DAY, cursor.getLong(0));
+            assertEquals(6, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testVelocityReadsWholeDaysWithoutDeletedBooks() {
+        long bookId = insertBook();
+        long deletedBookId = insertBook();
+        // The period below covers the 7 days after DAY
+        insertMovement(bookId, -9, MovementEntry.REASON_SALE, DAY + SalesEntry.HOUR_MILLIS);
+        insertMovement(bookId, -3, MovementEntry.REASON_SALE, DAY + SalesEntry.DAY_MILLIS);
+        insertMovement(bookId, -4, MovementEntry.REASON_SALE, DAY + 7 * SalesEntry.DAY_MILLIS + SalesEntry.HOUR_MILLIS);
+        insertMovement(deletedBookId, -2, MovementEntry.REASON_SALE, DAY + 3 * SalesEntry.DAY_MILLIS);
+        ContentValues deleted = new ContentValues();
+        deleted.put(BookEntry.COLUMN_BOOK_DELETED_AT, DAY);
+        mDatabase.update(BookEntry.TABLE_NAME, deleted, BookEntry._ID + "=?",
+                new String[] { String.valueOf(deletedBookId) });
+
+        // Both ends are within a day, and are rounded up to the next one
+        Uri uri = SalesEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(SalesEntry.PARAM_SINCE, String.valueOf(DAY + 5 * SalesEntry.HOUR_MILLIS))
+                .appendQueryParameter(SalesEntry.PARAM_UNTIL,
+                        String.valueOf(DAY + 7 * SalesEntry.DAY_MILLIS + 5 * SalesEntry.HOUR_MILLIS))
+                .build();
+        Cursor cursor = SalesHistory.queryVelocity(mDatabase, uri, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(bookId, cursor.getLong(cursor.getColumnIndex(SalesEntry.COLUMN_SALES_BOOK_ID)));
+            assertEquals(7, cursor.getInt(cursor.getColumnIndex(SalesEntry.COLUMN_SALES_UNITS)));
+            assertEquals(1.0, cursor.getDouble(cursor.getColumnIndex(SalesEntry.COLUMN_SALES_UNITS_PER_DAY)), 1e-9);
+            assertEquals(7.0, cursor.getDouble(cursor.getColumnIndex(SalesEntry.COLUMN_SALES_UNITS_PER_WEEK)), 1e-9);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testPruneRemovesOnlyOldHourlyBuckets() {
+        long bookId = insertBook();
+        long now = System.currentTimeMillis();
+        insertMovement(bookId, -1, MovementEntry.REASON_SALE, now - SalesEntry.HOURLY_RETENTION_MILLIS - SalesEntry.DAY_MILLIS);
+        insertMovement(bookId, -1, MovementEntry.REASON_SALE, now - SalesEntry.HOUR_MILLIS);
+
+        assertEquals(1, SalesHistory.pruneHourly(mDatabase, 10));
+        assertEquals(0, SalesHistory.pruneHourly(mDatabase, 10));
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDatabase, SalesEntry.HOURLY_TABLE_NAME));
+        // The daily buckets are kept for the velocity
+        assertEquals(2, DatabaseUtils.queryNumEntries(mDatabase, SalesEntry.DAILY_TABLE_NAME));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private long insertBook() {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_NAME, "Dune");
+        values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+        values.put(BookEntry.COLUMN_BOOK_PRICE, 9.5);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, 100);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier");
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, 2100601414L);
+        long id = mDatabase.insert(BookEntry.TABLE_NAME, null, values);
+        assertTrue(id != -1);
+        return id;
+    }
+
+    private void insertMovement(long bookId, int delta, int reason, long createdAt) {
+        ContentValues values = new ContentValues();
+        values.put(MovementEntry.COLUMN_MOVEMENT_BOOK_ID, bookId);
+        values.put(MovementEntry.COLUMN_MOVEMENT_DELTA, delta);
+        values.put(MovementEntry.COLUMN_MOVEMENT_REASON, reason);
+        values.put(MovementEntry.COLUMN_MOVEMENT_CREATED_AT, createdAt);
+        assertTrue(mDatabase.insert(MovementEntry.TABLE_NAME, null, values) != -1);
+    }
+
+    private Cursor queryBuckets(String table) {
+        return mDatabase.query(table, new String[] { SalesEntry.COLUMN_SALES_PERIOD, SalesEntry.COLUMN_SALES_UNITS },
+                null, null, null, null, SalesEntry.COLUMN_SALES_PERIOD);
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.os.Bundle;
+
+import java.util.concurrent.CountDownLatch;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_FAILURES;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_RETRIES;
+import static com.example.android.inventoryapp.data.BookContract.PriceHistoryEntry;
+
+/**
+ * Runs the {@link BookStore} checks on {@link SqliteBookStore}, with its own unencrypted database file,
+ * and checks the price history and the write lock, which only the SQLite store has.
+ * {@link EncryptedSqliteBookStoreTest} runs them again with the columns encrypted.
+ */
+public class SqliteBookStoreTest extends BookStoreContractTest {
+
+    /** File name of the test database **/
+    private static final String DATABASE_NAME = "BookStoreContractTest.db";
+
+    private Context mContext;
+    protected BookDbHelper mDbHelper;
+    private WriteCoordinator mWriter;
+
+    /**
+     * Returns the file name of the test database.
+     */
+    protected String getDatabaseName() {
+        return DATABASE_NAME;
+    }
+
+    /**
+     * Returns whether the test database encrypts its sensitive columns.
+     */
+    protected boolean isEncrypted() {
+        return false;
+    }
+
+    @Override
+    protected BookStore createStore() {
+        mContext = getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(getDatabaseName());
+        mDbHelper = new BookDbHelper(mContext, getDatabaseName(), isEncrypted());
+        mWriter = new WriteCoordinator(mDbHelper);
+        return new SqliteBookStore(mDbHelper, mWriter);
+    }
+
+    public void testPriceHistory() {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_NAME, "Dune");
+        values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+        values.put(BookEntry.COLUMN_BOOK_PRICE, 10.0);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, 3);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier");
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, 2100601414L);
+        long id = mStore.insertBook(values);
+        String[] args = { String.valueOf(id) };
+
+        assertEquals(1, mStore.repriceBooks(1.05, 0, BookEntry._ID + "=?", args));
+        assertEquals(1, mStore.repriceBooks(1, -0.5, BookEntry._ID + "=?", args));
+        Cursor cursor = mDbHelper.getCipher().decrypt(mDbHelper.getReadableDatabase().query(
+                PriceHistoryEntry.TABLE_NAME,
+                new String[] { PriceHistoryEntry.COLUMN_PRICE_OLD, PriceHistoryEntry.COLUMN_PRICE_NEW },
+                PriceHistoryEntry.COLUMN_PRICE_BOOK_ID + "=?", args, null, null, PriceHistoryEntry._ID));
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(10.0, cursor.getDouble(0), 0);
+            assertEquals(10.5, cursor.getDouble(1), 0);
+            assertTrue(cursor.moveToNext());
+            assertEquals(10.5, cursor.getDouble(0), 0);
+            assertEquals(10.0, cursor.getDouble(1), 0);
+        } finally {
+            cursor.close();
+        }
+
+        // The history goes with the book when it is purged
+        mStore.deleteBooks(BookEntry._ID + "=?", args, 1000);
+        assertEquals(1, mStore.purgeDeletedBooks(1001, 10));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), PriceHistoryEntry.TABLE_NAME));
+    }
+
+    public void testDataVersionRollsBackWithTheWrite() {
+        long version = mStore.getDataVersion();
+        try {
+            mStore.runAtomically(new BookStore.Operation<Void>() {
+                @Override
+                public Void run() {
+                    mStore.insertBook(newBook("Dune", 10, 3, null));
+                    throw new IllegalStateException("Rolled back");
+                }
+            });
+            fail("The operation didn't throw");
+        } catch (IllegalStateException expected) {
+            // The version is increased in the write's transaction, so it is rolled back with the book
+        }
+        assertEquals(version, mStore.getDataVersion());
+    }
+
+    /**
+     * Holds one write open while another is tried on a second thread of the same process,
+     * which must give up after its retries instead of waiting for the write connection.
+     */
+    public void testWaitForAnotherWriteIsBounded() throws InterruptedException {
+        final CountDownLatch holding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mStore.runAtomically(new BookStore.Operation<Void>() {
+                    @Override
+                    public Void run() {
+                        holding.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return null;
+                    }
+                });
+            }
+        });
+        holder.start();
+        holding.await();
+        try {
+            mStore.insertBook(newBook("Dune", 10, 3, null));
+            fail("The write waited until the other one ended");
+        } catch (SQLiteDatabaseLockedException expected) {
+            // Each attempt waited out the busy timeout
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+
+        Bundle stats = mWriter.getStats();
+        assertEquals(2, stats.getLong(EXTRA_RETRIES));
+        assertEquals(1, stats.getLong(EXTRA_FAILURES));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(getDatabaseName());
+        super.tearDown();
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+/**
+ * Compares the write, query and repricing throughput of the plain database with the encrypted one
+ * and reports the results in logcat. Each configuration runs on its own database file,
+ * so the app's books aren't touched.
+ */
+public class StorageBenchmark extends InstrumentationTestCase {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = StorageBenchmark.class.getSimpleName();
+
+    /** Number of books written to each database **/
+    private static final int BOOK_COUNT = 2000;
+
+    /** Number of times the whole catalog is read from each database **/
+    private static final int QUERY_ROUNDS = 20;
+
+    /** File name of the benchmark databases **/
+    private static final String DATABASE_NAME = "StorageBenchmark.db";
+
+    /** Columns read back, including both encrypted columns **/
+    private static final String[] PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE };
+
+    private Context mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testPlain() {
+        runBenchmark("plain", false);
+    }
+
+    public void testEncrypted() {
+        runBenchmark("encrypted", true);
+    }
+
+    /**
+     * Writes the books in one transaction, the way an import does, then reads every book's
+     * price and supplier phone, the way the detail screens do, and logs the rates.
+     */
+    private void runBenchmark(String configuration, boolean encrypted) {
+        BookDbHelper dbHelper = new BookDbHelper(mContext, DATABASE_NAME, encrypted);
+        try {
+            SQLiteDatabase database = dbHelper.getWritableDatabase();
+            ColumnCipher cipher = dbHelper.getCipher();
+            assertEquals(encrypted, cipher.isEncrypted());
+
+            long start = System.nanoTime();
+            database.beginTransaction();
+            try {
+                for (int i = 0; i < BOOK_COUNT; i++) {
+                    ContentValues values = new ContentValues();
+                    values.put(BookEntry.COLUMN_BOOK_NAME, "Book " + i);
+                    values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author " + i);
+                    values.put(BookEntry.COLUMN_BOOK_PRICE, 9.99 + i);
+                    values.put(BookEntry.COLUMN_BOOK_QUANTITY, 10);
+                    values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier " + i % 10);
+                    values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, 2100601414L + i);
+                    cipher.encryptValues(values);
+                    assertTrue(database.insert(BookEntry.TABLE_NAME, null, values) != -1);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            long writeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            double priceTotal = 0;
+            for (int round = 0; round < QUERY_ROUNDS; round++) {
+                Cursor cursor = cipher.decrypt(SqliteBookStore.queryBooks(database, PROJECTION,
+                        null, null, BookEntry.LIST_SORT_ORDER, null));
+                try {
+                    int priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE);
+                    int phoneColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE);
+                    assertEquals(BOOK_COUNT, cursor.getCount());
+                    while (cursor.moveToNext()) {
+                        priceTotal += cursor.getDouble(priceColumnIndex);
+                        assertTrue(cursor.getLong(phoneColumnIndex) >= 2100601414L);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            long queryNanos = System.nanoTime() - start;
+
+            // Raises every price by 5% in one transaction, set-based on the plain database
+            start = System.nanoTime();
+            assertEquals(BOOK_COUNT, new SqliteBookStore(dbHelper, new WriteCoordinator(dbHelper))
+                    .repriceBooks(1.05, 0, null, null));
+            long repriceNanos = System.nanoTime() - start;
+
+            // Checks the prices read back match the ones written
+            double expectedTotal = QUERY_ROUNDS * (9.99 * BOOK_COUNT + BOOK_COUNT * (BOOK_COUNT - 1) / 2.0);
+            assertEquals(expectedTotal, priceTotal, 0.01 * QUERY_ROUNDS * BOOK_COUNT);
+
+            Log.i(LOG_TAG, configuration + ": " + BOOK_COUNT * 1000000000L / writeNanos + " writes/s, " +
+                    QUERY_ROUNDS * BOOK_COUNT * 1000000000L / queryNanos + " rows read/s, " +
+                    BOOK_COUNT * 1000000000L / repriceNanos + " books repriced/s");
+        } finally {
+            dbHelper.close();
+        }
+    }
+}
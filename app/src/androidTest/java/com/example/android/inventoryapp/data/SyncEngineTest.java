@@ -0,0 +1,229 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.CONTENT_AUTHORITY;
+
+/**
+ * Syncs two devices through {@link SyncEngine}, each with its own {@link BookProvider} and database file,
+ * so the change-sets are read and applied by {@link SyncStore} on real databases.
+ * The server keeps the pushed changes in memory and orders them like the real one.
+ */
+public class SyncEngineTest extends InstrumentationTestCase {
+
+    /** Database file prefixes of the two devices **/
+    private static final String[] DEVICE_PREFIXES = { "sync_test_a.", "sync_test_b." };
+
+    private final List<Context> mDeviceContexts = new ArrayList<>();
+    private final List<BookProvider> mProviders = new ArrayList<>();
+    private ContentResolver mDeviceA;
+    private ContentResolver mDeviceB;
+    private InMemorySyncServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDeviceA = createDevice(DEVICE_PREFIXES[0]);
+        mDeviceB = createDevice(DEVICE_PREFIXES[1]);
+        mServer = new InMemorySyncServer();
+    }
+
+    /**
+     * The stock a book is created with and the sales on both devices reach the other device.
+     */
+    public void testStockAndConcurrentSalesReachBothDevices() throws Exception {
+        Uri bookUriA = insertBook(mDeviceA, "9780441013593", 5);
+        SyncEngine.sync(mDeviceA, mServer);
+        SyncEngine.sync(mDeviceB, mServer);
+        assertEquals(5, getQuantity(mDeviceB, "9780441013593"));
+
+        // Both devices sell before they sync again
+        sell(mDeviceA, bookUriA, 1);
+        sell(mDeviceB, getBookUri(mDeviceB, "9780441013593"), 2);
+        SyncEngine.sync(mDeviceA, mServer);
+        SyncEngine.sync(mDeviceB, mServer);
+        SyncEngine.sync(mDeviceA, mServer);
+
+        assertEquals(2, getQuantity(mDeviceA, "9780441013593"));
+        assertEquals(2, getQuantity(mDeviceB, "9780441013593"));
+    }
+
+    /**
+     * A book created on both devices with the same ISBN becomes one book with both stocks,
+     * instead of the second device dropping the first one's movements.
+     */
+    public void testSameIsbnOnBothDevicesIsMerged() throws Exception {
+        insertBook(mDeviceA, "9780802141828", 3);
+        SyncEngine.sync(mDeviceA, mServer);
+        insertBook(mDeviceB, "9780802141828", 2);
+        SyncEngine.sync(mDeviceB, mServer);
+        SyncEngine.sync(mDeviceA, mServer);
+
+        assertEquals(5, getQuantity(mDeviceA, "9780802141828"));
+        assertEquals(5, getQuantity(mDeviceB, "9780802141828"));
+        assertEquals(1, countBooks(mDeviceA));
+        assertEquals(1, countBooks(mDeviceB));
+    }
+
+    /**
+     * A book pushed before it was given the ISBN of another device's book is merged into that book,
+     * and the sales the other device records under the book's earlier sync ID still reach it.
+     */
+    public void testSaleUnderTheSyncIdBeforeAnIsbnMergeIsAdded() throws Exception {
+        Uri bookUriA = insertBook(mDeviceA, "9780062316097", 3);
+        SyncEngine.sync(mDeviceA, mServer);
+        SyncEngine.sync(mDeviceB, mServer);
+        insertBook(mDeviceB, "9780143127741", 2);
+        SyncEngine.sync(mDeviceB, mServer);
+
+        // The book device A already pushed takes device B's book's ISBN, so the pull merges them
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_ISBN, "9780143127741");
+        assertEquals(1, mDeviceA.update(bookUriA, values, null, null));
+        SyncEngine.sync(mDeviceA, mServer);
+        assertEquals(5, getQuantity(mDeviceA, "9780143127741"));
+
+        // Device B still knows the book by device A's first sync ID
+        sell(mDeviceB, getBookUri(mDeviceB, "9780062316097"), 1);
+        SyncEngine.sync(mDeviceB, mServer);
+        SyncEngine.sync(mDeviceA, mServer);
+        assertEquals(4, getQuantity(mDeviceA, "9780143127741"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (BookProvider provider : mProviders) {
+            provider.shutdown();
+        }
+        for (Context context : mDeviceContexts) {
+            context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Returns a resolver for a new provider whose database file name starts with the prefix.
+     */
+    private ContentResolver createDevice(String prefix) {
+        Context context = new RenamingDelegatingContext(getInstrumentation().getTargetContext(), prefix);
+        context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+        BookProvider provider = new BookProvider();
+        provider.attachInfo(context, null);
+        mDeviceContexts.add(context);
+        mProviders.add(provider);
+
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(CONTENT_AUTHORITY, provider);
+        return resolver;
+    }
+
+    private static Uri insertBook(ContentResolver resolver, String isbn, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_NAME, "Book " + isbn);
+        values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+        values.put(BookEntry.COLUMN_BOOK_PRICE, 9.99);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier");
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, 2100601414L);
+        values.put(BookEntry.COLUMN_BOOK_ISBN, isbn);
+        Uri uri = resolver.insert(BookEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return uri;
+    }
+
+    private static void sell(ContentResolver resolver, Uri bookUri, int copies) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.KEY_QUANTITY_DELTA, -copies);
+        assertEquals(1, resolver.update(bookUri, values, null, null));
+    }
+
+    private static Uri getBookUri(ContentResolver resolver, String isbn) {
+        Cursor cursor = resolver.query(BookEntry.CONTENT_URI, new String[] { BookEntry._ID },
+                BookEntry.COLUMN_BOOK_ISBN + "=?", new String[] { isbn }, null);
+        try {
+            assertTrue("No book with ISBN " + isbn, cursor.moveToFirst());
+            return ContentUris.withAppendedId(BookEntry.CONTENT_URI, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int getQuantity(ContentResolver resolver, String isbn) {
+        Cursor cursor = resolver.query(BookEntry.CONTENT_URI, new String[] { BookEntry.COLUMN_BOOK_QUANTITY },
+                BookEntry.COLUMN_BOOK_ISBN + "=?", new String[] { isbn }, null);
+        try {
+            assertTrue("No book with ISBN " + isbn, cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int countBooks(ContentResolver resolver) {
+        Cursor cursor = resolver.query(BookEntry.CONTENT_URI, new String[] { BookEntry._ID }, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Sync server kept in memory. It keeps one log of every device's changes in the order they
+     * were pushed, returns the entries after a request's cursor from the other devices, and
+     * accepts a push only once the device's pull is complete.
+     */
+    private static class InMemorySyncServer extends SyncClient {
+        private final List<String> mDeviceIds = new ArrayList<>();
+        private final List<Object> mChanges = new ArrayList<>();
+
+        InMemorySyncServer() {
+            super(null);
+        }
+
+        @Override
+        public synchronized byte[] exchange(byte[] requestBytes) throws IOException {
+            ChangeSet request = ChangeSet.decode(requestBytes);
+            ChangeSet response = new ChangeSet();
+            int position = (int) request.cursor;
+            while (position < mChanges.size() && response.size() < request.maxResults) {
+                Object change = mChanges.get(position);
+                if (!mDeviceIds.get(position++).equals(request.deviceId)) {
+                    if (change instanceof ChangeSet.BookChange) {
+                        response.books.add((ChangeSet.BookChange) change);
+                    } else {
+                        response.movements.add((ChangeSet.MovementChange) change);
+                    }
+                }
+            }
+
+            response.accepted = position == mChanges.size();
+            if (response.accepted) {
+                for (ChangeSet.BookChange book : request.books) {
+                    mDeviceIds.add(request.deviceId);
+                    mChanges.add(book);
+                }
+                for (ChangeSet.MovementChange movement : request.movements) {
+                    mDeviceIds.add(request.deviceId);
+                    mChanges.add(movement);
+                }
+                position = mChanges.size();
+            }
+            response.cursor = position;
+            return response.encode();
+        }
+    }
+}
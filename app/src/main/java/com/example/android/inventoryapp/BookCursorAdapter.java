@@ -1,8 +1,8 @@
 package com.example.android.inventoryapp;
 
 import android.app.AlertDialog;
+import android.content.AsyncQueryHandler;
 import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -10,6 +10,7 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.database.Cursor;
 import android.net.Uri;
+import android.support.v4.util.LongSparseArray;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -20,9 +21,9 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.CacheRegistry;
 import com.silencedut.expandablelayout.ExpandableLayout;
 
-import java.util.HashSet;
 import java.util.List;
 
 import static com.example.android.inventoryapp.data.BookContract.BookEntry;
@@ -31,10 +32,17 @@ import static com.example.android.inventoryapp.data.BookContract.BookEntry;
  * This adapter uses a {@link Cursor} to populate a RecyclerView with data.
  * It also handles functions for the Sale, Order, Edit, and Delete buttons
  * and the ExpandableLayout for each item.
+ * The cursor only holds the list columns. The supplier columns are loaded
+ * in the background for the rows that are expanded.
+ * Long clicking a row selects it for a batch action. Selected rows are tracked by book ID,
+ * so the selection survives reloads and scrolling.
+ * The formatted prices are kept by book ID and can be dropped under memory pressure
+ * through {@link #getPriceTextCache()}, since the next bind formats them again.
  *
  * Reference for ExpandableLayout: https://github.com/SilenceDut/ExpandableLayout
  */
-public class BookCursorAdapter extends RecyclerView.Adapter<BookCursorAdapter.BookHolder> {
+public class BookCursorAdapter extends RecyclerView.Adapter<BookCursorAdapter.BookHolder>
+        implements CatalogLoader.TrackedIds {
 
     /** Context of the app **/
     private Context context;
@@ -42,14 +50,119 @@ public class BookCursorAdapter extends RecyclerView.Adapter<BookCursorAdapter.Bo
     /** Cursor to contain data **/
     private CursorAdapter cursor;
 
-    /** Determines if the layout is expanded or not **/
-    private HashSet<Integer> mExpandedPositionSet = new HashSet<>();
+    /** IDs of the books whose layout is expanded **/
+    private LongArraySet mExpandedIdSet = new LongArraySet();
+
+    /** IDs of the books selected for a batch action **/
+    private LongArraySet mSelectedIdSet = new LongArraySet();
+
+    /** Notified when books are selected or deselected **/
+    private OnSelectionChangedListener mSelectionListener;
+
+    /** Quantity changes that are displayed before the database reflects them **/
+    private QuantityOverlay mQuantityOverlay;
+
+    /** Supplier name and formatted phone of the expanded books, by book ID **/
+    private LongSparseArray<String[]> mDetails = new LongSparseArray<>();
+
+    /** Display text of each bound book's price, reused while the price is unchanged **/
+    private LongSparseArray<PriceText> mPriceTexts = new LongSparseArray<>();
+
+    /** Bytes assumed for each kept price beside the characters of its text **/
+    private static final int PRICE_TEXT_OVERHEAD_BYTES = 80;
+
+    /** Lets the cache registry measure the price texts and drop them **/
+    private final CacheRegistry.TrimmableCache mPriceTextCache = new CacheRegistry.TrimmableCache() {
+        @Override
+        public int getSize() {
+            int bytes = 0;
+            for (int i = 0; i < mPriceTexts.size(); i++) {
+                bytes += PRICE_TEXT_OVERHEAD_BYTES + 2 * mPriceTexts.valueAt(i).text.length();
+            }
+            return bytes;
+        }
+
+        @Override
+        public void trimToSize(int maxBytes) {
+            // The texts aren't ordered by use, so they are dropped all together
+            if (maxBytes < getSize()) {
+                mPriceTexts.clear();
+            }
+        }
+    };
+
+    /** Formats the prices and phone numbers **/
+    private final BookFormatter mFormatter = BookFormatter.getInstance();
+
+    /** IDs of the books whose details are being loaded, so a rebind doesn't query them again **/
+    private LongArraySet mLoadingIdSet = new LongArraySet();
+
+    /** Loads the supplier columns of expanded books in the background **/
+    private AsyncQueryHandler mDetailQueryHandler;
+
+    /** Token of the detail queries, so they can be cancelled together **/
+    private static final int DETAIL_QUERY_TOKEN = 0;
+
+    /** Set once the detail queries are cancelled, so a query that already finished is dropped **/
+    private boolean mDetailQueriesCancelled;
+
+    /** Number of rows bound since the adapter was created, read by the scroll benchmark **/
+    private int mBindCount;
+
+    /**
+     * Called on the main thread when the number of selected books changes.
+     */
+    public interface OnSelectionChangedListener {
+        void onSelectionChanged(int selectedCount);
+    }
 
     /**
      * Constructor that takes in the context and cursor to retrieve data.
      */
-    public BookCursorAdapter(Context context, Cursor c) {
+    public BookCursorAdapter(final Context context, Cursor c) {
         this.context = context;
+        this.mQuantityOverlay = new QuantityOverlay(context,
+                new QuantityOverlay.OnRollbackListener() {
+                    @Override
+                    public void onRollback(long bookId) {
+                        // Shows the stored quantity again and tells the user the sale wasn't saved
+                        Toast.makeText(context, R.string.sale_error_msg, Toast.LENGTH_SHORT).show();
+                        notifyDataSetChanged();
+                    }
+                });
+        this.mDetailQueryHandler = new AsyncQueryHandler(context.getContentResolver()) {
+            @Override
+            protected void onQueryComplete(int token, Object cookie, Cursor details) {
+                for (long id : (long[]) cookie) {
+                    mLoadingIdSet.remove(id);
+                }
+                if (details == null) {
+                    return;
+                }
+                if (mDetailQueriesCancelled) {
+                    details.close();
+                    return;
+                }
+                try {
+                    int idColumnIndex = details.getColumnIndex(BookEntry._ID);
+                    int supplierNameColumnIndex = details.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_NAME);
+                    int supplierPhoneColumnIndex = details.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE);
+                    while (details.moveToNext()) {
+                        // Skips books that were collapsed while their details loaded
+                        // The phone is formatted once here rather than on every bind
+                        long id = details.getLong(idColumnIndex);
+                        if (mExpandedIdSet.contains(id)) {
+                            mDetails.put(id, new String[] {
+                                    details.getString(supplierNameColumnIndex),
+                                    BookFormatter.formatPhone(details.getLong(supplierPhoneColumnIndex)) });
+                        }
+                    }
+                } finally {
+                    details.close();
+                }
+                notifyDataSetChanged();
+            }
+        };
         this.cursor = new CursorAdapter(context, c, 0) {
 
             /**
@@ -65,66 +178,63 @@ public class BookCursorAdapter extends RecyclerView.Adapter<BookCursorAdapter.Bo
              */
             @Override
             public void bindView(View view, final Context context, Cursor cursor) {
-                // Finds views in the list item layout
-                TextView nameTextView = (TextView) view.findViewById(R.id.name_text_view);
-                TextView authorTextView = (TextView) view.findViewById(R.id.author_text_view);
-                TextView priceTextView = (TextView) view.findViewById(R.id.price_text_view);
-                final TextView quantityTextView = (TextView) view.findViewById(R.id.quantity_text_view);
-                TextView supplierNameTextView = (TextView) view.findViewById(R.id.supplier_name_text_view);
-                final TextView supplierPhoneTextView = (TextView) view.findViewById(R.id.supplier_phone_text_view);
-                Button saleButton = (Button) view.findViewById(R.id.sale_button);
-                Button orderButton = (Button) view.findViewById(R.id.order_button);
-                ImageView dropDownArrow = (ImageView) view.findViewById(R.id.drop_down_arrow);
+                // Gets the views of the list item layout, found once when its holder was created
+                BookHolder holder = (BookHolder) view.getTag();
+                TextView nameTextView = holder.nameTextView;
+                TextView authorTextView = holder.authorTextView;
+                TextView priceTextView = holder.priceTextView;
+                final TextView quantityTextView = holder.quantityTextView;
+                TextView supplierNameTextView = holder.supplierNameTextView;
+                final TextView supplierPhoneTextView = holder.supplierPhoneTextView;
+                Button saleButton = holder.saleButton;
+                Button orderButton = holder.orderButton;
 
                 // Finds the column index of the data
                 int nameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME);
                 int authorColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_AUTHOR);
                 int priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE);
                 int quantityColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY);
-                int supplierNameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_NAME);
-                int supplierPhoneColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE);
+
+                // Gets ID of the current item in the cursor
+                final long currentId = cursor.getLong(cursor.getColumnIndex(BookEntry._ID));
 
                 // Extracts the data at the column index and assigns to Strings
                 String bookName = cursor.getString(nameColumnIndex);
                 String bookAuthor = cursor.getString(authorColumnIndex);
-                String bookPrice = cursor.getString(priceColumnIndex);
-                String bookQuantity = cursor.getString(quantityColumnIndex);
-                String bookSupplierName = cursor.getString(supplierNameColumnIndex);
-                String bookSupplierPhone = cursor.getString(supplierPhoneColumnIndex);
+                String bookPrice = getPriceText(currentId, cursor.getDouble(priceColumnIndex));
+
+                // Gets the supplier columns, which are blank until an expanded book's details have loaded
+                String[] details = mDetails.get(currentId);
+                String bookSupplierName = details == null ? null : details[0];
+                String bookSupplierPhone = details == null ? null : details[1];
+
+                // Adds any quantity changes that haven't reached the cursor yet
+                int bookQuantity = cursor.getInt(quantityColumnIndex) + mQuantityOverlay.getDelta(currentId);
 
                 // Sets the TextViews to the current book data
                 nameTextView.setText(bookName);
                 authorTextView.setText(bookAuthor);
                 priceTextView.setText(bookPrice);
-                quantityTextView.setText(bookQuantity);
+                quantityTextView.setText(String.valueOf(bookQuantity));
                 supplierNameTextView.setText(bookSupplierName);
-                dropDownArrow.setImageResource(R.drawable.ic_arrow_drop_down_24dp);
-
-                // Creates String to display phone number such as "(222) 222-2222"
-                // Reference: https://stackoverflow.com/questions/14692764/format-edittext-view-for-phone-numbers
-                String longPhone = "(" + bookSupplierPhone.substring(0, 3) + ") " + bookSupplierPhone.substring(3, 6) + "-" + bookSupplierPhone.substring(6);
-                supplierPhoneTextView.setText(longPhone);
-
-                // Gets ID of the current item in the cursor and appends it to CONTENT_URI
-                // Reference: https://stackoverflow.com/questions/44034208/updating-listview-with-cursoradapter-after-an-onclick-changes-a-value-in-sqlite
-                int currentId = cursor.getInt(cursor.getColumnIndex(BookEntry._ID));
-                final Uri contentUri = Uri.withAppendedPath(BookEntry.CONTENT_URI, Integer.toString(currentId));
+                supplierPhoneTextView.setText(bookSupplierPhone);
 
                 // Sets a click listener on the Sale button that decreases the quantity by 1
+                // The new quantity displays right away while the provider is updated in the background
                 // An error message displays when the user tries to decrease quantity below 0
+                final int displayedQuantity = bookQuantity;
                 saleButton.setOnClickListener(new View.OnClickListener() {
+                    private int mQuantity = displayedQuantity;
+
                     @Override
                     public void onClick(View view) {
-                        int quantity = Integer.valueOf(quantityTextView.getText().toString());
-                        if (quantity > 0) {
-                            quantity -= 1;
+                        if (mQuantity > 0) {
+                            mQuantity -= 1;
+                            mQuantityOverlay.apply(currentId, -1);
+                            quantityTextView.setText(String.valueOf(mQuantity));
                         } else {
                             Toast.makeText(context, R.string.neg_quantity_error_msg, Toast.LENGTH_SHORT).show();
                         }
-                        // Updates the data with the new quantity value
-                        ContentValues values = new ContentValues();
-                        values.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
-                        context.getContentResolver().update(contentUri, values, null, null);
                     }
                 });
 
@@ -149,57 +259,285 @@ public class BookCursorAdapter extends RecyclerView.Adapter<BookCursorAdapter.Bo
         };
     }
 
+    /**
+     * Returns the display text of the book's price, formatting it only if the price changed since the last bind.
+     */
+    private String getPriceText(long bookId, double price) {
+        PriceText priceText = mPriceTexts.get(bookId);
+        if (priceText == null || priceText.price != price) {
+            priceText = new PriceText(price, mFormatter.formatPrice(price));
+            mPriceTexts.put(bookId, priceText);
+        }
+        return priceText.text;
+    }
+
+    /**
+     * Price of a book and its display text.
+     */
+    private static final class PriceText {
+        final double price;
+        final String text;
+
+        PriceText(double price, String text) {
+            this.price = price;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Returns the cache of formatted prices, to be registered with the {@link CacheRegistry}
+     * while the adapter is in use.
+     */
+    public CacheRegistry.TrimmableCache getPriceTextCache() {
+        return mPriceTextCache;
+    }
+
     /**
      * Handles swapping the cursor in the RecyclerView.
+     * The data version is the one read before the cursor's query ran, see {@link QuantityOverlay}.
      */
-    public void swapCursor(Cursor data) {
+    public void swapCursor(Cursor data, long dataVersion) {
         cursor.swapCursor(data);
+        mQuantityOverlay.reconcile(dataVersion);
+        pruneIds(data);
+
+        // Drops the texts of deleted books once they outnumber the books shown
+        if (data == null || mPriceTexts.size() > data.getCount()) {
+            mPriceTexts.clear();
+        }
+        notifyDataSetChanged();
+
+        // The books changed, so the details shown are reloaded in one query
+        if (data != null) {
+            loadDetails(mExpandedIdSet.toArray());
+        }
+    }
+
+    /**
+     * Starts loading the supplier columns of the given books in the background, in one query.
+     */
+    private void loadDetails(long... ids) {
+        LongArraySet newIds = new LongArraySet();
+        for (long id : ids) {
+            if (!mLoadingIdSet.contains(id)) {
+                newIds.add(id);
+            }
+        }
+        if (newIds.isEmpty()) {
+            return;
+        }
+        long[] idArray = newIds.toArray();
+        for (long id : idArray) {
+            mLoadingIdSet.add(id);
+        }
+        mDetailQueryHandler.startQuery(DETAIL_QUERY_TOKEN, idArray, BookEntry.CONTENT_URI, BookEntry.DETAIL_PROJECTION,
+                BookEntry.buildIdSelection(idArray), null, null);
+    }
+
+    /**
+     * Cancels the detail queries that haven't started and drops the results of the others.
+     * Called when the activity is destroyed, so the handler doesn't outlive it.
+     */
+    public void cancelDetailQueries() {
+        mDetailQueriesCancelled = true;
+        mDetailQueryHandler.cancelOperation(DETAIL_QUERY_TOKEN);
+        mLoadingIdSet.clear();
+    }
+
+    /**
+     * Removes the IDs of books the loader found deleted from the expanded and selected sets
+     * and their details, so none of them keeps growing as books are deleted.
+     * Only the IDs the loader checked are looked at, so this doesn't read the cursor.
+     */
+    private void pruneIds(Cursor data) {
+        boolean selectionChanged = false;
+        for (long id : CatalogLoader.getCheckedIds(data)) {
+            if (CatalogLoader.exists(data, id)) {
+                continue;
+            }
+            if (mExpandedIdSet.remove(id)) {
+                mDetails.remove(id);
+            }
+            if (mSelectedIdSet.remove(id)) {
+                selectionChanged = true;
+            }
+        }
+        if (selectionChanged) {
+            notifySelectionChanged();
+        }
+    }
+
+    /**
+     * Returns the IDs of the expanded and selected books, for the loader to check.
+     */
+    @Override
+    public long[] getTrackedIds() {
+        LongArraySet ids = new LongArraySet(mExpandedIdSet.toArray());
+        for (int i = 0; i < mSelectedIdSet.size(); i++) {
+            ids.add(mSelectedIdSet.valueAt(i));
+        }
+        return ids.toArray();
+    }
+
+    /**
+     * Returns the IDs of the expanded books so they can be saved when the activity is recreated.
+     */
+    public long[] getExpandedIds() {
+        return mExpandedIdSet.toArray();
+    }
+
+    /**
+     * Restores the IDs of the expanded books after the activity is recreated.
+     */
+    public void setExpandedIds(long[] ids) {
+        mExpandedIdSet = new LongArraySet(ids);
         notifyDataSetChanged();
     }
 
     /**
-     * Class containing ExpandableLayout, Buttons and ImageView.
+     * Sets the listener notified when books are selected or deselected.
+     */
+    public void setOnSelectionChangedListener(OnSelectionChangedListener listener) {
+        mSelectionListener = listener;
+    }
+
+    /**
+     * Returns the IDs of the selected books, in ascending order.
+     */
+    public long[] getSelectedIds() {
+        return mSelectedIdSet.toArray();
+    }
+
+    /**
+     * Selects the given books, e.g. after the activity is recreated.
+     */
+    public void setSelectedIds(long[] ids) {
+        mSelectedIdSet = new LongArraySet(ids);
+        notifyDataSetChanged();
+        notifySelectionChanged();
+    }
+
+    /**
+     * Deselects all books.
+     */
+    public void clearSelection() {
+        if (mSelectedIdSet.isEmpty()) {
+            return;
+        }
+        mSelectedIdSet = new LongArraySet();
+        notifyDataSetChanged();
+        notifySelectionChanged();
+    }
+
+    private void notifySelectionChanged() {
+        if (mSelectionListener != null) {
+            mSelectionListener.onSelectionChanged(mSelectedIdSet.size());
+        }
+    }
+
+    /**
+     * Class containing ExpandableLayout, TextViews, Buttons and ImageView.
+     * It is set as the tag of its item view, so bindView() reaches the views without searching for them.
      */
     class BookHolder extends RecyclerView.ViewHolder {
         private ExpandableLayout expandableLayout;
+        TextView nameTextView;
+        TextView authorTextView;
+        TextView priceTextView;
+        TextView quantityTextView;
+        TextView supplierNameTextView;
+        TextView supplierPhoneTextView;
+        Button saleButton;
+        Button orderButton;
         Button editButton;
         Button deleteButton;
         ImageView dropDownArrow;
 
+        /** ID of the book currently bound to this holder **/
+        private long mBookId;
+
         public BookHolder(View itemView) {
             super(itemView);
             // Finds the views
             expandableLayout = (ExpandableLayout) itemView.findViewById(R.id.expandable_item);
+            nameTextView = (TextView) itemView.findViewById(R.id.name_text_view);
+            authorTextView = (TextView) itemView.findViewById(R.id.author_text_view);
+            priceTextView = (TextView) itemView.findViewById(R.id.price_text_view);
+            quantityTextView = (TextView) itemView.findViewById(R.id.quantity_text_view);
+            supplierNameTextView = (TextView) itemView.findViewById(R.id.supplier_name_text_view);
+            supplierPhoneTextView = (TextView) itemView.findViewById(R.id.supplier_phone_text_view);
+            saleButton = (Button) itemView.findViewById(R.id.sale_button);
+            orderButton = (Button) itemView.findViewById(R.id.order_button);
             editButton = (Button) itemView.findViewById(R.id.edit_button);
             deleteButton = (Button) itemView.findViewById(R.id.delete_button);
             dropDownArrow = (ImageView) itemView.findViewById(R.id.drop_down_arrow);
+            itemView.setTag(this);
+
+            // The listeners read the book ID from the holder, so they only have to be set once
+            expandableLayout.setOnExpandListener(new ExpandableLayout.OnExpandListener() {
+                @Override
+                public void onExpand(boolean expanded) {
+                    registerExpand(expanded);
+                }
+            });
+            itemView.findViewById(R.id.expand_layout_header).setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View view) {
+                    toggleSelection();
+                    return true;
+                }
+            });
         }
 
         /**
-         * Determines whether or not the layout is expanded and responds to clicks to open/close.
+         * Selects the book if it isn't selected, else deselects it.
+         * The row is shown as selected by its activated background.
+         */
+        private void toggleSelection() {
+            if (!mSelectedIdSet.remove(mBookId)) {
+                mSelectedIdSet.add(mBookId);
+            }
+            itemView.setActivated(mSelectedIdSet.contains(mBookId));
+            notifySelectionChanged();
+        }
+
+        /**
+         * Stores whether or not the layout is expanded when the user clicks to open/close it.
+         * The supplier details are loaded when the layout opens and dropped when it closes.
          * The drop down arrow is changed to indicate the layout position.
          */
-        private void registerExpand(int position) {
-            if (mExpandedPositionSet.contains(position)) {
-                mExpandedPositionSet.remove(position);
-                dropDownArrow.setImageResource(R.drawable.ic_arrow_drop_down_24dp);
+        private void registerExpand(boolean expanded) {
+            if (expanded) {
+                mExpandedIdSet.add(mBookId);
+                if (mDetails.get(mBookId) == null) {
+                    loadDetails(mBookId);
+                }
             } else {
-                mExpandedPositionSet.add(position);
-                dropDownArrow.setImageResource(R.drawable.ic_arrow_drop_up_24dp);
+                mExpandedIdSet.remove(mBookId);
+                mDetails.remove(mBookId);
             }
+            setArrow(expanded);
         }
 
         /**
-         * Sets a listener on the ExpandableLayout and updates item according to user clicks.
+         * Sets the drop down arrow to point up when expanded and down when collapsed.
          */
-        private void updateItem(final int position) {
-            expandableLayout.setOnExpandListener(new ExpandableLayout.OnExpandListener() {
-                @Override
-                public void onExpand(boolean b) {
-                    registerExpand(position);
-                }
-            });
-            expandableLayout.setExpand(mExpandedPositionSet.contains(position));
+        private void setArrow(boolean expanded) {
+            dropDownArrow.setImageResource(expanded
+                    ? R.drawable.ic_arrow_drop_up_24dp
+                    : R.drawable.ic_arrow_drop_down_24dp);
+        }
+
+        /**
+         * Updates the item for the given book ID, opening it if the user expanded it before
+         * and marking it if it is selected.
+         */
+        private void updateItem(long bookId) {
+            mBookId = bookId;
+            boolean expanded = mExpandedIdSet.contains(bookId);
+            expandableLayout.setExpand(expanded);
+            setArrow(expanded);
+            itemView.setActivated(mSelectedIdSet.contains(bookId));
         }
     }
 
@@ -219,31 +557,25 @@ public class BookCursorAdapter extends RecyclerView.Adapter<BookCursorAdapter.Bo
      */
     @Override
     public void onBindViewHolder(BookHolder holder, final int position) {
+        mBindCount++;
         cursor.getCursor().moveToPosition(position);
         cursor.bindView(holder.itemView, context, cursor.getCursor());
-        holder.updateItem(position);
-        final long currentUri = cursor.getItemId(position);
-        final Uri currentBookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, currentUri);
+        final long currentId = cursor.getItemId(position);
+        holder.updateItem(currentId);
+        final Uri currentBookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, currentId);
 
         // Sets a click listener on the Delete button that displays a dialog message to delete the selected book
         holder.deleteButton.setOnClickListener(new View.OnClickListener() {
             @Override
-            public void onClick(View view) {
+            public void onClick(final View view) {
                 AlertDialog.Builder builder = new AlertDialog.Builder(context);
                 builder.setMessage(R.string.delete_book_dialog_msg);
                 builder.setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialog, int position) {
                         // Deletes the current URI if the user clicks "Delete"
-                        int rowsDeleted = context.getContentResolver().delete(currentBookUri, null, null);
-
-                        // If deleting data was unsuccessful, an error message displays
-                        // Else, if it is successful, a "Book deleted" message displays
-                        if (rowsDeleted == 0) {
-                            Toast.makeText(context, R.string.delete_error_msg, Toast.LENGTH_SHORT).show();
-                        } else {
-                            Toast.makeText(context, R.string.delete_success_msg, Toast.LENGTH_SHORT).show();
-                        }
+                        // A "Book deleted" message displays with an Undo button
+                        BookDeleter.delete(view, currentBookUri, R.string.delete_success_msg);
                     }
                 });
                 builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
@@ -272,6 +604,13 @@ public class BookCursorAdapter extends RecyclerView.Adapter<BookCursorAdapter.Bo
         });
     }
 
+    /**
+     * Returns the number of rows bound since the adapter was created. Must be called on the main thread.
+     */
+    int getBindCount() {
+        return mBindCount;
+    }
+
     /**
      * Returns items in the cursor.
      */
@@ -286,11 +625,7 @@ public class BookCursorAdapter extends RecyclerView.Adapter<BookCursorAdapter.Bo
     @Override
     public long getItemId(int position) {
         if (cursor != null) {
-            if (cursor.getCursor().moveToPosition(position)) {
-                return cursor.getCursor().getColumnIndexOrThrow(BookEntry._ID);
-            } else {
-                return 0;
-            }
+            return cursor.getItemId(position);
         } else {
             return 0;
         }
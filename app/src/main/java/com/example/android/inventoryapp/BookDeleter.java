@@ -0,0 +1,84 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.design.widget.Snackbar;
+import android.view.View;
+import android.widget.Toast;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_IDS;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_SELECTION;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_DELETE_BOOKS;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_RESTORE_DELETED;
+
+/**
+ * Deletes books on a background thread and shows a Snackbar that lets the user undo the delete.
+ * The provider only marks the books as deleted and returns their IDs, so undoing restores
+ * exactly those books and not ones deleted elsewhere in the meantime.
+ */
+public final class BookDeleter {
+
+    /** Private constructor to prevent instantiating the class **/
+    private BookDeleter() {}
+
+    /**
+     * Deletes the books for the URI. The Snackbar is shown on the given view's window.
+     */
+    public static void delete(View anchor, Uri uri, int successMessage) {
+        delete(anchor, uri, null, successMessage);
+    }
+
+    /**
+     * Deletes the books for the URI that match the selection, in one provider call.
+     * The Snackbar is shown on the given view's window.
+     */
+    public static void delete(final View anchor, final Uri uri, final String selection, final int successMessage) {
+        final ContentResolver contentResolver = anchor.getContext().getContentResolver();
+        new AsyncTask<Void, Void, long[]>() {
+            @Override
+            protected long[] doInBackground(Void... params) {
+                Bundle extras = new Bundle();
+                extras.putString(EXTRA_SELECTION, selection);
+                Bundle result = contentResolver.call(BookEntry.CONTENT_URI, METHOD_DELETE_BOOKS,
+                        uri.toString(), extras);
+                return result == null ? new long[0] : result.getLongArray(EXTRA_IDS);
+            }
+
+            @Override
+            protected void onPostExecute(final long[] deletedIds) {
+                // If deleting data was unsuccessful, an error message displays
+                // Else, if it is successful, a message displays with an Undo button
+                if (deletedIds.length == 0) {
+                    Toast.makeText(anchor.getContext(), R.string.delete_error_msg, Toast.LENGTH_SHORT).show();
+                } else {
+                    Snackbar.make(anchor, successMessage, Snackbar.LENGTH_LONG)
+                            .setAction(R.string.undo, new View.OnClickListener() {
+                                @Override
+                                public void onClick(View view) {
+                                    restore(contentResolver, deletedIds);
+                                }
+                            })
+                            .show();
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Restores the deleted books with the given IDs on a background thread.
+     */
+    private static void restore(final ContentResolver contentResolver, final long[] deletedIds) {
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                Bundle extras = new Bundle();
+                extras.putLongArray(EXTRA_IDS, deletedIds);
+                contentResolver.call(BookEntry.CONTENT_URI, METHOD_RESTORE_DELETED, null, extras);
+                return null;
+            }
+        }.execute();
+    }
+}
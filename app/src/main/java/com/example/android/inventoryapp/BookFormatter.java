@@ -0,0 +1,103 @@
+package com.example.android.inventoryapp;
+
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Formats prices and supplier phone numbers for display, for any screen or export that shows books.
+ * Phone numbers are written digit by digit into a char buffer, so no intermediate Strings are made,
+ * and any number of digits is accepted. Prices use the currency format of the formatter's locale.
+ * NumberFormat isn't thread-safe, so each thread formats prices with its own copy.
+ */
+public final class BookFormatter {
+
+    /** Length of the longest formatted phone number, a 19 digit number with its separators **/
+    public static final int MAX_PHONE_LENGTH = 25;
+
+    /** Formatter of the default locale, replaced when the locale changes **/
+    private static volatile BookFormatter sInstance;
+
+    private final Locale mLocale;
+
+    /** Currency format of each thread, created on its first price **/
+    private final ThreadLocal<NumberFormat> mCurrencyFormat = new ThreadLocal<NumberFormat>() {
+        @Override
+        protected NumberFormat initialValue() {
+            return NumberFormat.getCurrencyInstance(mLocale);
+        }
+    };
+
+    BookFormatter(Locale locale) {
+        mLocale = locale;
+    }
+
+    /**
+     * Returns the formatter of the default locale, created on first use and again after the locale changes.
+     * Two threads may both create one, which is harmless since either formats the same way.
+     */
+    public static BookFormatter getInstance() {
+        Locale locale = Locale.getDefault();
+        BookFormatter formatter = sInstance;
+        if (formatter == null || !formatter.mLocale.equals(locale)) {
+            formatter = new BookFormatter(locale);
+            sInstance = formatter;
+        }
+        return formatter;
+    }
+
+    /**
+     * Returns the price in the locale's currency, such as "$12.50".
+     */
+    public String formatPrice(double price) {
+        return mCurrencyFormat.get().format(price);
+    }
+
+    /**
+     * Writes the non-negative phone number into the buffer, which must hold at least MAX_PHONE_LENGTH
+     * chars, and returns the number of chars written. The last 4 digits are split from the 3 before them,
+     * and the area code and country code are set apart when there are digits for them:
+     * "5678", "234-5678", "(210) 234-5678", "+30 (210) 234-5678".
+     * Throws IllegalArgumentException if the phone number is negative.
+     */
+    public static int formatPhone(long phone, char[] buffer) {
+        if (phone < 0) {
+            throw new IllegalArgumentException("Phone number can't be negative: " + phone);
+        }
+        int digits = 1;
+        for (long rest = phone / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int length = digits + (digits > 4 ? 1 : 0) + (digits > 7 ? 3 : 0) + (digits > 10 ? 2 : 0);
+
+        // Writes from the last digit back, adding each separator once there are digits before it
+        int position = length;
+        long rest = phone;
+        for (int written = 0; written < digits; written++) {
+            if (written == 4) {
+                buffer[--position] = '-';
+            } else if (written == 7) {
+                buffer[--position] = ' ';
+                buffer[--position] = ')';
+            } else if (written == 10) {
+                buffer[--position] = '(';
+                buffer[--position] = ' ';
+            }
+            buffer[--position] = (char) ('0' + rest % 10);
+            rest /= 10;
+        }
+        if (digits > 10) {
+            buffer[--position] = '+';
+        } else if (digits > 7) {
+            buffer[--position] = '(';
+        }
+        return length;
+    }
+
+    /**
+     * Returns the formatted phone number, see {@link #formatPhone(long, char[])}.
+     */
+    public static String formatPhone(long phone) {
+        char[] buffer = new char[MAX_PHONE_LENGTH];
+        return new String(buffer, 0, formatPhone(phone, buffer));
+    }
+}
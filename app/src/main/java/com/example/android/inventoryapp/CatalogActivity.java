@@ -2,24 +2,39 @@ package com.example.android.inventoryapp;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.view.ActionMode;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.InputType;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.MovementEntry;
+import com.example.android.inventoryapp.data.BookMaintenanceService;
+import com.example.android.inventoryapp.data.CacheRegistry;
+import com.example.android.inventoryapp.data.CatalogPrefetcher;
+import com.example.android.inventoryapp.data.DataVersion;
 
 import static com.example.android.inventoryapp.data.BookContract.BookEntry.CONTENT_URI;
 
@@ -39,6 +54,18 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     /** Static value for the book loader ID **/
     private static final int BOOK_LOADER = 0;
 
+    /** Log messages tag **/
+    private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
+
+    /** Key used to save the IDs of the expanded books when the activity is recreated **/
+    private static final String STATE_EXPANDED_IDS = "expanded_ids";
+
+    /** Key used to save the IDs of the selected books when the activity is recreated **/
+    private static final String STATE_SELECTED_IDS = "selected_ids";
+
+    /** Action mode showing the batch actions while books are selected, or null **/
+    private ActionMode mActionMode;
+
     /** RecyclerView for inventory list **/
     RecyclerView recyclerView;
 
@@ -46,6 +73,33 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     TextView emptyView;
     ImageView emptyViewImage;
 
+    /**
+     * First page of books shown until the loader finishes. It is either read by the provider
+     * while the layout was inflated or loaded from the snapshot saved after the last load.
+     */
+    private Cursor mStartupCursor;
+
+    /** Task loading the snapshot of the first page, or null **/
+    private SnapshotLoadTask mSnapshotTask;
+
+    /** Loader of the books, kept by the loader manager across configuration changes **/
+    private CatalogLoader mCatalogLoader;
+
+    /** Whether the first rows were drawn and reported **/
+    private boolean mReportedFullyDrawn = false;
+
+    /** Rows kept bound after they scroll off, so flinging back shows them without binding again **/
+    private static final int ITEM_VIEW_CACHE_SIZE = 6;
+
+    /** Unbound rows kept for reuse, enough for a screen of collapsed rows on a tall phone **/
+    private static final int RECYCLED_VIEW_POOL_SIZE = 12;
+
+    /** Rows inflated into the pool while the app is idle, so the first fling doesn't inflate them **/
+    private static final int PREINFLATED_ROW_COUNT = ITEM_VIEW_CACHE_SIZE + 2;
+
+    /** Whether the rows for the first fling were inflated **/
+    private boolean mPreinflatedRows = false;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -68,7 +122,56 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
         setUpRecyclerView();
-        getLoaderManager().initLoader(BOOK_LOADER, null, this);
+        if (savedInstanceState != null) {
+            mCursorAdapter.setExpandedIds(savedInstanceState.getLongArray(STATE_EXPANDED_IDS));
+        }
+
+        // Shows the first page read by the provider at process start, if it is ready.
+        // It is discarded after any write, so it is as current as the data version
+        mStartupCursor = CatalogPrefetcher.take();
+        if (mStartupCursor != null) {
+            mCursorAdapter.swapCursor(mStartupCursor, DataVersion.get(this));
+        } else if (savedInstanceState == null) {
+            // Else, shows the snapshot saved after the last load, if it is still current.
+            // A recreated activity gets the loader's books right away, so it doesn't need the snapshot
+            mSnapshotTask = new SnapshotLoadTask();
+            mSnapshotTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+
+        // Restores the selection after the startup page, which would drop the books past that page
+        if (savedInstanceState != null) {
+            mCursorAdapter.setSelectedIds(savedInstanceState.getLongArray(STATE_SELECTED_IDS));
+        }
+        mCatalogLoader = (CatalogLoader) getLoaderManager().initLoader(BOOK_LOADER, null, this);
+        mCatalogLoader.setTrackedIds(mCursorAdapter);
+
+        // Makes sure the stock movement ledger is compacted in the background
+        BookMaintenanceService.schedule(this);
+    }
+
+    /**
+     * Saves the IDs of the expanded and selected books so they stay open and selected
+     * after a configuration change.
+     */
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putLongArray(STATE_EXPANDED_IDS, mCursorAdapter.getExpandedIds());
+        outState.putLongArray(STATE_SELECTED_IDS, mCursorAdapter.getSelectedIds());
+    }
+
+    /**
+     * Closes the startup cursor if the loader never replaced it, cancels the adapter's
+     * detail queries, stops the adapter's prices from being trimmed and detaches it from the loader.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        cancelSnapshotTask();
+        closeStartupCursor();
+        mCursorAdapter.cancelDetailQueries();
+        CacheRegistry.unregister(mCursorAdapter.getPriceTextCache());
+        mCatalogLoader.setTrackedIds(null);
     }
 
     /**
@@ -82,6 +185,77 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         } else {
             emptyViewImage.setVisibility(View.GONE);
             emptyView.setVisibility(View.GONE);
+            reportFirstRowsDrawn();
+            preinflateRows();
+        }
+    }
+
+    /**
+     * Reports when the first rows are on screen, which marks the end of startup
+     * in "Fully drawn" logcat messages and startup benchmarks.
+     */
+    private void reportFirstRowsDrawn() {
+        if (mReportedFullyDrawn || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+        mReportedFullyDrawn = true;
+        recyclerView.post(new Runnable() {
+            @Override
+            public void run() {
+                reportFullyDrawn();
+            }
+        });
+    }
+
+    /**
+     * Inflates PREINFLATED_ROW_COUNT rows into the recycled view pool after the first rows are drawn,
+     * one each time the main thread is idle, so no frame waits on more than one inflation.
+     * Until the item view cache is full, rows that scroll off aren't reused, so without these
+     * the first fling inflates a new row for each row it brings on screen.
+     */
+    private void preinflateRows() {
+        if (mPreinflatedRows) {
+            return;
+        }
+        mPreinflatedRows = true;
+        recyclerView.post(new Runnable() {
+            @Override
+            public void run() {
+                Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                    private int mInflatedCount;
+
+                    @Override
+                    public boolean queueIdle() {
+                        if (isFinishing()) {
+                            return false;
+                        }
+                        recyclerView.getRecycledViewPool().putRecycledView(
+                                mCursorAdapter.createViewHolder(recyclerView, 0));
+                        return ++mInflatedCount < PREINFLATED_ROW_COUNT;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops the snapshot from being shown, e.g. because the loader delivered the books first.
+     * A snapshot loaded in the meantime is closed by the task.
+     */
+    private void cancelSnapshotTask() {
+        if (mSnapshotTask != null) {
+            mSnapshotTask.cancel(false);
+            mSnapshotTask = null;
+        }
+    }
+
+    /**
+     * Closes the startup first page once the adapter no longer uses it.
+     */
+    private void closeStartupCursor() {
+        if (mStartupCursor != null) {
+            mStartupCursor.close();
+            mStartupCursor = null;
         }
     }
 
@@ -91,6 +265,7 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
      */
     protected void setUpRecyclerView() {
         mCursorAdapter = new BookCursorAdapter(this, null);
+        CacheRegistry.register("Catalog price texts", mCursorAdapter.getPriceTextCache());
         mCursorAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
             @Override
             public void onChanged() {
@@ -98,8 +273,19 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 checkAdapterIsEmpty();
             }
         });
+        mCursorAdapter.setOnSelectionChangedListener(new BookCursorAdapter.OnSelectionChangedListener() {
+            @Override
+            public void onSelectionChanged(int selectedCount) {
+                updateActionMode(selectedCount);
+            }
+        });
         LinearLayoutManager layoutManager = new LinearLayoutManager(this);
         recyclerView.setLayoutManager(layoutManager);
+
+        // The list fills the screen whatever its rows, so adapter changes don't lay out the whole activity
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setItemViewCacheSize(ITEM_VIEW_CACHE_SIZE);
+        recyclerView.getRecycledViewPool().setMaxRecycledViews(0, RECYCLED_VIEW_POOL_SIZE);
         recyclerView.setAdapter(mCursorAdapter);
         checkAdapterIsEmpty();
     }
@@ -143,6 +329,10 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 emptyView.setVisibility(View.GONE);
                 emptyViewImage.setVisibility(View.GONE);
                 return true;
+            case R.id.reprice_by_supplier:
+                // Asks for the supplier whose books to reprice
+                showRepriceDialog(null);
+                return true;
             case R.id.delete_all_entries:
                 // Calls the dialog message to delete all entries
                 showDeleteConfirmationDialog();
@@ -178,39 +368,291 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     /**
      * Handles deleting all books when the "Delete" button in the dialog message is clicked.
+     * The books are deleted in the background and a message displays with an Undo button.
      */
     private void deleteAllBooks() {
-        int rowsDeleted = getContentResolver().delete(BookEntry.CONTENT_URI, null, null);
+        BookDeleter.delete(recyclerView, BookEntry.CONTENT_URI, R.string.delete_all_success_msg);
+    }
+
+    /**
+     * Shows the batch actions while books are selected, with the number of books in the title,
+     * and hides them once none are.
+     */
+    private void updateActionMode(int selectedCount) {
+        if (selectedCount == 0) {
+            if (mActionMode != null) {
+                mActionMode.finish();
+            }
+            return;
+        }
+        if (mActionMode == null) {
+            mActionMode = startSupportActionMode(mSelectionCallback);
+        }
+        mActionMode.setTitle(getString(R.string.selected_books_title, selectedCount));
+    }
+
+    /**
+     * Batch actions on the selected books. Each action is a single provider call on all of them,
+     * so the catalog is written and reloaded once however many books are selected.
+     */
+    private final ActionMode.Callback mSelectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.selection_menu, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            long[] ids = mCursorAdapter.getSelectedIds();
+            switch (item.getItemId()) {
+                case R.id.sell_selected:
+                    new BatchUpdateTask(CatalogActivity.this, quantityDelta(-1), BookEntry.buildIdSelection(ids),
+                            null, R.string.batch_sale_msg).execute();
+                    mode.finish();
+                    return true;
+                case R.id.restock_selected:
+                    showRestockDialog(ids);
+                    return true;
+                case R.id.reprice_selected:
+                    showRepriceDialog(ids);
+                    return true;
+                case R.id.delete_selected:
+                    showDeleteSelectedDialog(ids);
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            // Cleared first, so clearing the selection doesn't finish the mode again
+            mActionMode = null;
+            mCursorAdapter.clearSelection();
+        }
+    };
+
+    /**
+     * Dialog message that asks how many copies to add to each of the selected books.
+     */
+    private void showRestockDialog(final long[] ids) {
+        final EditText copiesEditText = new EditText(this);
+        copiesEditText.setInputType(InputType.TYPE_CLASS_NUMBER);
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.restock_dialog_title);
+        builder.setView(copiesEditText);
+        builder.setPositiveButton(R.string.restock_selected, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                int copies;
+                try {
+                    copies = Integer.parseInt(copiesEditText.getText().toString().trim());
+                } catch (NumberFormatException e) {
+                    copies = 0;
+                }
+                if (copies <= 0) {
+                    Toast.makeText(CatalogActivity.this, R.string.include_copies_msg, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                new BatchUpdateTask(CatalogActivity.this, quantityDelta(copies), BookEntry.buildIdSelection(ids),
+                        null, R.string.batch_restock_msg).execute();
+                if (mActionMode != null) {
+                    mActionMode.finish();
+                }
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
     }
 
     /**
-     * Creates a loader that declares a projection taking input from all database table columns.
+     * Dialog message that displays "Delete N books?" and "Delete" or "Cancel" buttons.
+     */
+    private void showDeleteSelectedDialog(final long[] ids) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(getString(R.string.delete_selected_dialog_msg, ids.length));
+        builder.setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                // The books are deleted in the background and a message displays with an Undo button
+                BookDeleter.delete(recyclerView, BookEntry.CONTENT_URI, BookEntry.buildIdSelection(ids),
+                        R.string.delete_selected_success_msg);
+                if (mActionMode != null) {
+                    mActionMode.finish();
+                }
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Dialog that asks by what percentage and amount to change the prices of the selected books,
+     * or of the books from a supplier if ids is null. All of them are repriced in one provider update.
+     */
+    private void showRepriceDialog(final long[] ids) {
+        final View dialogView = View.inflate(this, R.layout.dialog_reprice, null);
+        final EditText supplierEditText = (EditText) dialogView.findViewById(R.id.reprice_supplier);
+        if (ids != null) {
+            supplierEditText.setVisibility(View.GONE);
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.reprice_dialog_title);
+        builder.setView(dialogView);
+        builder.setPositiveButton(R.string.reprice_selected, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                String supplier = supplierEditText.getText().toString().trim();
+                if (ids == null && supplier.isEmpty()) {
+                    Toast.makeText(CatalogActivity.this, R.string.include_supplier_name_msg, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                double percent = parseNumber((EditText) dialogView.findViewById(R.id.reprice_percent));
+                double amount = parseNumber((EditText) dialogView.findViewById(R.id.reprice_amount));
+                if (Double.isNaN(percent) || Double.isNaN(amount) || percent < -100 || (percent == 0 && amount == 0)) {
+                    Toast.makeText(CatalogActivity.this, R.string.include_price_change_msg, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.KEY_PRICE_FACTOR, 1 + percent / 100);
+                values.put(BookEntry.KEY_PRICE_OFFSET, amount);
+                if (ids != null) {
+                    new BatchUpdateTask(CatalogActivity.this, values, BookEntry.buildIdSelection(ids), null,
+                            R.string.batch_reprice_msg).execute();
+                } else {
+                    new BatchUpdateTask(CatalogActivity.this, values, BookEntry.COLUMN_BOOK_SUPPLIER_NAME + "=?",
+                            new String[] { supplier }, R.string.batch_reprice_msg).execute();
+                }
+                if (mActionMode != null) {
+                    mActionMode.finish();
+                }
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Returns the number typed in the field, 0 if it is empty, or NaN if it isn't a number.
+     */
+    private static double parseNumber(EditText editText) {
+        String text = editText.getText().toString().trim();
+        if (text.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Returns the update values that add the delta to the quantity of each book, as a sale or a restock.
+     */
+    private static ContentValues quantityDelta(int delta) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.KEY_QUANTITY_DELTA, delta);
+        values.put(BookEntry.KEY_MOVEMENT_REASON, delta < 0 ? MovementEntry.REASON_SALE : MovementEntry.REASON_RESTOCK);
+        return values;
+    }
+
+    /**
+     * Loads the snapshot of the first page on a background thread and shows it,
+     * unless the loader delivered the books first and cancelled the task.
+     */
+    private class SnapshotLoadTask extends AsyncTask<Void, Void, Cursor> {
+
+        /** Data version the snapshot must have been saved at **/
+        private long mDataVersion;
+
+        @Override
+        protected Cursor doInBackground(Void... params) {
+            mDataVersion = DataVersion.get(CatalogActivity.this);
+            return CatalogSnapshot.load(CatalogActivity.this, mDataVersion);
+        }
+
+        @Override
+        protected void onPostExecute(Cursor snapshot) {
+            mSnapshotTask = null;
+            if (snapshot != null) {
+                mStartupCursor = snapshot;
+                mCursorAdapter.swapCursor(snapshot, mDataVersion);
+            }
+        }
+
+        @Override
+        protected void onCancelled(Cursor snapshot) {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+    }
+
+    /**
+     * Applies the update values to the selected books in one provider update on a background thread,
+     * and shows the message with the number of books changed. A sale leaves out the books that are
+     * out of stock, and repricing leaves out the books whose price wouldn't change.
+     */
+    private static class BatchUpdateTask extends AsyncTask<Void, Void, Integer> {
+        private final Context mContext;
+        private final ContentValues mValues;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final int mMessageId;
+
+        BatchUpdateTask(Context context, ContentValues values, String selection, String[] selectionArgs,
+                        int messageId) {
+            mContext = context.getApplicationContext();
+            mValues = values;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mMessageId = messageId;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            ContentResolver contentResolver = mContext.getContentResolver();
+            try {
+                return contentResolver.update(BookEntry.CONTENT_URI, mValues, mSelection, mSelectionArgs);
+            } catch (IllegalArgumentException e) {
+                Log.e(LOG_TAG, "Batch update rejected", e);
+                return -1;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer rowsUpdated) {
+            String message = rowsUpdated < 0 ? mContext.getString(R.string.batch_error_msg)
+                    : mContext.getString(mMessageId, rowsUpdated);
+            Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Creates the loader of the catalog list, which records the data version of each cursor it loads.
      */
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        String[] projection = {
-                BookEntry._ID,
-                BookEntry.COLUMN_BOOK_NAME,
-                BookEntry.COLUMN_BOOK_AUTHOR,
-                BookEntry.COLUMN_BOOK_PRICE,
-                BookEntry.COLUMN_BOOK_QUANTITY,
-                BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
-                BookEntry.COLUMN_BOOK_SUPPLIER_PHONE };
-
-        return new CursorLoader(this,  // Activity context
-                BookEntry.CONTENT_URI, // URI to query
-                projection,            // Columns to return
-                null,                  // No selection
-                null,                  // No selection arguments
-                null);                 // No defined sort order
+        return new CatalogLoader(this);
     }
 
     /**
-     * Updates the cursor adapter with new book data.
+     * Updates the cursor adapter with new book data and saves the first page for the next launch.
      */
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mCursorAdapter.swapCursor(data);
+        long dataVersion = CatalogLoader.getDataVersion(data);
+        mCursorAdapter.swapCursor(data, dataVersion);
+        cancelSnapshotTask();
+        closeStartupCursor();
+        CatalogSnapshot.save(this, data, dataVersion, CatalogPrefetcher.FIRST_PAGE_SIZE);
     }
 
     /**
@@ -218,6 +660,6 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
      */
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mCursorAdapter.swapCursor(null);
+        mCursorAdapter.swapCursor(null, DataVersion.UNKNOWN);
     }
 }
@@ -0,0 +1,135 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import com.example.android.inventoryapp.data.DataVersion;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+/**
+ * Loads the columns of the catalog list and records the {@link DataVersion} read before each query,
+ * so the cursor is known to contain every write up to that version. The version is used to tell
+ * which quantity changes the cursor already shows and which version a saved snapshot is valid for.
+ * It also looks up which of the books the list keeps state for still exist, so the state of
+ * deleted books can be dropped without walking the cursor on the main thread.
+ */
+public class CatalogLoader extends CursorLoader {
+
+    /**
+     * Source of the IDs of the books the list keeps state for, e.g. the expanded and selected ones.
+     */
+    public interface TrackedIds {
+        /** Called on the main thread before each load **/
+        long[] getTrackedIds();
+    }
+
+    /**
+     * A loaded cursor, the data version read before its query ran,
+     * and the tracked IDs that were checked with the ones of them that still exist.
+     */
+    private static final class VersionedCursor extends CursorWrapper {
+        final long dataVersion;
+        final long[] checkedIds;
+        final LongArraySet existingIds;
+
+        VersionedCursor(Cursor cursor, long dataVersion, long[] checkedIds, LongArraySet existingIds) {
+            super(cursor);
+            this.dataVersion = dataVersion;
+            this.checkedIds = checkedIds;
+            this.existingIds = existingIds;
+        }
+    }
+
+    /** Source of the IDs to check, or null **/
+    private TrackedIds mTrackedIds;
+
+    /** IDs to check in the next load, read on the main thread **/
+    private volatile long[] mCheckedIds = new long[0];
+
+    /**
+     * Creates a loader that declares a projection taking input from the columns shown in the collapsed rows.
+     * The supplier columns are loaded by the adapter only for the rows that are expanded.
+     */
+    public CatalogLoader(Context context) {
+        super(context,
+                BookEntry.CONTENT_URI, // URI to query
+                BookEntry.LIST_PROJECTION, // Columns to return
+                null,                  // No selection
+                null,                  // No selection arguments
+                BookEntry.LIST_SORT_ORDER); // Order of the list index
+    }
+
+    /**
+     * Sets the source of the IDs to check, or null to check none. Called on the main thread.
+     * The loader outlives an activity recreated after a configuration change, so each activity sets its own.
+     */
+    public void setTrackedIds(TrackedIds trackedIds) {
+        mTrackedIds = trackedIds;
+    }
+
+    @Override
+    protected void onForceLoad() {
+        // Read here, on the main thread, where the list changes them
+        mCheckedIds = mTrackedIds != null ? mTrackedIds.getTrackedIds() : new long[0];
+        super.onForceLoad();
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        // Read first, since the cached version only catches up with a write after it commits
+        long dataVersion = DataVersion.get(getContext());
+        // Checked before the list is read, so a book deleted in between keeps its state until the next load
+        long[] checkedIds = mCheckedIds;
+        LongArraySet existingIds = queryExistingIds(checkedIds);
+        Cursor cursor = super.loadInBackground();
+        return cursor == null ? null : new VersionedCursor(cursor, dataVersion, checkedIds, existingIds);
+    }
+
+    /**
+     * Returns the given IDs of the books that aren't deleted, in one query on the ID index.
+     */
+    private LongArraySet queryExistingIds(long[] ids) {
+        LongArraySet existingIds = new LongArraySet();
+        if (ids.length == 0) {
+            return existingIds;
+        }
+        Cursor cursor = getContext().getContentResolver().query(BookEntry.CONTENT_URI, new String[] { BookEntry._ID },
+                BookEntry.buildIdSelection(ids), null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    existingIds.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return existingIds;
+    }
+
+    /**
+     * Returns the data version the cursor was loaded at,
+     * or DataVersion.UNKNOWN if it wasn't loaded by a CatalogLoader.
+     */
+    public static long getDataVersion(Cursor cursor) {
+        return cursor instanceof VersionedCursor ? ((VersionedCursor) cursor).dataVersion : DataVersion.UNKNOWN;
+    }
+
+    /**
+     * Returns the tracked IDs checked by the load of the cursor, or an empty array if it wasn't loaded
+     * by a CatalogLoader. IDs tracked after the load started aren't in it.
+     */
+    public static long[] getCheckedIds(Cursor cursor) {
+        return cursor instanceof VersionedCursor ? ((VersionedCursor) cursor).checkedIds : new long[0];
+    }
+
+    /**
+     * Returns whether a book checked by the load of the cursor still existed, see {@link #getCheckedIds}.
+     */
+    public static boolean exists(Cursor cursor, long id) {
+        return ((VersionedCursor) cursor).existingIds.contains(id);
+    }
+}
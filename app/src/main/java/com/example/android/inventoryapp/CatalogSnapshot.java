@@ -0,0 +1,212 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.DataVersion;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+/**
+ * Compact binary copy of the first screen of the catalog, saved after each load
+ * so CatalogActivity can display rows on launch before the database is queried.
+ *
+ * File layout: magic, format version, data version, row count, then for each row
+ * the ID, price, quantity, name and author. Strings are a char count followed by UTF-16 chars.
+ * The snapshot is discarded if its format or the {@link DataVersion} it was saved at is out of date.
+ */
+public final class CatalogSnapshot {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = CatalogSnapshot.class.getSimpleName();
+
+    /** Name of the snapshot file in the cache directory **/
+    private static final String FILE_NAME = "catalog_snapshot.bin";
+
+    /** Identifies the file as a catalog snapshot ("BKSN") **/
+    private static final int MAGIC = 0x424B534E;
+
+    /** Version of the file layout, increased whenever the layout changes **/
+    private static final int FORMAT_VERSION = 1;
+
+    /** Size of the magic, format version, data version and row count **/
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+    /** Size of the ID, price, quantity and the two string lengths of a row **/
+    private static final int ROW_FIXED_SIZE = 8 + 8 + 4 + 4 + 4;
+
+    /** Columns of the cursor returned by load() **/
+    private static final String[] COLUMNS = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_AUTHOR,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY };
+
+    /** Private constructor to prevent instantiating the class **/
+    private CatalogSnapshot() {}
+
+    /**
+     * Saves the first maxRows rows of the cursor, which was read at the given data version.
+     * The version must be read before the query, so a write that commits during the query
+     * makes the snapshot out of date. The rows are copied on the calling thread,
+     * which is cheap for one screen, and the file is written in the background.
+     */
+    public static void save(Context context, Cursor cursor, long dataVersion, int maxRows) {
+        if (dataVersion < 0) {
+            // The version the rows were read at isn't known, or the books are kept in memory and won't be there next time
+            return;
+        }
+        int count = Math.min(cursor.getCount(), maxRows);
+        int idColumnIndex = cursor.getColumnIndex(BookEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME);
+        int authorColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_AUTHOR);
+        int priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE);
+        int quantityColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY);
+
+        // Reads the strings first so the buffer can be allocated at its exact size
+        String[] names = new String[count];
+        String[] authors = new String[count];
+        int size = HEADER_SIZE + count * ROW_FIXED_SIZE;
+        for (int i = 0; i < count; i++) {
+            cursor.moveToPosition(i);
+            names[i] = cursor.getString(nameColumnIndex);
+            authors[i] = cursor.getString(authorColumnIndex);
+            size += 2 * (names[i].length() + authors[i].length());
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putLong(dataVersion);
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            cursor.moveToPosition(i);
+            buffer.putLong(cursor.getLong(idColumnIndex));
+            buffer.putDouble(cursor.getDouble(priceColumnIndex));
+            buffer.putInt(cursor.getInt(quantityColumnIndex));
+            putString(buffer, names[i]);
+            putString(buffer, authors[i]);
+        }
+
+        final byte[] bytes = buffer.array();
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeFile(getFile(appContext), bytes);
+            }
+        });
+    }
+
+    /**
+     * Memory-maps the snapshot and returns its rows, or null if there is no snapshot
+     * or it wasn't saved at the given data version. The cursor has the ID, name, author,
+     * price and quantity columns. Reads the file, so it must not be called on the main thread.
+     */
+    public static Cursor load(Context context, long dataVersion) {
+        File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            // Discards the snapshot if the layout changed or the books were written since it was saved
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC
+                    || buffer.getInt() != FORMAT_VERSION || buffer.getLong() != dataVersion) {
+                file.delete();
+                return null;
+            }
+
+            int count = buffer.getInt();
+            MatrixCursor cursor = new MatrixCursor(COLUMNS, count);
+            for (int i = 0; i < count; i++) {
+                long id = buffer.getLong();
+                double price = buffer.getDouble();
+                int quantity = buffer.getInt();
+                String name = getString(buffer);
+                String author = getString(buffer);
+                cursor.addRow(new Object[] { id, name, author, price, quantity });
+            }
+            return cursor;
+        } catch (IOException | BufferUnderflowException e) {
+            Log.e(LOG_TAG, "Discarding unreadable catalog snapshot", e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+    }
+
+    /**
+     * Writes the bytes to a temporary file and renames it, so a reader never sees a partial snapshot.
+     */
+    private static void writeFile(File file, byte[] bytes) {
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+            outputStream.write(bytes);
+            outputStream.close();
+            outputStream = null;
+            if (!tempFile.renameTo(file)) {
+                Log.e(LOG_TAG, "Failed to replace catalog snapshot");
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write catalog snapshot", e);
+        } finally {
+            closeQuietly(outputStream);
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        int length = value.length();
+        buffer.putInt(length);
+        for (int i = 0; i < length; i++) {
+            buffer.putChar(value.charAt(i));
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length * 2 > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        char[] chars = new char[length];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + length * 2);
+        return new String(chars);
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing else to do
+            }
+        }
+    }
+}
@@ -2,17 +2,22 @@ package com.example.android.inventoryapp;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
@@ -21,14 +26,30 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.BookContract.MovementEntry;
+import com.example.android.inventoryapp.data.BookValidator;
+
+import java.util.ArrayList;
+
+import static com.example.android.inventoryapp.data.BookContract.CONTENT_AUTHORITY;
 import static com.example.android.inventoryapp.data.BookContract.BookEntry.COLUMN_BOOK_AUTHOR;
 import static com.example.android.inventoryapp.data.BookContract.BookEntry.COLUMN_BOOK_NAME;
 import static com.example.android.inventoryapp.data.BookContract.BookEntry.COLUMN_BOOK_PRICE;
 import static com.example.android.inventoryapp.data.BookContract.BookEntry.COLUMN_BOOK_QUANTITY;
+import static com.example.android.inventoryapp.data.BookContract.BookEntry.COLUMN_BOOK_REORDER_THRESHOLD;
 import static com.example.android.inventoryapp.data.BookContract.BookEntry.COLUMN_BOOK_SUPPLIER_NAME;
 import static com.example.android.inventoryapp.data.BookContract.BookEntry.COLUMN_BOOK_SUPPLIER_PHONE;
 import static com.example.android.inventoryapp.data.BookContract.BookEntry.CONTENT_URI;
+import static com.example.android.inventoryapp.data.BookContract.BookEntry.KEY_MOVEMENT_REASON;
+import static com.example.android.inventoryapp.data.BookContract.BookEntry.KEY_QUANTITY_DELTA;
 import static com.example.android.inventoryapp.data.BookContract.BookEntry._ID;
+import static com.example.android.inventoryapp.data.BookValidator.FIELD_AUTHOR;
+import static com.example.android.inventoryapp.data.BookValidator.FIELD_NAME;
+import static com.example.android.inventoryapp.data.BookValidator.FIELD_PRICE;
+import static com.example.android.inventoryapp.data.BookValidator.FIELD_QUANTITY;
+import static com.example.android.inventoryapp.data.BookValidator.FIELD_REORDER_THRESHOLD;
+import static com.example.android.inventoryapp.data.BookValidator.FIELD_SUPPLIER_NAME;
+import static com.example.android.inventoryapp.data.BookValidator.FIELD_SUPPLIER_PHONE;
 
 /**
  * This activity handles allowing the user to add a new book or edit a book.
@@ -38,6 +59,9 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
     /** Identifies the data loader **/
     private static final int EXISTING_BOOK_LOADER = 0;
 
+    /** Log messages tag **/
+    private static final String LOG_TAG = EditActivity.class.getSimpleName();
+
     /** Content URI for the current URI (null if a new book is added) **/
     private Uri mCurrentBookUri;
 
@@ -48,6 +72,20 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
     private EditText mQuantityEditText;
     private EditText mSupplierNameEditText;
     private EditText mSupplierPhoneEditText;
+    private EditText mReorderThresholdEditText;
+
+    /** Message displayed for an invalid field, indexed by BookValidator field **/
+    private static final int[] FIELD_ERROR_MESSAGES = {
+            R.string.include_name_msg,
+            R.string.include_author_msg,
+            R.string.include_price_msg,
+            R.string.include_quantity_msg,
+            R.string.include_supplier_name_msg,
+            R.string.include_phone_msg,
+            R.string.include_reorder_threshold_msg };
+
+    /** Checks the input before saving **/
+    private final BookValidator mValidator = new BookValidator();
 
     /** Quantity for decrease and increase buttons used to edit a book **/
     int quantity = 0;
@@ -55,6 +93,16 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
     /** Contains whether or not the EditText data has been changed **/
     private boolean mBookHasChanged = false;
 
+    /** Book data as last loaded, compared on save so only changed columns are written **/
+    private boolean mBookLoaded = false;
+    private String mLoadedName;
+    private String mLoadedAuthor;
+    private double mLoadedPrice;
+    private int mLoadedQuantity;
+    private String mLoadedSupplierName;
+    private long mLoadedSupplierPhone;
+    private int mLoadedReorderThreshold;
+
     /**
      * Handles listening for touches by the user on the EditText fields.
      */
@@ -112,6 +160,7 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
         mQuantityEditText = (EditText) findViewById(R.id.edit_book_quantity);
         mSupplierNameEditText = (EditText) findViewById(R.id.edit_book_supplier_name);
         mSupplierPhoneEditText = (EditText) findViewById(R.id.edit_book_supplier_phone);
+        mReorderThresholdEditText = (EditText) findViewById(R.id.edit_book_reorder_threshold);
         Button decreaseQuantity = (Button) findViewById(R.id.decrease_quantity);
         Button increaseQuantity = (Button) findViewById(R.id.increase_quantity);
 
@@ -139,6 +188,7 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
         mQuantityEditText.setOnTouchListener(mTouchListener);
         mSupplierNameEditText.setOnTouchListener(mTouchListener);
         mSupplierPhoneEditText.setOnTouchListener(mTouchListener);
+        mReorderThresholdEditText.setOnTouchListener(mTouchListener);
         decreaseQuantity.setOnClickListener(mDecreaseListener);
         increaseQuantity.setOnClickListener(mIncreaseListener);
     }
@@ -154,6 +204,7 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
         String quantityString = mQuantityEditText.getText().toString().trim();
         String supplierNameString = mSupplierNameEditText.getText().toString().trim();
         String supplierPhoneString = mSupplierPhoneEditText.getText().toString().trim();
+        String reorderThresholdString = mReorderThresholdEditText.getText().toString().trim();
 
         // Checks if the user is adding a new book and returns if nothing is added to any EditText fields
         if (mCurrentBookUri == null && TextUtils.isEmpty(nameString) && TextUtils.isEmpty(authorString) &&
@@ -163,40 +214,47 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
         }
 
         // Performs sanity checks
-        // If an EditText field is empty, a toast message displays prompting the user to input data
-        // When all fields contain data, the book can be saved
-        if (TextUtils.isEmpty(nameString)) {
-            Toast.makeText(this, R.string.include_name_msg, Toast.LENGTH_SHORT).show();
-        } else if (TextUtils.isEmpty(authorString)) {
-            Toast.makeText(this, R.string.include_author_msg, Toast.LENGTH_SHORT).show();
-        } else if (TextUtils.isEmpty(priceString)) {
-            Toast.makeText(this, R.string.include_price_msg, Toast.LENGTH_SHORT).show();
-        } else if (TextUtils.isEmpty(quantityString)) {
-            Toast.makeText(this, R.string.include_quantity_msg, Toast.LENGTH_SHORT).show();
-        } else if (TextUtils.isEmpty(supplierNameString)) {
-            Toast.makeText(this, R.string.include_supplier_name_msg, Toast.LENGTH_SHORT).show();
-        } else if (TextUtils.isEmpty(supplierPhoneString)) {
-            Toast.makeText(this, R.string.include_phone_msg, Toast.LENGTH_SHORT).show();
-        } else if (supplierPhoneString.length() < 10) {
-            Toast.makeText(this, R.string.include_valid_phone_msg, Toast.LENGTH_SHORT).show();
+        // If an EditText field is empty or invalid, a toast message displays prompting the user to input data
+        // When all fields contain valid data, the book can be saved
+        mValidator.reset();
+        mValidator.checkText(FIELD_NAME, nameString);
+        mValidator.checkText(FIELD_AUTHOR, authorString);
+        mValidator.checkInput(FIELD_PRICE, priceString);
+        mValidator.checkInput(FIELD_QUANTITY, quantityString);
+        mValidator.checkText(FIELD_SUPPLIER_NAME, supplierNameString);
+        mValidator.checkInput(FIELD_SUPPLIER_PHONE, supplierPhoneString);
+        // The reorder threshold is optional, and an empty field turns reordering off
+        if (!TextUtils.isEmpty(reorderThresholdString)) {
+            mValidator.checkInput(FIELD_REORDER_THRESHOLD, reorderThresholdString);
+        }
+        int invalidField = mValidator.getFirstError();
+        if (invalidField != -1) {
+            int message = FIELD_ERROR_MESSAGES[invalidField];
+            if (invalidField == FIELD_SUPPLIER_PHONE && !TextUtils.isEmpty(supplierPhoneString)) {
+                message = R.string.include_valid_phone_msg;
+            }
+            Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
         } else {
-            // Converts price, quantity and supplier phone from Strings to their own data type
-            double price = Double.parseDouble(priceString);
-            int quantity = Integer.parseInt(quantityString);
-            long supplierPhone = Long.parseLong(supplierPhoneString);
-
-            // Creates a ContentValues object and sets the column keys to the EditText input
-            ContentValues values = new ContentValues();
-            values.put(COLUMN_BOOK_NAME, nameString);
-            values.put(COLUMN_BOOK_AUTHOR, authorString);
-            values.put(COLUMN_BOOK_PRICE, price);
-            values.put(COLUMN_BOOK_QUANTITY, quantity);
-            values.put(COLUMN_BOOK_SUPPLIER_NAME, supplierNameString);
-            values.put(COLUMN_BOOK_SUPPLIER_PHONE, supplierPhone);
+            // Reads the price, quantity and supplier phone parsed by the validator
+            double price = mValidator.getReal(FIELD_PRICE);
+            int quantity = (int) mValidator.getInteger(FIELD_QUANTITY);
+            long supplierPhone = mValidator.getInteger(FIELD_SUPPLIER_PHONE);
+            int reorderThreshold = TextUtils.isEmpty(reorderThresholdString) ? 0
+                    : (int) mValidator.getInteger(FIELD_REORDER_THRESHOLD);
 
             // Checks if a new book is being saved and inserts data
             // Else, the existing book is updated
             if (mCurrentBookUri == null) {
+                // Creates a ContentValues object and sets the column keys to the EditText input
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_BOOK_NAME, nameString);
+                values.put(COLUMN_BOOK_AUTHOR, authorString);
+                values.put(COLUMN_BOOK_PRICE, price);
+                values.put(COLUMN_BOOK_QUANTITY, quantity);
+                values.put(COLUMN_BOOK_SUPPLIER_NAME, supplierNameString);
+                values.put(COLUMN_BOOK_SUPPLIER_PHONE, supplierPhone);
+                values.put(COLUMN_BOOK_REORDER_THRESHOLD, reorderThreshold);
+
                 Uri newUri = getContentResolver().insert(CONTENT_URI, values);
 
                 // If inserting data was unsuccessful, an error message displays
@@ -207,11 +265,33 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
                     Toast.makeText(this, R.string.add_success_msg, Toast.LENGTH_SHORT).show();
                 }
             } else {
-                int rowsAffected = getContentResolver().update(mCurrentBookUri, values, null, null);
+                ArrayList<ContentProviderOperation> operations = getUpdateOperations(nameString, authorString,
+                        price, quantity, supplierNameString, supplierPhone, reorderThreshold);
+
+                // Closes without writing if nothing changed since the book was loaded
+                if (operations.isEmpty()) {
+                    finish();
+                    return;
+                }
+
+                // Applies the column changes and the quantity change in one transaction,
+                // which is rolled back if either of them changes no book
+                boolean updated = true;
+                try {
+                    ContentProviderResult[] results = getContentResolver().applyBatch(CONTENT_AUTHORITY, operations);
+                    for (ContentProviderResult result : results) {
+                        if (result.count == null || result.count == 0) {
+                            updated = false;
+                        }
+                    }
+                } catch (RemoteException | OperationApplicationException e) {
+                    Log.e(LOG_TAG, "Failed to update " + mCurrentBookUri, e);
+                    updated = false;
+                }
 
                 // If updating data was unsuccessful, an error message displays
                 // Else, if it is successful, a "Book updated" message displays
-                if (rowsAffected == 0) {
+                if (!updated) {
                     Toast.makeText(this, R.string.update_error_msg, Toast.LENGTH_SHORT).show();
                 } else {
                     Toast.makeText(this, R.string.update_success_msg, Toast.LENGTH_SHORT).show();
@@ -221,6 +301,73 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
         }
     }
 
+    /**
+     * Returns the updates of the book: one for the columns that differ from the loaded book and one
+     * for the quantity change, either of which is left out if there is nothing to change.
+     * The quantity is sent as a delta so the provider appends a stock movement instead of rewriting
+     * the row, and sales made while the book was edited aren't overwritten.
+     * Each update expects to change the book, so the batch fails as a whole if the book was deleted
+     * or the sales left too few copies for the change.
+     */
+    private ArrayList<ContentProviderOperation> getUpdateOperations(String name, String author, double price,
+            int quantity, String supplierName, long supplierPhone, int reorderThreshold) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(2);
+        ContentValues values = getChangedValues(name, author, price, quantity, supplierName, supplierPhone,
+                reorderThreshold);
+        if (values.size() > 0) {
+            operations.add(ContentProviderOperation.newUpdate(mCurrentBookUri).withValues(values)
+                    .withExpectedCount(1).build());
+        }
+        if (mBookLoaded && quantity != mLoadedQuantity) {
+            operations.add(ContentProviderOperation.newUpdate(mCurrentBookUri)
+                    .withValue(KEY_QUANTITY_DELTA, quantity - mLoadedQuantity)
+                    .withValue(KEY_MOVEMENT_REASON, MovementEntry.REASON_ADJUSTMENT)
+                    .withExpectedCount(1)
+                    .build());
+        }
+        return operations;
+    }
+
+    /**
+     * Returns only the columns other than the quantity that differ from the loaded book.
+     */
+    private ContentValues getChangedValues(String name, String author, double price, int quantity,
+                                           String supplierName, long supplierPhone, int reorderThreshold) {
+        ContentValues values = new ContentValues();
+
+        // Writes every column if the book hasn't finished loading, since there is no quantity to change from
+        if (!mBookLoaded) {
+            values.put(COLUMN_BOOK_NAME, name);
+            values.put(COLUMN_BOOK_AUTHOR, author);
+            values.put(COLUMN_BOOK_PRICE, price);
+            values.put(COLUMN_BOOK_QUANTITY, quantity);
+            values.put(COLUMN_BOOK_SUPPLIER_NAME, supplierName);
+            values.put(COLUMN_BOOK_SUPPLIER_PHONE, supplierPhone);
+            values.put(COLUMN_BOOK_REORDER_THRESHOLD, reorderThreshold);
+            return values;
+        }
+
+        if (!name.equals(mLoadedName)) {
+            values.put(COLUMN_BOOK_NAME, name);
+        }
+        if (!author.equals(mLoadedAuthor)) {
+            values.put(COLUMN_BOOK_AUTHOR, author);
+        }
+        if (Double.compare(price, mLoadedPrice) != 0) {
+            values.put(COLUMN_BOOK_PRICE, price);
+        }
+        if (!supplierName.equals(mLoadedSupplierName)) {
+            values.put(COLUMN_BOOK_SUPPLIER_NAME, supplierName);
+        }
+        if (supplierPhone != mLoadedSupplierPhone) {
+            values.put(COLUMN_BOOK_SUPPLIER_PHONE, supplierPhone);
+        }
+        if (reorderThreshold != mLoadedReorderThreshold) {
+            values.put(COLUMN_BOOK_REORDER_THRESHOLD, reorderThreshold);
+        }
+        return values;
+    }
+
     /**
      * Inflates the menu option with the edit_menu file and adds it to the app bar.
      */
@@ -376,7 +523,8 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
                 COLUMN_BOOK_PRICE,
                 COLUMN_BOOK_QUANTITY,
                 COLUMN_BOOK_SUPPLIER_NAME,
-                COLUMN_BOOK_SUPPLIER_PHONE };
+                COLUMN_BOOK_SUPPLIER_PHONE,
+                COLUMN_BOOK_REORDER_THRESHOLD };
 
         // Performs the query method on a background thread
         return new CursorLoader(this,  // Activity context
@@ -405,6 +553,7 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
             int quantityColumnIndex = data.getColumnIndex(COLUMN_BOOK_QUANTITY);
             int supplierNameColumnIndex = data.getColumnIndex(COLUMN_BOOK_SUPPLIER_NAME);
             int supplierPhoneColumnIndex = data.getColumnIndex(COLUMN_BOOK_SUPPLIER_PHONE);
+            int reorderThresholdColumnIndex = data.getColumnIndex(COLUMN_BOOK_REORDER_THRESHOLD);
 
             // Extracts the data at the column index and assigns to appropriate data type
             String name = data.getString(nameColumnIndex);
@@ -413,6 +562,17 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
             int quantity = data.getInt(quantityColumnIndex);
             String supplierName = data.getString(supplierNameColumnIndex);
             long supplierPhone = data.getLong(supplierPhoneColumnIndex);
+            int reorderThreshold = data.getInt(reorderThresholdColumnIndex);
+
+            // Keeps the loaded data to compare against when saving
+            mBookLoaded = true;
+            mLoadedName = name;
+            mLoadedAuthor = author;
+            mLoadedPrice = price;
+            mLoadedQuantity = quantity;
+            mLoadedSupplierName = supplierName;
+            mLoadedSupplierPhone = supplierPhone;
+            mLoadedReorderThreshold = reorderThreshold;
 
             // Sets the EditText fields to the current book data
             mNameEditText.setText(name);
@@ -421,6 +581,7 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
             mQuantityEditText.setText(Integer.toString(quantity));
             mSupplierNameEditText.setText(supplierName);
             mSupplierPhoneEditText.setText(Long.toString(supplierPhone));
+            mReorderThresholdEditText.setText(reorderThreshold == 0 ? "" : Integer.toString(reorderThreshold));
         }
     }
 
@@ -435,5 +596,6 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
         mQuantityEditText.setText("");
         mSupplierNameEditText.setText("");
         mSupplierPhoneEditText.setText("");
+        mReorderThresholdEditText.setText("");
     }
 }
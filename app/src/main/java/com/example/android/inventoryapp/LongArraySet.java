@@ -0,0 +1,114 @@
+package com.example.android.inventoryapp;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive long values, such as book IDs, kept in a sorted array.
+ * Lookups use a binary search, so checking whether a value is in the set
+ * never boxes the value or allocates memory.
+ *
+ * Reference: Android's SparseArray, which uses the same sorted array approach.
+ */
+public class LongArraySet {
+
+    /** Starting capacity of the array **/
+    private static final int DEFAULT_CAPACITY = 8;
+
+    /** Sorted values in the set. Only the first mSize entries are used **/
+    private long[] mValues;
+
+    /** Number of values in the set **/
+    private int mSize;
+
+    /**
+     * Creates an empty set.
+     */
+    public LongArraySet() {
+        mValues = new long[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Creates a set containing the given values, which may be unsorted or null.
+     */
+    public LongArraySet(long[] values) {
+        this();
+        if (values != null) {
+            for (long value : values) {
+                add(value);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the value is in the set.
+     */
+    public boolean contains(long value) {
+        return Arrays.binarySearch(mValues, 0, mSize, value) >= 0;
+    }
+
+    /**
+     * Adds the value to the set. Returns false if it was already there.
+     */
+    public boolean add(long value) {
+        int index = Arrays.binarySearch(mValues, 0, mSize, value);
+        if (index >= 0) {
+            return false;
+        }
+        index = ~index;
+        if (mSize == mValues.length) {
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+        }
+        System.arraycopy(mValues, index, mValues, index + 1, mSize - index);
+        mValues[index] = value;
+        mSize++;
+        return true;
+    }
+
+    /**
+     * Removes the value from the set. Returns false if it was not there.
+     */
+    public boolean remove(long value) {
+        int index = Arrays.binarySearch(mValues, 0, mSize, value);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(mValues, index + 1, mValues, index, mSize - index - 1);
+        mSize--;
+        return true;
+    }
+
+    /**
+     * Returns the value at the given index. Values are in ascending order.
+     */
+    public long valueAt(int index) {
+        return mValues[index];
+    }
+
+    /**
+     * Returns the number of values in the set.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns true if the set has no values.
+     */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Removes all values from the set.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Returns a copy of the values in ascending order, e.g. to save them in a Bundle.
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(mValues, mSize);
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.support.v4.util.LongSparseArray;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.DataVersion;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+/**
+ * Holds quantity changes that are shown in the list before the database reflects them.
+ * A change is displayed right away, written to the provider on a background thread,
+ * and dropped once a fresh cursor arrives that already contains it.
+ * If the provider rejects the write, the change is rolled back.
+ *
+ * Whether a cursor contains a change is decided by {@link DataVersion}: a write is recorded with
+ * the version read after the provider applied it, and a cursor with the version read before its
+ * query ran, so a cursor contains every change whose version is not newer than its own.
+ * A cursor that raced the write is thus never taken to contain it. A change whose write committed
+ * just before the query may be counted twice until the next cursor, which its write's change
+ * notification loads.
+ */
+public class QuantityOverlay {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = QuantityOverlay.class.getSimpleName();
+
+    /**
+     * Called on the main thread when a quantity change could not be saved.
+     */
+    public interface OnRollbackListener {
+        void onRollback(long bookId);
+    }
+
+    /**
+     * Changes for one book. Pending changes are still being written,
+     * committed changes are saved but not yet in the displayed cursor.
+     */
+    private static class Entry {
+        int pendingDelta;
+        int committedDelta;
+
+        /** Data version after the last committed change, so a cursor of that version contains it **/
+        long committedVersion;
+    }
+
+    /** Changes for each book ID **/
+    private final LongSparseArray<Entry> mEntries = new LongSparseArray<>();
+
+    /** Used to write the changes to the provider and to read the data version **/
+    private final Context mContext;
+    private final ContentResolver mContentResolver;
+
+    /** Data version of the cursor displayed, so writes it already contains aren't added again **/
+    private long mDisplayedVersion = DataVersion.UNKNOWN;
+
+    /** Notified when a change is rolled back **/
+    private final OnRollbackListener mRollbackListener;
+
+    public QuantityOverlay(Context context, OnRollbackListener rollbackListener) {
+        mContext = context.getApplicationContext();
+        mContentResolver = context.getContentResolver();
+        mRollbackListener = rollbackListener;
+    }
+
+    /**
+     * Returns the amount to add to the quantity in the cursor for the given book.
+     */
+    public int getDelta(long bookId) {
+        Entry entry = mEntries.get(bookId);
+        if (entry == null) {
+            return 0;
+        }
+        return entry.pendingDelta + entry.committedDelta;
+    }
+
+    /**
+     * Shows the change right away and starts writing it to the provider.
+     */
+    public void apply(long bookId, int delta) {
+        Entry entry = mEntries.get(bookId);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(bookId, entry);
+        }
+        entry.pendingDelta += delta;
+        new WriteTask(bookId, delta).execute();
+    }
+
+    /**
+     * Called when a fresh cursor arrives, with the data version read before its query ran.
+     * Committed changes that the cursor contains are dropped, the others and the changes
+     * that are still being written are kept.
+     */
+    public void reconcile(long dataVersion) {
+        mDisplayedVersion = dataVersion;
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            Entry entry = mEntries.valueAt(i);
+            if (entry.committedVersion <= dataVersion) {
+                entry.committedDelta = 0;
+            }
+            if (entry.pendingDelta == 0) {
+                mEntries.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Called on the main thread when a write finishes, with the data version read after it was applied.
+     */
+    private void onWriteFinished(long bookId, int delta, boolean success, long dataVersion) {
+        Entry entry = mEntries.get(bookId);
+        if (entry == null) {
+            return;
+        }
+        entry.pendingDelta -= delta;
+        if (success) {
+            // The displayed cursor may have been read after the write committed
+            if (dataVersion > mDisplayedVersion) {
+                entry.committedDelta += delta;
+                entry.committedVersion = Math.max(entry.committedVersion, dataVersion);
+            } else if (entry.pendingDelta == 0 && entry.committedDelta == 0) {
+                mEntries.remove(bookId);
+            }
+        } else {
+            if (entry.pendingDelta == 0 && entry.committedDelta == 0) {
+                mEntries.remove(bookId);
+            }
+            mRollbackListener.onRollback(bookId);
+        }
+    }
+
+    /**
+     * Adds the change to the stored quantity on a background thread.
+     * Tasks run one at a time, so changes are written in the order they were made.
+     */
+    private class WriteTask extends AsyncTask<Void, Void, Boolean> {
+        private final long mBookId;
+        private final int mDelta;
+
+        /** Data version read after the provider applied the change **/
+        private long mDataVersion;
+
+        WriteTask(long bookId, int delta) {
+            mBookId = bookId;
+            mDelta = delta;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            Uri bookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, mBookId);
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.KEY_QUANTITY_DELTA, mDelta);
+            try {
+                boolean updated = mContentResolver.update(bookUri, values, null, null) > 0;
+                mDataVersion = DataVersion.get(mContext);
+                return updated;
+            } catch (IllegalArgumentException e) {
+                // The provider rejected the change, e.g. because the quantity would be negative
+                Log.e(LOG_TAG, "Quantity change rejected for " + bookUri, e);
+                return false;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean success) {
+            onWriteFinished(mBookId, mDelta, success, mDataVersion);
+        }
+    }
+}
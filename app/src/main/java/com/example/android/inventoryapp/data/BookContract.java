@@ -18,9 +18,173 @@ public final class BookContract {
     /** Uses CONTENT_AUTHORITY as the base for all URIs used in the app **/
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
 
+    /** Permission other apps, such as the point-of-sale companion, need to read the inventory **/
+    public static final String PERMISSION_READ = CONTENT_AUTHORITY + ".permission.READ_BOOKS";
+
+    /** Permission other apps need to change the inventory **/
+    public static final String PERMISSION_WRITE = CONTENT_AUTHORITY + ".permission.WRITE_BOOKS";
+
     /** Path that is appended to BASE_CONTENT_URI to access URI data **/
     public static final String PATH_INVENTORY = "inventoryapp";
 
+    /** Path that is appended to the CONTENT_URI to look up a book by its ISBN **/
+    public static final String PATH_BY_ISBN = "by-isbn";
+
+    /** Path that is appended to the CONTENT_URI to list the books that need reordering **/
+    public static final String PATH_REORDERS = "reorders";
+
+    /** Path that is appended to BASE_CONTENT_URI to access the stock movement ledger **/
+    public static final String PATH_MOVEMENTS = "movements";
+
+    /** Path that is appended to BASE_CONTENT_URI to read the sales history **/
+    public static final String PATH_SALES = "sales";
+
+    /** Path that is appended to the sales CONTENT_URI to read the hourly buckets **/
+    public static final String PATH_HOURLY = "hourly";
+
+    /** Path that is appended to BASE_CONTENT_URI to read the price history **/
+    public static final String PATH_PRICE_HISTORY = "price_history";
+
+    /** Path that is appended to BASE_CONTENT_URI to apply changes from other devices **/
+    public static final String PATH_SYNC = "sync";
+
+    /**
+     * Provider method that folds up to {@code arg} uncompacted stock movements into the book quantities.
+     * The returned Bundle contains the number of movements folded in {@link #EXTRA_COUNT}.
+     */
+    public static final String METHOD_COMPACT_MOVEMENTS = "compact_movements";
+
+    /**
+     * Provider method that deletes the books of the URI in {@code arg}, like delete() with the selection
+     * in {@link #EXTRA_SELECTION}. The returned Bundle contains the number of books deleted in
+     * {@link #EXTRA_COUNT} and their IDs in {@link #EXTRA_IDS}, which undo passes to METHOD_RESTORE_DELETED.
+     */
+    public static final String METHOD_DELETE_BOOKS = "delete_books";
+
+    /**
+     * Provider method that restores the deleted books whose IDs are in {@link #EXTRA_IDS}.
+     * Used to undo a delete, so books deleted by other deletes in the meantime stay deleted.
+     * The returned Bundle contains the number of books restored in {@link #EXTRA_COUNT}.
+     */
+    public static final String METHOD_RESTORE_DELETED = "restore_deleted";
+
+    /**
+     * Provider method that permanently removes up to {@code arg} books that were deleted
+     * more than {@link #PURGE_GRACE_PERIOD_MILLIS} ago, then frees the pages they used.
+     * If the extras have {@link #EXTRA_IDS}, the deleted books with these IDs are removed instead,
+     * right away, e.g. the books a test inserted. The returned Bundle contains the number
+     * of books removed in {@link #EXTRA_COUNT}.
+     */
+    public static final String METHOD_PURGE_DELETED = "purge_deleted";
+
+    /** Time a deleted book can still be restored before it may be purged **/
+    public static final long PURGE_GRACE_PERIOD_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * Provider method that returns the size and fragmentation of the database file
+     * in the EXTRA_PAGE_SIZE, EXTRA_PAGE_COUNT, EXTRA_FREE_PAGES, EXTRA_FRAGMENTATION and EXTRA_AUTO_VACUUM keys.
+     */
+    public static final String METHOD_GET_DATABASE_STATS = "get_database_stats";
+
+    /**
+     * Provider method that frees up to {@code arg} unused pages (all of them if there is no arg).
+     * The returned Bundle contains the number of pages freed in {@link #EXTRA_COUNT}.
+     */
+    public static final String METHOD_INCREMENTAL_VACUUM = "incremental_vacuum";
+
+    /**
+     * Provider method that brings the reorder margins up to date with up to {@code arg} stock movements
+     * added since the last scan. The returned Bundle contains the number of movements scanned in {@link #EXTRA_COUNT}.
+     */
+    public static final String METHOD_SCAN_REORDERS = "scan_reorders";
+
+    /**
+     * Provider method that removes up to {@code arg} hourly sales buckets older than
+     * {@link SalesEntry#HOURLY_RETENTION_MILLIS}. Their sales stay in the daily buckets.
+     * The returned Bundle contains the number of buckets removed in {@link #EXTRA_COUNT}.
+     */
+    public static final String METHOD_PRUNE_SALES_HISTORY = "prune_sales_history";
+
+    /** Provider method that updates the statistics used by the query planner **/
+    public static final String METHOD_OPTIMIZE = "optimize";
+
+    /**
+     * Provider method that returns up to {@code arg} books and stock movements changed on this device
+     * since the last push, encoded as a {@link ChangeSet} in {@link #EXTRA_CHANGES}.
+     * The highest change sequence and movement ID included are in EXTRA_LAST_SEQ and EXTRA_LAST_MOVEMENT_ID,
+     * and the number of changes in {@link #EXTRA_COUNT}.
+     */
+    public static final String METHOD_GET_CHANGES = "get_changes";
+
+    /**
+     * Provider method that returns the write lock statistics since the provider started:
+     * the number of write transactions, retries after a busy database and writes that failed,
+     * and the total and longest time writers waited for and held the lock.
+     */
+    public static final String METHOD_GET_WRITE_STATS = "get_write_stats";
+
+    /**
+     * Provider method that returns the number of books that aren't deleted in {@link #EXTRA_COUNT},
+     * their total copies in stock in EXTRA_TOTAL_QUANTITY and the value of that stock in EXTRA_STOCK_VALUE.
+     */
+    public static final String METHOD_GET_TOTALS = "get_totals";
+
+    /** Provider method that returns the current {@link DataVersion} in EXTRA_DATA_VERSION **/
+    public static final String METHOD_GET_DATA_VERSION = "get_data_version";
+
+    /**
+     * Provider method that copies the database to a new backup generation, keeping the newest few.
+     * The returned Bundle contains the backup's time in {@link #EXTRA_BACKUP_TIME}, or 0 if no
+     * consistent copy could be made, and the number of pages copied in {@link #EXTRA_PAGE_COUNT}.
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Provider method that replaces the books, ledger, sync state and sales history with the newest
+     * intact backup. The arg is an optional number of newer generations to skip, 0 by default.
+     * The returned Bundle contains the restored backup's time in {@link #EXTRA_BACKUP_TIME},
+     * or 0 if no intact backup was found.
+     */
+    public static final String METHOD_RESTORE_BACKUP = "restore_backup";
+
+    /** Bundle key for the time a backup was taken, in milliseconds since the epoch **/
+    public static final String EXTRA_BACKUP_TIME = "backup_time";
+
+    /** Bundle keys for the totals returned by METHOD_GET_TOTALS **/
+    public static final String EXTRA_TOTAL_QUANTITY = "total_quantity";
+    public static final String EXTRA_STOCK_VALUE = "stock_value";
+
+    /** Bundle key for the data version returned by METHOD_GET_DATA_VERSION **/
+    public static final String EXTRA_DATA_VERSION = "data_version";
+
+    /** Bundle keys for the changes returned by METHOD_GET_CHANGES **/
+    public static final String EXTRA_CHANGES = "changes";
+    public static final String EXTRA_LAST_SEQ = "last_seq";
+    public static final String EXTRA_LAST_MOVEMENT_ID = "last_movement_id";
+
+    /** Bundle key for the number of rows affected by a provider method **/
+    public static final String EXTRA_COUNT = "count";
+
+    /** Bundle keys for the selection and the book IDs of the delete, restore and purge methods **/
+    public static final String EXTRA_SELECTION = "selection";
+    public static final String EXTRA_IDS = "ids";
+
+    /** Bundle keys for the database statistics **/
+    public static final String EXTRA_PAGE_SIZE = "page_size";
+    public static final String EXTRA_PAGE_COUNT = "page_count";
+    public static final String EXTRA_FREE_PAGES = "free_pages";
+    public static final String EXTRA_FRAGMENTATION = "fragmentation";
+    public static final String EXTRA_AUTO_VACUUM = "auto_vacuum";
+
+    /** Bundle keys for the write lock statistics **/
+    public static final String EXTRA_TRANSACTIONS = "transactions";
+    public static final String EXTRA_RETRIES = "retries";
+    public static final String EXTRA_FAILURES = "failures";
+    public static final String EXTRA_TOTAL_WAIT_MICROS = "total_wait_micros";
+    public static final String EXTRA_MAX_WAIT_MICROS = "max_wait_micros";
+    public static final String EXTRA_TOTAL_HOLD_MICROS = "total_hold_micros";
+    public static final String EXTRA_MAX_HOLD_MICROS = "max_hold_micros";
+
     /**
      * Inner class defining the table's contents.
      * Each entry is for one book.
@@ -30,6 +194,15 @@ public final class BookContract {
         /** URI used in {@link BookProvider} to access data **/
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_INVENTORY);
 
+        /** URI used to access a book by its ISBN, e.g. CONTENT_ISBN_URI/9780446365383 **/
+        public static final Uri CONTENT_ISBN_URI = Uri.withAppendedPath(CONTENT_URI, PATH_BY_ISBN);
+
+        /**
+         * URI used to list the books whose quantity is below their reorder threshold, sorted by supplier.
+         * Sales are included once METHOD_SCAN_REORDERS has scanned them.
+         */
+        public static final Uri CONTENT_REORDER_URI = Uri.withAppendedPath(CONTENT_URI, PATH_REORDERS);
+
         /** MIME type of the CONTENT_URI to access the whole list of data **/
         public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_INVENTORY;
 
@@ -56,5 +229,283 @@ public final class BookContract {
 
         /** Phone number of supplier - LONG **/
         public static final String COLUMN_BOOK_SUPPLIER_PHONE = "supplier_phone";
+
+        /** ISBN-13 of book without dashes, an ISBN-10 is stored in its ISBN-13 form, unique but optional - TEXT **/
+        public static final String COLUMN_BOOK_ISBN = "isbn";
+
+        /**
+         * Time the book was deleted in milliseconds since the epoch, null if it isn't deleted - INTEGER.
+         * Deleted books are hidden from queries until they are restored or purged.
+         */
+        public static final String COLUMN_BOOK_DELETED_AT = "deleted_at";
+
+        /** ID of the book on every synced device, the creating device's ID and the local ID - TEXT **/
+        public static final String COLUMN_BOOK_SYNC_ID = "sync_id";
+
+        /**
+         * Sequence number of the last local change to the book's columns other than the quantity,
+         * 0 if the book hasn't changed since it was synced - INTEGER. Set by a trigger on every write.
+         */
+        public static final String COLUMN_BOOK_CHANGE_SEQ = "change_seq";
+
+        /** Quantity below which the book should be reordered, 0 to never reorder - INTEGER **/
+        public static final String COLUMN_BOOK_REORDER_THRESHOLD = "reorder_threshold";
+
+        /**
+         * Quantity minus reorder threshold, negative if the book needs reordering - INTEGER.
+         * Kept by the provider when the quantity or threshold is written and by METHOD_SCAN_REORDERS
+         * for stock movements, so the books to reorder are found through its index.
+         */
+        public static final String COLUMN_BOOK_STOCK_MARGIN = "stock_margin";
+
+        /** Default sort order of the reorder list, which groups the books of each supplier **/
+        public static final String REORDER_SORT_ORDER = COLUMN_BOOK_SUPPLIER_NAME + ", " + COLUMN_BOOK_NAME;
+
+        /**
+         * Columns displayed in the collapsed rows of the catalog list.
+         * When sorted by LIST_SORT_ORDER they are read from the list index, except that the quantity
+         * also adds the book's uncompacted stock movements from the movements pending index.
+         */
+        public static final String[] LIST_PROJECTION = {
+                _ID,
+                COLUMN_BOOK_NAME,
+                COLUMN_BOOK_AUTHOR,
+                COLUMN_BOOK_PRICE,
+                COLUMN_BOOK_QUANTITY };
+
+        /** Sort order of the catalog list, which follows the list index **/
+        public static final String LIST_SORT_ORDER = _ID;
+
+        /** Columns displayed when a row of the catalog list is expanded, loaded only for expanded rows **/
+        public static final String[] DETAIL_PROJECTION = {
+                _ID,
+                COLUMN_BOOK_SUPPLIER_NAME,
+                COLUMN_BOOK_SUPPLIER_PHONE };
+
+        /**
+         * Update key (not a column) for an amount to add to the stored quantity, e.g. -1 for a sale.
+         * The change is recorded as a {@link MovementEntry}, so it doesn't depend on a previously read quantity.
+         * The update affects no rows if the quantity would drop below 0.
+         */
+        public static final String KEY_QUANTITY_DELTA = "quantity_delta";
+
+        /**
+         * Optional update key (not a column) for the {@link MovementEntry} reason of a quantity delta.
+         * Defaults to REASON_SALE for a negative delta and REASON_RESTOCK otherwise.
+         */
+        public static final String KEY_MOVEMENT_REASON = "movement_reason";
+
+        /**
+         * Update keys (not columns) that reprice the selected books in one transaction: the new price is
+         * the stored price times KEY_PRICE_FACTOR (1 by default) plus KEY_PRICE_OFFSET (0 by default),
+         * rounded to cents, e.g. a factor of 1.05 for a 5% raise. Each change is recorded as a
+         * {@link PriceHistoryEntry}. Books whose price would become negative or stay the same are skipped.
+         */
+        public static final String KEY_PRICE_FACTOR = "price_factor";
+        public static final String KEY_PRICE_OFFSET = "price_offset";
+
+        /**
+         * Returns a selection of the books with the given IDs, such as "_id IN (3,5,8)", so a change
+         * to many books is a single provider call. The IDs are numbers, so they are written into the
+         * selection directly, which also avoids SQLite's limit on the number of arguments.
+         */
+        public static String buildIdSelection(long[] ids) {
+            StringBuilder selection = new StringBuilder(_ID).append(" IN (");
+            for (int i = 0; i < ids.length; i++) {
+                if (i > 0) {
+                    selection.append(',');
+                }
+                selection.append(ids[i]);
+            }
+            return selection.append(')').toString();
+        }
+    }
+
+    /**
+     * Inner class defining the stock movement ledger.
+     * Each entry is one change to the quantity of a book. Entries are only appended,
+     * and a book's quantity is its stored snapshot plus the sum of its uncompacted entries.
+     */
+    public static abstract class MovementEntry implements BaseColumns {
+
+        /** URI used in {@link BookProvider} to access the ledger **/
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_MOVEMENTS);
+
+        /** MIME type of the CONTENT_URI to access the list of movements **/
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MOVEMENTS;
+
+        /** Name of database table **/
+        public static final String TABLE_NAME = "stock_movements";
+
+        /** ID of the book that changed - INTEGER **/
+        public static final String COLUMN_MOVEMENT_BOOK_ID = "book_id";
+
+        /** Amount added to the quantity, negative for sales - INTEGER **/
+        public static final String COLUMN_MOVEMENT_DELTA = "delta";
+
+        /** Reason for the change, one of the REASON values - INTEGER **/
+        public static final String COLUMN_MOVEMENT_REASON = "reason";
+
+        /** Time of the change in milliseconds since the epoch - INTEGER **/
+        public static final String COLUMN_MOVEMENT_CREATED_AT = "created_at";
+
+        /** 1 if the delta is already included in the book's stored quantity, else 0 - INTEGER **/
+        public static final String COLUMN_MOVEMENT_COMPACTED = "compacted";
+
+        /** 1 if the movement was pulled from another device, so it isn't pushed back, else 0 - INTEGER **/
+        public static final String COLUMN_MOVEMENT_REMOTE = "remote";
+
+        /** Insert key (not a column) for the sync ID of the book of a movement pulled from another device **/
+        public static final String KEY_BOOK_SYNC_ID = "book_sync_id";
+
+        /** Possible values for the reason of a movement **/
+        public static final int REASON_SALE = 0;
+        public static final int REASON_RESTOCK = 1;
+        public static final int REASON_ADJUSTMENT = 2;
+    }
+
+    /**
+     * Inner class defining the sales history.
+     * Each sale movement is added to the bucket of its book and hour and of its book and day,
+     * so the history grows with the titles sold per period instead of with every sale.
+     * Periods start at UTC hour and day boundaries.
+     *
+     * Querying the CONTENT_URI returns the sales velocity of each book sold in a period and not deleted,
+     * given in milliseconds since the epoch by the PARAM_SINCE and PARAM_UNTIL query parameters,
+     * and the last 7 days by default. Both ends are rounded up to whole days, so the period keeps
+     * its number of days and includes the sales of the current day. The selection can limit
+     * the books, e.g. "book_id IN (?, ?)". Querying the CONTENT_HOURLY_URI returns the hourly buckets.
+     */
+    public static abstract class SalesEntry {
+
+        /** URI used in {@link BookProvider} to read the sales velocity of each book **/
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SALES);
+
+        /** URI used to read the hourly buckets in a period **/
+        public static final Uri CONTENT_HOURLY_URI = Uri.withAppendedPath(CONTENT_URI, PATH_HOURLY);
+
+        /** MIME type of the CONTENT_URI and CONTENT_HOURLY_URI **/
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SALES;
+
+        /** Names of the database tables **/
+        public static final String HOURLY_TABLE_NAME = "sales_hourly";
+        public static final String DAILY_TABLE_NAME = "sales_daily";
+
+        /** ID of the book sold - INTEGER **/
+        public static final String COLUMN_SALES_BOOK_ID = "book_id";
+
+        /** Start of the bucket's hour or day in milliseconds since the epoch - INTEGER **/
+        public static final String COLUMN_SALES_PERIOD = "period";
+
+        /** Number of copies sold in the bucket, or in the queried period - INTEGER **/
+        public static final String COLUMN_SALES_UNITS = "units";
+
+        /** Query column (not stored) for the average number of copies sold per day in the queried period - REAL **/
+        public static final String COLUMN_SALES_UNITS_PER_DAY = "units_per_day";
+
+        /** Query column (not stored) for the average number of copies sold per week in the queried period - REAL **/
+        public static final String COLUMN_SALES_UNITS_PER_WEEK = "units_per_week";
+
+        /** Query parameters for the start (inclusive) and end (exclusive) of the period in milliseconds since the epoch **/
+        public static final String PARAM_SINCE = "since";
+        public static final String PARAM_UNTIL = "until";
+
+        /** Length of the buckets **/
+        public static final long HOUR_MILLIS = 60 * 60 * 1000;
+        public static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+        /** Time the hourly buckets are kept for, after which only the daily buckets remain **/
+        public static final long HOURLY_RETENTION_MILLIS = 8 * DAY_MILLIS;
+    }
+
+    /**
+     * Inner class defining the price history.
+     * Each entry is one change to the price of a book made by repricing it with KEY_PRICE_FACTOR
+     * and KEY_PRICE_OFFSET. The CONTENT_URI can be queried with a selection such as "book_id=?".
+     */
+    public static abstract class PriceHistoryEntry implements BaseColumns {
+
+        /** URI used in {@link BookProvider} to read the price history **/
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PRICE_HISTORY);
+
+        /** MIME type of the CONTENT_URI **/
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PRICE_HISTORY;
+
+        /** Name of database table **/
+        public static final String TABLE_NAME = "price_history";
+
+        /** ID of the book repriced - INTEGER **/
+        public static final String COLUMN_PRICE_BOOK_ID = "book_id";
+
+        /** Price before the change - REAL **/
+        public static final String COLUMN_PRICE_OLD = "old_price";
+
+        /** Price after the change - REAL **/
+        public static final String COLUMN_PRICE_NEW = "new_price";
+
+        /** Time of the change in milliseconds since the epoch - INTEGER **/
+        public static final String COLUMN_PRICE_CHANGED_AT = "changed_at";
+    }
+
+    /**
+     * Inner class defining the sync state, one named value per row.
+     * Inserting book values with a sync ID into the CONTENT_URI applies a change from another device,
+     * and updating the CONTENT_URI with state names as keys records how far the device has synced.
+     */
+    public static abstract class SyncEntry implements BaseColumns {
+
+        /** URI used in {@link BookProvider} to apply pulled changes and update the sync state **/
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SYNC);
+
+        /** MIME type of the CONTENT_URI **/
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC;
+
+        /** Name of database table **/
+        public static final String TABLE_NAME = "sync_state";
+
+        /** Name of the value - TEXT **/
+        public static final String COLUMN_STATE_NAME = "name";
+
+        /** The value - INTEGER **/
+        public static final String COLUMN_STATE_VALUE = "value";
+
+        /** The value of a state that isn't a number, or null - TEXT **/
+        public static final String COLUMN_STATE_TEXT = "text_value";
+
+        /** Random ID of this device, the first part of the sync IDs of books created on it **/
+        public static final String STATE_DEVICE_ID = "device_id";
+
+        /** Last change sequence number given to a book **/
+        public static final String STATE_LAST_SEQ = "last_seq";
+
+        /** Highest change sequence number the server has stored **/
+        public static final String STATE_PUSHED_SEQ = "pushed_seq";
+
+        /** Highest local stock movement ID the server has stored **/
+        public static final String STATE_PUSHED_MOVEMENT_ID = "pushed_movement_id";
+
+        /** Server position this device has pulled the other devices' changes up to **/
+        public static final String STATE_SERVER_CURSOR = "server_cursor";
+
+        /** 1 once the device has synced, so deleted books are kept until the server has them, else 0 **/
+        public static final String STATE_ENABLED = "enabled";
+
+        /** Highest stock movement ID included in the reorder margins, kept by METHOD_SCAN_REORDERS **/
+        public static final String STATE_REORDER_SCANNED_MOVEMENT_ID = "reorder_scanned_movement_id";
+
+        /** Address of the sync server in the text value, or null while sync is off **/
+        public static final String STATE_SERVER_URL = "server_url";
+
+        /** Version of the books, increased by triggers in the transaction of every change, see {@link DataVersion} **/
+        public static final String STATE_DATA_VERSION = "data_version";
+
+        /** Name of the table of the sync IDs books had before they took another device's book's ID **/
+        public static final String ALIAS_TABLE_NAME = "sync_aliases";
+
+        /** Earlier sync ID of the book - TEXT **/
+        public static final String COLUMN_ALIAS_SYNC_ID = "sync_id";
+
+        /** Local ID of the book - INTEGER **/
+        public static final String COLUMN_ALIAS_BOOK_ID = "book_id";
     }
 }
@@ -1,10 +1,22 @@
 package com.example.android.inventoryapp.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+import com.example.android.inventoryapp.R;
+
+import java.security.SecureRandom;
 
 import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.MovementEntry;
+import static com.example.android.inventoryapp.data.BookContract.PriceHistoryEntry;
+import static com.example.android.inventoryapp.data.BookContract.SalesEntry;
+import static com.example.android.inventoryapp.data.BookContract.SyncEntry;
 
 /**
  * Database helper. Handles creating and upgrading the database table,
@@ -16,7 +28,7 @@ public class BookDbHelper extends SQLiteOpenHelper {
     public static final String DATABASE_NAME = "BookStore.db";
 
     /** Version number if the database schema is ever changed **/
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 12;
 
     /** String containing the SQL statement to create the table **/
     private static final String SQL_CREATE_BOOKS_TABLE =
@@ -27,17 +39,285 @@ public class BookDbHelper extends SQLiteOpenHelper {
                     BookEntry.COLUMN_BOOK_PRICE + " DOUBLE NOT NULL," +
                     BookEntry.COLUMN_BOOK_QUANTITY + " INTEGER NOT NULL DEFAULT 1," +
                     BookEntry.COLUMN_BOOK_SUPPLIER_NAME + " TEXT NOT NULL," +
-                    BookEntry.COLUMN_BOOK_SUPPLIER_PHONE + " LONG NOT NULL)";
+                    BookEntry.COLUMN_BOOK_SUPPLIER_PHONE + " LONG NOT NULL," +
+                    BookEntry.COLUMN_BOOK_ISBN + " TEXT," +
+                    BookEntry.COLUMN_BOOK_DELETED_AT + " INTEGER," +
+                    BookEntry.COLUMN_BOOK_SYNC_ID + " TEXT," +
+                    BookEntry.COLUMN_BOOK_CHANGE_SEQ + " INTEGER NOT NULL DEFAULT 0," +
+                    BookEntry.COLUMN_BOOK_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT 0," +
+                    BookEntry.COLUMN_BOOK_STOCK_MARGIN + " INTEGER NOT NULL DEFAULT 0)";
+
+    /** String containing the SQL statement to add the ISBN column (version 2) **/
+    private static final String SQL_ADD_ISBN_COLUMN =
+            "ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN " + BookEntry.COLUMN_BOOK_ISBN + " TEXT";
+
+    /**
+     * String containing the SQL statement to create the unique ISBN index (version 2).
+     * Books without an ISBN are allowed since SQLite treats each NULL as distinct.
+     */
+    private static final String SQL_CREATE_ISBN_INDEX =
+            "CREATE UNIQUE INDEX " + BookEntry.TABLE_NAME + "_isbn_index ON " +
+                    BookEntry.TABLE_NAME + " (" + BookEntry.COLUMN_BOOK_ISBN + ")";
+
+    /** String containing the SQL statement to add the deleted time column (version 4) **/
+    private static final String SQL_ADD_DELETED_AT_COLUMN =
+            "ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN " + BookEntry.COLUMN_BOOK_DELETED_AT + " INTEGER";
+
+    /** String containing the SQL statement to create the index used to find deleted books (version 4) **/
+    private static final String SQL_CREATE_DELETED_AT_INDEX =
+            "CREATE INDEX " + BookEntry.TABLE_NAME + "_deleted_at_index ON " +
+                    BookEntry.TABLE_NAME + " (" + BookEntry.COLUMN_BOOK_DELETED_AT + ")";
+
+    /**
+     * String containing the SQL statement to create the covering index of the catalog list (version 7).
+     * The list query finds the books that aren't deleted in ID order and reads its columns from the index,
+     * so the supplier columns in the table rows are never read for the list. The quantity shown is not
+     * only the stored one: each row also sums its book's uncompacted movements, which is one lookup in
+     * the movements pending index per row, see {@link StockLedger#SQL_EFFECTIVE_QUANTITY}.
+     * It replaces the deleted time index, since deleted books are found through the same first column.
+     */
+    private static final String SQL_CREATE_LIST_INDEX =
+            "CREATE INDEX " + BookEntry.TABLE_NAME + "_list_index ON " + BookEntry.TABLE_NAME + " (" +
+                    BookEntry.COLUMN_BOOK_DELETED_AT + ", " +
+                    BookEntry._ID + ", " +
+                    BookEntry.COLUMN_BOOK_NAME + ", " +
+                    BookEntry.COLUMN_BOOK_AUTHOR + ", " +
+                    BookEntry.COLUMN_BOOK_PRICE + ", " +
+                    BookEntry.COLUMN_BOOK_QUANTITY + ")";
+
+    /** String containing the SQL statement to drop the deleted time index (version 7) **/
+    private static final String SQL_DROP_DELETED_AT_INDEX =
+            "DROP INDEX IF EXISTS " + BookEntry.TABLE_NAME + "_deleted_at_index";
+
+    /** Strings containing the SQL statements to add the reorder columns (version 8) **/
+    private static final String SQL_ADD_REORDER_THRESHOLD_COLUMN =
+            "ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN " + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD +
+                    " INTEGER NOT NULL DEFAULT 0";
+    private static final String SQL_ADD_STOCK_MARGIN_COLUMN =
+            "ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN " + BookEntry.COLUMN_BOOK_STOCK_MARGIN +
+                    " INTEGER NOT NULL DEFAULT 0";
+
+    /**
+     * String containing the SQL statement to create the index used to find the books to reorder (version 8).
+     * Indexes on expressions need SQLite 3.9, so the margin is a column kept by the provider.
+     */
+    private static final String SQL_CREATE_REORDER_INDEX =
+            "CREATE INDEX " + BookEntry.TABLE_NAME + "_reorder_index ON " +
+                    BookEntry.TABLE_NAME + " (" + BookEntry.COLUMN_BOOK_STOCK_MARGIN + ")";
+
+    /** String containing the SQL statement to create the stock movement ledger (version 3) **/
+    private static final String SQL_CREATE_MOVEMENTS_TABLE =
+            "CREATE TABLE " + MovementEntry.TABLE_NAME + " (" +
+                    MovementEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    MovementEntry.COLUMN_MOVEMENT_BOOK_ID + " INTEGER NOT NULL," +
+                    MovementEntry.COLUMN_MOVEMENT_DELTA + " INTEGER NOT NULL," +
+                    MovementEntry.COLUMN_MOVEMENT_REASON + " INTEGER NOT NULL," +
+                    MovementEntry.COLUMN_MOVEMENT_CREATED_AT + " INTEGER NOT NULL," +
+                    MovementEntry.COLUMN_MOVEMENT_COMPACTED + " INTEGER NOT NULL DEFAULT 0," +
+                    MovementEntry.COLUMN_MOVEMENT_REMOTE + " INTEGER NOT NULL DEFAULT 0)";
+
+    /**
+     * String containing the SQL statement to create the index used to sum a book's uncompacted movements (version 3).
+     * The delta is included so the sum is read from the index alone.
+     */
+    private static final String SQL_CREATE_MOVEMENTS_PENDING_INDEX =
+            "CREATE INDEX " + MovementEntry.TABLE_NAME + "_pending_index ON " + MovementEntry.TABLE_NAME + " (" +
+                    MovementEntry.COLUMN_MOVEMENT_COMPACTED + ", " +
+                    MovementEntry.COLUMN_MOVEMENT_BOOK_ID + ", " +
+                    MovementEntry.COLUMN_MOVEMENT_DELTA + ")";
+
+    /** String containing the SQL statement to create the index used for per-period queries (version 3) **/
+    private static final String SQL_CREATE_MOVEMENTS_TIME_INDEX =
+            "CREATE INDEX " + MovementEntry.TABLE_NAME + "_time_index ON " + MovementEntry.TABLE_NAME + " (" +
+                    MovementEntry.COLUMN_MOVEMENT_CREATED_AT + ")";
+
+    /** String containing the SQL statement to create the sync state table (version 6) **/
+    private static final String SQL_CREATE_SYNC_STATE_TABLE =
+            "CREATE TABLE " + SyncEntry.TABLE_NAME + " (" +
+                    SyncEntry.COLUMN_STATE_NAME + " TEXT PRIMARY KEY," +
+                    SyncEntry.COLUMN_STATE_VALUE + " INTEGER NOT NULL," +
+                    SyncEntry.COLUMN_STATE_TEXT + " TEXT)";
+
+    /** Strings containing the SQL statements to add the sync columns (version 6) **/
+    private static final String SQL_ADD_SYNC_ID_COLUMN =
+            "ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN " + BookEntry.COLUMN_BOOK_SYNC_ID + " TEXT";
+    private static final String SQL_ADD_CHANGE_SEQ_COLUMN =
+            "ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN " + BookEntry.COLUMN_BOOK_CHANGE_SEQ +
+                    " INTEGER NOT NULL DEFAULT 0";
+    private static final String SQL_ADD_MOVEMENT_REMOTE_COLUMN =
+            "ALTER TABLE " + MovementEntry.TABLE_NAME + " ADD COLUMN " + MovementEntry.COLUMN_MOVEMENT_REMOTE +
+                    " INTEGER NOT NULL DEFAULT 0";
+
+    /** Strings containing the SQL statements to create the indexes used to look up and push changed books (version 6) **/
+    private static final String SQL_CREATE_SYNC_ID_INDEX =
+            "CREATE UNIQUE INDEX " + BookEntry.TABLE_NAME + "_sync_id_index ON " +
+                    BookEntry.TABLE_NAME + " (" + BookEntry.COLUMN_BOOK_SYNC_ID + ")";
+    private static final String SQL_CREATE_CHANGE_SEQ_INDEX =
+            "CREATE INDEX " + BookEntry.TABLE_NAME + "_change_seq_index ON " +
+                    BookEntry.TABLE_NAME + " (" + BookEntry.COLUMN_BOOK_CHANGE_SEQ + ")";
+
+    /** Strings containing the SQL statements to create the sales history buckets (version 9) **/
+    private static final String SQL_CREATE_SALES_HOURLY_TABLE = createSalesTable(SalesEntry.HOURLY_TABLE_NAME);
+    private static final String SQL_CREATE_SALES_DAILY_TABLE = createSalesTable(SalesEntry.DAILY_TABLE_NAME);
+
+    /** Strings containing the SQL statements to create the indexes used to read all books in a period (version 9) **/
+    private static final String SQL_CREATE_SALES_HOURLY_PERIOD_INDEX = createSalesPeriodIndex(SalesEntry.HOURLY_TABLE_NAME);
+    private static final String SQL_CREATE_SALES_DAILY_PERIOD_INDEX = createSalesPeriodIndex(SalesEntry.DAILY_TABLE_NAME);
+
+    /**
+     * String containing the SQL statement to create the trigger that adds each sale to its buckets (version 9).
+     * Sales pulled from other devices are added too, since they are inserted as movements.
+     */
+    private static final String SQL_CREATE_SALE_TRIGGER =
+            "CREATE TRIGGER " + MovementEntry.TABLE_NAME + "_sale_buckets AFTER INSERT ON " + MovementEntry.TABLE_NAME +
+                    " WHEN NEW." + MovementEntry.COLUMN_MOVEMENT_REASON + " = " + MovementEntry.REASON_SALE +
+                    " AND NEW." + MovementEntry.COLUMN_MOVEMENT_DELTA + " < 0" +
+                    " BEGIN " + addSaleToBucket(SalesEntry.HOURLY_TABLE_NAME, SalesEntry.HOUR_MILLIS) +
+                    addSaleToBucket(SalesEntry.DAILY_TABLE_NAME, SalesEntry.DAY_MILLIS) + " END";
+
+    /** Expression for a sync state value **/
+    private static final String SQL_STATE_VALUE = "(SELECT " + SyncEntry.COLUMN_STATE_VALUE +
+            " FROM " + SyncEntry.TABLE_NAME + " WHERE " + SyncEntry.COLUMN_STATE_NAME + " = '%s')";
 
-    /** String containing the SQL statement to delete the table **/
-    private static final String SQL_DELETE_BOOKS_TABLE =
-            "DROP TABLE IF EXISTS " + BookEntry.TABLE_NAME;
+    /** Statement that takes the next change sequence number **/
+    private static final String SQL_NEXT_SEQ = "UPDATE " + SyncEntry.TABLE_NAME +
+            " SET " + SyncEntry.COLUMN_STATE_VALUE + " = " + SyncEntry.COLUMN_STATE_VALUE + " + 1" +
+            " WHERE " + SyncEntry.COLUMN_STATE_NAME + " = '" + SyncEntry.STATE_LAST_SEQ + "';";
+
+    /**
+     * String containing the SQL statement to create the trigger that numbers inserted books (version 6).
+     * A book created on this device gets a sync ID made of the device ID and its local ID.
+     */
+    private static final String SQL_CREATE_INSERT_TRIGGER =
+            "CREATE TRIGGER " + BookEntry.TABLE_NAME + "_insert_change AFTER INSERT ON " + BookEntry.TABLE_NAME +
+                    " BEGIN " + SQL_NEXT_SEQ +
+                    " UPDATE " + BookEntry.TABLE_NAME +
+                    " SET " + BookEntry.COLUMN_BOOK_CHANGE_SEQ + " = " + String.format(SQL_STATE_VALUE, SyncEntry.STATE_LAST_SEQ) + ", " +
+                    BookEntry.COLUMN_BOOK_SYNC_ID + " = IFNULL(NEW." + BookEntry.COLUMN_BOOK_SYNC_ID + ", " +
+                    String.format(SQL_STATE_VALUE, SyncEntry.STATE_DEVICE_ID) + " || ':' || NEW." + BookEntry._ID + ")" +
+                    " WHERE " + BookEntry._ID + " = NEW." + BookEntry._ID + "; END";
+
+    /**
+     * String containing the SQL statement to create the trigger that numbers updated books (version 6).
+     * The quantity isn't listed since it is synced through the stock movements.
+     */
+    private static final String SQL_CREATE_UPDATE_TRIGGER =
+            "CREATE TRIGGER " + BookEntry.TABLE_NAME + "_update_change AFTER UPDATE OF " +
+                    BookEntry.COLUMN_BOOK_NAME + ", " +
+                    BookEntry.COLUMN_BOOK_AUTHOR + ", " +
+                    BookEntry.COLUMN_BOOK_PRICE + ", " +
+                    BookEntry.COLUMN_BOOK_SUPPLIER_NAME + ", " +
+                    BookEntry.COLUMN_BOOK_SUPPLIER_PHONE + ", " +
+                    BookEntry.COLUMN_BOOK_ISBN + ", " +
+                    BookEntry.COLUMN_BOOK_DELETED_AT + " ON " + BookEntry.TABLE_NAME +
+                    " BEGIN " + SQL_NEXT_SEQ +
+                    " UPDATE " + BookEntry.TABLE_NAME +
+                    " SET " + BookEntry.COLUMN_BOOK_CHANGE_SEQ + " = " + String.format(SQL_STATE_VALUE, SyncEntry.STATE_LAST_SEQ) +
+                    " WHERE " + BookEntry._ID + " = NEW." + BookEntry._ID + "; END";
+
+    /** Statement that increases the data version **/
+    private static final String SQL_NEXT_DATA_VERSION = "UPDATE " + SyncEntry.TABLE_NAME +
+            " SET " + SyncEntry.COLUMN_STATE_VALUE + " = " + SyncEntry.COLUMN_STATE_VALUE + " + 1" +
+            " WHERE " + SyncEntry.COLUMN_STATE_NAME + " = '" + SyncEntry.STATE_DATA_VERSION + "';";
+
+    /**
+     * Strings containing the SQL statements to create the triggers that increase the data version
+     * whenever a book or its stock changes (version 6). They run in the transaction of the change,
+     * so a version can't outlast or run ahead of the data it stands for.
+     */
+    private static final String SQL_CREATE_INSERT_VERSION_TRIGGER =
+            "CREATE TRIGGER " + BookEntry.TABLE_NAME + "_insert_version AFTER INSERT ON " + BookEntry.TABLE_NAME +
+                    " BEGIN " + SQL_NEXT_DATA_VERSION + " END";
+    private static final String SQL_CREATE_UPDATE_VERSION_TRIGGER =
+            "CREATE TRIGGER " + BookEntry.TABLE_NAME + "_update_version AFTER UPDATE OF " +
+                    BookEntry.COLUMN_BOOK_NAME + ", " +
+                    BookEntry.COLUMN_BOOK_AUTHOR + ", " +
+                    BookEntry.COLUMN_BOOK_PRICE + ", " +
+                    BookEntry.COLUMN_BOOK_QUANTITY + ", " +
+                    BookEntry.COLUMN_BOOK_SUPPLIER_NAME + ", " +
+                    BookEntry.COLUMN_BOOK_SUPPLIER_PHONE + ", " +
+                    BookEntry.COLUMN_BOOK_ISBN + ", " +
+                    BookEntry.COLUMN_BOOK_DELETED_AT + " ON " + BookEntry.TABLE_NAME +
+                    " BEGIN " + SQL_NEXT_DATA_VERSION + " END";
+    private static final String SQL_CREATE_DELETE_VERSION_TRIGGER =
+            "CREATE TRIGGER " + BookEntry.TABLE_NAME + "_delete_version AFTER DELETE ON " + BookEntry.TABLE_NAME +
+                    " BEGIN " + SQL_NEXT_DATA_VERSION + " END";
+    private static final String SQL_CREATE_MOVEMENT_VERSION_TRIGGER =
+            "CREATE TRIGGER " + MovementEntry.TABLE_NAME + "_insert_version AFTER INSERT ON " + MovementEntry.TABLE_NAME +
+                    " BEGIN " + SQL_NEXT_DATA_VERSION + " END";
+
+    /** String containing the SQL statement to create the table of earlier sync IDs (version 12) **/
+    private static final String SQL_CREATE_SYNC_ALIASES_TABLE =
+            "CREATE TABLE " + SyncEntry.ALIAS_TABLE_NAME + " (" +
+                    SyncEntry.COLUMN_ALIAS_SYNC_ID + " TEXT PRIMARY KEY," +
+                    SyncEntry.COLUMN_ALIAS_BOOK_ID + " INTEGER NOT NULL)";
+
+    /** String containing the SQL statement to create the index used to remove a purged book's aliases (version 12) **/
+    private static final String SQL_CREATE_SYNC_ALIASES_BOOK_INDEX =
+            "CREATE INDEX " + SyncEntry.ALIAS_TABLE_NAME + "_book_index ON " + SyncEntry.ALIAS_TABLE_NAME + " (" +
+                    SyncEntry.COLUMN_ALIAS_BOOK_ID + ")";
+
+    /** String containing the SQL statement to create the trigger that removes a purged book's aliases (version 12) **/
+    private static final String SQL_CREATE_DELETE_ALIASES_TRIGGER =
+            "CREATE TRIGGER " + BookEntry.TABLE_NAME + "_delete_aliases AFTER DELETE ON " + BookEntry.TABLE_NAME +
+                    " BEGIN DELETE FROM " + SyncEntry.ALIAS_TABLE_NAME +
+                    " WHERE " + SyncEntry.COLUMN_ALIAS_BOOK_ID + " = OLD." + BookEntry._ID + "; END";
+
+    /** String containing the SQL statement to create the price history (version 11) **/
+    private static final String SQL_CREATE_PRICE_HISTORY_TABLE =
+            "CREATE TABLE " + PriceHistoryEntry.TABLE_NAME + " (" +
+                    PriceHistoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    PriceHistoryEntry.COLUMN_PRICE_BOOK_ID + " INTEGER NOT NULL," +
+                    PriceHistoryEntry.COLUMN_PRICE_OLD + " DOUBLE NOT NULL," +
+                    PriceHistoryEntry.COLUMN_PRICE_NEW + " DOUBLE NOT NULL," +
+                    PriceHistoryEntry.COLUMN_PRICE_CHANGED_AT + " INTEGER NOT NULL)";
+
+    /** String containing the SQL statement to create the index used to read a book's price history (version 11) **/
+    private static final String SQL_CREATE_PRICE_HISTORY_BOOK_INDEX =
+            "CREATE INDEX " + PriceHistoryEntry.TABLE_NAME + "_book_index ON " + PriceHistoryEntry.TABLE_NAME + " (" +
+                    PriceHistoryEntry.COLUMN_PRICE_BOOK_ID + ", " +
+                    PriceHistoryEntry.COLUMN_PRICE_CHANGED_AT + ")";
+
+    private final Context mContext;
+
+    /** Whether the sensitive columns of new books are encrypted, from the encrypt_book_columns resource **/
+    private final boolean mEncrypted;
+
+    /** Whether the books in the file are stored encrypted, found when it is opened **/
+    private boolean mStoredEncrypted;
+
+    /** Cipher of the sensitive columns, loaded on first use since it reads the key file **/
+    private ColumnCipher mCipher;
 
     /**
      * Constructor that takes in the context of the app.
+     * The encrypt_book_columns resource decides whether the sensitive columns are encrypted.
      */
     public BookDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, context.getResources().getBoolean(R.bool.encrypt_book_columns));
+    }
+
+    /**
+     * Constructor for a database with the given file name, with or without encrypted columns,
+     * so the storage options can be compared on separate files.
+     */
+    BookDbHelper(Context context, String name, boolean encrypted) {
+        super(context, name, null, DATABASE_VERSION);
+        mContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        mEncrypted = encrypted;
+    }
+
+    /**
+     * Returns the cipher of the sensitive columns, or the plain cipher if they aren't encrypted.
+     * Opens the database and reads the key file on first use, so it shouldn't be called on the main thread.
+     */
+    synchronized ColumnCipher getCipher() {
+        if (mCipher == null) {
+            // Opening the database finds out how its books are stored
+            getReadableDatabase();
+            mCipher = mStoredEncrypted ? LocalKeyStore.getColumnCipher(mContext) : ColumnCipher.PLAIN;
+        }
+        return mCipher;
     }
 
     /**
@@ -46,14 +326,287 @@ public class BookDbHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_BOOKS_TABLE);
+        db.execSQL(SQL_CREATE_ISBN_INDEX);
+        db.execSQL(SQL_CREATE_LIST_INDEX);
+        createMovementsTable(db);
+        createSyncState(db);
+        createReorderState(db, 0);
+        createSalesHistory(db);
+        createPriceHistory(db);
+        createSyncAliases(db);
     }
 
     /**
-     * Called when the database needs to be upgraded by deleting it and creating a new one.
+     * Called when the database needs to be upgraded.
+     * Each schema version is migrated in turn so existing books are kept.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL(SQL_DELETE_BOOKS_TABLE);
-        onCreate(db);
+        if (oldVersion < 2) {
+            db.execSQL(SQL_ADD_ISBN_COLUMN);
+            db.execSQL(SQL_CREATE_ISBN_INDEX);
+        }
+        if (oldVersion < 3) {
+            createMovementsTable(db);
+            recordStoredQuantities(db);
+        }
+        if (oldVersion < 4) {
+            db.execSQL(SQL_ADD_DELETED_AT_COLUMN);
+            db.execSQL(SQL_CREATE_DELETED_AT_INDEX);
+        }
+        // Version 5 switched on incremental auto-vacuum, which onOpen() does since the file
+        // can only be rebuilt outside of the migration's transaction
+        if (oldVersion < 6) {
+            db.execSQL(SQL_ADD_SYNC_ID_COLUMN);
+            db.execSQL(SQL_ADD_CHANGE_SEQ_COLUMN);
+            // Ledgers created by the version 3 migration above already have the column
+            if (oldVersion >= 3) {
+                db.execSQL(SQL_ADD_MOVEMENT_REMOTE_COLUMN);
+            }
+            createSyncState(db);
+
+            // Gives the existing books sync IDs and change numbers so they are pushed on the first sync
+            db.execSQL("UPDATE " + BookEntry.TABLE_NAME +
+                    " SET " + BookEntry.COLUMN_BOOK_SYNC_ID + " = " + String.format(SQL_STATE_VALUE, SyncEntry.STATE_DEVICE_ID) +
+                    " || ':' || " + BookEntry._ID + ", " +
+                    BookEntry.COLUMN_BOOK_CHANGE_SEQ + " = " + BookEntry._ID);
+            db.execSQL("UPDATE " + SyncEntry.TABLE_NAME +
+                    " SET " + SyncEntry.COLUMN_STATE_VALUE + " = (SELECT IFNULL(MAX(" + BookEntry._ID + "), 0) FROM " +
+                    BookEntry.TABLE_NAME + ") WHERE " + SyncEntry.COLUMN_STATE_NAME + " = '" + SyncEntry.STATE_LAST_SEQ + "'");
+        }
+        if (oldVersion < 7) {
+            db.execSQL(SQL_DROP_DELETED_AT_INDEX);
+            db.execSQL(SQL_CREATE_LIST_INDEX);
+        }
+        if (oldVersion < 8) {
+            db.execSQL(SQL_ADD_REORDER_THRESHOLD_COLUMN);
+            db.execSQL(SQL_ADD_STOCK_MARGIN_COLUMN);
+
+            // No book has a threshold yet, so each margin is its current quantity and includes every movement
+            ReorderStore.refreshMargins(db, null, null);
+            long lastMovementId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + MovementEntry._ID + "), 0) FROM " +
+                    MovementEntry.TABLE_NAME, null);
+            createReorderState(db, lastMovementId);
+        }
+        if (oldVersion < 9) {
+            createSalesHistory(db);
+
+            // Fills the daily buckets with every recorded sale and the hourly buckets with the recent ones
+            long hourlySince = System.currentTimeMillis() - SalesEntry.HOURLY_RETENTION_MILLIS;
+            db.execSQL(fillSalesTable(SalesEntry.HOURLY_TABLE_NAME, SalesEntry.HOUR_MILLIS,
+                    " AND " + MovementEntry.COLUMN_MOVEMENT_CREATED_AT + " >= " + hourlySince));
+            db.execSQL(fillSalesTable(SalesEntry.DAILY_TABLE_NAME, SalesEntry.DAY_MILLIS, ""));
+        }
+        if (oldVersion < 10 && mEncrypted) {
+            encryptBooks(db, LocalKeyStore.getColumnCipher(mContext));
+        }
+        if (oldVersion < 11) {
+            createPriceHistory(db);
+        }
+        if (oldVersion < 12) {
+            createSyncAliases(db);
+        }
+    }
+
+    /**
+     * Called when the database connection is configured, before any migration (Android 4.1 and later).
+     * Bounds the time a write waits for a lock held by another connection, then switches on
+     * write-ahead logging, so the catalog can be read on other connections while a sale is written.
+     * SQLite's default page cache is kept: a cache_size pragma would only reach the write connection,
+     * since the framework opens the read connections without a hook to configure them.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        DatabaseUtils.longForQuery(db, "PRAGMA busy_timeout = " + WriteCoordinator.BUSY_TIMEOUT_MILLIS, null);
+        db.enableWriteAheadLogging();
+    }
+
+    /**
+     * Called after the database is opened and any migration has been committed.
+     * Switches on incremental auto-vacuum if the file doesn't use it yet, so deleted rows free their pages.
+     * On Android 4.0, where onConfigure() isn't called, write-ahead logging is switched on here.
+     * Finds out whether the books are stored encrypted, see getCipher().
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Checked on every open, since the process can die between the migration and the rebuild
+        if (!db.isReadOnly() && DatabaseMaintenance.getAutoVacuum(db) != DatabaseMaintenance.AUTO_VACUUM_INCREMENTAL) {
+            DatabaseMaintenance.enableIncrementalVacuum(db);
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+        // The books keep the form they were written in, so a file written before the resource changed
+        // is read as stored. The resource only decides for a file without books
+        String priceType = DatabaseUtils.stringForQuery(db, "SELECT IFNULL((SELECT typeof(" +
+                BookEntry.COLUMN_BOOK_PRICE + ") FROM " + BookEntry.TABLE_NAME + " LIMIT 1), '')", null);
+        mStoredEncrypted = priceType.isEmpty() ? mEncrypted : "blob".equals(priceType);
+    }
+
+    /**
+     * Creates the sync state with a new device ID, the sync indexes and the triggers that number changed books
+     * and increase the data version.
+     */
+    private static void createSyncState(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_SYNC_STATE_TABLE);
+        long deviceId = new SecureRandom().nextLong() & Long.MAX_VALUE;
+        insertState(db, SyncEntry.STATE_DEVICE_ID, deviceId);
+        insertState(db, SyncEntry.STATE_LAST_SEQ, 0);
+        insertState(db, SyncEntry.STATE_PUSHED_SEQ, 0);
+        insertState(db, SyncEntry.STATE_PUSHED_MOVEMENT_ID, 0);
+        insertState(db, SyncEntry.STATE_SERVER_CURSOR, 0);
+        insertState(db, SyncEntry.STATE_ENABLED, 0);
+        insertState(db, SyncEntry.STATE_SERVER_URL, 0);
+        insertState(db, SyncEntry.STATE_DATA_VERSION, 0);
+        db.execSQL(SQL_CREATE_SYNC_ID_INDEX);
+        db.execSQL(SQL_CREATE_CHANGE_SEQ_INDEX);
+        db.execSQL(SQL_CREATE_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_INSERT_VERSION_TRIGGER);
+        db.execSQL(SQL_CREATE_UPDATE_VERSION_TRIGGER);
+        db.execSQL(SQL_CREATE_DELETE_VERSION_TRIGGER);
+        db.execSQL(SQL_CREATE_MOVEMENT_VERSION_TRIGGER);
+    }
+
+    /**
+     * Creates the reorder index and the mark of the stock movements already included in the margins.
+     */
+    private static void createReorderState(SQLiteDatabase db, long scannedMovementId) {
+        db.execSQL(SQL_CREATE_REORDER_INDEX);
+        insertState(db, SyncEntry.STATE_REORDER_SCANNED_MOVEMENT_ID, scannedMovementId);
+    }
+
+    /**
+     * Creates the sales history buckets, their indexes and the trigger that fills them.
+     */
+    private static void createSalesHistory(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_SALES_HOURLY_TABLE);
+        db.execSQL(SQL_CREATE_SALES_DAILY_TABLE);
+        db.execSQL(SQL_CREATE_SALES_HOURLY_PERIOD_INDEX);
+        db.execSQL(SQL_CREATE_SALES_DAILY_PERIOD_INDEX);
+        db.execSQL(SQL_CREATE_SALE_TRIGGER);
+    }
+
+    /**
+     * Creates the price history and its index.
+     */
+    private static void createPriceHistory(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_PRICE_HISTORY_TABLE);
+        db.execSQL(SQL_CREATE_PRICE_HISTORY_BOOK_INDEX);
+    }
+
+    /**
+     * Creates the table of earlier sync IDs, its index and the trigger that removes a purged book's aliases.
+     */
+    private static void createSyncAliases(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_SYNC_ALIASES_TABLE);
+        db.execSQL(SQL_CREATE_SYNC_ALIASES_BOOK_INDEX);
+        db.execSQL(SQL_CREATE_DELETE_ALIASES_TRIGGER);
+    }
+
+    /**
+     * Returns the SQL statement to create a bucket table.
+     * The primary key reads one book's buckets in a period without touching the other books.
+     */
+    private static String createSalesTable(String tableName) {
+        return "CREATE TABLE " + tableName + " (" +
+                SalesEntry.COLUMN_SALES_BOOK_ID + " INTEGER NOT NULL," +
+                SalesEntry.COLUMN_SALES_PERIOD + " INTEGER NOT NULL," +
+                SalesEntry.COLUMN_SALES_UNITS + " INTEGER NOT NULL," +
+                "PRIMARY KEY (" + SalesEntry.COLUMN_SALES_BOOK_ID + ", " + SalesEntry.COLUMN_SALES_PERIOD + "))";
+    }
+
+    private static String createSalesPeriodIndex(String tableName) {
+        return "CREATE INDEX " + tableName + "_period_index ON " + tableName + " (" + SalesEntry.COLUMN_SALES_PERIOD + ")";
+    }
+
+    /**
+     * Returns the trigger statements that add the NEW sale to its bucket of the given length.
+     * The bucket is created empty if it doesn't exist, since SQLite has no upsert before version 3.24.
+     */
+    private static String addSaleToBucket(String tableName, long periodMillis) {
+        String period = "(NEW." + MovementEntry.COLUMN_MOVEMENT_CREATED_AT + " / " + periodMillis + ") * " + periodMillis;
+        return "INSERT OR IGNORE INTO " + tableName + " VALUES (NEW." + MovementEntry.COLUMN_MOVEMENT_BOOK_ID +
+                ", " + period + ", 0); " +
+                "UPDATE " + tableName + " SET " + SalesEntry.COLUMN_SALES_UNITS + " = " +
+                SalesEntry.COLUMN_SALES_UNITS + " - NEW." + MovementEntry.COLUMN_MOVEMENT_DELTA +
+                " WHERE " + SalesEntry.COLUMN_SALES_BOOK_ID + " = NEW." + MovementEntry.COLUMN_MOVEMENT_BOOK_ID +
+                " AND " + SalesEntry.COLUMN_SALES_PERIOD + " = " + period + "; ";
+    }
+
+    /**
+     * Returns the SQL statement that adds up the recorded sales into a bucket table (version 9).
+     */
+    private static String fillSalesTable(String tableName, long periodMillis, String andSelection) {
+        return "INSERT INTO " + tableName + " SELECT " + MovementEntry.COLUMN_MOVEMENT_BOOK_ID + ", (" +
+                MovementEntry.COLUMN_MOVEMENT_CREATED_AT + " / " + periodMillis + ") * " + periodMillis + ", -SUM(" +
+                MovementEntry.COLUMN_MOVEMENT_DELTA + ") FROM " + MovementEntry.TABLE_NAME +
+                " WHERE " + MovementEntry.COLUMN_MOVEMENT_REASON + " = " + MovementEntry.REASON_SALE +
+                " AND " + MovementEntry.COLUMN_MOVEMENT_DELTA + " < 0" + andSelection + " GROUP BY 1, 2";
+    }
+
+    /**
+     * Encrypts the price and supplier phone of the existing books (version 10).
+     * Each book's change number is put back, so the migration doesn't push every book on the next sync.
+     */
+    private static void encryptBooks(SQLiteDatabase db, ColumnCipher cipher) {
+        Cursor cursor = db.query(BookEntry.TABLE_NAME, new String[] {
+                BookEntry._ID,
+                BookEntry.COLUMN_BOOK_PRICE,
+                BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+                BookEntry.COLUMN_BOOK_CHANGE_SEQ }, null, null, null, null, null);
+        try {
+            ContentValues values = new ContentValues();
+            ContentValues seqValues = new ContentValues();
+            while (cursor.moveToNext()) {
+                String[] idArgs = new String[] { cursor.getString(0) };
+                values.clear();
+                values.put(BookEntry.COLUMN_BOOK_PRICE, cursor.getDouble(1));
+                values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, cursor.getLong(2));
+                cipher.encryptValues(values);
+                db.update(BookEntry.TABLE_NAME, values, BookEntry._ID + " = ?", idArgs);
+                seqValues.put(BookEntry.COLUMN_BOOK_CHANGE_SEQ, cursor.getLong(3));
+                db.update(BookEntry.TABLE_NAME, seqValues, BookEntry._ID + " = ?", idArgs);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Records the part of each book's stored quantity that no folded movement accounts for,
+     * i.e. the stock entered before the ledger existed, as a folded restock. The displayed
+     * quantities don't change, and the movements are pushed so other devices get the stock too.
+     */
+    private static void recordStoredQuantities(SQLiteDatabase db) {
+        String unrecorded = BookEntry.COLUMN_BOOK_QUANTITY + " - IFNULL((SELECT SUM(" + MovementEntry.COLUMN_MOVEMENT_DELTA +
+                ") FROM " + MovementEntry.TABLE_NAME + " WHERE " + MovementEntry.COLUMN_MOVEMENT_COMPACTED + " = 1 AND " +
+                MovementEntry.COLUMN_MOVEMENT_BOOK_ID + " = " + BookEntry.TABLE_NAME + "." + BookEntry._ID + "), 0)";
+        db.execSQL("INSERT INTO " + MovementEntry.TABLE_NAME + " (" +
+                MovementEntry.COLUMN_MOVEMENT_BOOK_ID + ", " +
+                MovementEntry.COLUMN_MOVEMENT_DELTA + ", " +
+                MovementEntry.COLUMN_MOVEMENT_REASON + ", " +
+                MovementEntry.COLUMN_MOVEMENT_CREATED_AT + ", " +
+                MovementEntry.COLUMN_MOVEMENT_COMPACTED + ")" +
+                " SELECT " + BookEntry._ID + ", " + unrecorded + ", " + MovementEntry.REASON_RESTOCK + ", " +
+                System.currentTimeMillis() + ", 1 FROM " + BookEntry.TABLE_NAME + " WHERE " + unrecorded + " != 0");
+    }
+
+    private static void insertState(SQLiteDatabase db, String name, long value) {
+        ContentValues values = new ContentValues();
+        values.put(SyncEntry.COLUMN_STATE_NAME, name);
+        values.put(SyncEntry.COLUMN_STATE_VALUE, value);
+        db.insert(SyncEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Creates the stock movement ledger and its indexes.
+     */
+    private static void createMovementsTable(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_MOVEMENTS_TABLE);
+        db.execSQL(SQL_CREATE_MOVEMENTS_PENDING_INDEX);
+        db.execSQL(SQL_CREATE_MOVEMENTS_TIME_INDEX);
     }
 }
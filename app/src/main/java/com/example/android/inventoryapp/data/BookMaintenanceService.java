@@ -0,0 +1,216 @@
+package com.example.android.inventoryapp.data;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.BatteryManager;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.inventoryapp.R;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_BACKUP_TIME;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_COUNT;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_FRAGMENTATION;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_PAGE_COUNT;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_BACKUP;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_COMPACT_MOVEMENTS;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_GET_DATABASE_STATS;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_INCREMENTAL_VACUUM;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_OPTIMIZE;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_PRUNE_SALES_HISTORY;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_PURGE_DELETED;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_SCAN_REORDERS;
+
+/**
+ * Background service that runs database maintenance through {@link BookProvider}.
+ * It is started periodically by an inexact alarm, so the work is batched with other wakeups.
+ * Each run also updates the reorder notifications from the stock movements added since the last run.
+ */
+public class BookMaintenanceService extends IntentService {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = BookMaintenanceService.class.getSimpleName();
+
+    /** Action that runs all periodic maintenance tasks **/
+    public static final String ACTION_RUN_MAINTENANCE = "com.example.android.inventoryapp.action.RUN_MAINTENANCE";
+
+    /** Number of movements folded in each transaction, so sales never wait long for the write lock **/
+    private static final int COMPACTION_BATCH_SIZE = 500;
+
+    /** Number of new stock movements included in the reorder margins in each transaction **/
+    private static final int REORDER_SCAN_BATCH_SIZE = 500;
+
+    /** Number of deleted books removed in each transaction **/
+    private static final int PURGE_BATCH_SIZE = 100;
+
+    /** Number of old hourly sales buckets removed in each transaction **/
+    private static final int SALES_PRUNE_BATCH_SIZE = 500;
+
+    /** Number of free pages returned to the file system in each vacuum step **/
+    private static final int VACUUM_BATCH_PAGES = 256;
+
+    /** Fraction of free pages above which the database file is shrunk **/
+    private static final float MAX_FRAGMENTATION = 0.1f;
+
+    /** Shortest time between runs of the query planner statistics update while charging **/
+    private static final long OPTIMIZE_INTERVAL_MILLIS = AlarmManager.INTERVAL_DAY;
+
+    /** Longest time between runs of the statistics update, even when the device isn't charging **/
+    private static final long OPTIMIZE_MAX_INTERVAL_MILLIS = 7 * AlarmManager.INTERVAL_DAY;
+
+    /** SharedPreferences file and key used to remember the last statistics update **/
+    private static final String PREFS_NAME = "book_maintenance";
+    private static final String PREF_LAST_OPTIMIZE = "last_optimize";
+    private static final String PREF_LAST_BACKUP = "last_backup";
+
+    /** Shortest time between database backups **/
+    private static final long BACKUP_INTERVAL_MILLIS = AlarmManager.INTERVAL_DAY;
+
+    public BookMaintenanceService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Schedules the periodic maintenance if it isn't scheduled already.
+     */
+    public static void schedule(Context context) {
+        // The in-memory store has no database to maintain
+        if (usesInMemoryStore(context)) {
+            return;
+        }
+        Intent intent = new Intent(context, BookMaintenanceService.class);
+        intent.setAction(ACTION_RUN_MAINTENANCE);
+        if (PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_NO_CREATE) != null) {
+            return;
+        }
+        PendingIntent pendingIntent = PendingIntent.getService(context, 0, intent, 0);
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_FIFTEEN_MINUTES,
+                AlarmManager.INTERVAL_HOUR, pendingIntent);
+    }
+
+    /**
+     * Returns true if the provider keeps the books in memory, e.g. in kiosk builds.
+     */
+    private static boolean usesInMemoryStore(Context context) {
+        return context.getResources().getBoolean(R.bool.in_memory_book_store);
+    }
+
+    /**
+     * Cancels the alarm scheduled by an earlier install that kept the books in the database.
+     */
+    private void cancelSchedule() {
+        Intent intent = new Intent(this, BookMaintenanceService.class);
+        intent.setAction(ACTION_RUN_MAINTENANCE);
+        PendingIntent pendingIntent = PendingIntent.getService(this, 0, intent, PendingIntent.FLAG_NO_CREATE);
+        if (pendingIntent != null) {
+            ((AlarmManager) getSystemService(Context.ALARM_SERVICE)).cancel(pendingIntent);
+            pendingIntent.cancel();
+        }
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (usesInMemoryStore(this)) {
+            // Every step below needs the database, which the in-memory store doesn't have
+            cancelSchedule();
+            return;
+        }
+        if (intent != null && ACTION_RUN_MAINTENANCE.equals(intent.getAction())) {
+            // Syncs first, so deleted books reach the server before they can be purged
+            SyncEngine.syncIfConfigured(this);
+            // Scans the sales of this and the other devices before listing the books to reorder
+            int scanned = callInBatches(METHOD_SCAN_REORDERS, REORDER_SCAN_BATCH_SIZE);
+            Log.d(LOG_TAG, "Scanned " + scanned + " stock movements for reorders");
+            ReorderNotifier.update(this);
+            int compacted = callInBatches(METHOD_COMPACT_MOVEMENTS, COMPACTION_BATCH_SIZE);
+            Log.d(LOG_TAG, "Compacted " + compacted + " stock movements");
+            int purged = callInBatches(METHOD_PURGE_DELETED, PURGE_BATCH_SIZE);
+            Log.d(LOG_TAG, "Purged " + purged + " deleted books");
+            int pruned = callInBatches(METHOD_PRUNE_SALES_HISTORY, SALES_PRUNE_BATCH_SIZE);
+            Log.d(LOG_TAG, "Pruned " + pruned + " hourly sales buckets");
+            shrinkDatabase();
+            optimizeIfIdle();
+            backupIfDue();
+        }
+    }
+
+    /**
+     * Returns free pages to the file system in small steps if too much of the file is unused.
+     */
+    private void shrinkDatabase() {
+        Bundle stats = getContentResolver().call(BookEntry.CONTENT_URI, METHOD_GET_DATABASE_STATS, null, null);
+        if (stats == null || stats.getFloat(EXTRA_FRAGMENTATION) <= MAX_FRAGMENTATION) {
+            return;
+        }
+        int freed = callInBatches(METHOD_INCREMENTAL_VACUUM, VACUUM_BATCH_PAGES);
+        Log.d(LOG_TAG, "Freed " + freed + " of " + stats.getLong(EXTRA_PAGE_COUNT) + " pages");
+    }
+
+    /**
+     * Updates the query planner statistics once a day while the device is charging,
+     * or once a week at most if it never charges while the alarm runs.
+     */
+    private void optimizeIfIdle() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        long sinceLastRun = System.currentTimeMillis() - prefs.getLong(PREF_LAST_OPTIMIZE, 0);
+        if (sinceLastRun < OPTIMIZE_INTERVAL_MILLIS
+                || (sinceLastRun < OPTIMIZE_MAX_INTERVAL_MILLIS && !isCharging())) {
+            return;
+        }
+        getContentResolver().call(BookEntry.CONTENT_URI, METHOD_OPTIMIZE, null, null);
+        prefs.edit().putLong(PREF_LAST_OPTIMIZE, System.currentTimeMillis()).apply();
+        Log.d(LOG_TAG, "Updated query planner statistics");
+    }
+
+    /**
+     * Copies the database to a new backup generation once a day, after the maintenance
+     * has shrunk it. A skipped backup is tried again on the next run.
+     */
+    private void backupIfDue() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        if (System.currentTimeMillis() - prefs.getLong(PREF_LAST_BACKUP, 0) < BACKUP_INTERVAL_MILLIS) {
+            return;
+        }
+        Bundle result = getContentResolver().call(BookEntry.CONTENT_URI, METHOD_BACKUP, null, null);
+        long backupTime = result == null ? 0 : result.getLong(EXTRA_BACKUP_TIME);
+        if (backupTime != 0) {
+            prefs.edit().putLong(PREF_LAST_BACKUP, backupTime).apply();
+            Log.d(LOG_TAG, "Backed up " + result.getLong(EXTRA_PAGE_COUNT) + " pages");
+        }
+    }
+
+    /**
+     * Returns true if the device is plugged in, read from the sticky battery broadcast.
+     */
+    private boolean isCharging() {
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    /**
+     * Calls the provider method one batch at a time until a batch comes back smaller than batchSize,
+     * so other writers get the database between batches. Returns the total number of rows affected.
+     */
+    private int callInBatches(String method, int batchSize) {
+        ContentResolver contentResolver = getContentResolver();
+        String batchSizeArg = String.valueOf(batchSize);
+        int total = 0;
+        int count;
+        do {
+            Bundle result = contentResolver.call(BookEntry.CONTENT_URI, method, batchSizeArg, null);
+            count = result == null ? 0 : result.getInt(EXTRA_COUNT);
+            total += count;
+        } while (count == batchSize);
+        return total;
+    }
+}
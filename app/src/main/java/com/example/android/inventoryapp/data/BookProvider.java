@@ -1,36 +1,145 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.inventoryapp.R;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 import static com.example.android.inventoryapp.data.BookContract.BookEntry;
 import static com.example.android.inventoryapp.data.BookContract.CONTENT_AUTHORITY;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_BACKUP_TIME;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_COUNT;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_DATA_VERSION;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_IDS;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_SELECTION;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_BACKUP;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_COMPACT_MOVEMENTS;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_DELETE_BOOKS;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_GET_CHANGES;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_GET_DATABASE_STATS;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_GET_DATA_VERSION;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_GET_TOTALS;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_GET_WRITE_STATS;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_INCREMENTAL_VACUUM;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_OPTIMIZE;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_PRUNE_SALES_HISTORY;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_PURGE_DELETED;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_RESTORE_BACKUP;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_RESTORE_DELETED;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_SCAN_REORDERS;
+import static com.example.android.inventoryapp.data.BookContract.MovementEntry;
+import static com.example.android.inventoryapp.data.BookContract.PATH_BY_ISBN;
+import static com.example.android.inventoryapp.data.BookContract.PATH_HOURLY;
 import static com.example.android.inventoryapp.data.BookContract.PATH_INVENTORY;
+import static com.example.android.inventoryapp.data.BookContract.PATH_MOVEMENTS;
+import static com.example.android.inventoryapp.data.BookContract.PATH_PRICE_HISTORY;
+import static com.example.android.inventoryapp.data.BookContract.PATH_REORDERS;
+import static com.example.android.inventoryapp.data.BookContract.PATH_SALES;
+import static com.example.android.inventoryapp.data.BookContract.PATH_SYNC;
+import static com.example.android.inventoryapp.data.BookContract.PERMISSION_READ;
+import static com.example.android.inventoryapp.data.BookContract.PERMISSION_WRITE;
+import static com.example.android.inventoryapp.data.BookContract.PriceHistoryEntry;
+import static com.example.android.inventoryapp.data.BookContract.PURGE_GRACE_PERIOD_MILLIS;
+import static com.example.android.inventoryapp.data.BookContract.SalesEntry;
+import static com.example.android.inventoryapp.data.BookContract.SyncEntry;
 
 /**
  * {@link ContentProvider} for Book Inventory app.
  * Handles querying, inserting, updating and deleting data.
+ * Calls arrive on binder threads from the app, its :sync process and the companion app,
+ * so every write runs in one explicit transaction through {@link WriteCoordinator}.
+ * The books are kept by a {@link BookStore}: the SQLite database, or memory in the kiosk mode,
+ * where the paths that need the database throw an UnsupportedOperationException.
+ * A database that encrypts the prices and supplier phones rejects selections and sort orders
+ * that name them with an IllegalArgumentException.
+ * Book queries repeated with no write in between are answered from a {@link QueryCache},
+ * which is trimmed under memory pressure by the {@link CacheRegistry} the provider installs.
  */
 public class BookProvider extends ContentProvider {
 
     /** Log messages tag **/
     public static final String LOG_TAG = BookProvider.class.getName();
 
-    /** Database helper object **/
+    /** Number of stock movements folded in one compaction transaction if no batch size is given **/
+    private static final int DEFAULT_COMPACTION_BATCH_SIZE = 500;
+
+    /** Number of deleted books removed in one purge transaction if no batch size is given **/
+    private static final int DEFAULT_PURGE_BATCH_SIZE = 100;
+
+    /** Number of books and movements in one sync change-set if no batch size is given **/
+    private static final int DEFAULT_SYNC_BATCH_SIZE = 200;
+
+    /** Number of stock movements scanned in one reorder scan transaction if no batch size is given **/
+    private static final int DEFAULT_REORDER_SCAN_BATCH_SIZE = 500;
+
+    /** Number of hourly sales buckets removed in one transaction if no batch size is given **/
+    private static final int DEFAULT_SALES_PRUNE_BATCH_SIZE = 500;
+
+    /** Memory kept for the results of recent book queries, several thousand catalog rows **/
+    private static final int QUERY_CACHE_MAX_BYTES = 2 * 1024 * 1024;
+
+    /** Database helper object, or null if the books are kept in memory **/
     private BookDbHelper mDbHelper;
 
+    /** Runs the writes in transactions and records the write lock contention, or null without a database **/
+    private WriteCoordinator mWriter;
+
+    /** Storage of the books **/
+    private BookStore mStore;
+
+    /** Rotating copies of the database, or null without a database **/
+    private DatabaseBackup mBackup;
+
+    /** Results of recent book queries, or null without a database **/
+    private QueryCache mQueryCache;
+
+    /** URIs changed by the atomic operation the calling thread is in, notified once it commits **/
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
     /** URI matcher code for the entire table **/
     private static final int BOOKS = 0;
 
     /** URI matcher code for a particular item **/
     private static final int BOOK_ID = 1;
 
+    /** URI matcher code for a particular item looked up by its ISBN **/
+    private static final int BOOK_ISBN = 2;
+
+    /** URI matcher code for the stock movement ledger **/
+    private static final int MOVEMENTS = 3;
+
+    /** URI matcher code for applying changes pulled from other devices and the sync state **/
+    private static final int SYNC = 4;
+
+    /** URI matcher code for the books that need reordering **/
+    private static final int REORDERS = 5;
+
+    /** URI matcher codes for the sales velocity and the hourly sales buckets **/
+    private static final int SALES = 6;
+    private static final int SALES_HOURLY = 7;
+
+    /** URI matcher code for the price history **/
+    private static final int PRICE_HISTORY = 8;
+
     /** UriMatcher object used to match the CONTENT_URI with a matcher code **/
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
@@ -38,17 +147,129 @@ public class BookProvider extends ContentProvider {
     static {
         sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_INVENTORY, BOOKS);
         sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_INVENTORY + "/#", BOOK_ID);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_INVENTORY + "/" + PATH_BY_ISBN + "/*", BOOK_ISBN);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_MOVEMENTS, MOVEMENTS);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_SYNC, SYNC);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_INVENTORY + "/" + PATH_REORDERS, REORDERS);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_SALES, SALES);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_SALES + "/" + PATH_HOURLY, SALES_HOURLY);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PRICE_HISTORY, PRICE_HISTORY);
     }
 
     /**
-     * Initializes BookProvider and database helper.
+     * Initializes BookProvider and the store selected by the in_memory_book_store resource.
      */
     @Override
     public boolean onCreate() {
-        mDbHelper = new BookDbHelper(getContext());
+        // The provider is created with the process, before any activity registers its caches
+        CacheRegistry.install(getContext());
+        if (getContext().getResources().getBoolean(R.bool.in_memory_book_store)) {
+            mStore = new InMemoryBookStore();
+            return true;
+        }
+        openDatabase(new BookDbHelper(getContext()), new File(getContext().getFilesDir(), DatabaseBackup.DIR_NAME));
+
+        // Opens the database and reads the first catalog page while the first activity is inflated
+        CatalogPrefetcher.start(mDbHelper);
         return true;
     }
 
+    /**
+     * Keeps the books in the given database, with its own write coordinator, backups and query cache.
+     */
+    private void openDatabase(BookDbHelper dbHelper, File backupDir) {
+        mDbHelper = dbHelper;
+        mWriter = new WriteCoordinator(mDbHelper);
+        mStore = new SqliteBookStore(mDbHelper, mWriter);
+        mBackup = new DatabaseBackup(mDbHelper, mWriter, backupDir);
+        mQueryCache = new QueryCache(QUERY_CACHE_MAX_BYTES);
+        CacheRegistry.register("Query results", mQueryCache);
+    }
+
+    /**
+     * Closes the database, so a test can delete its file. Only called by tests.
+     */
+    @Override
+    public void shutdown() {
+        if (mDbHelper != null) {
+            CacheRegistry.unregister(mQueryCache);
+            mDbHelper.close();
+        }
+    }
+
+    /**
+     * Moves the books to the database of the given name, or back to the app's database if the name is null,
+     * so a benchmark can fill the catalog without changing the user's books, backups or what they sync.
+     * A new database has no server address, so it isn't synced.
+     * The data version moves past the replaced database's, so nothing saved at its versions is taken as current.
+     * Only called by tests, while no other call is running.
+     */
+    public void useDatabase(String name) {
+        requireDatabase("Moving the books");
+        final long previousVersion = mStore.getDataVersion();
+        shutdown();
+        if (name == null) {
+            openDatabase(new BookDbHelper(getContext()), new File(getContext().getFilesDir(), DatabaseBackup.DIR_NAME));
+        } else {
+            boolean encrypted = getContext().getResources().getBoolean(R.bool.encrypt_book_columns);
+            openDatabase(new BookDbHelper(getContext(), name, encrypted),
+                    new File(getContext().getCacheDir(), name + "-" + DatabaseBackup.DIR_NAME));
+        }
+        mWriter.write(new WriteCoordinator.Work<Void>() {
+            @Override
+            public Void run(SQLiteDatabase database) {
+                SyncStore.moveDataVersionPast(database, previousVersion);
+                return null;
+            }
+        });
+        sendNotifications(Collections.singleton(BookEntry.CONTENT_URI));
+    }
+
+    /**
+     * Returns the database helper, or throws if the books are kept in memory.
+     * Queries of the tables only the database has return an empty cursor instead, see {@link #query}.
+     */
+    private BookDbHelper requireDatabase(String operation) {
+        if (mDbHelper == null) {
+            throw new UnsupportedOperationException(operation + " needs the SQLite book store");
+        }
+        return mDbHelper;
+    }
+
+    /**
+     * Returns true if the URI matcher code is for a table that only the database has.
+     */
+    private static boolean isDatabaseOnly(int match) {
+        switch (match) {
+            case MOVEMENTS:
+            case SYNC:
+            case REORDERS:
+            case SALES:
+            case SALES_HOURLY:
+            case PRICE_HISTORY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Queries the store, or returns the kept result of the same query if nothing was written since.
+     */
+    private Cursor queryBooks(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (mQueryCache == null) {
+            return mStore.queryBooks(projection, selection, selectionArgs, sortOrder);
+        }
+        // Read first, so a write committed while the query runs makes its result out of date
+        long version = mWriter.getWriteVersion();
+        String key = QueryCache.buildKey(projection, selection, selectionArgs, sortOrder);
+        Cursor cursor = mQueryCache.get(key, version);
+        if (cursor == null) {
+            cursor = mQueryCache.put(key, version, mStore.queryBooks(projection, selection, selectionArgs, sortOrder));
+        }
+        return cursor;
+    }
+
     /**
      * Handles querying the data for a URI.
      * Uses projection (the table columns), selection (specific book ID),
@@ -56,19 +277,23 @@ public class BookProvider extends ContentProvider {
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-        // Reads the database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
-
         // Cursor to hold the query result
         Cursor cursor;
 
         // Matches the URI to BOOKS or BOOK_ID matcher code
         int match = sUriMatcher.match(uri);
+        if (mDbHelper == null && isDatabaseOnly(match)) {
+            // The in-memory store has no reorders, sales, movements, sync state or price history to read
+            cursor = new MatrixCursor(projection != null ? projection : new String[0]);
+            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+            return cursor;
+        }
+        checkPlainColumns(selection);
+        checkPlainColumns(sortOrder);
         switch (match) {
             case BOOKS:
                 // Queries the table containing the parameters
-                cursor = database.query(BookEntry.TABLE_NAME, projection, selection,
-                        selectionArgs, null, null, sortOrder);
+                cursor = queryBooks(projection, selection, selectionArgs, sortOrder);
                 break;
             case BOOK_ID:
                 // Queries a particular item
@@ -76,8 +301,50 @@ public class BookProvider extends ContentProvider {
                 selection = BookEntry._ID + "=?";
                 selectionArgs = new String[]{
                         String.valueOf(ContentUris.parseId(uri))};
-                cursor = database.query(BookEntry.TABLE_NAME, projection, selection,
-                        selectionArgs, null, null, sortOrder);
+                cursor = queryBooks(projection, selection, selectionArgs, sortOrder);
+                break;
+            case BOOK_ISBN:
+                // Queries a particular item through the unique ISBN index
+                selection = BookEntry.COLUMN_BOOK_ISBN + "=?";
+                selectionArgs = new String[] { isbnFromUri(uri) };
+                cursor = queryBooks(projection, selection, selectionArgs, sortOrder);
+                break;
+            case REORDERS:
+                // Queries the books below their reorder threshold through the margin index
+                selection = TextUtils.isEmpty(selection) ? ReorderStore.SQL_NEEDS_REORDER
+                        : ReorderStore.SQL_NEEDS_REORDER + " AND (" + selection + ")";
+                if (TextUtils.isEmpty(sortOrder)) {
+                    sortOrder = BookEntry.REORDER_SORT_ORDER;
+                }
+                BookDbHelper dbHelper = requireDatabase("Reorders");
+                cursor = dbHelper.getCipher().decrypt(SqliteBookStore.queryBooks(dbHelper.getReadableDatabase(),
+                        projection, selection, selectionArgs, sortOrder, null));
+                break;
+            case SALES:
+                // Queries the sales velocity of each book from the daily buckets of the period
+                cursor = SalesHistory.queryVelocity(requireDatabase("Sales").getReadableDatabase(), uri,
+                        projection, selection, selectionArgs, sortOrder);
+                break;
+            case SALES_HOURLY:
+                // Queries the hourly buckets of the period
+                cursor = SalesHistory.queryHourly(requireDatabase("Sales").getReadableDatabase(), uri,
+                        projection, selection, selectionArgs, sortOrder);
+                break;
+            case MOVEMENTS:
+                // Queries the stock movement ledger, e.g. the sales in a period
+                cursor = requireDatabase("Stock movements").getReadableDatabase().query(MovementEntry.TABLE_NAME,
+                        projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case SYNC:
+                // Queries the sync state, e.g. the server address read by the sync process
+                cursor = requireDatabase("Sync").getReadableDatabase().query(SyncEntry.TABLE_NAME,
+                        projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case PRICE_HISTORY:
+                // Queries the price changes, e.g. of one book through the book index
+                BookDbHelper historyHelper = requireDatabase("Price history");
+                cursor = historyHelper.getCipher().decrypt(historyHelper.getReadableDatabase().query(
+                        PriceHistoryEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder));
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -99,6 +366,12 @@ public class BookProvider extends ContentProvider {
         switch (match) {
             case BOOKS:
                 return insertBook(uri, values);
+            case BOOK_ISBN:
+                return upsertBookByIsbn(uri, values);
+            case SYNC:
+                return applyRemoteBook(values);
+            case MOVEMENTS:
+                return applyRemoteMovement(values);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -108,59 +381,235 @@ public class BookProvider extends ContentProvider {
      * Inserts a new book into the database with the given content values.
      */
     private Uri insertBook(Uri uri, ContentValues values) {
-        // Checks if the book name is null
-        String name = values.getAsString(BookEntry.COLUMN_BOOK_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Book requires a name");
+        // Checks that every column is present and valid
+        BookValidator validator = new BookValidator();
+        validator.checkValues(values, true);
+        validator.throwIfInvalid();
+
+        // Checks if the ISBN is valid, if there is one
+        if (values.containsKey(BookEntry.COLUMN_BOOK_ISBN)) {
+            putValidIsbn(values);
         }
 
-        // Checks if the author is null
-        String author = values.getAsString(BookEntry.COLUMN_BOOK_AUTHOR);
-        if (author == null) {
-            throw new IllegalArgumentException("Book requires an author");
+        // Inserts the book, which the SQLite store records in the ledger with its starting quantity
+        long id = mStore.insertBook(values);
+
+        // Prints a log message if the insertion failed
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
         }
 
-        // Checks if the price is null or negative
-        Double price = values.getAsDouble(BookEntry.COLUMN_BOOK_PRICE);
-        if (price == null || price < 0) {
-            throw new IllegalArgumentException("Book requires a valid price");
+        // Notifies listeners that data has changed
+        notifyBooksChanged(uri);
+
+        // Returns the new URI and ID
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Inserts many books in one transaction, e.g. an import.
+     * One validator checks every row, and listeners are notified once at the end.
+     * If any row is invalid or fails to insert, nothing is inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        if (sUriMatcher.match(uri) != BOOKS) {
+            return super.bulkInsert(uri, values);
         }
 
-        // Checks if the quantity is null or negative
-        Integer quantity = values.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY);
-        if (quantity == null || quantity < 0) {
-            throw new IllegalArgumentException("Book requires a valid quantity");
+        // Checks every row before writing, so an invalid row doesn't hold the write lock
+        BookValidator validator = new BookValidator();
+        for (ContentValues bookValues : values) {
+            validator.reset();
+            validator.checkValues(bookValues, true);
+            validator.throwIfInvalid();
+            if (bookValues.containsKey(BookEntry.COLUMN_BOOK_ISBN)) {
+                putValidIsbn(bookValues);
+            }
+        }
+
+        // Writes to the store, which inserts nothing if a row fails
+        if (!mStore.insertBooks(values)) {
+            Log.e(LOG_TAG, "Failed to insert rows for " + uri);
+            return 0;
         }
 
-        // Checks if the supplier name is null
-        String supplierName = values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_NAME);
-        if (supplierName == null) {
-            throw new IllegalArgumentException("Book requires a supplier name");
+        // Notifies listeners once for the whole batch
+        if (values.length > 0) {
+            notifyBooksChanged(uri);
         }
+        return values.length;
+    }
 
-        // Checks if the supplier phone number is null or negative
-        Long supplierPhone = values.getAsLong(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE);
-        if (supplierPhone == null || supplierPhone < 0) {
-            throw new IllegalArgumentException("Book requires a valid supplier phone number");
+    /**
+     * Applies a book change pulled from another device, see {@link SyncStore#applyRemoteBook}.
+     * Listeners are notified by applyBatch() once the whole pull is applied.
+     * Returns the book URI, or the sync URI if the change was skipped, since a null URI fails the batch.
+     */
+    private Uri applyRemoteBook(final ContentValues values) {
+        if (values.getAsString(BookEntry.COLUMN_BOOK_SYNC_ID) == null) {
+            throw new IllegalArgumentException("Pulled book requires a sync ID");
         }
+        BookValidator validator = new BookValidator();
+        validator.checkValues(values, false);
+        validator.throwIfInvalid();
+        // Devices that haven't upgraded yet may still push an ISBN-10
+        putValidIsbn(values);
+        requireDatabase("Sync").getCipher().encryptValues(values);
 
-        // Writes to the database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id = mWriter.write(new WriteCoordinator.Work<Long>() {
+            @Override
+            public Long run(SQLiteDatabase database) {
+                return SyncStore.applyRemoteBook(database, values);
+            }
+        });
+        return id == -1 ? SyncEntry.CONTENT_URI : ContentUris.withAppendedId(BookEntry.CONTENT_URI, id);
+    }
 
-        // Inserts the book into the database
-        long id = database.insert(BookEntry.TABLE_NAME, null, values);
+    /**
+     * Adds a stock movement pulled from another device to its book.
+     * The movement is skipped if the book isn't known on this device, e.g. it was already purged.
+     */
+    private Uri applyRemoteMovement(ContentValues values) {
+        final String bookSyncId = values.getAsString(MovementEntry.KEY_BOOK_SYNC_ID);
+        final Integer delta = values.getAsInteger(MovementEntry.COLUMN_MOVEMENT_DELTA);
+        final Integer reason = values.getAsInteger(MovementEntry.COLUMN_MOVEMENT_REASON);
+        final Long createdAt = values.getAsLong(MovementEntry.COLUMN_MOVEMENT_CREATED_AT);
+        if (bookSyncId == null || delta == null || reason == null || createdAt == null) {
+            throw new IllegalArgumentException("Pulled movement requires a book sync ID, delta, reason and time");
+        }
+        requireDatabase("Sync");
 
-        // Prints a log message if the insertion failed
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        boolean applied = mWriter.write(new WriteCoordinator.Work<Boolean>() {
+            @Override
+            public Boolean run(SQLiteDatabase database) {
+                return StockLedger.appendRemoteDelta(database, bookSyncId, delta, reason, createdAt);
+            }
+        });
+        if (!applied) {
+            Log.w(LOG_TAG, "Skipped movement for unknown book " + bookSyncId);
         }
+        return MovementEntry.CONTENT_URI;
+    }
 
-        // Notifies listeners that data has changed
-        getContext().getContentResolver().notifyChange(uri, null);
+    /**
+     * Applies the operations in one transaction, so a pull and the sync state that records it
+     * are stored together or not at all. Listeners are notified once at the end.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(final ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        ContentProviderResult[] results;
+        try {
+            results = runAtomically(new BookStore.Operation<ContentProviderResult[]>() {
+                @Override
+                public ContentProviderResult[] run() {
+                    // Covers the operations that don't notify on their own, such as pulled changes
+                    notifyBooksChanged(BookEntry.CONTENT_URI);
+                    try {
+                        return applyOperations(operations);
+                    } catch (OperationApplicationException e) {
+                        // Work can't throw checked exceptions, so the failure is unwrapped below
+                        throw new BatchFailedException(e);
+                    }
+                }
+            });
+        } catch (BatchFailedException e) {
+            throw (OperationApplicationException) e.getCause();
+        }
+        return results;
+    }
 
-        // Returns the new URI and ID
-        return ContentUris.withAppendedId(uri, id);
+    /**
+     * Applies each operation through insert, update or delete. Must run in a transaction.
+     */
+    private ContentProviderResult[] applyOperations(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        return super.applyBatch(operations);
+    }
+
+    /**
+     * Carries an operation's failure out of the batch transaction, which rolls it back.
+     */
+    private static class BatchFailedException extends RuntimeException {
+        BatchFailedException(OperationApplicationException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Receives stock for the book with the ISBN in the URI.
+     * If the book exists, the quantity in the values is added to its stock and any other values are updated.
+     * Else, a new book is inserted with the values.
+     */
+    private Uri upsertBookByIsbn(Uri uri, final ContentValues values) {
+        final String isbn = isbnFromUri(uri);
+        values.put(BookEntry.COLUMN_BOOK_ISBN, isbn);
+
+        // Checks if the received quantity is null or negative
+        final Integer received = values.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY);
+        if (received == null || received < 0) {
+            throw new IllegalArgumentException("Book requires a valid quantity");
+        }
+
+        // Looks up and changes the book in one transaction so two scans of a new ISBN can't both insert
+        return runAtomically(new BookStore.Operation<Uri>() {
+            @Override
+            public Uri run() {
+                long id = mStore.findBookIdByIsbn(isbn);
+                if (id == -1) {
+                    return insertBook(BookEntry.CONTENT_URI, values);
+                }
+                Uri bookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, id);
+
+                // Restores the book if it was deleted
+                mStore.restoreBook(id);
+
+                // Updates the other values, such as a new price from the supplier
+                ContentValues otherValues = new ContentValues(values);
+                otherValues.remove(BookEntry.COLUMN_BOOK_QUANTITY);
+                otherValues.remove(BookEntry.COLUMN_BOOK_ISBN);
+                if (otherValues.size() > 0) {
+                    update(bookUri, otherValues, null, null);
+                }
+
+                // Adds the received quantity to the stock
+                ContentValues deltaValues = new ContentValues();
+                deltaValues.put(BookEntry.KEY_QUANTITY_DELTA, received);
+                deltaValues.put(BookEntry.KEY_MOVEMENT_REASON, MovementEntry.REASON_RESTOCK);
+                update(bookUri, deltaValues, null, null);
+                return bookUri;
+            }
+        });
+    }
+
+    /**
+     * Returns the valid ISBN in the last segment of a by-isbn URI.
+     */
+    private static String isbnFromUri(Uri uri) {
+        String isbn = BookValidator.normalizeIsbn(uri.getLastPathSegment());
+        if (isbn == null) {
+            throw new IllegalArgumentException("Invalid ISBN in URI " + uri);
+        }
+        return isbn;
+    }
+
+    /**
+     * Checks the ISBN in the values and replaces it with its ISBN-13 form,
+     * so the unique index catches a book entered with the other form.
+     * A null ISBN is allowed since books don't require one.
+     */
+    private static void putValidIsbn(ContentValues values) {
+        String isbn = values.getAsString(BookEntry.COLUMN_BOOK_ISBN);
+        if (isbn == null) {
+            return;
+        }
+        String normalized = BookValidator.normalizeIsbn(isbn);
+        if (normalized == null) {
+            throw new IllegalArgumentException("Book requires a valid ISBN");
+        }
+        values.put(BookEntry.COLUMN_BOOK_ISBN, normalized);
     }
 
     /**
@@ -168,7 +617,9 @@ public class BookProvider extends ContentProvider {
      * Uses ContentValues (data input), selection (specific book ID), and selectionArgs (actual book ID).
      */
     @Override
-    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    public int update(Uri uri, final ContentValues values, String selection, String[] selectionArgs) {
+        checkPlainColumns(selection);
+
         // Matches the URI to BOOKS or BOOK_ID matcher code
         int match = sUriMatcher.match(uri);
         switch (match) {
@@ -181,77 +632,135 @@ public class BookProvider extends ContentProvider {
                 selection = BookEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
                 return updateBook(uri, values, selection, selectionArgs);
+            case BOOK_ISBN:
+                // Updates a particular item looked up by its ISBN, e.g. a scanned sale
+                selection = BookEntry.COLUMN_BOOK_ISBN + "=?";
+                selectionArgs = new String[] { isbnFromUri(uri) };
+                return updateBook(uri, values, selection, selectionArgs);
+            case SYNC:
+                // Records how far the device has synced
+                requireDatabase("Sync");
+                mWriter.write(new WriteCoordinator.Work<Void>() {
+                    @Override
+                    public Void run(SQLiteDatabase database) {
+                        SyncStore.updateState(database, values);
+                        return null;
+                    }
+                });
+                return values.size();
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
     }
 
     /**
-     * Updates a book in the database with the given content values.
+     * Updates a book in the store with the given content values.
+     * Deleted books can't be changed until they are restored.
      */
     private int updateBook(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        // Checks if the book name is null
-        if (values.containsKey(BookEntry.COLUMN_BOOK_NAME)) {
-            String name = values.getAsString(BookEntry.COLUMN_BOOK_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Book requires a name");
-            }
+        // Adds to the stored quantity instead of overwriting the row
+        if (values.containsKey(BookEntry.KEY_QUANTITY_DELTA)) {
+            return adjustQuantity(uri, values, selection, selectionArgs);
         }
 
-        // Checks if the author is null
-        if (values.containsKey(BookEntry.COLUMN_BOOK_AUTHOR)) {
-            String author = values.getAsString(BookEntry.COLUMN_BOOK_AUTHOR);
-            if (author == null) {
-                throw new IllegalArgumentException("Book requires an author");
-            }
+        // Computes the new prices from the stored ones instead of overwriting them
+        if (values.containsKey(BookEntry.KEY_PRICE_FACTOR) || values.containsKey(BookEntry.KEY_PRICE_OFFSET)) {
+            return repriceBooks(uri, values, selection, selectionArgs);
         }
 
-        // Checks if the price is null or negative
-        if (values.containsKey(BookEntry.COLUMN_BOOK_PRICE)) {
-            Double price = values.getAsDouble(BookEntry.COLUMN_BOOK_PRICE);
-            if (price == null || price < 0) {
-                throw new IllegalArgumentException("Book requires a valid price");
-            }
+        // Checks the columns that are being updated
+        BookValidator validator = new BookValidator();
+        validator.checkValues(values, false);
+        validator.throwIfInvalid();
+
+        // Checks if the ISBN is valid, if there is one
+        if (values.containsKey(BookEntry.COLUMN_BOOK_ISBN)) {
+            putValidIsbn(values);
         }
 
-        // Checks if the quantity is null or negative
-        if (values.containsKey(BookEntry.COLUMN_BOOK_QUANTITY)) {
-            Integer quantity = values.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY);
-            if (quantity == null || quantity < 0) {
-                throw new IllegalArgumentException("Book requires a valid quantity");
-            }
+        // If there are no values updated, return
+        if (values.size() == 0) {
+            return 0;
         }
 
-        // Checks if the supplier name is null
-        if (values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER_NAME)) {
-            String supplierName = values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_NAME);
-            if (supplierName == null) {
-                throw new IllegalArgumentException("Book requires a supplier name");
-            }
+        // Updates the store and assigns the number of rows updated
+        int rowsUpdated = mStore.updateBooks(values, selection, selectionArgs);
+
+        // If there are rows updated, notify the listeners that data has changed
+        if (rowsUpdated != 0) {
+            notifyBooksChanged(uri);
         }
+        return rowsUpdated;
+    }
 
-        // Checks if the supplier phone number is null or negative
-        if (values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE)) {
-            Long supplierPhone = values.getAsLong(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE);
-            if (supplierPhone == null || supplierPhone < 0) {
-                throw new IllegalArgumentException("Book requires a valid supplier phone number");
-            }
+    /**
+     * Adds the quantity delta to each selected book, which the SQLite store appends to the ledger.
+     * Books whose quantity would drop below 0 are not changed.
+     */
+    private int adjustQuantity(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // Checks that the delta is a number and isn't mixed with other values
+        Integer delta = values.getAsInteger(BookEntry.KEY_QUANTITY_DELTA);
+        if (delta == null) {
+            throw new IllegalArgumentException("Book requires a valid quantity delta");
+        }
+        Integer reason = values.getAsInteger(BookEntry.KEY_MOVEMENT_REASON);
+        if (reason == null) {
+            reason = delta < 0 ? MovementEntry.REASON_SALE : MovementEntry.REASON_RESTOCK;
+        } else if (reason != MovementEntry.REASON_SALE && reason != MovementEntry.REASON_RESTOCK
+                && reason != MovementEntry.REASON_ADJUSTMENT) {
+            throw new IllegalArgumentException("Book requires a valid movement reason");
+        }
+        int otherValues = values.size() - (values.containsKey(BookEntry.KEY_MOVEMENT_REASON) ? 2 : 1);
+        if (otherValues > 0) {
+            throw new IllegalArgumentException("Quantity delta can't be combined with other values");
         }
 
-        // If there are no values updated, return
-        if (values.size() == 0) {
-            return 0;
+        // Writes to the store
+        int rowsUpdated = mStore.adjustQuantity(delta, reason, selection, selectionArgs);
+
+        // If there are rows updated, notify the listeners that data has changed
+        if (rowsUpdated != 0) {
+            notifyBooksChanged(uri);
         }
+        return rowsUpdated;
+    }
 
-        // Writes to the database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    /**
+     * Reprices each selected book from its stored price, which the SQLite store records in the price history.
+     * Books whose price would be negative or unchanged are not changed.
+     */
+    private int repriceBooks(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // Checks that the factor and offset are numbers and aren't mixed with other values
+        double factor = 1;
+        double offset = 0;
+        int keys = 0;
+        if (values.containsKey(BookEntry.KEY_PRICE_FACTOR)) {
+            Double value = values.getAsDouble(BookEntry.KEY_PRICE_FACTOR);
+            if (value == null || value.isNaN() || value.isInfinite() || value < 0) {
+                throw new IllegalArgumentException("Book requires a valid price factor");
+            }
+            factor = value;
+            keys++;
+        }
+        if (values.containsKey(BookEntry.KEY_PRICE_OFFSET)) {
+            Double value = values.getAsDouble(BookEntry.KEY_PRICE_OFFSET);
+            if (value == null || value.isNaN() || value.isInfinite()) {
+                throw new IllegalArgumentException("Book requires a valid price offset");
+            }
+            offset = value;
+            keys++;
+        }
+        if (values.size() > keys) {
+            throw new IllegalArgumentException("Price factor and offset can't be combined with other values");
+        }
 
-        // Updates the database and assigns the number of rows updated
-        int rowsUpdated = database.update(BookEntry.TABLE_NAME, values, selection, selectionArgs);
+        // Writes to the store
+        int rowsUpdated = mStore.repriceBooks(factor, offset, selection, selectionArgs);
 
-        // If there are rows updated, notify the listeners that data has changed
+        // If there are rows updated, notify the listeners that data and the price history have changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyBooksChanged(uri);
+            getContext().getContentResolver().notifyChange(PriceHistoryEntry.CONTENT_URI, null);
         }
         return rowsUpdated;
     }
@@ -259,38 +768,269 @@ public class BookProvider extends ContentProvider {
     /**
      * Handles deleting the data for a URI.
      * Uses selection (specific book ID) and selectionArgs (actual book ID).
+     * Books are only marked as deleted, which is a single short UPDATE and can be undone
+     * with METHOD_RESTORE_DELETED. They are removed later by METHOD_PURGE_DELETED.
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Writes to the database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        return deleteBooks(uri, selection, selectionArgs).length;
+    }
 
-        // Variable to keep track of deleted rows
-        int rowsDeleted;
+    /**
+     * Marks the books for the URI that match the selection as deleted and returns their IDs.
+     */
+    private long[] deleteBooks(Uri uri, String selection, String[] selectionArgs) {
+        checkPlainColumns(selection);
+
+        // IDs of the deleted rows
+        long[] deletedIds;
 
         // Matches the URI to BOOKS or BOOK_ID matcher code
         int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
                 // Deletes the table containing the parameters
-                rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                deletedIds = markBooksDeleted(selection, selectionArgs);
                 break;
             case BOOK_ID:
                 // Deletes a particular item
                 // selection and selectionArgs extract the book ID in the URI
                 selection = BookEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                deletedIds = markBooksDeleted(selection, selectionArgs);
+                break;
+            case BOOK_ISBN:
+                // Deletes a particular item looked up by its ISBN
+                selection = BookEntry.COLUMN_BOOK_ISBN + "=?";
+                selectionArgs = new String[] { isbnFromUri(uri) };
+                deletedIds = markBooksDeleted(selection, selectionArgs);
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
         // If there are rows deleted, notify the listeners that data has changed
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (deletedIds.length != 0) {
+            notifyBooksChanged(uri);
+        }
+        return deletedIds;
+    }
+
+    /**
+     * Marks the selected books as deleted by setting their deleted time. Returns their IDs.
+     */
+    private long[] markBooksDeleted(String selection, String[] selectionArgs) {
+        return mStore.deleteBooks(selection, selectionArgs, System.currentTimeMillis());
+    }
+
+    /**
+     * Restores the deleted books with the given IDs in one transaction.
+     * Books deleted since by other deletes aren't in the IDs, so they stay deleted.
+     */
+    private int restoreDeletedBooks(final long[] ids) {
+        return runAtomically(new BookStore.Operation<Integer>() {
+            @Override
+            public Integer run() {
+                int restored = 0;
+                for (long id : ids) {
+                    restored += mStore.restoreBook(id);
+                }
+                if (restored != 0) {
+                    notifyBooksChanged(BookEntry.CONTENT_URI);
+                }
+                return restored;
+            }
+        });
+    }
+
+    /**
+     * Permanently removes up to batchSize books deleted before the grace period,
+     * see {@link SqliteBookStore#purgeDeletedBooks}. Returns the number of books removed.
+     */
+    private int purgeDeletedBooks(int batchSize) {
+        return mStore.purgeDeletedBooks(System.currentTimeMillis() - PURGE_GRACE_PERIOD_MILLIS, batchSize);
+    }
+
+    /**
+     * Throws an IllegalArgumentException if the selection or sort order compares a column that the
+     * database stores encrypted, since SQLite would compare the encrypted bytes.
+     */
+    private void checkPlainColumns(String sql) {
+        if (mDbHelper != null) {
+            mDbHelper.getCipher().checkNotReferenced(sql);
+        }
+    }
+
+    /**
+     * Runs the operation in one transaction of the store. The writes made in it notify
+     * their listeners only once the outermost operation has committed, so the listeners
+     * don't reload before the changes can be seen.
+     */
+    private <T> T runAtomically(BookStore.Operation<T> operation) {
+        if (mPendingNotifications.get() != null) {
+            return mStore.runAtomically(operation);
+        }
+        Set<Uri> pending = new LinkedHashSet<>();
+        mPendingNotifications.set(pending);
+        T result;
+        try {
+            result = mStore.runAtomically(operation);
+        } finally {
+            mPendingNotifications.remove();
+        }
+        sendNotifications(pending);
+        return result;
+    }
+
+    /**
+     * Called after every write that changes what queries return.
+     * Notifies the listeners that data has changed and discards data read ahead of the change.
+     * In an atomic operation, the notification waits until the operation commits.
+     */
+    private void notifyBooksChanged(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
+            sendNotifications(Collections.singleton(uri));
+        }
+    }
+
+    /**
+     * Caches the data version the committed writes reached and notifies the listeners of the changed URIs.
+     */
+    private void sendNotifications(Set<Uri> uris) {
+        if (uris.isEmpty()) {
+            return;
+        }
+        DataVersion.update(mStore.getDataVersion());
+        CatalogPrefetcher.invalidate();
+        ContentResolver contentResolver = getContext().getContentResolver();
+        for (Uri uri : uris) {
+            contentResolver.notifyChange(uri, null);
+        }
+        // Sales reports change with the sales and with the books that exist
+        contentResolver.notifyChange(SalesEntry.CONTENT_URI, null);
+    }
+
+    /**
+     * Handles provider methods that don't fit query, insert, update or delete.
+     * METHOD_COMPACT_MOVEMENTS folds a batch of stock movements into the book quantities.
+     * METHOD_DELETE_BOOKS deletes books and returns their IDs, METHOD_RESTORE_DELETED undoes it
+     * and METHOD_PURGE_DELETED removes a batch of deleted books, or the given ones.
+     * METHOD_GET_DATABASE_STATS, METHOD_INCREMENTAL_VACUUM and METHOD_OPTIMIZE maintain the database file.
+     * METHOD_GET_CHANGES returns the local changes to push to the sync server.
+     * METHOD_SCAN_REORDERS updates the reorder margins with a batch of new stock movements.
+     * METHOD_PRUNE_SALES_HISTORY removes a batch of old hourly sales buckets.
+     * METHOD_GET_WRITE_STATS returns the write lock contention.
+     * METHOD_BACKUP copies the database to a new backup generation and METHOD_RESTORE_BACKUP restores one.
+     * METHOD_GET_TOTALS adds up the books in stock and METHOD_GET_DATA_VERSION reads the data version.
+     * They and the delete methods work with either store, and the others need the database.
+     * Unlike the other calls, call() isn't checked against the provider's permissions by the system,
+     * so methods that only read require PERMISSION_READ and all others PERMISSION_WRITE.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        boolean readOnly = METHOD_GET_DATABASE_STATS.equals(method) || METHOD_GET_CHANGES.equals(method)
+                || METHOD_GET_WRITE_STATS.equals(method) || METHOD_GET_TOTALS.equals(method)
+                || METHOD_GET_DATA_VERSION.equals(method);
+        getContext().enforceCallingOrSelfPermission(readOnly ? PERMISSION_READ : PERMISSION_WRITE, method);
+
+        if (METHOD_GET_TOTALS.equals(method)) {
+            return mStore.getTotals();
+        } else if (METHOD_GET_DATA_VERSION.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(EXTRA_DATA_VERSION, mStore.getDataVersion());
+            return result;
+        } else if (METHOD_COMPACT_MOVEMENTS.equals(method)) {
+            requireDatabase(method);
+            final int batchSize = TextUtils.isEmpty(arg) ? DEFAULT_COMPACTION_BATCH_SIZE : Integer.parseInt(arg);
+            int compacted = mWriter.write(new WriteCoordinator.Work<Integer>() {
+                @Override
+                public Integer run(SQLiteDatabase database) {
+                    return StockLedger.compact(database, batchSize);
+                }
+            });
+            Bundle result = new Bundle();
+            result.putInt(EXTRA_COUNT, compacted);
+            return result;
+        } else if (METHOD_DELETE_BOOKS.equals(method)) {
+            long[] ids = deleteBooks(Uri.parse(arg), extras == null ? null : extras.getString(EXTRA_SELECTION), null);
+            Bundle result = new Bundle();
+            result.putInt(EXTRA_COUNT, ids.length);
+            result.putLongArray(EXTRA_IDS, ids);
+            return result;
+        } else if (METHOD_RESTORE_DELETED.equals(method)) {
+            long[] ids = extras == null ? null : extras.getLongArray(EXTRA_IDS);
+            if (ids == null) {
+                throw new IllegalArgumentException("Restoring requires the IDs of the deleted books");
+            }
+            Bundle result = new Bundle();
+            result.putInt(EXTRA_COUNT, restoreDeletedBooks(ids));
+            return result;
+        } else if (METHOD_GET_DATABASE_STATS.equals(method)) {
+            requireDatabase(method);
+            return DatabaseMaintenance.getStats(mDbHelper.getReadableDatabase());
+        } else if (METHOD_INCREMENTAL_VACUUM.equals(method)) {
+            requireDatabase(method);
+            int maxPages = TextUtils.isEmpty(arg) ? 0 : Integer.parseInt(arg);
+            Bundle result = new Bundle();
+            result.putInt(EXTRA_COUNT, DatabaseMaintenance.incrementalVacuum(mDbHelper.getWritableDatabase(), maxPages));
+            return result;
+        } else if (METHOD_OPTIMIZE.equals(method)) {
+            requireDatabase(method);
+            DatabaseMaintenance.optimize(mDbHelper.getWritableDatabase());
+            return null;
+        } else if (METHOD_PURGE_DELETED.equals(method)) {
+            long[] ids = extras == null ? null : extras.getLongArray(EXTRA_IDS);
+            int batchSize = TextUtils.isEmpty(arg) ? DEFAULT_PURGE_BATCH_SIZE : Integer.parseInt(arg);
+            Bundle result = new Bundle();
+            result.putInt(EXTRA_COUNT, ids != null ? mStore.purgeBooks(ids) : purgeDeletedBooks(batchSize));
+            return result;
+        } else if (METHOD_GET_CHANGES.equals(method)) {
+            requireDatabase(method);
+            final int limit = TextUtils.isEmpty(arg) ? DEFAULT_SYNC_BATCH_SIZE : Integer.parseInt(arg);
+            // Reads on a read connection, without holding the write lock against sales
+            return SyncStore.getChanges(mDbHelper.getReadableDatabase(), mDbHelper.getCipher(), limit);
+        } else if (METHOD_SCAN_REORDERS.equals(method)) {
+            requireDatabase(method);
+            final int batchSize = TextUtils.isEmpty(arg) ? DEFAULT_REORDER_SCAN_BATCH_SIZE : Integer.parseInt(arg);
+            int scanned = mWriter.write(new WriteCoordinator.Work<Integer>() {
+                @Override
+                public Integer run(SQLiteDatabase database) {
+                    return ReorderStore.scan(database, batchSize);
+                }
+            });
+            Bundle result = new Bundle();
+            result.putInt(EXTRA_COUNT, scanned);
+            return result;
+        } else if (METHOD_PRUNE_SALES_HISTORY.equals(method)) {
+            requireDatabase(method);
+            final int batchSize = TextUtils.isEmpty(arg) ? DEFAULT_SALES_PRUNE_BATCH_SIZE : Integer.parseInt(arg);
+            int pruned = mWriter.write(new WriteCoordinator.Work<Integer>() {
+                @Override
+                public Integer run(SQLiteDatabase database) {
+                    return SalesHistory.pruneHourly(database, batchSize);
+                }
+            });
+            Bundle result = new Bundle();
+            result.putInt(EXTRA_COUNT, pruned);
+            return result;
+        } else if (METHOD_GET_WRITE_STATS.equals(method)) {
+            requireDatabase(method);
+            return mWriter.getStats();
+        } else if (METHOD_BACKUP.equals(method)) {
+            requireDatabase(method);
+            return mBackup.backup();
+        } else if (METHOD_RESTORE_BACKUP.equals(method)) {
+            requireDatabase(method);
+            Bundle result = mBackup.restore(TextUtils.isEmpty(arg) ? 0 : Integer.parseInt(arg));
+            if (result.getLong(EXTRA_BACKUP_TIME) != 0) {
+                notifyBooksChanged(BookEntry.CONTENT_URI);
+            }
+            return result;
         }
-        return rowsDeleted;
+        return super.call(method, arg, extras);
     }
 
     /**
@@ -302,9 +1042,20 @@ public class BookProvider extends ContentProvider {
         int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
+            case REORDERS:
                 return BookEntry.CONTENT_LIST_TYPE;
             case BOOK_ID:
+            case BOOK_ISBN:
                 return BookEntry.CONTENT_ITEM_TYPE;
+            case MOVEMENTS:
+                return MovementEntry.CONTENT_LIST_TYPE;
+            case SYNC:
+                return SyncEntry.CONTENT_LIST_TYPE;
+            case SALES:
+            case SALES_HOURLY:
+                return SalesEntry.CONTENT_LIST_TYPE;
+            case PRICE_HISTORY:
+                return PriceHistoryEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri + " with match " + match);
         }
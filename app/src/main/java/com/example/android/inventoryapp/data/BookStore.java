@@ -0,0 +1,101 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+
+/**
+ * Storage behind the book paths of {@link BookProvider}.
+ * The provider checks and normalizes the values and notifies listeners, and the store only reads
+ * and writes books. Selections never include deleted books, which the store leaves out itself.
+ *
+ * {@link SqliteBookStore} is the app's database. {@link InMemoryBookStore} keeps the books in memory
+ * for the kiosk mode, which only browses, and for tests. The stock ledger, sync, sales history
+ * and price history are kept only by the SQLite store.
+ */
+interface BookStore {
+
+    /**
+     * Work run by runAtomically().
+     */
+    interface Operation<T> {
+        T run();
+    }
+
+    /**
+     * Returns the books that aren't deleted matching the selection, in the sort order.
+     * A null projection returns every column.
+     */
+    Cursor queryBooks(String[] projection, String selection, String[] selectionArgs, String sortOrder);
+
+    /**
+     * Returns the ID of the book with the given ISBN, deleted or not, or -1 if there is none.
+     */
+    long findBookIdByIsbn(String isbn);
+
+    /**
+     * Inserts a checked book. Returns the new ID, or -1 if the insert failed, e.g. the ISBN is taken.
+     */
+    long insertBook(ContentValues values);
+
+    /**
+     * Inserts many checked books. Returns false and inserts none if any of them fails.
+     */
+    boolean insertBooks(ContentValues[] values);
+
+    /**
+     * Overwrites the given columns of the selected books. Returns the number of books updated.
+     */
+    int updateBooks(ContentValues values, String selection, String[] selectionArgs);
+
+    /**
+     * Adds the delta to the quantity of each selected book whose quantity stays at 0 or more.
+     * Returns the number of books changed.
+     */
+    int adjustQuantity(int delta, int reason, String selection, String[] selectionArgs);
+
+    /**
+     * Sets the price of each selected book to its price times the factor plus the offset, rounded to cents,
+     * unless it would be negative or unchanged. Returns the number of books repriced.
+     */
+    int repriceBooks(double factor, double offset, String selection, String[] selectionArgs);
+
+    /**
+     * Marks the selected books as deleted at the given time. Returns the IDs of the books marked,
+     * so exactly these books can be restored.
+     */
+    long[] deleteBooks(String selection, String[] selectionArgs, long deletedAt);
+
+    /**
+     * Restores the book with the given ID if it is deleted. Returns the number of books restored.
+     */
+    int restoreBook(long id);
+
+    /**
+     * Permanently removes up to batchSize books deleted before the given time.
+     * Returns the number of books removed.
+     */
+    int purgeDeletedBooks(long deletedBefore, int batchSize);
+
+    /**
+     * Permanently removes the deleted books with the given IDs, without waiting for the grace period.
+     * Books that aren't deleted are kept. Returns the number of books removed.
+     */
+    int purgeBooks(long[] ids);
+
+    /**
+     * Returns the totals described by {@link BookContract#METHOD_GET_TOTALS}.
+     */
+    Bundle getTotals();
+
+    /**
+     * Returns the {@link DataVersion} of the books, which increases with every change to them.
+     */
+    long getDataVersion();
+
+    /**
+     * Runs the operation without other writes in between, e.g. a look-up followed by a write.
+     * Calls to the store from the operation join it.
+     */
+    <T> T runAtomically(Operation<T> operation);
+}
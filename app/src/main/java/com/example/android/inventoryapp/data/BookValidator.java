@@ -0,0 +1,331 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+/**
+ * Checks book values against the rules of each {@link BookEntry} column.
+ * The rules are kept in one table indexed by field, and failures are collected in a bit mask
+ * instead of thrown, so the provider, EditActivity and bulk writes share the same checks
+ * and one validator can be reset and reused for every row of a batch.
+ * Values are checked as primitives and CharSequences so no boxing or copies are needed.
+ */
+public final class BookValidator {
+
+    /** Fields in the order of the rule table **/
+    public static final int FIELD_NAME = 0;
+    public static final int FIELD_AUTHOR = 1;
+    public static final int FIELD_PRICE = 2;
+    public static final int FIELD_QUANTITY = 3;
+    public static final int FIELD_SUPPLIER_NAME = 4;
+    public static final int FIELD_SUPPLIER_PHONE = 5;
+    public static final int FIELD_REORDER_THRESHOLD = 6;
+    public static final int FIELD_COUNT = 7;
+
+    /** Types of values a field can hold **/
+    private static final int TYPE_TEXT = 0;
+    private static final int TYPE_REAL = 1;
+    private static final int TYPE_INTEGER = 2;
+
+    /** Column of each field **/
+    private static final String[] COLUMNS = {
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_AUTHOR,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+            BookEntry.COLUMN_BOOK_REORDER_THRESHOLD };
+
+    /** Type of each field **/
+    private static final int[] TYPES = {
+            TYPE_TEXT, TYPE_TEXT, TYPE_REAL, TYPE_INTEGER, TYPE_TEXT, TYPE_INTEGER, TYPE_INTEGER };
+
+    /** Whether inserts require each field, since optional columns have a default **/
+    private static final boolean[] REQUIRED = { true, true, true, true, true, true, false };
+
+    /** Fewest characters of typed input each field accepts, e.g. a 10 digit phone number **/
+    private static final int[] MIN_INPUT_LENGTHS = { 1, 1, 1, 1, 1, 10, 1 };
+
+    /** Largest value of each integer field, so the quantity and threshold fit their int columns **/
+    private static final long[] MAX_VALUES = { 0, 0, 0, Integer.MAX_VALUE, 0, Long.MAX_VALUE, Integer.MAX_VALUE };
+
+    /** Error message of each field **/
+    private static final String[] MESSAGES = {
+            "Book requires a name",
+            "Book requires an author",
+            "Book requires a valid price",
+            "Book requires a valid quantity",
+            "Book requires a supplier name",
+            "Book requires a valid supplier phone number",
+            "Book requires a valid reorder threshold" };
+
+    /** One bit per field that failed its check since the last reset **/
+    private int mErrors;
+
+    /** Values parsed by checkInput(), indexed by field **/
+    private final double[] mRealValues = new double[FIELD_COUNT];
+    private final long[] mIntegerValues = new long[FIELD_COUNT];
+
+    /**
+     * Clears the errors so the validator can check another row.
+     */
+    public void reset() {
+        mErrors = 0;
+    }
+
+    /**
+     * Checks that a text field isn't null or blank.
+     */
+    public void checkText(int field, CharSequence value) {
+        if (value == null || trimmedEnd(value) <= trimmedStart(value)) {
+            fail(field);
+        }
+    }
+
+    /**
+     * Checks that a real field is a finite number that isn't negative.
+     */
+    public void checkReal(int field, double value) {
+        // The comparison is false for NaN
+        if (!(value >= 0) || Double.isInfinite(value)) {
+            fail(field);
+        }
+    }
+
+    /**
+     * Checks that an integer field isn't negative and fits its column.
+     */
+    public void checkInteger(int field, long value) {
+        if (value < 0 || value > MAX_VALUES[field]) {
+            fail(field);
+        }
+    }
+
+    /**
+     * Parses and checks text typed for a field, e.g. in EditActivity.
+     * The parsed number can then be read with getReal() or getInteger().
+     */
+    public void checkInput(int field, CharSequence input) {
+        int start = input == null ? 0 : trimmedStart(input);
+        int end = input == null ? 0 : trimmedEnd(input);
+        if (end - start < MIN_INPUT_LENGTHS[field]) {
+            fail(field);
+            return;
+        }
+
+        switch (TYPES[field]) {
+            case TYPE_REAL:
+                double real;
+                try {
+                    real = Double.parseDouble(input.subSequence(start, end).toString());
+                } catch (NumberFormatException e) {
+                    fail(field);
+                    return;
+                }
+                mRealValues[field] = real;
+                checkReal(field, real);
+                break;
+            case TYPE_INTEGER:
+                long integer = parseDigits(input, start, end);
+                mIntegerValues[field] = integer;
+                checkInteger(field, integer);
+                break;
+        }
+    }
+
+    /**
+     * Checks the values of a provider write.
+     * Inserts require every required field, while updates only check the fields they contain.
+     */
+    public void checkValues(ContentValues values, boolean requireAll) {
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if (!values.containsKey(COLUMNS[field])) {
+                if (requireAll && REQUIRED[field]) {
+                    fail(field);
+                }
+                continue;
+            }
+
+            Object value = values.get(COLUMNS[field]);
+            if (value == null) {
+                fail(field);
+            } else if (TYPES[field] == TYPE_TEXT) {
+                checkText(field, value.toString());
+            } else if (value instanceof CharSequence) {
+                checkInput(field, (CharSequence) value);
+            } else if (!(value instanceof Number)) {
+                fail(field);
+            } else if (TYPES[field] == TYPE_REAL) {
+                checkReal(field, ((Number) value).doubleValue());
+            } else if (value instanceof Double || value instanceof Float) {
+                // Integer columns don't accept fractions
+                double real = ((Number) value).doubleValue();
+                if (real != Math.floor(real)) {
+                    fail(field);
+                } else {
+                    checkInteger(field, (long) real);
+                }
+            } else {
+                checkInteger(field, ((Number) value).longValue());
+            }
+        }
+    }
+
+    /**
+     * Throws an IllegalArgumentException with the message of the first failed field, if any.
+     */
+    public void throwIfInvalid() {
+        if (mErrors != 0) {
+            throw new IllegalArgumentException(MESSAGES[getFirstError()]);
+        }
+    }
+
+    /** Returns true if every checked field passed **/
+    public boolean isValid() {
+        return mErrors == 0;
+    }
+
+    /** Returns true if the field failed its check **/
+    public boolean hasError(int field) {
+        return (mErrors & (1 << field)) != 0;
+    }
+
+    /** Returns the bit mask of failed fields **/
+    public int getErrors() {
+        return mErrors;
+    }
+
+    /** Returns the first failed field in table order, or -1 if there is none **/
+    public int getFirstError() {
+        return mErrors == 0 ? -1 : Integer.numberOfTrailingZeros(mErrors);
+    }
+
+    /** Returns the number parsed by the last checkInput() of a real field **/
+    public double getReal(int field) {
+        return mRealValues[field];
+    }
+
+    /** Returns the number parsed by the last checkInput() of an integer field **/
+    public long getInteger(int field) {
+        return mIntegerValues[field];
+    }
+
+    /** Returns the column of the field **/
+    public static String getColumn(int field) {
+        return COLUMNS[field];
+    }
+
+    /** Returns the error message of the field **/
+    public static String getMessage(int field) {
+        return MESSAGES[field];
+    }
+
+    /**
+     * Removes dashes and spaces from an ISBN-10 or ISBN-13, checks its check digit and returns
+     * its ISBN-13 form, so both forms of the same book are stored and looked up the same way.
+     * An ISBN-10 becomes 978 and its first 9 digits, with the ISBN-13 check digit.
+     * Returns null if the ISBN is not valid.
+     * Reference: https://en.wikipedia.org/wiki/International_Standard_Book_Number#Check_digits
+     */
+    public static String normalizeIsbn(String isbn) {
+        if (isbn == null) {
+            return null;
+        }
+        StringBuilder digits = new StringBuilder(13);
+        for (int i = 0; i < isbn.length(); i++) {
+            char c = isbn.charAt(i);
+            if (c == '-' || c == ' ') {
+                continue;
+            }
+            if (c == 'x') {
+                c = 'X';
+            }
+            digits.append(c);
+        }
+
+        int sum = 0;
+        if (digits.length() == 10) {
+            // ISBN-10: weights 10 to 1, the last digit can be X for 10
+            for (int i = 0; i < 10; i++) {
+                char c = digits.charAt(i);
+                int value;
+                if (c >= '0' && c <= '9') {
+                    value = c - '0';
+                } else if (c == 'X' && i == 9) {
+                    value = 10;
+                } else {
+                    return null;
+                }
+                sum += value * (10 - i);
+            }
+            if (sum % 11 != 0) {
+                return null;
+            }
+            digits.setLength(9);
+            digits.insert(0, "978");
+            digits.append(isbn13CheckDigit(digits));
+            return digits.toString();
+        } else if (digits.length() == 13) {
+            for (int i = 0; i < 13; i++) {
+                char c = digits.charAt(i);
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+            }
+            return isbn13CheckDigit(digits) == digits.charAt(12) ? digits.toString() : null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the check digit of the first 12 digits of an ISBN-13, which have alternating weights of 1 and 3.
+     */
+    private static char isbn13CheckDigit(CharSequence digits) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        }
+        return (char) ('0' + (10 - sum % 10) % 10);
+    }
+
+    private void fail(int field) {
+        mErrors |= 1 << field;
+    }
+
+    /**
+     * Returns the value of the decimal digits between start and end,
+     * or -1 if there is another character or the value overflows.
+     */
+    private static long parseDigits(CharSequence input, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            if (value > (Long.MAX_VALUE - (c - '0')) / 10) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int trimmedStart(CharSequence value) {
+        int start = 0;
+        while (start < value.length() && value.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimmedEnd(CharSequence value) {
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+}
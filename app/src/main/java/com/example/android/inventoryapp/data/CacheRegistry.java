@@ -0,0 +1,170 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of the in-memory caches of the process, so they can all give memory back
+ * when the system runs low. The registry follows onTrimMemory() and onLowMemory() of the
+ * application once {@link #install} is called, which {@link BookProvider} does when it is created.
+ *
+ * Caches are trimmed in tiers: to half of their size when the app is hidden or memory gets
+ * tight, to a quarter when the process is in the middle of the kill list or memory is low,
+ * and cleared when the process is next to be killed, memory is critical, or on onLowMemory().
+ * The size of each cache before and after is logged, so the usage can be followed in logcat.
+ */
+public final class CacheRegistry {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = CacheRegistry.class.getSimpleName();
+
+    /**
+     * A cache whose size can be measured and reduced. Both methods are called on the main thread,
+     * so a cache also used by other threads must synchronize them.
+     */
+    public interface TrimmableCache {
+
+        /**
+         * Returns the approximate size of the cache in bytes.
+         */
+        int getSize();
+
+        /**
+         * Drops entries until the cache takes at most maxBytes.
+         */
+        void trimToSize(int maxBytes);
+    }
+
+    /** A registered cache and the name it is logged with **/
+    private static final class Registration {
+        final String name;
+        final TrimmableCache cache;
+
+        Registration(String name, TrimmableCache cache) {
+            this.name = name;
+            this.cache = cache;
+        }
+    }
+
+    /** Registered caches, in registration order **/
+    private static final List<Registration> sRegistrations = new ArrayList<>();
+
+    /** Whether the registry follows the memory callbacks of the application **/
+    private static boolean sInstalled;
+
+    /** Private constructor to prevent instantiating the class **/
+    private CacheRegistry() {}
+
+    /**
+     * Starts trimming the registered caches on the memory callbacks of the application.
+     * Calling it again does nothing.
+     */
+    public static synchronized void install(Context context) {
+        if (sInstalled) {
+            return;
+        }
+        sInstalled = true;
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trimMemory(level);
+            }
+
+            @Override
+            public void onLowMemory() {
+                trimToPercent(0, "low memory");
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
+    }
+
+    /**
+     * Registers the cache under the given name. A cache owned by an activity or adapter
+     * must be unregistered when it is destroyed, so it isn't leaked.
+     */
+    public static synchronized void register(String name, TrimmableCache cache) {
+        sRegistrations.add(new Registration(name, cache));
+    }
+
+    /**
+     * Unregisters the cache. Does nothing if it isn't registered.
+     */
+    public static synchronized void unregister(TrimmableCache cache) {
+        for (int i = sRegistrations.size() - 1; i >= 0; i--) {
+            if (sRegistrations.get(i).cache == cache) {
+                sRegistrations.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the total size of the registered caches in bytes.
+     */
+    public static int getSize() {
+        int bytes = 0;
+        for (Registration registration : getRegistrations()) {
+            bytes += registration.cache.getSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * Trims the registered caches to the tier of the given ComponentCallbacks2 trim level.
+     */
+    public static void trimMemory(int level) {
+        trimToPercent(keptPercent(level), "trim level " + level);
+    }
+
+    /**
+     * Returns the percentage of their size that the caches keep at the given trim level.
+     * The running levels are lower than the background ones but more urgent, so they are matched one by one.
+     */
+    static int keptPercent(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 25;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 50;
+        }
+        return 100;
+    }
+
+    /**
+     * Trims each registered cache to the percentage of its size and logs the sizes before and after.
+     */
+    private static void trimToPercent(int percent, String reason) {
+        if (percent >= 100) {
+            return;
+        }
+        int bytesBefore = 0;
+        int bytesAfter = 0;
+        // The caches are trimmed outside the lock, since they take their own
+        for (Registration registration : getRegistrations()) {
+            int size = registration.cache.getSize();
+            registration.cache.trimToSize((int) ((long) size * percent / 100));
+            int trimmedSize = registration.cache.getSize();
+            Log.d(LOG_TAG, registration.name + ": " + size / 1024 + " KiB to " + trimmedSize / 1024 + " KiB");
+            bytesBefore += size;
+            bytesAfter += trimmedSize;
+        }
+        Log.i(LOG_TAG, "Trimmed caches to " + percent + "% on " + reason + ": " +
+                bytesBefore / 1024 + " KiB to " + bytesAfter / 1024 + " KiB");
+    }
+
+    private static synchronized List<Registration> getRegistrations() {
+        return new ArrayList<>(sRegistrations);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.SyncEntry;
+
+/**
+ * Opens the database and reads the first page of the catalog as soon as the process starts.
+ * {@link BookProvider} is created before any activity, so the work runs while
+ * CatalogActivity is still inflating its layout. The activity then takes the result
+ * and displays it until its loader delivers the full catalog.
+ * A page that no activity takes, e.g. when the process was started for another app's query,
+ * is dropped by the {@link CacheRegistry} under memory pressure.
+ */
+public final class CatalogPrefetcher {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = CatalogPrefetcher.class.getSimpleName();
+
+    /** Number of books read ahead, enough to fill the first screen **/
+    public static final int FIRST_PAGE_SIZE = 20;
+
+    /** The running or finished prefetch, or null if there is none to take **/
+    private static FutureTask<Cursor> sPrefetch;
+
+    /** Set when the books change after the prefetch started, so its result can't be used **/
+    private static boolean sStale;
+
+    /** Lets the registry measure and drop a finished prefetch that wasn't taken **/
+    private static final CacheRegistry.TrimmableCache sCache = new CacheRegistry.TrimmableCache() {
+        @Override
+        public int getSize() {
+            return getPrefetchedSize();
+        }
+
+        @Override
+        public void trimToSize(int maxBytes) {
+            if (maxBytes < getPrefetchedSize()) {
+                Cursor cursor = take();
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+    };
+
+    /** Private constructor to prevent instantiating the class **/
+    private CatalogPrefetcher() {}
+
+    /**
+     * Starts opening the database and reading the first page on a background thread.
+     */
+    static synchronized void start(final BookDbHelper dbHelper) {
+        sPrefetch = new FutureTask<>(new Callable<Cursor>() {
+            @Override
+            public Cursor call() {
+                long start = System.nanoTime();
+                // Reads the data version first, like CatalogLoader, so the activity doesn't ask the provider
+                // for it on the main thread
+                DataVersion.update(SyncStore.getState(dbHelper.getReadableDatabase(), SyncEntry.STATE_DATA_VERSION));
+                // Opening the database runs any migrations and loading the cipher reads the key file,
+                // so the loader's first query doesn't wait for them
+                Cursor cursor = dbHelper.getCipher().decrypt(SqliteBookStore.queryBooks(dbHelper.getReadableDatabase(),
+                        BookEntry.LIST_PROJECTION, null, null, BookEntry.LIST_SORT_ORDER, String.valueOf(FIRST_PAGE_SIZE)));
+                // Fills the cursor window now instead of on the main thread
+                cursor.getCount();
+                Log.d(LOG_TAG, "Prefetched catalog in " + (System.nanoTime() - start) / 1000000 + " ms");
+                // A page made stale while it was read would never be taken, so it is closed here
+                synchronized (CatalogPrefetcher.class) {
+                    if (sStale) {
+                        cursor.close();
+                        return null;
+                    }
+                }
+                return cursor;
+            }
+        });
+        sStale = false;
+        new Thread(sPrefetch, LOG_TAG).start();
+        CacheRegistry.unregister(sCache);
+        CacheRegistry.register("Prefetched catalog page", sCache);
+    }
+
+    /**
+     * Returns the prefetched first page if it is ready, or null if it isn't ready,
+     * was already taken, or is out of date. Never blocks. The caller must close the cursor.
+     */
+    public static synchronized Cursor take() {
+        FutureTask<Cursor> prefetch = sPrefetch;
+        if (prefetch == null || !prefetch.isDone()) {
+            return null;
+        }
+        sPrefetch = null;
+        Cursor cursor;
+        try {
+            cursor = prefetch.get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Catalog prefetch failed", e);
+            return null;
+        }
+        if (cursor != null && sStale) {
+            cursor.close();
+            return null;
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the approximate size in bytes of the finished prefetch, or 0 if there is none to take.
+     */
+    private static synchronized int getPrefetchedSize() {
+        FutureTask<Cursor> prefetch = sPrefetch;
+        if (prefetch == null || !prefetch.isDone()) {
+            return 0;
+        }
+        try {
+            Cursor cursor = prefetch.get();
+            return cursor == null ? 0 : cursor.getCount() * cursor.getColumnCount() * QueryCache.ESTIMATED_VALUE_BYTES;
+        } catch (InterruptedException | ExecutionException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Marks the prefetched page as out of date because the books changed.
+     */
+    static synchronized void invalidate() {
+        sStale = true;
+        // Taking a finished page closes it now, since it is stale and nothing else will take it
+        take();
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.inventoryapp.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Batch of book and stock changes exchanged with the sync server, encoded as gzip compressed binary.
+ * A request carries the device's unpushed changes and the server cursor it has pulled up to.
+ * A response carries the other devices' changes after that cursor and the new cursor.
+ *
+ * Books carry their descriptive columns only. Quantities are synced as the stock movements
+ * that make them up, so concurrent sales on two devices add up instead of overwriting each other.
+ */
+public final class ChangeSet {
+
+    /** Identifies an encoded change-set ("BKCS") **/
+    private static final int MAGIC = 0x424B4353;
+
+    /** Version of the encoding, increased whenever it changes **/
+    private static final int FORMAT_VERSION = 1;
+
+    /** Value of deletedAt for a book that isn't deleted **/
+    public static final long NOT_DELETED = -1;
+
+    /** Device that made the changes, or an empty String in a response **/
+    public String deviceId = "";
+
+    /** Server position the device has pulled up to in a request, or the new position in a response **/
+    public long cursor;
+
+    /** Most changes the server may return in a response **/
+    public int maxResults;
+
+    /** In a response, false if the server didn't store the pushed changes because the pull wasn't complete **/
+    public boolean accepted;
+
+    /** Changed books, in the order they were changed **/
+    public final List<BookChange> books = new ArrayList<>();
+
+    /** New stock movements, in the order they were recorded **/
+    public final List<MovementChange> movements = new ArrayList<>();
+
+    /**
+     * Descriptive columns of a changed book, identified by its sync ID on every device.
+     */
+    public static final class BookChange {
+        public String syncId;
+        public String name;
+        public String author;
+        public double price;
+        public String supplierName;
+        public long supplierPhone;
+        public String isbn;
+        public long deletedAt = NOT_DELETED;
+    }
+
+    /**
+     * One stock movement of a book, identified by the book's sync ID.
+     */
+    public static final class MovementChange {
+        public String bookSyncId;
+        public int delta;
+        public int reason;
+        public long createdAt;
+    }
+
+    /** Returns the number of book and movement changes **/
+    public int size() {
+        return books.size() + movements.size();
+    }
+
+    /**
+     * Returns the compressed encoding of the change-set.
+     */
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(deviceId);
+        out.writeLong(cursor);
+        out.writeInt(maxResults);
+        out.writeBoolean(accepted);
+
+        out.writeInt(books.size());
+        for (BookChange book : books) {
+            out.writeUTF(book.syncId);
+            out.writeUTF(book.name);
+            out.writeUTF(book.author);
+            out.writeDouble(book.price);
+            out.writeUTF(book.supplierName);
+            out.writeLong(book.supplierPhone);
+            out.writeBoolean(book.isbn != null);
+            if (book.isbn != null) {
+                out.writeUTF(book.isbn);
+            }
+            out.writeLong(book.deletedAt);
+        }
+
+        out.writeInt(movements.size());
+        for (MovementChange movement : movements) {
+            out.writeUTF(movement.bookSyncId);
+            out.writeInt(movement.delta);
+            out.writeInt(movement.reason);
+            out.writeLong(movement.createdAt);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a change-set. Throws an IOException if the data isn't a change-set of this version.
+     */
+    public static ChangeSet decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unsupported change-set format");
+            }
+            ChangeSet changeSet = new ChangeSet();
+            changeSet.deviceId = in.readUTF();
+            changeSet.cursor = in.readLong();
+            changeSet.maxResults = in.readInt();
+            changeSet.accepted = in.readBoolean();
+
+            int bookCount = in.readInt();
+            for (int i = 0; i < bookCount; i++) {
+                BookChange book = new BookChange();
+                book.syncId = in.readUTF();
+                book.name = in.readUTF();
+                book.author = in.readUTF();
+                book.price = in.readDouble();
+                book.supplierName = in.readUTF();
+                book.supplierPhone = in.readLong();
+                book.isbn = in.readBoolean() ? in.readUTF() : null;
+                book.deletedAt = in.readLong();
+                changeSet.books.add(book);
+            }
+
+            int movementCount = in.readInt();
+            for (int i = 0; i < movementCount; i++) {
+                MovementChange movement = new MovementChange();
+                movement.bookSyncId = in.readUTF();
+                movement.delta = in.readInt();
+                movement.reason = in.readInt();
+                movement.createdAt = in.readLong();
+                changeSet.movements.add(movement);
+            }
+            return changeSet;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.text.TextUtils;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.PriceHistoryEntry;
+
+/**
+ * Encrypts the sensitive book columns, the price and the supplier phone number, and the old and new
+ * prices in the price history before they are stored and decrypts them in the cursors returned by
+ * {@link BookProvider}.
+ *
+ * Each value is encrypted with AES-256 in CTR mode under a random IV and authenticated with a
+ * truncated HMAC-SHA256 over the IV and ciphertext, so a changed value fails to decrypt instead of
+ * reading as a wrong price. A stored value is 40 bytes: the IV, the 8 encrypted bytes and the tag.
+ * The {@link #PLAIN} cipher leaves values unchanged, for databases that aren't encrypted.
+ */
+final class ColumnCipher {
+
+    /** Columns whose values are encrypted **/
+    private static final String[] ENCRYPTED_COLUMNS = {
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+            PriceHistoryEntry.COLUMN_PRICE_OLD,
+            PriceHistoryEntry.COLUMN_PRICE_NEW };
+
+    /** Matches a reference to an encrypted column in a selection or sort order **/
+    private static final Pattern ENCRYPTED_COLUMN_REFERENCE = Pattern.compile("\\b(" +
+            TextUtils.join("|", ENCRYPTED_COLUMNS) + ")\\b", Pattern.CASE_INSENSITIVE);
+
+    /** Cursor type of each encrypted column once decrypted **/
+    private static final int[] ENCRYPTED_COLUMN_TYPES = {
+            Cursor.FIELD_TYPE_FLOAT,
+            Cursor.FIELD_TYPE_INTEGER,
+            Cursor.FIELD_TYPE_FLOAT,
+            Cursor.FIELD_TYPE_FLOAT };
+
+    /** Sizes of the parts of an encrypted value **/
+    private static final int IV_SIZE = 16;
+    private static final int VALUE_SIZE = 8;
+    private static final int TAG_SIZE = 16;
+    private static final int ENCRYPTED_SIZE = IV_SIZE + VALUE_SIZE + TAG_SIZE;
+
+    /** Cipher that leaves the values unchanged **/
+    static final ColumnCipher PLAIN = new ColumnCipher(null, null);
+
+    private final SecretKeySpec mEncryptionKey;
+    private final SecretKeySpec mMacKey;
+    private final SecureRandom mRandom = new SecureRandom();
+
+    /** Cipher and MAC of each thread, since they can't be shared and are slow to create **/
+    private final ThreadLocal<Cipher> mCiphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/CTR/NoPadding");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+    private final ThreadLocal<Mac> mMacs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(mMacKey);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /**
+     * Creates a cipher with a 256-bit encryption key and a MAC key, or the plain cipher if they are null.
+     */
+    ColumnCipher(byte[] encryptionKey, byte[] macKey) {
+        mEncryptionKey = encryptionKey == null ? null : new SecretKeySpec(encryptionKey, "AES");
+        mMacKey = macKey == null ? null : new SecretKeySpec(macKey, "HmacSHA256");
+    }
+
+    /** Returns true unless this is the plain cipher **/
+    boolean isEncrypted() {
+        return mEncryptionKey != null;
+    }
+
+    /**
+     * Throws an IllegalArgumentException if the SQL, e.g. a selection or sort order, names an encrypted
+     * column, since SQLite would compare the encrypted bytes. A name in a string literal counts too,
+     * so values should be passed as arguments.
+     */
+    void checkNotReferenced(String sql) {
+        if (isEncrypted() && sql != null && ENCRYPTED_COLUMN_REFERENCE.matcher(sql).find()) {
+            throw new IllegalArgumentException("Encrypted columns can't be compared in " + sql);
+        }
+    }
+
+    /**
+     * Replaces the encrypted columns in the values with their encrypted form.
+     * Must be called after the values are validated.
+     */
+    void encryptValues(ContentValues values) {
+        if (!isEncrypted()) {
+            return;
+        }
+        if (values.containsKey(BookEntry.COLUMN_BOOK_PRICE)) {
+            double price = values.getAsDouble(BookEntry.COLUMN_BOOK_PRICE);
+            values.put(BookEntry.COLUMN_BOOK_PRICE, encrypt(Double.doubleToLongBits(price)));
+        }
+        if (values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE)) {
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+                    encrypt(values.getAsLong(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE)));
+        }
+    }
+
+    /**
+     * Returns a cursor that reads the encrypted columns of the given cursor as plain numbers.
+     */
+    Cursor decrypt(Cursor cursor) {
+        if (!isEncrypted() || cursor == null) {
+            return cursor;
+        }
+        int[] types = new int[cursor.getColumnCount()];
+        boolean found = false;
+        for (int i = 0; i < ENCRYPTED_COLUMNS.length; i++) {
+            int columnIndex = cursor.getColumnIndex(ENCRYPTED_COLUMNS[i]);
+            if (columnIndex != -1) {
+                types[columnIndex] = ENCRYPTED_COLUMN_TYPES[i];
+                found = true;
+            }
+        }
+        return found ? new DecryptingCursor(cursor, types) : cursor;
+    }
+
+    /**
+     * Encrypts the 8 bytes of a value.
+     */
+    byte[] encrypt(long value) {
+        byte[] encrypted = new byte[ENCRYPTED_SIZE];
+        byte[] iv = new byte[IV_SIZE];
+        mRandom.nextBytes(iv);
+        System.arraycopy(iv, 0, encrypted, 0, IV_SIZE);
+        try {
+            Cipher cipher = mCiphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, mEncryptionKey, new IvParameterSpec(iv));
+            cipher.doFinal(ByteBuffer.allocate(VALUE_SIZE).putLong(value).array(), 0, VALUE_SIZE, encrypted, IV_SIZE);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        System.arraycopy(tag(encrypted), 0, encrypted, IV_SIZE + VALUE_SIZE, TAG_SIZE);
+        return encrypted;
+    }
+
+    /**
+     * Checks and decrypts a value returned by encrypt().
+     */
+    long decrypt(byte[] encrypted) {
+        if (encrypted == null || encrypted.length != ENCRYPTED_SIZE) {
+            throw new IllegalStateException("Encrypted column has an invalid size");
+        }
+        byte[] expectedTag = tag(encrypted);
+        byte[] tag = Arrays.copyOfRange(encrypted, IV_SIZE + VALUE_SIZE, ENCRYPTED_SIZE);
+        if (!MessageDigest.isEqual(expectedTag, tag)) {
+            throw new IllegalStateException("Encrypted column failed its integrity check");
+        }
+        try {
+            Cipher cipher = mCiphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, mEncryptionKey, new IvParameterSpec(encrypted, 0, IV_SIZE));
+            return ByteBuffer.wrap(cipher.doFinal(encrypted, IV_SIZE, VALUE_SIZE)).getLong();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the first TAG_SIZE bytes of the MAC of the IV and ciphertext.
+     */
+    private byte[] tag(byte[] encrypted) {
+        Mac mac = mMacs.get();
+        mac.update(encrypted, 0, IV_SIZE + VALUE_SIZE);
+        return Arrays.copyOf(mac.doFinal(), TAG_SIZE);
+    }
+
+    /**
+     * Cursor that decrypts the encrypted columns when they are read.
+     * The column types are reported as numbers, so the rows are copied correctly
+     * when the cursor is sent to another process. The last value decrypted in each column
+     * is kept with its row position, so a row read several times, e.g. by a rebound view,
+     * is decrypted once.
+     */
+    private class DecryptingCursor extends CursorWrapper {
+
+        /** Cursor type of each encrypted column, 0 for the other columns **/
+        private final int[] mTypes;
+
+        /** Last value decrypted in each column **/
+        private final long[] mDecryptedValues;
+
+        /** Row position of each decrypted value, -1 if none was decrypted **/
+        private final int[] mDecryptedPositions;
+
+        DecryptingCursor(Cursor cursor, int[] types) {
+            super(cursor);
+            mTypes = types;
+            mDecryptedValues = new long[types.length];
+            mDecryptedPositions = new int[types.length];
+            Arrays.fill(mDecryptedPositions, -1);
+        }
+
+        @Override
+        public int getType(int columnIndex) {
+            return mTypes[columnIndex] != 0 ? mTypes[columnIndex] : super.getType(columnIndex);
+        }
+
+        @Override
+        public long getLong(int columnIndex) {
+            if (mTypes[columnIndex] == 0) {
+                return super.getLong(columnIndex);
+            }
+            return mTypes[columnIndex] == Cursor.FIELD_TYPE_FLOAT ? (long) getDouble(columnIndex) : decryptColumn(columnIndex);
+        }
+
+        @Override
+        public int getInt(int columnIndex) {
+            return mTypes[columnIndex] == 0 ? super.getInt(columnIndex) : (int) getLong(columnIndex);
+        }
+
+        @Override
+        public double getDouble(int columnIndex) {
+            switch (mTypes[columnIndex]) {
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return Double.longBitsToDouble(decryptColumn(columnIndex));
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return decryptColumn(columnIndex);
+                default:
+                    return super.getDouble(columnIndex);
+            }
+        }
+
+        @Override
+        public float getFloat(int columnIndex) {
+            return mTypes[columnIndex] == 0 ? super.getFloat(columnIndex) : (float) getDouble(columnIndex);
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            switch (mTypes[columnIndex]) {
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return Double.toString(getDouble(columnIndex));
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return Long.toString(decryptColumn(columnIndex));
+                default:
+                    return super.getString(columnIndex);
+            }
+        }
+
+        private long decryptColumn(int columnIndex) {
+            int position = getPosition();
+            if (mDecryptedPositions[columnIndex] != position) {
+                mDecryptedValues[columnIndex] = decrypt(super.getBlob(columnIndex));
+                mDecryptedPositions[columnIndex] = position;
+            }
+            return mDecryptedValues[columnIndex];
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+
+/**
+ * Version of the books, which increases with every write to them.
+ * Data saved outside the database, such as the catalog snapshot, records the version
+ * it was read at and is discarded when the version has changed since.
+ * The {@link BookStore} keeps the version: the database increases it with triggers in the
+ * transaction of each write, so even a crash right after a commit can't leave the old data's
+ * version current. The books in memory don't outlive the process, so their versions are negative,
+ * which a snapshot is never saved at.
+ * The last version read is cached here. It is updated by {@link BookProvider} after every write
+ * it notifies, so it is only current in the provider's process, which is the app's main process.
+ */
+public final class DataVersion {
+
+    /** Version of data that wasn't read through a store, lower than every version of the stores **/
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    /** Last version read from the store, or UNKNOWN until it is first read **/
+    private static long sVersion = UNKNOWN;
+
+    /** Private constructor to prevent instantiating the class **/
+    private DataVersion() {}
+
+    /**
+     * Returns the current version. The first call asks the provider, so it shouldn't be made on the main thread.
+     */
+    public static long get(Context context) {
+        synchronized (DataVersion.class) {
+            if (sVersion != UNKNOWN) {
+                return sVersion;
+            }
+        }
+        return update(context.getContentResolver().call(BookContract.BASE_CONTENT_URI,
+                BookContract.METHOD_GET_DATA_VERSION, null, null).getLong(BookContract.EXTRA_DATA_VERSION));
+    }
+
+    /**
+     * Caches a version read from the store, unless a newer one was read in the meantime.
+     * Returns the cached version.
+     */
+    static synchronized long update(long version) {
+        sVersion = Math.max(sVersion, version);
+        return sVersion;
+    }
+}
@@ -0,0 +1,405 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_BACKUP_TIME;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_PAGE_COUNT;
+import static com.example.android.inventoryapp.data.BookContract.SyncEntry;
+
+/**
+ * Copies the database to rotating backup files while the app keeps selling, and restores from them.
+ *
+ * Android doesn't expose SQLite's online backup API, so the copy relies on write-ahead logging:
+ * automatic checkpoints are paused and one full checkpoint moves every committed page into the
+ * database file. Until checkpoints resume, writes only append to the WAL, so the file is a frozen
+ * snapshot that is copied a few pages at a time without holding the write lock.
+ * Each backup's name holds its time and the CRC32 of its bytes, which is checked before a restore.
+ */
+final class DatabaseBackup {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = DatabaseBackup.class.getSimpleName();
+
+    /** Name of the app's backup directory, under the files directory **/
+    static final String DIR_NAME = "database_backups";
+
+    /** Number of backups kept, the oldest being deleted after each new one **/
+    static final int GENERATIONS = 3;
+
+    /** Pages copied in each step, and the pause after each, so sales aren't starved of I/O **/
+    private static final int PAGES_PER_STEP = 64;
+    private static final long STEP_PAUSE_MILLIS = 2;
+
+    /** Number of times a full checkpoint is tried before the backup is skipped **/
+    private static final int CHECKPOINT_ATTEMPTS = 3;
+
+    /** Offset of the file format version bytes in the database header, 2 in WAL mode and 1 otherwise **/
+    private static final int HEADER_FORMAT_OFFSET = 18;
+
+    /** Name of a backup: its time and checksum **/
+    private static final Pattern BACKUP_NAME = Pattern.compile("books-(\\d+)-([0-9a-f]{8})\\.db");
+
+    /** Tables and schema objects of a database, leaving out SQLite's and Android's own **/
+    private static final String SQL_SELECT_TABLES = "SELECT name, sql FROM sqlite_master" +
+            " WHERE type = 'table' AND name NOT LIKE 'sqlite\\_%' ESCAPE '\\' AND name != 'android_metadata'";
+    private static final String SQL_SELECT_INDEXES_AND_TRIGGERS = "SELECT sql FROM sqlite_master" +
+            " WHERE type IN ('index', 'trigger') AND sql IS NOT NULL AND name NOT LIKE 'sqlite\\_%' ESCAPE '\\'";
+
+    private final BookDbHelper mDbHelper;
+    private final WriteCoordinator mWriter;
+    private final File mDir;
+
+    DatabaseBackup(BookDbHelper dbHelper, WriteCoordinator writer, File dir) {
+        mDbHelper = dbHelper;
+        mWriter = writer;
+        mDir = dir;
+    }
+
+    /**
+     * Copies the database to a new backup and deletes the backups beyond GENERATIONS.
+     * Returns the backup's time and page count, with a time of 0 if no consistent copy was made.
+     */
+    synchronized Bundle backup() {
+        Bundle result = new Bundle();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        File databaseFile = new File(database.getPath());
+        final int pageSize = (int) DatabaseUtils.longForQuery(database, "PRAGMA page_size", null);
+
+        // Only the write connection commits, so it is the only one that checkpoints on its own
+        final int autoCheckpoint = mWriter.write(new WriteCoordinator.Work<Integer>() {
+            @Override
+            public Integer run(SQLiteDatabase database) {
+                int pages = (int) DatabaseUtils.longForQuery(database, "PRAGMA wal_autocheckpoint", null);
+                DatabaseUtils.longForQuery(database, "PRAGMA wal_autocheckpoint = 0", null);
+                return pages;
+            }
+        });
+        try {
+            if (!checkpoint(database)) {
+                Log.w(LOG_TAG, "Database busy, backup skipped");
+                return result;
+            }
+            long time = System.currentTimeMillis();
+            File tempFile = new File(mDir, "books-" + time + ".tmp");
+            try {
+                if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                    throw new IOException("Failed to create " + mDir);
+                }
+                long pages = copyPages(databaseFile, tempFile, pageSize);
+                long crc = checksum(tempFile);
+                if (!isIntact(tempFile)) {
+                    Log.w(LOG_TAG, "Backup copy failed its integrity check");
+                    return result;
+                }
+                File backupFile = new File(mDir, String.format(Locale.US, "books-%d-%08x.db", time, crc));
+                if (!tempFile.renameTo(backupFile)) {
+                    throw new IOException("Failed to save " + backupFile);
+                }
+                result.putLong(EXTRA_BACKUP_TIME, time);
+                result.putLong(EXTRA_PAGE_COUNT, pages);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Backup failed", e);
+            } finally {
+                deleteFile(tempFile);
+            }
+        } finally {
+            mWriter.write(new WriteCoordinator.Work<Void>() {
+                @Override
+                public Void run(SQLiteDatabase database) {
+                    DatabaseUtils.longForQuery(database, "PRAGMA wal_autocheckpoint = " + autoCheckpoint, null);
+                    return null;
+                }
+            });
+        }
+
+        // Rotates the generations, keeping the newest
+        List<File> backups = listBackups();
+        for (int i = GENERATIONS; i < backups.size(); i++) {
+            deleteFile(backups.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the database's contents with the newest backup whose checksum matches,
+     * after skipping the given number of newer generations. Backups from an older schema are migrated.
+     * Runs in one write transaction, so readers see either the old or the restored books.
+     * Returns the restored backup's time, or 0 if no intact backup was found.
+     */
+    synchronized Bundle restore(int skipGenerations) {
+        Bundle result = new Bundle();
+        List<File> backups = listBackups();
+        for (int i = skipGenerations; i < backups.size(); i++) {
+            File backupFile = backups.get(i);
+            try {
+                if (checksum(backupFile) != getChecksum(backupFile)) {
+                    Log.w(LOG_TAG, "Skipped corrupted backup " + backupFile.getName());
+                    continue;
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Skipped unreadable backup " + backupFile.getName(), e);
+                continue;
+            }
+
+            final SQLiteDatabase backup = SQLiteDatabase.openDatabase(backupFile.getPath(), null,
+                    SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+            try {
+                final int version = backup.getVersion();
+                if (version > BookDbHelper.DATABASE_VERSION) {
+                    Log.w(LOG_TAG, "Skipped backup " + backupFile.getName() + " from a newer version");
+                    continue;
+                }
+                mWriter.write(new WriteCoordinator.Work<Void>() {
+                    @Override
+                    public Void run(SQLiteDatabase database) {
+                        long dataVersion = SyncStore.getState(database, SyncEntry.STATE_DATA_VERSION);
+                        copyDatabase(backup, database);
+                        if (version < BookDbHelper.DATABASE_VERSION) {
+                            mDbHelper.onUpgrade(database, version, BookDbHelper.DATABASE_VERSION);
+                        }
+                        // The backup's data version is older, so it is moved past the replaced books' version
+                        SyncStore.moveDataVersionPast(database, dataVersion);
+                        return null;
+                    }
+                });
+            } finally {
+                backup.close();
+            }
+            result.putLong(EXTRA_BACKUP_TIME, getTime(backupFile));
+            return result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the backups, newest first.
+     */
+    List<File> listBackups() {
+        List<File> backups = new ArrayList<>();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (BACKUP_NAME.matcher(file.getName()).matches()) {
+                    backups.add(file);
+                }
+            }
+        }
+        Collections.sort(backups, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long timeA = getTime(a);
+                long timeB = getTime(b);
+                return timeA > timeB ? -1 : (timeA == timeB ? 0 : 1);
+            }
+        });
+        return backups;
+    }
+
+    /**
+     * Returns the time in the name of a backup.
+     */
+    private static long getTime(File backupFile) {
+        Matcher matcher = BACKUP_NAME.matcher(backupFile.getName());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    /**
+     * Returns the checksum in the name of a backup.
+     */
+    private static long getChecksum(File backupFile) {
+        Matcher matcher = BACKUP_NAME.matcher(backupFile.getName());
+        return matcher.matches() ? Long.parseLong(matcher.group(2), 16) : -1;
+    }
+
+    /**
+     * Moves every frame of the WAL into the database file. Returns false if readers or writers
+     * kept part of the WAL from being copied.
+     */
+    private static boolean checkpoint(SQLiteDatabase database) {
+        for (int attempt = 1; attempt <= CHECKPOINT_ATTEMPTS; attempt++) {
+            // The result row has the busy flag, the WAL's frames and the frames checkpointed
+            Cursor cursor = database.rawQuery("PRAGMA wal_checkpoint(FULL)", null);
+            try {
+                if (cursor.moveToFirst() && cursor.getInt(0) == 0 && cursor.getInt(1) == cursor.getInt(2)) {
+                    return true;
+                }
+            } catch (SQLiteException e) {
+                Log.w(LOG_TAG, "Checkpoint failed", e);
+            } finally {
+                cursor.close();
+            }
+            SystemClock.sleep(WriteCoordinator.BUSY_TIMEOUT_MILLIS / 10);
+        }
+        return false;
+    }
+
+    /**
+     * Copies the database file PAGES_PER_STEP pages at a time, pausing between steps.
+     * The copy is marked as a rollback journal database, since its WAL isn't copied,
+     * so it can be opened read-only. Returns the number of pages copied.
+     */
+    private static long copyPages(File databaseFile, File backupFile, int pageSize) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(databaseFile, "r");
+        try {
+            FileOutputStream out = new FileOutputStream(backupFile);
+            try {
+                long length = in.length();
+                byte[] buffer = new byte[PAGES_PER_STEP * pageSize];
+                long copied = 0;
+                while (copied < length) {
+                    int count = (int) Math.min(buffer.length, length - copied);
+                    in.readFully(buffer, 0, count);
+                    if (copied == 0) {
+                        buffer[HEADER_FORMAT_OFFSET] = 1;
+                        buffer[HEADER_FORMAT_OFFSET + 1] = 1;
+                    }
+                    out.write(buffer, 0, count);
+                    copied += count;
+                    SystemClock.sleep(STEP_PAUSE_MILLIS);
+                }
+                out.getFD().sync();
+                return length / pageSize;
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the CRC32 of the file's bytes.
+     */
+    private static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Returns true if SQLite finds the copied database well formed.
+     */
+    private static boolean isIntact(File file) {
+        try {
+            SQLiteDatabase copy = SQLiteDatabase.openDatabase(file.getPath(), null,
+                    SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+            try {
+                return "ok".equals(DatabaseUtils.stringForQuery(copy, "PRAGMA quick_check", null));
+            } finally {
+                copy.close();
+            }
+        } catch (SQLiteException e) {
+            Log.w(LOG_TAG, "Failed to open the backup copy", e);
+            return false;
+        }
+    }
+
+    /**
+     * Drops the database's tables and recreates them, their rows, indexes and triggers from the backup.
+     * The triggers are created last, so they don't fire for the copied rows. Must run in a transaction.
+     */
+    private static void copyDatabase(SQLiteDatabase backup, SQLiteDatabase database) {
+        Cursor tables = database.rawQuery(SQL_SELECT_TABLES, null);
+        try {
+            while (tables.moveToNext()) {
+                database.execSQL("DROP TABLE \"" + tables.getString(0) + "\"");
+            }
+        } finally {
+            tables.close();
+        }
+
+        tables = backup.rawQuery(SQL_SELECT_TABLES, null);
+        try {
+            while (tables.moveToNext()) {
+                database.execSQL(tables.getString(1));
+                copyRows(backup, database, tables.getString(0));
+            }
+        } finally {
+            tables.close();
+        }
+
+        // The copied IDs moved the AUTOINCREMENT counters, which are set back to the backup's
+        database.execSQL("DELETE FROM sqlite_sequence");
+        copyRows(backup, database, "sqlite_sequence");
+
+        Cursor schema = backup.rawQuery(SQL_SELECT_INDEXES_AND_TRIGGERS, null);
+        try {
+            while (schema.moveToNext()) {
+                database.execSQL(schema.getString(0));
+            }
+        } finally {
+            schema.close();
+        }
+    }
+
+    /**
+     * Inserts every row of the backup's table into the database's table, keeping each value's type.
+     */
+    private static void copyRows(SQLiteDatabase backup, SQLiteDatabase database, String table) {
+        Cursor cursor = backup.rawQuery("SELECT * FROM \"" + table + "\"", null);
+        try {
+            String[] columns = cursor.getColumnNames();
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                values.clear();
+                for (int i = 0; i < columns.length; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            values.put(columns[i], cursor.getLong(i));
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            values.put(columns[i], cursor.getDouble(i));
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            values.put(columns[i], cursor.getString(i));
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            values.put(columns[i], cursor.getBlob(i));
+                            break;
+                        default:
+                            values.putNull(columns[i]);
+                    }
+                }
+                database.insertOrThrow(table, null, values);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(LOG_TAG, "Failed to delete " + file);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.Bundle;
+
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_AUTO_VACUUM;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_FRAGMENTATION;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_FREE_PAGES;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_PAGE_COUNT;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_PAGE_SIZE;
+
+/**
+ * SQL statements used by {@link BookProvider} to keep the database file small and its statistics current.
+ * Reference: https://www.sqlite.org/pragma.html
+ */
+final class DatabaseMaintenance {
+
+    /** Private constructor to prevent instantiating the class **/
+    private DatabaseMaintenance() {}
+
+    /** Value of PRAGMA auto_vacuum when incremental vacuum is enabled **/
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /** First Android version with SQLite 3.18, which added PRAGMA optimize **/
+    private static final int PRAGMA_OPTIMIZE_MIN_SDK = 27;
+
+    /**
+     * Returns the auto_vacuum mode of the database: 0 for none, 1 for full or 2 for incremental.
+     */
+    static int getAutoVacuum(SQLiteDatabase database) {
+        return (int) DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null);
+    }
+
+    /**
+     * Switches the database to incremental auto-vacuum. The whole file is rebuilt,
+     * so this must only run when getAutoVacuum() reports another mode, outside of a transaction.
+     */
+    static void enableIncrementalVacuum(SQLiteDatabase database) {
+        database.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        database.execSQL("VACUUM");
+    }
+
+    /**
+     * Returns the page size, page count, free page count and the fraction of pages that are free.
+     */
+    static Bundle getStats(SQLiteDatabase database) {
+        long pageSize = DatabaseUtils.longForQuery(database, "PRAGMA page_size", null);
+        long pageCount = DatabaseUtils.longForQuery(database, "PRAGMA page_count", null);
+        long freePages = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+
+        Bundle stats = new Bundle();
+        stats.putLong(EXTRA_PAGE_SIZE, pageSize);
+        stats.putLong(EXTRA_PAGE_COUNT, pageCount);
+        stats.putLong(EXTRA_FREE_PAGES, freePages);
+        stats.putFloat(EXTRA_FRAGMENTATION, pageCount == 0 ? 0f : (float) freePages / pageCount);
+        stats.putInt(EXTRA_AUTO_VACUUM, getAutoVacuum(database));
+        return stats;
+    }
+
+    /**
+     * Returns up to maxPages free pages to the file system, or all of them if maxPages is 0.
+     * Returns the number of pages freed.
+     */
+    static int incrementalVacuum(SQLiteDatabase database, int maxPages) {
+        long before = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+        // The pragma only runs when its result is stepped through, so a cursor is used instead of execSQL()
+        Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                // Each step frees one page
+            }
+        } finally {
+            cursor.close();
+        }
+        long after = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+        return (int) (before - after);
+    }
+
+    /**
+     * Updates the statistics the query planner uses to choose indexes.
+     * PRAGMA optimize only analyzes tables that need it, but older SQLite versions must run ANALYZE.
+     */
+    static void optimize(SQLiteDatabase database) {
+        if (Build.VERSION.SDK_INT >= PRAGMA_OPTIMIZE_MIN_SDK) {
+            Cursor cursor = database.rawQuery("PRAGMA optimize", null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        } else {
+            database.execSQL("ANALYZE");
+        }
+    }
+}
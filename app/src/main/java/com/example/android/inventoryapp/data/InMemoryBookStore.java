@@ -0,0 +1,667 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_COUNT;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_STOCK_VALUE;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_TOTAL_QUANTITY;
+
+/**
+ * {@link BookStore} that keeps the books in memory, for the kiosk mode and for tests.
+ *
+ * Each column is its own array, primitive for the numbers, so scans and totals read
+ * only the columns they need without boxing. Rows are kept in ID order, so a book is found
+ * by binary search on the IDs, and a sorted index maps each ISBN to its row.
+ * Quantity changes are applied directly, since there is no stock ledger.
+ *
+ * Selections are ANDed comparisons of a column with an argument, like {@code supplier_name = ?}
+ * or {@code quantity < ?}, and at most one list of IDs, like {@code _id IN (3,5,8)}.
+ * Sort orders are lists of columns with ASC or DESC.
+ * Other SQL throws an IllegalArgumentException.
+ */
+final class InMemoryBookStore implements BookStore {
+
+    /** Rows allocated before the first book is added **/
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Column numbers, in the order of COLUMNS **/
+    private static final int ID = 0;
+    private static final int NAME = 1;
+    private static final int AUTHOR = 2;
+    private static final int PRICE = 3;
+    private static final int QUANTITY = 4;
+    private static final int SUPPLIER_NAME = 5;
+    private static final int SUPPLIER_PHONE = 6;
+    private static final int ISBN = 7;
+    private static final int REORDER_THRESHOLD = 8;
+
+    /** Columns of the store, returned by queries without a projection **/
+    private static final String[] COLUMNS = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_AUTHOR,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+            BookEntry.COLUMN_BOOK_ISBN,
+            BookEntry.COLUMN_BOOK_REORDER_THRESHOLD };
+
+    /** One comparison of a selection, e.g. "quantity < ?" **/
+    private static final Pattern SELECTION_TERM = Pattern.compile("\\s*(\\w+)\\s*(=|!=|<>|<=|>=|<|>)\\s*\\?\\s*");
+
+    /** List of IDs in a selection, e.g. "_id IN (3,5,8)" **/
+    private static final Pattern SELECTION_ID_IN = Pattern.compile("\\s*" + BookEntry._ID +
+            "\\s+IN\\s*\\(([\\d\\s,]*)\\)\\s*", Pattern.CASE_INSENSITIVE);
+
+    /** Separates the IDs of an ID list **/
+    private static final Pattern ID_SEPARATOR = Pattern.compile("\\s*,\\s*");
+
+    /** Separates the comparisons of a selection **/
+    private static final Pattern SELECTION_AND = Pattern.compile("\\s+AND\\s+", Pattern.CASE_INSENSITIVE);
+
+    private int mSize;
+    private long mLastId;
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    private String[] mNames = new String[INITIAL_CAPACITY];
+    private String[] mAuthors = new String[INITIAL_CAPACITY];
+    private double[] mPrices = new double[INITIAL_CAPACITY];
+    private int[] mQuantities = new int[INITIAL_CAPACITY];
+    private String[] mSupplierNames = new String[INITIAL_CAPACITY];
+    private long[] mSupplierPhones = new long[INITIAL_CAPACITY];
+    private String[] mIsbns = new String[INITIAL_CAPACITY];
+    private int[] mReorderThresholds = new int[INITIAL_CAPACITY];
+
+    /** Time each book was deleted, or 0 if it isn't deleted **/
+    private long[] mDeletedAt = new long[INITIAL_CAPACITY];
+
+    /** Row of each ISBN, of deleted books too, like the unique index of the database **/
+    private final TreeMap<String, Integer> mIsbnIndex = new TreeMap<>();
+
+    /** Increased with every change, from just above DataVersion.UNKNOWN so it stays negative **/
+    private long mDataVersion = DataVersion.UNKNOWN + 1;
+
+    @Override
+    public synchronized Cursor queryBooks(String[] projection, String selection, String[] selectionArgs,
+                                          String sortOrder) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = getColumn(projection[i]);
+        }
+
+        // Copies the rows into the cursor, so later writes don't change it
+        List<Integer> rows = selectRows(selection, selectionArgs);
+        sortRows(rows, sortOrder);
+        MatrixCursor cursor = new MatrixCursor(projection, rows.size());
+        for (int row : rows) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = getValue(row, columns[i]);
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    @Override
+    public synchronized long findBookIdByIsbn(String isbn) {
+        Integer row = mIsbnIndex.get(isbn);
+        return row == null ? -1 : mIds[row];
+    }
+
+    @Override
+    public synchronized long insertBook(ContentValues values) {
+        checkWritable(values);
+        String isbn = values.getAsString(BookEntry.COLUMN_BOOK_ISBN);
+        if (isbn != null && mIsbnIndex.containsKey(isbn)) {
+            return -1;
+        }
+        if (mSize == mIds.length) {
+            grow();
+        }
+
+        int row = mSize++;
+        mIds[row] = ++mLastId;
+        mQuantities[row] = 1;
+        mReorderThresholds[row] = 0;
+        mIsbns[row] = null;
+        mDeletedAt[row] = 0;
+        setValues(row, values);
+        mDataVersion++;
+        return mIds[row];
+    }
+
+    /**
+     * Checks every ISBN before inserting, so no book is inserted if one fails.
+     */
+    @Override
+    public synchronized boolean insertBooks(ContentValues[] values) {
+        ArrayList<String> isbns = new ArrayList<>();
+        for (ContentValues bookValues : values) {
+            checkWritable(bookValues);
+            String isbn = bookValues.getAsString(BookEntry.COLUMN_BOOK_ISBN);
+            if (isbn != null) {
+                if (mIsbnIndex.containsKey(isbn) || isbns.contains(isbn)) {
+                    return false;
+                }
+                isbns.add(isbn);
+            }
+        }
+        for (ContentValues bookValues : values) {
+            insertBook(bookValues);
+        }
+        return true;
+    }
+
+    /**
+     * Throws SQLiteConstraintException if the new ISBN belongs to another book, like the database.
+     */
+    @Override
+    public synchronized int updateBooks(ContentValues values, String selection, String[] selectionArgs) {
+        checkWritable(values);
+        List<Integer> rows = selectRows(selection, selectionArgs);
+        if (values.containsKey(BookEntry.COLUMN_BOOK_ISBN)) {
+            String isbn = values.getAsString(BookEntry.COLUMN_BOOK_ISBN);
+            Integer owner = isbn == null ? null : mIsbnIndex.get(isbn);
+            if (isbn != null && (rows.size() > 1 || (owner != null && !rows.contains(owner)))) {
+                throw new SQLiteConstraintException("ISBN " + isbn + " belongs to another book");
+            }
+        }
+        for (int row : rows) {
+            setValues(row, values);
+            mDataVersion++;
+        }
+        return rows.size();
+    }
+
+    /**
+     * Ignores the reason, since there is no stock ledger.
+     */
+    @Override
+    public synchronized int adjustQuantity(int delta, int reason, String selection, String[] selectionArgs) {
+        int changed = 0;
+        for (int row : selectRows(selection, selectionArgs)) {
+            if (mQuantities[row] + delta >= 0) {
+                mQuantities[row] += delta;
+                mDataVersion++;
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Doesn't record the old prices, since there is no price history.
+     */
+    @Override
+    public synchronized int repriceBooks(double factor, double offset, String selection, String[] selectionArgs) {
+        int repriced = 0;
+        for (int row : selectRows(selection, selectionArgs)) {
+            double price = PriceHistory.newPrice(mPrices[row], factor, offset);
+            if (price >= 0 && price != mPrices[row]) {
+                mPrices[row] = price;
+                mDataVersion++;
+                repriced++;
+            }
+        }
+        return repriced;
+    }
+
+    @Override
+    public synchronized long[] deleteBooks(String selection, String[] selectionArgs, long deletedAt) {
+        List<Integer> rows = selectRows(selection, selectionArgs);
+        long[] ids = new long[rows.size()];
+        for (int i = 0; i < ids.length; i++) {
+            int row = rows.get(i);
+            mDeletedAt[row] = deletedAt;
+            mDataVersion++;
+            ids[i] = mIds[row];
+        }
+        return ids;
+    }
+
+    @Override
+    public synchronized int restoreBook(long id) {
+        int row = Arrays.binarySearch(mIds, 0, mSize, id);
+        if (row < 0 || mDeletedAt[row] == 0) {
+            return 0;
+        }
+        mDeletedAt[row] = 0;
+        mDataVersion++;
+        return 1;
+    }
+
+    @Override
+    public synchronized int purgeDeletedBooks(long deletedBefore, int batchSize) {
+        boolean[] removed = new boolean[mSize];
+        int purged = 0;
+        for (int row = 0; row < mSize && purged < batchSize; row++) {
+            if (mDeletedAt[row] != 0 && mDeletedAt[row] < deletedBefore) {
+                removed[row] = true;
+                purged++;
+            }
+        }
+        removeRows(removed, purged);
+        return purged;
+    }
+
+    @Override
+    public synchronized int purgeBooks(long[] ids) {
+        boolean[] removed = new boolean[mSize];
+        int purged = 0;
+        for (long id : ids) {
+            int row = Arrays.binarySearch(mIds, 0, mSize, id);
+            if (row >= 0 && mDeletedAt[row] != 0 && !removed[row]) {
+                removed[row] = true;
+                purged++;
+            }
+        }
+        removeRows(removed, purged);
+        return purged;
+    }
+
+    /**
+     * Moves the remaining rows down over the removed ones, keeping them in ID order.
+     */
+    private void removeRows(boolean[] removed, int count) {
+        if (count == 0) {
+            return;
+        }
+        int to = 0;
+        for (int from = 0; from < mSize; from++) {
+            if (removed[from]) {
+                continue;
+            }
+            if (to != from) {
+                copyRow(from, to);
+            }
+            to++;
+        }
+        // Clears the moved-out rows so their strings can be collected
+        Arrays.fill(mNames, to, mSize, null);
+        Arrays.fill(mAuthors, to, mSize, null);
+        Arrays.fill(mSupplierNames, to, mSize, null);
+        Arrays.fill(mIsbns, to, mSize, null);
+        mSize = to;
+        mDataVersion++;
+        rebuildIsbnIndex();
+    }
+
+    /**
+     * Reads only the price and quantity arrays.
+     */
+    @Override
+    public synchronized Bundle getTotals() {
+        int count = 0;
+        long totalQuantity = 0;
+        double stockValue = 0;
+        for (int row = 0; row < mSize; row++) {
+            if (mDeletedAt[row] == 0) {
+                count++;
+                totalQuantity += mQuantities[row];
+                stockValue += mPrices[row] * mQuantities[row];
+            }
+        }
+        Bundle result = new Bundle();
+        result.putInt(EXTRA_COUNT, count);
+        result.putLong(EXTRA_TOTAL_QUANTITY, totalQuantity);
+        result.putDouble(EXTRA_STOCK_VALUE, stockValue);
+        return result;
+    }
+
+    @Override
+    public synchronized long getDataVersion() {
+        return mDataVersion;
+    }
+
+    /**
+     * Holds the store's lock for the whole operation, which the store's methods take again.
+     */
+    @Override
+    public synchronized <T> T runAtomically(Operation<T> operation) {
+        return operation.run();
+    }
+
+    /**
+     * Returns the rows of the books that aren't deleted matching the selection, in ID order.
+     * An ID comparison and each ID of an ID list are looked up by binary search and an ISBN comparison
+     * in the ISBN index, instead of comparing every row.
+     */
+    private List<Integer> selectRows(String selection, String[] selectionArgs) {
+        int[] columns = new int[0];
+        String[] operators = new String[0];
+        long[] idList = null;
+        if (!TextUtils.isEmpty(selection)) {
+            String[] terms = SELECTION_AND.split(selection.trim());
+            columns = new int[terms.length];
+            operators = new String[terms.length];
+            int count = 0;
+            for (String term : terms) {
+                Matcher idListMatcher = SELECTION_ID_IN.matcher(term);
+                if (idListMatcher.matches() && idList == null) {
+                    idList = parseIdList(idListMatcher.group(1));
+                    continue;
+                }
+                Matcher matcher = SELECTION_TERM.matcher(term);
+                if (!matcher.matches()) {
+                    throw new IllegalArgumentException("Unsupported selection " + selection);
+                }
+                columns[count] = getColumn(matcher.group(1));
+                operators[count] = matcher.group(2);
+                count++;
+            }
+            columns = Arrays.copyOf(columns, count);
+            operators = Arrays.copyOf(operators, count);
+        }
+        if ((selectionArgs == null ? 0 : selectionArgs.length) != columns.length) {
+            throw new IllegalArgumentException("Selection " + selection + " needs " + columns.length + " arguments");
+        }
+
+        // Narrows the rows to one book if the selection has an ID or ISBN
+        int from = 0;
+        int to = mSize;
+        for (int i = 0; i < columns.length; i++) {
+            if (!"=".equals(operators[i])) {
+                continue;
+            }
+            int row = -1;
+            if (columns[i] == ID) {
+                row = Arrays.binarySearch(mIds, 0, mSize, parseLong(selectionArgs[i]));
+            } else if (columns[i] == ISBN) {
+                Integer indexed = mIsbnIndex.get(selectionArgs[i]);
+                row = indexed == null ? -1 : indexed;
+            } else {
+                continue;
+            }
+            if (row < 0) {
+                return new ArrayList<>();
+            }
+            from = row;
+            to = row + 1;
+            break;
+        }
+
+        ArrayList<Integer> rows = new ArrayList<>();
+        if (idList != null) {
+            // The IDs are sorted, so the rows are found in ID order and a repeated ID is skipped
+            for (int i = 0; i < idList.length; i++) {
+                if (i > 0 && idList[i] == idList[i - 1]) {
+                    continue;
+                }
+                int row = Arrays.binarySearch(mIds, from, to, idList[i]);
+                if (row >= 0 && mDeletedAt[row] == 0 && matches(row, columns, operators, selectionArgs)) {
+                    rows.add(row);
+                }
+            }
+            return rows;
+        }
+        for (int row = from; row < to; row++) {
+            if (mDeletedAt[row] == 0 && matches(row, columns, operators, selectionArgs)) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the sorted IDs of an ID list, like "3,5,8".
+     */
+    private static long[] parseIdList(String list) {
+        if (list.trim().isEmpty()) {
+            return new long[0];
+        }
+        String[] values = ID_SEPARATOR.split(list.trim());
+        long[] ids = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ids[i] = parseLong(values[i]);
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private boolean matches(int row, int[] columns, String[] operators, String[] selectionArgs) {
+        for (int i = 0; i < columns.length; i++) {
+            Object value = getValue(row, columns[i]);
+            int comparison;
+            if (value == null) {
+                // Like SQL, a comparison with a missing ISBN is never true
+                return false;
+            } else if (value instanceof String) {
+                comparison = ((String) value).compareTo(selectionArgs[i]);
+            } else {
+                comparison = Double.compare(((Number) value).doubleValue(), parseDouble(selectionArgs[i]));
+            }
+            String operator = operators[i];
+            boolean match;
+            if ("=".equals(operator)) {
+                match = comparison == 0;
+            } else if ("!=".equals(operator) || "<>".equals(operator)) {
+                match = comparison != 0;
+            } else if ("<".equals(operator)) {
+                match = comparison < 0;
+            } else if ("<=".equals(operator)) {
+                match = comparison <= 0;
+            } else if (">".equals(operator)) {
+                match = comparison > 0;
+            } else {
+                match = comparison >= 0;
+            }
+            if (!match) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sorts the rows by the columns of the sort order, keeping ID order for equal rows.
+     */
+    private void sortRows(List<Integer> rows, String sortOrder) {
+        if (TextUtils.isEmpty(sortOrder)) {
+            return;
+        }
+        String[] terms = sortOrder.trim().split("\\s*,\\s*");
+        final int[] columns = new int[terms.length];
+        final boolean[] descending = new boolean[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            String[] parts = terms[i].split("\\s+");
+            if (parts.length > 2 || (parts.length == 2 && !parts[1].equalsIgnoreCase("ASC")
+                    && !parts[1].equalsIgnoreCase("DESC"))) {
+                throw new IllegalArgumentException("Unsupported sort order " + sortOrder);
+            }
+            columns[i] = getColumn(parts[0]);
+            descending[i] = parts.length == 2 && parts[1].toUpperCase(Locale.US).equals("DESC");
+        }
+        if (columns.length == 1 && columns[0] == ID) {
+            // Rows are already in ID order
+            if (descending[0]) {
+                Collections.reverse(rows);
+            }
+            return;
+        }
+        Collections.sort(rows, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer row1, Integer row2) {
+                for (int i = 0; i < columns.length; i++) {
+                    int comparison = compareValues(getValue(row1, columns[i]), getValue(row2, columns[i]));
+                    if (comparison != 0) {
+                        return descending[i] ? -comparison : comparison;
+                    }
+                }
+                return 0;
+            }
+        });
+    }
+
+    /**
+     * Compares two values of a column, with a missing value first like in SQL.
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object value1, Object value2) {
+        if (value1 == null || value2 == null) {
+            return value1 == null ? (value2 == null ? 0 : -1) : 1;
+        }
+        return ((Comparable<Object>) value1).compareTo(value2);
+    }
+
+    /**
+     * Throws an IllegalArgumentException if the values have a column that can't be written,
+     * before any row is changed.
+     */
+    private static void checkWritable(ContentValues values) {
+        for (String key : values.keySet()) {
+            if (getColumn(key) == ID) {
+                throw new IllegalArgumentException("Column " + key + " can't be written");
+            }
+        }
+    }
+
+    /**
+     * Writes the columns in the checked values to the row, keeping the ISBN index up to date.
+     */
+    private void setValues(int row, ContentValues values) {
+        for (String key : values.keySet()) {
+            switch (getColumn(key)) {
+                case NAME:
+                    mNames[row] = values.getAsString(key);
+                    break;
+                case AUTHOR:
+                    mAuthors[row] = values.getAsString(key);
+                    break;
+                case PRICE:
+                    mPrices[row] = values.getAsDouble(key);
+                    break;
+                case QUANTITY:
+                    mQuantities[row] = values.getAsInteger(key);
+                    break;
+                case SUPPLIER_NAME:
+                    mSupplierNames[row] = values.getAsString(key);
+                    break;
+                case SUPPLIER_PHONE:
+                    mSupplierPhones[row] = values.getAsLong(key);
+                    break;
+                case ISBN:
+                    if (mIsbns[row] != null) {
+                        mIsbnIndex.remove(mIsbns[row]);
+                    }
+                    mIsbns[row] = values.getAsString(key);
+                    if (mIsbns[row] != null) {
+                        mIsbnIndex.put(mIsbns[row], row);
+                    }
+                    break;
+                default:
+                    mReorderThresholds[row] = values.getAsInteger(key);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Returns the value of a column in a row, boxed for a cursor or comparison.
+     */
+    private Object getValue(int row, int column) {
+        switch (column) {
+            case ID:
+                return mIds[row];
+            case NAME:
+                return mNames[row];
+            case AUTHOR:
+                return mAuthors[row];
+            case PRICE:
+                return mPrices[row];
+            case QUANTITY:
+                return mQuantities[row];
+            case SUPPLIER_NAME:
+                return mSupplierNames[row];
+            case SUPPLIER_PHONE:
+                return mSupplierPhones[row];
+            case ISBN:
+                return mIsbns[row];
+            default:
+                return mReorderThresholds[row];
+        }
+    }
+
+    private static int getColumn(String name) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown column " + name);
+    }
+
+    private void copyRow(int from, int to) {
+        mIds[to] = mIds[from];
+        mNames[to] = mNames[from];
+        mAuthors[to] = mAuthors[from];
+        mPrices[to] = mPrices[from];
+        mQuantities[to] = mQuantities[from];
+        mSupplierNames[to] = mSupplierNames[from];
+        mSupplierPhones[to] = mSupplierPhones[from];
+        mIsbns[to] = mIsbns[from];
+        mReorderThresholds[to] = mReorderThresholds[from];
+        mDeletedAt[to] = mDeletedAt[from];
+    }
+
+    private void rebuildIsbnIndex() {
+        mIsbnIndex.clear();
+        for (int row = 0; row < mSize; row++) {
+            if (mIsbns[row] != null) {
+                mIsbnIndex.put(mIsbns[row], row);
+            }
+        }
+    }
+
+    /**
+     * Doubles the capacity of every column.
+     */
+    private void grow() {
+        int capacity = mIds.length * 2;
+        mIds = Arrays.copyOf(mIds, capacity);
+        mNames = Arrays.copyOf(mNames, capacity);
+        mAuthors = Arrays.copyOf(mAuthors, capacity);
+        mPrices = Arrays.copyOf(mPrices, capacity);
+        mQuantities = Arrays.copyOf(mQuantities, capacity);
+        mSupplierNames = Arrays.copyOf(mSupplierNames, capacity);
+        mSupplierPhones = Arrays.copyOf(mSupplierPhones, capacity);
+        mIsbns = Arrays.copyOf(mIsbns, capacity);
+        mReorderThresholds = Arrays.copyOf(mReorderThresholds, capacity);
+        mDeletedAt = Arrays.copyOf(mDeletedAt, capacity);
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number " + value);
+        }
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException | NullPointerException e) {
+            throw new IllegalArgumentException("Invalid number " + value);
+        }
+    }
+}
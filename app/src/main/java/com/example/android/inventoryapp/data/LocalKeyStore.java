@@ -0,0 +1,90 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.os.Build;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Stand-in for a hardware-backed keystore, holding the keys of the encrypted database columns.
+ * The Android Keystore only holds AES keys from Android 6.0, so the keys are generated once
+ * and kept in a private file that isn't backed up.
+ * Moving them into the Android Keystore only changes this class.
+ */
+final class LocalKeyStore {
+
+    /** Name of the key file **/
+    private static final String KEY_FILE_NAME = "book_column_keys";
+
+    /** Size of the encryption key and of the MAC key, for AES-256 and HMAC-SHA256 **/
+    private static final int KEY_SIZE_BYTES = 32;
+
+    /** Cipher made from the stored keys, created on first use **/
+    private static ColumnCipher sCipher;
+
+    /** Private constructor to prevent instantiating the class **/
+    private LocalKeyStore() {}
+
+    /**
+     * Returns the cipher of the app's database, creating its keys on first use.
+     * Reads a file, so it shouldn't be called on the main thread.
+     */
+    static synchronized ColumnCipher getColumnCipher(Context context) {
+        if (sCipher == null) {
+            byte[] keys = readOrCreateKeys(new File(getKeyDir(context), KEY_FILE_NAME));
+            sCipher = new ColumnCipher(Arrays.copyOfRange(keys, 0, KEY_SIZE_BYTES),
+                    Arrays.copyOfRange(keys, KEY_SIZE_BYTES, 2 * KEY_SIZE_BYTES));
+        }
+        return sCipher;
+    }
+
+    private static byte[] readOrCreateKeys(File file) {
+        byte[] keys = new byte[2 * KEY_SIZE_BYTES];
+        try {
+            if (file.exists()) {
+                DataInputStream in = new DataInputStream(new FileInputStream(file));
+                try {
+                    in.readFully(keys);
+                } finally {
+                    in.close();
+                }
+                return keys;
+            }
+
+            // Writes a temporary file first, so a crash can't leave a partial key behind
+            new SecureRandom().nextBytes(keys);
+            File tempFile = new File(file.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(keys);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Failed to save " + file);
+            }
+            return keys;
+        } catch (IOException e) {
+            // The encrypted columns can't be read or written without the keys
+            throw new IllegalStateException("Failed to load the column keys", e);
+        }
+    }
+
+    /**
+     * Returns the directory excluded from backups on Android 5.0 and later.
+     * Earlier versions have no automatic backup of app files.
+     */
+    private static File getKeyDir(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return context.getNoBackupFilesDir();
+        }
+        return context.getFilesDir();
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.PriceHistoryEntry;
+
+/**
+ * SQL statements used by {@link SqliteBookStore} to reprice books and record their old and new prices.
+ * A new price is the old price times a factor plus an offset, rounded to cents. Books whose new price
+ * would be negative or unchanged are left alone and not recorded.
+ *
+ * When the prices are stored as plain numbers, repricing is one INSERT ... SELECT into the history
+ * and one UPDATE, however many books are selected. Encrypted prices can't be computed in SQL,
+ * so they are read, repriced and written back through two reused statements instead.
+ * Either way the caller runs it in one transaction.
+ */
+final class PriceHistory {
+
+    /** Private constructor to prevent instantiating the class **/
+    private PriceHistory() {}
+
+    /** Statement that records one repriced book, for encrypted prices **/
+    private static final String SQL_INSERT_ENTRY = "INSERT INTO " + PriceHistoryEntry.TABLE_NAME + " (" +
+            PriceHistoryEntry.COLUMN_PRICE_BOOK_ID + ", " +
+            PriceHistoryEntry.COLUMN_PRICE_OLD + ", " +
+            PriceHistoryEntry.COLUMN_PRICE_NEW + ", " +
+            PriceHistoryEntry.COLUMN_PRICE_CHANGED_AT + ") VALUES (?, ?, ?, ?)";
+
+    /** Statement that writes the new price of one book, for encrypted prices **/
+    private static final String SQL_UPDATE_PRICE = "UPDATE " + BookEntry.TABLE_NAME +
+            " SET " + BookEntry.COLUMN_BOOK_PRICE + " = ? WHERE " + BookEntry._ID + " = ?";
+
+    /**
+     * Returns the price times the factor plus the offset, rounded to cents like SQLite's ROUND().
+     */
+    static double newPrice(double price, double factor, double offset) {
+        return Math.round((price * factor + offset) * 100) / 100.0;
+    }
+
+    /**
+     * Reprices the books matching the where clause and records each change at the given time.
+     * Must run in a transaction. Returns the number of books repriced.
+     */
+    static int reprice(SQLiteDatabase database, ColumnCipher cipher, double factor, double offset,
+                       String where, String[] whereArgs, long changedAt) {
+        if (!cipher.isEncrypted()) {
+            return repriceInSql(database, factor, offset, where, whereArgs, changedAt);
+        }
+
+        // Reads every selected price first, so the rows don't change under the cursor
+        Cursor cursor = cipher.decrypt(database.query(BookEntry.TABLE_NAME,
+                new String[] { BookEntry._ID, BookEntry.COLUMN_BOOK_PRICE }, where, whereArgs, null, null, null));
+        long[] ids;
+        double[] prices;
+        try {
+            ids = new long[cursor.getCount()];
+            prices = new double[ids.length];
+            while (cursor.moveToNext()) {
+                ids[cursor.getPosition()] = cursor.getLong(0);
+                prices[cursor.getPosition()] = cursor.getDouble(1);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        SQLiteStatement insert = database.compileStatement(SQL_INSERT_ENTRY);
+        SQLiteStatement update = database.compileStatement(SQL_UPDATE_PRICE);
+        try {
+            int repriced = 0;
+            for (int i = 0; i < ids.length; i++) {
+                double price = newPrice(prices[i], factor, offset);
+                if (price < 0 || price == prices[i]) {
+                    continue;
+                }
+                insert.bindLong(1, ids[i]);
+                insert.bindBlob(2, cipher.encrypt(Double.doubleToLongBits(prices[i])));
+                insert.bindBlob(3, cipher.encrypt(Double.doubleToLongBits(price)));
+                insert.bindLong(4, changedAt);
+                insert.executeInsert();
+                update.bindBlob(1, cipher.encrypt(Double.doubleToLongBits(price)));
+                update.bindLong(2, ids[i]);
+                update.executeUpdateDelete();
+                repriced++;
+            }
+            return repriced;
+        } finally {
+            insert.close();
+            update.close();
+        }
+    }
+
+    /**
+     * Records the old and new prices of the selected books, then updates them, in two statements.
+     */
+    private static int repriceInSql(SQLiteDatabase database, double factor, double offset,
+                                    String where, String[] whereArgs, long changedAt) {
+        String newPrice = "ROUND(" + BookEntry.COLUMN_BOOK_PRICE + " * " + factor + " + " + offset + ", 2)";
+        String repriced = newPrice + " >= 0 AND " + newPrice + " != " + BookEntry.COLUMN_BOOK_PRICE +
+                " AND " + where;
+
+        SQLiteStatement insert = database.compileStatement("INSERT INTO " + PriceHistoryEntry.TABLE_NAME + " (" +
+                PriceHistoryEntry.COLUMN_PRICE_BOOK_ID + ", " +
+                PriceHistoryEntry.COLUMN_PRICE_OLD + ", " +
+                PriceHistoryEntry.COLUMN_PRICE_NEW + ", " +
+                PriceHistoryEntry.COLUMN_PRICE_CHANGED_AT + ") " +
+                "SELECT " + BookEntry._ID + ", " + BookEntry.COLUMN_BOOK_PRICE + ", " + newPrice + ", " + changedAt +
+                " FROM " + BookEntry.TABLE_NAME + " WHERE " + repriced);
+        SQLiteStatement update = database.compileStatement("UPDATE " + BookEntry.TABLE_NAME +
+                " SET " + BookEntry.COLUMN_BOOK_PRICE + " = " + newPrice + " WHERE " + repriced);
+        try {
+            StockLedger.bindSelectionArgs(insert, 1, whereArgs);
+            insert.executeUpdateDelete();
+            StockLedger.bindSelectionArgs(update, 1, whereArgs);
+            return update.executeUpdateDelete();
+        } finally {
+            insert.close();
+            update.close();
+        }
+    }
+
+    /**
+     * Deletes the price history of the selected books. Must be called before the books are deleted.
+     */
+    static void deleteEntries(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        database.delete(PriceHistoryEntry.TABLE_NAME, PriceHistoryEntry.COLUMN_PRICE_BOOK_ID + " IN (SELECT " +
+                BookEntry._ID + " FROM " + BookEntry.TABLE_NAME + " WHERE " + selection + ")", selectionArgs);
+    }
+}
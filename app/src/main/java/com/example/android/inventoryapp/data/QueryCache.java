@@ -0,0 +1,433 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of recent book queries of {@link BookProvider}, so a query repeated with no write
+ * in between, e.g. the catalog's loader after a rotation, is answered without SQLite.
+ *
+ * Queries are keyed by their normalized projection, selection, arguments and sort order.
+ * Each result is kept as an immutable {@link Snapshot}, one array per column, primitive for
+ * the numbers, and every hit gets its own cursor over it. The snapshots are kept under a byte
+ * budget and the least recently used are evicted first. Results too large for the budget
+ * are returned as they are and not kept.
+ *
+ * A snapshot is valid for the write version it was read at, see {@link WriteCoordinator#getWriteVersion}.
+ * The version must be read before the query runs, so a write committed during the query
+ * invalidates its result.
+ *
+ * The snapshots are also trimmed under memory pressure once the cache is registered with {@link CacheRegistry}.
+ */
+final class QueryCache implements CacheRegistry.TrimmableCache {
+
+    /** Bytes assumed per value when deciding whether a result can fit before copying it **/
+    static final int ESTIMATED_VALUE_BYTES = 24;
+
+    /** Bytes of a String or boxed value beside its characters, and of each array **/
+    private static final int OBJECT_OVERHEAD_BYTES = 40;
+
+    /** Separates the parts of a key, and can't appear in SQL or arguments typed by the user **/
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    /** Snapshots by key, from the least to the most recently used, guarded by this **/
+    private final LinkedHashMap<String, Snapshot> mSnapshots = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Largest total size of the snapshots in bytes **/
+    private final int mMaxBytes;
+
+    /** Write version of the kept snapshots, and their total size **/
+    private long mVersion;
+    private int mBytes;
+
+    QueryCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the key of a query. Runs of whitespace outside quoted literals are collapsed
+     * and a missing selection or sort order is the same as an empty one.
+     */
+    static String buildKey(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        StringBuilder key = new StringBuilder();
+        if (projection != null) {
+            for (String column : projection) {
+                key.append(column).append(',');
+            }
+        } else {
+            key.append('*');
+        }
+        key.append(KEY_SEPARATOR);
+        appendSql(key, selection);
+        key.append(KEY_SEPARATOR);
+        if (selectionArgs != null) {
+            for (String arg : selectionArgs) {
+                // Prefixed with its length, so the arguments can't run into each other
+                key.append(arg == null ? -1 : arg.length()).append(':').append(arg).append(KEY_SEPARATOR);
+            }
+        }
+        key.append(KEY_SEPARATOR);
+        appendSql(key, sortOrder);
+        return key.toString();
+    }
+
+    /**
+     * Returns a cursor over the snapshot of the query if one was kept at the given write version,
+     * or null if the query has to run. Snapshots of older versions are dropped.
+     */
+    synchronized Cursor get(String key, long version) {
+        if (version > mVersion) {
+            clearForVersion(version);
+        }
+        // A caller that read the version before the last write runs its query instead
+        Snapshot snapshot = version == mVersion ? mSnapshots.get(key) : null;
+        return snapshot == null ? null : new SnapshotCursor(snapshot);
+    }
+
+    /**
+     * Keeps a snapshot of the query's result read at the given write version, if it fits in the budget.
+     * Returns the cursor to use in place of the given one, which is closed if it was copied.
+     */
+    Cursor put(String key, long version, Cursor cursor) {
+        // Counting the rows runs the query, which the caller needs anyway
+        long estimatedBytes = (long) cursor.getCount() * cursor.getColumnCount() * ESTIMATED_VALUE_BYTES;
+        if (estimatedBytes > mMaxBytes / 2) {
+            return cursor;
+        }
+        Snapshot snapshot;
+        try {
+            snapshot = new Snapshot(cursor);
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            if (version > mVersion) {
+                clearForVersion(version);
+            }
+            // A result read before the last write is out of date already
+            if (version == mVersion && snapshot.mBytes <= mMaxBytes / 2) {
+                Snapshot previous = mSnapshots.put(key, snapshot);
+                if (previous != null) {
+                    mBytes -= previous.mBytes;
+                }
+                mBytes += snapshot.mBytes;
+                trimToSize(mMaxBytes);
+            }
+        }
+        return new SnapshotCursor(snapshot);
+    }
+
+    /**
+     * Evicts the least recently used snapshots until they take at most maxBytes.
+     */
+    @Override
+    public synchronized void trimToSize(int maxBytes) {
+        Iterator<Map.Entry<String, Snapshot>> iterator = mSnapshots.entrySet().iterator();
+        while (mBytes > maxBytes && iterator.hasNext()) {
+            mBytes -= iterator.next().getValue().mBytes;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the total size of the kept snapshots in bytes.
+     */
+    @Override
+    public synchronized int getSize() {
+        return mBytes;
+    }
+
+    private void clearForVersion(long version) {
+        mSnapshots.clear();
+        mBytes = 0;
+        mVersion = version;
+    }
+
+    /**
+     * Appends the SQL with each run of whitespace outside quoted literals replaced by one space.
+     */
+    private static void appendSql(StringBuilder key, String sql) {
+        if (sql == null) {
+            return;
+        }
+        sql = sql.trim();
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space) {
+                key.append(' ');
+                space = false;
+            }
+            if (quote == 0 && (c == '\'' || c == '"')) {
+                quote = c;
+            } else if (c == quote) {
+                // A doubled quote inside a literal closes and reopens it, which keeps it intact
+                quote = 0;
+            }
+            key.append(c);
+        }
+    }
+
+    /**
+     * Immutable copy of a query result. Each column is a long[] or double[] if all its values are
+     * integers or reals, a String[] if all are text or null, and an Object[] otherwise.
+     */
+    static final class Snapshot {
+        private final String[] mColumnNames;
+        private final int mRowCount;
+        private final Object[] mColumns;
+        private final int mBytes;
+
+        Snapshot(Cursor cursor) {
+            mColumnNames = cursor.getColumnNames();
+            mRowCount = cursor.getCount();
+            int columnCount = mColumnNames.length;
+
+            // Reads the rows into boxed columns, then packs each column by the types it holds
+            Object[][] values = new Object[columnCount][mRowCount];
+            int[] types = new int[columnCount];
+            cursor.moveToPosition(-1);
+            for (int row = 0; cursor.moveToNext(); row++) {
+                for (int column = 0; column < columnCount; column++) {
+                    int type = cursor.getType(column);
+                    values[column][row] = readValue(cursor, column, type);
+                    if (row == 0) {
+                        types[column] = type;
+                    } else if (types[column] != type) {
+                        types[column] = type == Cursor.FIELD_TYPE_STRING && types[column] == Cursor.FIELD_TYPE_NULL
+                                || type == Cursor.FIELD_TYPE_NULL && types[column] == Cursor.FIELD_TYPE_STRING
+                                ? Cursor.FIELD_TYPE_STRING : -1;
+                    }
+                }
+            }
+
+            mColumns = new Object[columnCount];
+            int bytes = OBJECT_OVERHEAD_BYTES;
+            for (int column = 0; column < columnCount; column++) {
+                bytes += OBJECT_OVERHEAD_BYTES + mColumnNames[column].length() * 2;
+                Object[] columnValues = values[column];
+                switch (types[column]) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        long[] longs = new long[mRowCount];
+                        for (int row = 0; row < mRowCount; row++) {
+                            longs[row] = (Long) columnValues[row];
+                        }
+                        mColumns[column] = longs;
+                        bytes += 8 * mRowCount;
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        double[] doubles = new double[mRowCount];
+                        for (int row = 0; row < mRowCount; row++) {
+                            doubles[row] = (Double) columnValues[row];
+                        }
+                        mColumns[column] = doubles;
+                        bytes += 8 * mRowCount;
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        String[] strings = new String[mRowCount];
+                        System.arraycopy(columnValues, 0, strings, 0, mRowCount);
+                        mColumns[column] = strings;
+                        bytes += 4 * mRowCount + sizeOfValues(columnValues);
+                        break;
+                    default:
+                        mColumns[column] = columnValues;
+                        bytes += 4 * mRowCount + sizeOfValues(columnValues);
+                        break;
+                }
+            }
+            mBytes = bytes;
+        }
+
+        int getRowCount() {
+            return mRowCount;
+        }
+
+        /**
+         * Returns the value at the row and column: a Long, Double, String, byte[] or null.
+         */
+        Object getValue(int row, int column) {
+            Object values = mColumns[column];
+            if (values instanceof long[]) {
+                return ((long[]) values)[row];
+            } else if (values instanceof double[]) {
+                return ((double[]) values)[row];
+            }
+            return ((Object[]) values)[row];
+        }
+
+        /**
+         * Returns the value at the row and column as a long, without boxing it if the column is packed.
+         */
+        long getLong(int row, int column) {
+            Object values = mColumns[column];
+            if (values instanceof long[]) {
+                return ((long[]) values)[row];
+            } else if (values instanceof double[]) {
+                return (long) ((double[]) values)[row];
+            }
+            Object value = ((Object[]) values)[row];
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            return value instanceof String ? (long) parseNumber((String) value) : 0;
+        }
+
+        /**
+         * Returns the value at the row and column as a double, without boxing it if the column is packed.
+         */
+        double getDouble(int row, int column) {
+            Object values = mColumns[column];
+            if (values instanceof double[]) {
+                return ((double[]) values)[row];
+            } else if (values instanceof long[]) {
+                return ((long[]) values)[row];
+            }
+            Object value = ((Object[]) values)[row];
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return value instanceof String ? parseNumber((String) value) : 0;
+        }
+
+        /**
+         * Returns the Cursor type of the value at the row and column.
+         */
+        int getType(int row, int column) {
+            Object values = mColumns[column];
+            if (values instanceof long[]) {
+                return Cursor.FIELD_TYPE_INTEGER;
+            } else if (values instanceof double[]) {
+                return Cursor.FIELD_TYPE_FLOAT;
+            }
+            Object value = ((Object[]) values)[row];
+            if (value == null) {
+                return Cursor.FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return Cursor.FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return Cursor.FIELD_TYPE_FLOAT;
+            } else if (value instanceof byte[]) {
+                return Cursor.FIELD_TYPE_BLOB;
+            }
+            return Cursor.FIELD_TYPE_STRING;
+        }
+
+        private static double parseNumber(String text) {
+            try {
+                return Double.parseDouble(text.trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        private static Object readValue(Cursor cursor, int column, int type) {
+            switch (type) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return cursor.getLong(column);
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return cursor.getDouble(column);
+                case Cursor.FIELD_TYPE_STRING:
+                    return cursor.getString(column);
+                case Cursor.FIELD_TYPE_BLOB:
+                    return cursor.getBlob(column);
+                default:
+                    return null;
+            }
+        }
+
+        private static int sizeOfValues(Object[] values) {
+            int bytes = 0;
+            for (Object value : values) {
+                if (value instanceof String) {
+                    bytes += OBJECT_OVERHEAD_BYTES + ((String) value).length() * 2;
+                } else if (value instanceof byte[]) {
+                    bytes += OBJECT_OVERHEAD_BYTES + ((byte[]) value).length;
+                } else if (value != null) {
+                    bytes += OBJECT_OVERHEAD_BYTES;
+                }
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Read-only cursor over a snapshot. Values are converted between types the way SQLite's cursors do.
+     */
+    private static final class SnapshotCursor extends AbstractCursor {
+        private final Snapshot mSnapshot;
+
+        SnapshotCursor(Snapshot snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        public int getCount() {
+            return mSnapshot.getRowCount();
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mSnapshot.mColumnNames;
+        }
+
+        @Override
+        public int getType(int column) {
+            return mSnapshot.getType(mPos, column);
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = mSnapshot.getValue(mPos, column);
+            return value == null || value instanceof byte[] ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) mSnapshot.getLong(mPos, column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) mSnapshot.getLong(mPos, column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return mSnapshot.getLong(mPos, column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) mSnapshot.getDouble(mPos, column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return mSnapshot.getDouble(mPos, column);
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = mSnapshot.getValue(mPos, column);
+            if (value instanceof byte[]) {
+                return ((byte[]) value).clone();
+            }
+            return value == null ? null : value.toString().getBytes();
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return mSnapshot.getType(mPos, column) == Cursor.FIELD_TYPE_NULL;
+        }
+    }
+}
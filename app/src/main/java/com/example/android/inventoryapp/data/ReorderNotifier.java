@@ -0,0 +1,200 @@
+package com.example.android.inventoryapp.data;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+
+import com.example.android.inventoryapp.R;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+/**
+ * Posts the books to reorder as one notification per supplier, bundled under a summary.
+ * Tapping a supplier's notification dials the supplier, like the Order button of a book.
+ * A supplier's notification is only posted again when its list of books changes,
+ * so each maintenance run doesn't alert about the same books.
+ */
+final class ReorderNotifier {
+
+    /** Group key that bundles the supplier notifications **/
+    private static final String GROUP_REORDERS = "reorders";
+
+    /** ID of the supplier notifications, which are told apart by their supplier name tag **/
+    private static final int NOTIFICATION_ID_SUPPLIER = 1;
+
+    /** ID of the summary notification **/
+    private static final int NOTIFICATION_ID_SUMMARY = 2;
+
+    /** SharedPreferences file and key used to remember the lists posted by the last run **/
+    private static final String PREFS_NAME = "book_reorders";
+    private static final String PREF_POSTED_LISTS = "posted_lists";
+
+    /** Separates the supplier name from the book IDs in a posted list **/
+    private static final char LIST_SEPARATOR = '\n';
+
+    /** Columns read for the reorder list **/
+    private static final String[] PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_REORDER_THRESHOLD,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE };
+
+    /** Private constructor to prevent instantiating the class **/
+    private ReorderNotifier() {}
+
+    /**
+     * Reads the books to reorder and updates the notifications to match.
+     * Runs the query on the calling thread.
+     */
+    static void update(Context context) {
+        Cursor cursor = context.getContentResolver().query(BookEntry.CONTENT_REORDER_URI, PROJECTION,
+                null, null, BookEntry.REORDER_SORT_ORDER);
+        if (cursor == null) {
+            return;
+        }
+
+        // Groups the books by supplier, which the sort order keeps together
+        LinkedHashMap<String, SupplierReorder> suppliers = new LinkedHashMap<>();
+        try {
+            while (cursor.moveToNext()) {
+                String supplierName = cursor.getString(4);
+                SupplierReorder supplier = suppliers.get(supplierName);
+                if (supplier == null) {
+                    supplier = new SupplierReorder(supplierName, cursor.getLong(5));
+                    suppliers.put(supplierName, supplier);
+                }
+                supplier.bookIds.add(cursor.getLong(0));
+                supplier.lines.add(context.getString(R.string.reorder_notification_line,
+                        cursor.getString(1), cursor.getInt(2), cursor.getInt(3)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        NotificationManagerCompat manager = NotificationManagerCompat.from(context);
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        Set<String> postedLists = prefs.getStringSet(PREF_POSTED_LISTS, Collections.<String>emptySet());
+        Set<String> lists = new HashSet<>();
+        boolean changed = false;
+
+        // Posts the suppliers whose lists are new or changed
+        for (SupplierReorder supplier : suppliers.values()) {
+            String list = supplier.getList();
+            lists.add(list);
+            if (!postedLists.contains(list)) {
+                manager.notify(supplier.name, NOTIFICATION_ID_SUPPLIER, buildSupplierNotification(context, supplier));
+                changed = true;
+            }
+        }
+
+        // Removes the notifications of suppliers with nothing left to reorder
+        for (String list : postedLists) {
+            String supplierName = list.substring(0, list.lastIndexOf(LIST_SEPARATOR));
+            if (!suppliers.containsKey(supplierName)) {
+                manager.cancel(supplierName, NOTIFICATION_ID_SUPPLIER);
+                changed = true;
+            }
+        }
+
+        if (suppliers.isEmpty()) {
+            manager.cancel(NOTIFICATION_ID_SUMMARY);
+        } else if (changed) {
+            manager.notify(NOTIFICATION_ID_SUMMARY, buildSummaryNotification(context, suppliers));
+        }
+        prefs.edit().putStringSet(PREF_POSTED_LISTS, lists).apply();
+    }
+
+    /**
+     * Builds the notification listing one supplier's books, which dials the supplier when tapped.
+     */
+    private static Notification buildSupplierNotification(Context context, SupplierReorder supplier) {
+        Intent dialIntent = new Intent(Intent.ACTION_DIAL, Uri.parse("tel:" + supplier.phone));
+        PendingIntent contentIntent = PendingIntent.getActivity(context, supplier.name.hashCode(), dialIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+        for (String line : supplier.lines) {
+            style.addLine(line);
+        }
+        String title = context.getString(R.string.reorder_notification_title, supplier.name);
+        String text = context.getResources().getQuantityString(R.plurals.reorder_notification_text,
+                supplier.lines.size(), supplier.lines.size());
+        return new NotificationCompat.Builder(context)
+                .setSmallIcon(R.drawable.baseline_local_library_black_48)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setStyle(style.setBigContentTitle(title))
+                .setContentIntent(contentIntent)
+                .setAutoCancel(true)
+                .setGroup(GROUP_REORDERS)
+                .build();
+    }
+
+    /**
+     * Builds the summary that bundles the supplier notifications and opens the app when tapped.
+     */
+    private static Notification buildSummaryNotification(Context context,
+                                                         LinkedHashMap<String, SupplierReorder> suppliers) {
+        Intent launchIntent = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
+        PendingIntent contentIntent = PendingIntent.getActivity(context, 0, launchIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+        int bookCount = 0;
+        for (SupplierReorder supplier : suppliers.values()) {
+            style.addLine(context.getString(R.string.reorder_summary_line, supplier.name, supplier.lines.size()));
+            bookCount += supplier.lines.size();
+        }
+        String text = context.getResources().getQuantityString(R.plurals.reorder_notification_text,
+                bookCount, bookCount);
+        return new NotificationCompat.Builder(context)
+                .setSmallIcon(R.drawable.baseline_local_library_black_48)
+                .setContentTitle(context.getString(R.string.reorder_summary_title))
+                .setContentText(text)
+                .setStyle(style)
+                .setContentIntent(contentIntent)
+                .setGroup(GROUP_REORDERS)
+                .setGroupSummary(true)
+                .build();
+    }
+
+    /**
+     * Books to reorder from one supplier.
+     */
+    private static class SupplierReorder {
+
+        final String name;
+        final long phone;
+        final List<Long> bookIds = new ArrayList<>();
+        final List<String> lines = new ArrayList<>();
+
+        SupplierReorder(String name, long phone) {
+            this.name = name;
+            this.phone = phone;
+        }
+
+        /** Returns the supplier name and book IDs, which change when a book is added to or leaves the list **/
+        String getList() {
+            StringBuilder list = new StringBuilder(name).append(LIST_SEPARATOR);
+            for (long id : bookIds) {
+                list.append(id).append(',');
+            }
+            return list.toString();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.MovementEntry;
+import static com.example.android.inventoryapp.data.BookContract.SyncEntry;
+
+/**
+ * SQL statements used by {@link BookProvider} to keep the reorder margin of each book.
+ *
+ * The margin is the quantity minus the reorder threshold, stored in an indexed column,
+ * so the books to reorder are read from the index instead of summing the ledger of every book.
+ * Writes of a quantity or threshold update the margin in the same transaction. Sales only append
+ * stock movements, so they stay cheap, and the scan catches up with the movements added
+ * since it last ran, which touches only the books that changed.
+ */
+final class ReorderStore {
+
+    /** Private constructor to prevent instantiating the class **/
+    private ReorderStore() {}
+
+    /** Expression for the current margin of a book in a statement on the books table **/
+    private static final String SQL_STOCK_MARGIN =
+            "(" + StockLedger.SQL_EFFECTIVE_QUANTITY + " - " +
+                    BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD + ")";
+
+    /**
+     * Selection for the books to reorder. The stored margin finds them through its index,
+     * and the current quantity leaves out books restocked since the last scan.
+     */
+    static final String SQL_NEEDS_REORDER =
+            BookEntry.COLUMN_BOOK_STOCK_MARGIN + " < 0 AND " + SQL_STOCK_MARGIN + " < 0";
+
+    /**
+     * Recomputes the margin of the selected books. Must be called in the same transaction
+     * as the write that changed their quantity or threshold.
+     */
+    static void refreshMargins(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        database.execSQL("UPDATE " + BookEntry.TABLE_NAME +
+                " SET " + BookEntry.COLUMN_BOOK_STOCK_MARGIN + " = " + SQL_STOCK_MARGIN +
+                (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection),
+                selectionArgs == null ? new Object[0] : selectionArgs);
+    }
+
+    /**
+     * Recomputes the margins of the books with stock movements among the next batchSize
+     * movements after the scanned mark, then moves the mark past them.
+     * Must run in a transaction. Returns the number of movements scanned, which is 0 when there are none left.
+     */
+    static int scan(SQLiteDatabase database, int batchSize) {
+        long scannedId = SyncStore.getState(database, SyncEntry.STATE_REORDER_SCANNED_MOVEMENT_ID);
+
+        // Finds the last movement ID of the batch
+        long lastId;
+        int count;
+        Cursor cursor = database.rawQuery("SELECT MAX(" + MovementEntry._ID + "), COUNT(*) FROM (SELECT " +
+                MovementEntry._ID + " FROM " + MovementEntry.TABLE_NAME +
+                " WHERE " + MovementEntry._ID + " > " + scannedId +
+                " ORDER BY " + MovementEntry._ID + " LIMIT " + batchSize + ")", null);
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                return 0;
+            }
+            lastId = cursor.getLong(0);
+            count = cursor.getInt(1);
+        } finally {
+            cursor.close();
+        }
+
+        // Updates the books the batch changed
+        refreshMargins(database, BookEntry._ID + " IN (SELECT " + MovementEntry.COLUMN_MOVEMENT_BOOK_ID +
+                " FROM " + MovementEntry.TABLE_NAME +
+                " WHERE " + MovementEntry._ID + " > " + scannedId + " AND " + MovementEntry._ID + " <= " + lastId + ")",
+                null);
+
+        // Moves the mark past the batch
+        database.execSQL("UPDATE " + SyncEntry.TABLE_NAME + " SET " + SyncEntry.COLUMN_STATE_VALUE + " = ?" +
+                " WHERE " + SyncEntry.COLUMN_STATE_NAME + " = ?",
+                new Object[] { lastId, SyncEntry.STATE_REORDER_SCANNED_MOVEMENT_ID });
+        return count;
+    }
+}
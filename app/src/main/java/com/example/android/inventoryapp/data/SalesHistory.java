@@ -0,0 +1,137 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import java.util.HashMap;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.SalesEntry;
+
+/**
+ * SQL statements used by {@link BookProvider} to read and trim the sales history.
+ * The buckets are filled by a trigger on the stock movement ledger, in the same transaction as each sale.
+ * Queries read only the buckets of the period, through the primary key when the books are selected
+ * and the period index otherwise, so their cost doesn't grow with the number of sales.
+ */
+final class SalesHistory {
+
+    /** Private constructor to prevent instantiating the class **/
+    private SalesHistory() {}
+
+    /** Number of days in the period of a velocity query without one **/
+    private static final int DEFAULT_PERIOD_DAYS = 7;
+
+    /**
+     * Returns the copies sold and sold per day and per week of each book sold in the period of the URI
+     * that isn't deleted, read from the daily buckets.
+     */
+    static Cursor queryVelocity(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder) {
+        // Rounds both ends up to whole days, so a 7 day period reads exactly 7 daily buckets
+        long until = getTimeParameter(uri, SalesEntry.PARAM_UNTIL, System.currentTimeMillis());
+        long since = getTimeParameter(uri, SalesEntry.PARAM_SINCE, until - DEFAULT_PERIOD_DAYS * SalesEntry.DAY_MILLIS);
+        until = roundUpToDay(Math.max(0, until));
+        since = Math.min(roundUpToDay(Math.max(0, since)), until - SalesEntry.DAY_MILLIS);
+        long days = (until - since) / SalesEntry.DAY_MILLIS;
+
+        HashMap<String, String> projectionMap = new HashMap<>();
+        projectionMap.put(SalesEntry.COLUMN_SALES_BOOK_ID, SalesEntry.COLUMN_SALES_BOOK_ID);
+        projectionMap.put(SalesEntry.COLUMN_SALES_UNITS,
+                "SUM(" + SalesEntry.COLUMN_SALES_UNITS + ") AS " + SalesEntry.COLUMN_SALES_UNITS);
+        projectionMap.put(SalesEntry.COLUMN_SALES_UNITS_PER_DAY,
+                "SUM(" + SalesEntry.COLUMN_SALES_UNITS + ") / " + days + ".0 AS " + SalesEntry.COLUMN_SALES_UNITS_PER_DAY);
+        projectionMap.put(SalesEntry.COLUMN_SALES_UNITS_PER_WEEK,
+                "SUM(" + SalesEntry.COLUMN_SALES_UNITS + ") * 7.0 / " + days + " AS " + SalesEntry.COLUMN_SALES_UNITS_PER_WEEK);
+        if (projection == null) {
+            projection = new String[] {
+                    SalesEntry.COLUMN_SALES_BOOK_ID, SalesEntry.COLUMN_SALES_UNITS, SalesEntry.COLUMN_SALES_UNITS_PER_DAY,
+                    SalesEntry.COLUMN_SALES_UNITS_PER_WEEK };
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(SalesEntry.DAILY_TABLE_NAME);
+        builder.setProjectionMap(projectionMap);
+        builder.appendWhere(inPeriod(since, until));
+        // Leaves out the deleted books, found through the first column of the list index
+        builder.appendWhere(" AND " + SalesEntry.COLUMN_SALES_BOOK_ID + " NOT IN (SELECT " + BookEntry._ID +
+                " FROM " + BookEntry.TABLE_NAME + " WHERE " + BookEntry.COLUMN_BOOK_DELETED_AT + " IS NOT NULL)");
+        return builder.query(database, projection, selection, selectionArgs,
+                SalesEntry.COLUMN_SALES_BOOK_ID, null, sortOrder);
+    }
+
+    /**
+     * Returns the hourly buckets in the period of the URI, the last day by default.
+     */
+    static Cursor queryHourly(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder) {
+        long until = getTimeParameter(uri, SalesEntry.PARAM_UNTIL, System.currentTimeMillis());
+        long since = getTimeParameter(uri, SalesEntry.PARAM_SINCE, until - SalesEntry.DAY_MILLIS);
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(SalesEntry.HOURLY_TABLE_NAME);
+        builder.appendWhere(inPeriod(since / SalesEntry.HOUR_MILLIS * SalesEntry.HOUR_MILLIS, until));
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                TextUtils.isEmpty(sortOrder) ? SalesEntry.COLUMN_SALES_PERIOD : sortOrder);
+    }
+
+    /**
+     * Removes up to batchSize hourly buckets older than the retention time.
+     * Returns the number of buckets removed.
+     */
+    static int pruneHourly(SQLiteDatabase database, int batchSize) {
+        long before = System.currentTimeMillis() - SalesEntry.HOURLY_RETENTION_MILLIS;
+        SQLiteStatement statement = database.compileStatement("DELETE FROM " + SalesEntry.HOURLY_TABLE_NAME +
+                " WHERE rowid IN (SELECT rowid FROM " + SalesEntry.HOURLY_TABLE_NAME +
+                " WHERE " + SalesEntry.COLUMN_SALES_PERIOD + " < ? LIMIT " + batchSize + ")");
+        try {
+            statement.bindLong(1, before);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Deletes the sales history of the selected books. Must be called before the books are deleted.
+     */
+    static void deleteBuckets(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        String where = SalesEntry.COLUMN_SALES_BOOK_ID + " IN (SELECT " + BookEntry._ID + " FROM " +
+                BookEntry.TABLE_NAME + " WHERE " + selection + ")";
+        database.delete(SalesEntry.HOURLY_TABLE_NAME, where, selectionArgs);
+        database.delete(SalesEntry.DAILY_TABLE_NAME, where, selectionArgs);
+    }
+
+    /**
+     * Returns the start of the next day, or the time itself if it starts a day.
+     */
+    private static long roundUpToDay(long time) {
+        return (time + SalesEntry.DAY_MILLIS - 1) / SalesEntry.DAY_MILLIS * SalesEntry.DAY_MILLIS;
+    }
+
+    /**
+     * Returns the selection of the buckets that start in the period.
+     */
+    private static String inPeriod(long since, long until) {
+        return SalesEntry.COLUMN_SALES_PERIOD + " >= " + since + " AND " + SalesEntry.COLUMN_SALES_PERIOD + " < " + until;
+    }
+
+    /**
+     * Returns the time in a query parameter of the URI, or the default value if there is none.
+     */
+    private static long getTimeParameter(Uri uri, String name, long defaultValue) {
+        String value = uri.getQueryParameter(name);
+        if (TextUtils.isEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time " + value + " in URI " + uri);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_COUNT;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_STOCK_VALUE;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_TOTAL_QUANTITY;
+import static com.example.android.inventoryapp.data.BookContract.SyncEntry;
+
+/**
+ * {@link BookStore} on the app's SQLite database.
+ * Every write runs in one transaction through {@link WriteCoordinator}, quantity changes are appended
+ * to the stock ledger, and the price and supplier phone are encrypted with the database's cipher.
+ */
+final class SqliteBookStore implements BookStore {
+
+    /** Most pages freed after a purge, so the vacuum holds the write lock only briefly **/
+    private static final int PURGE_VACUUM_MAX_PAGES = 256;
+
+    /** Most IDs written into one purge statement, well below SQLite's statement length limit **/
+    private static final int PURGE_MAX_IDS = 10000;
+
+    /** Maps each book column to its SQL, so the quantity includes the uncompacted movements **/
+    private static final HashMap<String, String> sBookProjectionMap = new HashMap<>();
+
+    static {
+        sBookProjectionMap.put(BookEntry._ID, BookEntry._ID);
+        sBookProjectionMap.put(BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_BOOK_NAME);
+        sBookProjectionMap.put(BookEntry.COLUMN_BOOK_AUTHOR, BookEntry.COLUMN_BOOK_AUTHOR);
+        sBookProjectionMap.put(BookEntry.COLUMN_BOOK_PRICE, BookEntry.COLUMN_BOOK_PRICE);
+        sBookProjectionMap.put(BookEntry.COLUMN_BOOK_QUANTITY,
+                StockLedger.SQL_EFFECTIVE_QUANTITY + " AS " + BookEntry.COLUMN_BOOK_QUANTITY);
+        sBookProjectionMap.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, BookEntry.COLUMN_BOOK_SUPPLIER_NAME);
+        sBookProjectionMap.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, BookEntry.COLUMN_BOOK_SUPPLIER_PHONE);
+        sBookProjectionMap.put(BookEntry.COLUMN_BOOK_ISBN, BookEntry.COLUMN_BOOK_ISBN);
+        sBookProjectionMap.put(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD, BookEntry.COLUMN_BOOK_REORDER_THRESHOLD);
+    }
+
+    /** Columns read to add up the totals **/
+    private static final String[] TOTALS_PROJECTION = {
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY };
+
+    private final BookDbHelper mDbHelper;
+    private final WriteCoordinator mWriter;
+
+    SqliteBookStore(BookDbHelper dbHelper, WriteCoordinator writer) {
+        mDbHelper = dbHelper;
+        mWriter = writer;
+    }
+
+    /**
+     * Queries the books table, leaving out deleted books.
+     * The quantity column is the stored snapshot plus the uncompacted movements.
+     * Selections and sort orders on the quantity column use the snapshot.
+     * The encrypted columns are returned as stored, see {@link ColumnCipher#decrypt(Cursor)}.
+     */
+    static Cursor queryBooks(SQLiteDatabase database, String[] projection, String selection,
+                             String[] selectionArgs, String sortOrder, String limit) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(BookEntry.TABLE_NAME);
+        builder.setProjectionMap(sBookProjectionMap);
+        builder.appendWhere(BookEntry.COLUMN_BOOK_DELETED_AT + " IS NULL");
+        return builder.query(database, projection, selection, selectionArgs, null, null, sortOrder, limit);
+    }
+
+    /**
+     * Returns the selection limited to books that aren't deleted.
+     */
+    static String whereNotDeleted(String selection) {
+        String notDeleted = BookEntry.COLUMN_BOOK_DELETED_AT + " IS NULL";
+        return TextUtils.isEmpty(selection) ? notDeleted : notDeleted + " AND (" + selection + ")";
+    }
+
+    @Override
+    public Cursor queryBooks(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return mDbHelper.getCipher().decrypt(queryBooks(mDbHelper.getReadableDatabase(), projection,
+                selection, selectionArgs, sortOrder, null));
+    }
+
+    /**
+     * Uses the unique ISBN index.
+     */
+    @Override
+    public long findBookIdByIsbn(String isbn) {
+        Cursor cursor = mDbHelper.getReadableDatabase().query(BookEntry.TABLE_NAME, new String[] { BookEntry._ID },
+                BookEntry.COLUMN_BOOK_ISBN + "=?", new String[] { isbn }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Inserts the book and records its starting quantity in the ledger.
+     */
+    @Override
+    public long insertBook(final ContentValues values) {
+        mDbHelper.getCipher().encryptValues(values);
+        return mWriter.write(new WriteCoordinator.Work<Long>() {
+            @Override
+            public Long run(SQLiteDatabase database) {
+                return insertValidatedBook(database, values);
+            }
+        });
+    }
+
+    /**
+     * Writes every book in one transaction, rolling back the whole batch if a row fails.
+     */
+    @Override
+    public boolean insertBooks(final ContentValues[] values) {
+        ColumnCipher cipher = mDbHelper.getCipher();
+        for (ContentValues bookValues : values) {
+            cipher.encryptValues(bookValues);
+        }
+        try {
+            mWriter.write(new WriteCoordinator.Work<Void>() {
+                @Override
+                public Void run(SQLiteDatabase database) {
+                    for (ContentValues bookValues : values) {
+                        if (insertValidatedBook(database, bookValues) == -1) {
+                            throw new SQLiteConstraintException("Failed to insert row for " + bookValues);
+                        }
+                    }
+                    return null;
+                }
+            });
+            return true;
+        } catch (SQLiteConstraintException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Inserts a checked book with its reorder margin and records its starting quantity in the ledger.
+     * Must run in a transaction. Returns the new ID, or -1 if the insert failed.
+     */
+    private static long insertValidatedBook(SQLiteDatabase database, ContentValues values) {
+        Integer threshold = values.getAsInteger(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD);
+        values.put(BookEntry.COLUMN_BOOK_STOCK_MARGIN, values.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY)
+                - (threshold == null ? 0 : threshold));
+        long id = database.insert(BookEntry.TABLE_NAME, null, values);
+        if (id != -1) {
+            StockLedger.recordInitialQuantity(database, id, values.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY));
+        }
+        return id;
+    }
+
+    /**
+     * A new quantity replaces the ledger's snapshot, so the ledger is updated in the same transaction,
+     * and a new quantity or threshold changes the reorder margin.
+     */
+    @Override
+    public int updateBooks(final ContentValues values, String selection, final String[] selectionArgs) {
+        final String where = whereNotDeleted(selection);
+        mDbHelper.getCipher().encryptValues(values);
+        return mWriter.write(new WriteCoordinator.Work<Integer>() {
+            @Override
+            public Integer run(SQLiteDatabase database) {
+                if (values.containsKey(BookEntry.COLUMN_BOOK_QUANTITY)) {
+                    StockLedger.setQuantity(database, values.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY),
+                            where, selectionArgs);
+                }
+                int rows = database.update(BookEntry.TABLE_NAME, values, where, selectionArgs);
+                if (rows != 0 && (values.containsKey(BookEntry.COLUMN_BOOK_QUANTITY)
+                        || values.containsKey(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD))) {
+                    ReorderStore.refreshMargins(database, where, selectionArgs);
+                }
+                return rows;
+            }
+        });
+    }
+
+    /**
+     * Appends a movement with the delta and reason for each book changed.
+     */
+    @Override
+    public int adjustQuantity(final int delta, final int reason, String selection, final String[] selectionArgs) {
+        final String where = whereNotDeleted(selection);
+        return mWriter.write(new WriteCoordinator.Work<Integer>() {
+            @Override
+            public Integer run(SQLiteDatabase database) {
+                return StockLedger.appendDelta(database, delta, reason, where, selectionArgs);
+            }
+        });
+    }
+
+    /**
+     * Reprices the books and records their old and new prices in one transaction.
+     */
+    @Override
+    public int repriceBooks(final double factor, final double offset, String selection, final String[] selectionArgs) {
+        final String where = whereNotDeleted(selection);
+        final ColumnCipher cipher = mDbHelper.getCipher();
+        final long changedAt = System.currentTimeMillis();
+        return mWriter.write(new WriteCoordinator.Work<Integer>() {
+            @Override
+            public Integer run(SQLiteDatabase database) {
+                return PriceHistory.reprice(database, cipher, factor, offset, where, selectionArgs, changedAt);
+            }
+        });
+    }
+
+    /**
+     * Reads the IDs of the selected books and marks them in the same transaction,
+     * so the IDs are exactly the books marked.
+     */
+    @Override
+    public long[] deleteBooks(String selection, final String[] selectionArgs, long deletedAt) {
+        final String where = whereNotDeleted(selection);
+        final ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_DELETED_AT, deletedAt);
+        return mWriter.write(new WriteCoordinator.Work<long[]>() {
+            @Override
+            public long[] run(SQLiteDatabase database) {
+                Cursor cursor = database.query(BookEntry.TABLE_NAME, new String[] { BookEntry._ID },
+                        where, selectionArgs, null, null, null);
+                long[] ids;
+                try {
+                    ids = new long[cursor.getCount()];
+                    while (cursor.moveToNext()) {
+                        ids[cursor.getPosition()] = cursor.getLong(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                if (ids.length > 0) {
+                    database.update(BookEntry.TABLE_NAME, values, where, selectionArgs);
+                }
+                return ids;
+            }
+        });
+    }
+
+    @Override
+    public int restoreBook(final long id) {
+        final ContentValues values = new ContentValues();
+        values.putNull(BookEntry.COLUMN_BOOK_DELETED_AT);
+        return mWriter.write(new WriteCoordinator.Work<Integer>() {
+            @Override
+            public Integer run(SQLiteDatabase database) {
+                return database.update(BookEntry.TABLE_NAME, values,
+                        BookEntry._ID + "=? AND " + BookEntry.COLUMN_BOOK_DELETED_AT + " IS NOT NULL",
+                        new String[] { String.valueOf(id) });
+            }
+        });
+    }
+
+    /**
+     * Removes the books with their stock movements, sales history and price history in one short transaction.
+     * Once the device syncs, books are kept until their deletion is pushed.
+     * Then returns the freed pages to the file system.
+     */
+    @Override
+    public int purgeDeletedBooks(long deletedBefore, int batchSize) {
+        String selection = BookEntry._ID + " IN (SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME +
+                " WHERE " + BookEntry.COLUMN_BOOK_DELETED_AT + " < ? AND " + SyncStore.SQL_PUSHED_OR_NOT_SYNCED +
+                " LIMIT " + batchSize + ")";
+        int rowsPurged = purge(selection, new String[] { String.valueOf(deletedBefore) });
+        vacuumAfterPurge(rowsPurged);
+        return rowsPurged;
+    }
+
+    /**
+     * Removes the books PURGE_MAX_IDS at a time, each batch in its own transaction,
+     * keeping those whose deletion isn't pushed yet like purgeDeletedBooks() does.
+     */
+    @Override
+    public int purgeBooks(long[] ids) {
+        int rowsPurged = 0;
+        for (int from = 0; from < ids.length; from += PURGE_MAX_IDS) {
+            long[] batch = Arrays.copyOfRange(ids, from, Math.min(ids.length, from + PURGE_MAX_IDS));
+            rowsPurged += purge(BookEntry.buildIdSelection(batch) + " AND " + BookEntry.COLUMN_BOOK_DELETED_AT +
+                    " IS NOT NULL AND " + SyncStore.SQL_PUSHED_OR_NOT_SYNCED, null);
+        }
+        vacuumAfterPurge(rowsPurged);
+        return rowsPurged;
+    }
+
+    /**
+     * Deletes the selected books and the rows that refer to them in one transaction.
+     * Returns the number of books deleted.
+     */
+    private int purge(final String selection, final String[] selectionArgs) {
+        return mWriter.write(new WriteCoordinator.Work<Integer>() {
+            @Override
+            public Integer run(SQLiteDatabase database) {
+                StockLedger.deleteMovements(database, selection, selectionArgs);
+                SalesHistory.deleteBuckets(database, selection, selectionArgs);
+                PriceHistory.deleteEntries(database, selection, selectionArgs);
+                return database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+            }
+        });
+    }
+
+    /**
+     * Frees the pages the purged books used.
+     */
+    private void vacuumAfterPurge(int rowsPurged) {
+        if (rowsPurged != 0) {
+            DatabaseMaintenance.incrementalVacuum(mDbHelper.getWritableDatabase(), PURGE_VACUUM_MAX_PAGES);
+        }
+    }
+
+    /**
+     * Adds up the totals while reading the books, since the prices are encrypted and can't be summed in SQL.
+     */
+    @Override
+    public Bundle getTotals() {
+        int count = 0;
+        long totalQuantity = 0;
+        double stockValue = 0;
+        Cursor cursor = queryBooks(TOTALS_PROJECTION, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                int quantity = cursor.getInt(1);
+                count++;
+                totalQuantity += quantity;
+                stockValue += cursor.getDouble(0) * quantity;
+            }
+        } finally {
+            cursor.close();
+        }
+        Bundle result = new Bundle();
+        result.putInt(EXTRA_COUNT, count);
+        result.putLong(EXTRA_TOTAL_QUANTITY, totalQuantity);
+        result.putDouble(EXTRA_STOCK_VALUE, stockValue);
+        return result;
+    }
+
+    /**
+     * Reads the version the triggers increase in the transaction of each change.
+     */
+    @Override
+    public long getDataVersion() {
+        return SyncStore.getState(mDbHelper.getReadableDatabase(), SyncEntry.STATE_DATA_VERSION);
+    }
+
+    /**
+     * Runs the operation in one write transaction, which the store's writes join.
+     */
+    @Override
+    public <T> T runAtomically(final Operation<T> operation) {
+        return mWriter.write(new WriteCoordinator.Work<T>() {
+            @Override
+            public T run(SQLiteDatabase database) {
+                return operation.run();
+            }
+        });
+    }
+}
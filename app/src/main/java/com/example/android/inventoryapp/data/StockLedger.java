@@ -0,0 +1,224 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.MovementEntry;
+
+/**
+ * SQL statements for the stock movement ledger used by {@link BookProvider}.
+ * Quantity changes are appended as movements instead of rewriting the book row.
+ * A book's quantity is its stored snapshot plus the sum of its uncompacted movements,
+ * and compaction folds movements into the snapshot in batches.
+ */
+final class StockLedger {
+
+    /** Private constructor to prevent instantiating the class **/
+    private StockLedger() {}
+
+    /** Sum of a book's uncompacted movements, read from the pending index **/
+    private static final String SQL_PENDING_SUM =
+            "IFNULL((SELECT SUM(" + MovementEntry.COLUMN_MOVEMENT_DELTA + ") FROM " + MovementEntry.TABLE_NAME +
+                    " WHERE " + MovementEntry.COLUMN_MOVEMENT_COMPACTED + " = 0 AND " +
+                    MovementEntry.COLUMN_MOVEMENT_BOOK_ID + " = " + BookEntry.TABLE_NAME + "." + BookEntry._ID + "), 0)";
+
+    /** Expression for the current quantity of a book in a query on the books table **/
+    static final String SQL_EFFECTIVE_QUANTITY =
+            "(" + BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_BOOK_QUANTITY + " + " + SQL_PENDING_SUM + ")";
+
+    /** Start of the statement that appends one movement for each selected book **/
+    private static final String SQL_INSERT_MOVEMENTS =
+            "INSERT INTO " + MovementEntry.TABLE_NAME + " (" +
+                    MovementEntry.COLUMN_MOVEMENT_BOOK_ID + ", " +
+                    MovementEntry.COLUMN_MOVEMENT_DELTA + ", " +
+                    MovementEntry.COLUMN_MOVEMENT_REASON + ", " +
+                    MovementEntry.COLUMN_MOVEMENT_CREATED_AT + ", " +
+                    MovementEntry.COLUMN_MOVEMENT_COMPACTED + ") ";
+
+    /**
+     * Appends a movement with the delta for each selected book whose quantity stays at 0 or more.
+     * Returns the number of books changed.
+     */
+    static int appendDelta(SQLiteDatabase database, int delta, int reason,
+                           String selection, String[] selectionArgs) {
+        String sql = SQL_INSERT_MOVEMENTS +
+                "SELECT " + BookEntry._ID + ", ?, ?, ?, 0 FROM " + BookEntry.TABLE_NAME +
+                " WHERE " + SQL_EFFECTIVE_QUANTITY + " + ? >= 0" + andSelection(selection);
+        SQLiteStatement statement = database.compileStatement(sql);
+        try {
+            statement.bindLong(1, delta);
+            statement.bindLong(2, reason);
+            statement.bindLong(3, System.currentTimeMillis());
+            statement.bindLong(4, delta);
+            bindSelectionArgs(statement, 5, selectionArgs);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Appends a movement pulled from another device to the book with the given sync ID, or the book
+     * that had it before it took another device's book's ID.
+     * It isn't guarded against a negative quantity, since the sale already happened on the other device.
+     * Returns false if the book isn't known on this device.
+     */
+    static boolean appendRemoteDelta(SQLiteDatabase database, String bookSyncId, int delta, int reason,
+                                     long createdAt) {
+        String sql = "INSERT INTO " + MovementEntry.TABLE_NAME + " (" +
+                MovementEntry.COLUMN_MOVEMENT_BOOK_ID + ", " +
+                MovementEntry.COLUMN_MOVEMENT_DELTA + ", " +
+                MovementEntry.COLUMN_MOVEMENT_REASON + ", " +
+                MovementEntry.COLUMN_MOVEMENT_CREATED_AT + ", " +
+                MovementEntry.COLUMN_MOVEMENT_COMPACTED + ", " +
+                MovementEntry.COLUMN_MOVEMENT_REMOTE + ") " +
+                "SELECT " + BookEntry._ID + ", ?, ?, ?, 0, 1 FROM " + BookEntry.TABLE_NAME +
+                " WHERE " + BookEntry.COLUMN_BOOK_SYNC_ID + " = ? OR " + BookEntry._ID + " IN (" +
+                SyncStore.SQL_ALIASED_BOOK_ID + ")";
+        SQLiteStatement statement = database.compileStatement(sql);
+        try {
+            statement.bindLong(1, delta);
+            statement.bindLong(2, reason);
+            statement.bindLong(3, createdAt);
+            statement.bindString(4, bookSyncId);
+            statement.bindString(5, bookSyncId);
+            return statement.executeUpdateDelete() > 0;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Records the starting quantity of a new book as an already compacted restock movement.
+     */
+    static void recordInitialQuantity(SQLiteDatabase database, long bookId, int quantity) {
+        if (quantity == 0) {
+            return;
+        }
+        SQLiteStatement statement = database.compileStatement(SQL_INSERT_MOVEMENTS + "VALUES (?, ?, ?, ?, 1)");
+        try {
+            statement.bindLong(1, bookId);
+            statement.bindLong(2, quantity);
+            statement.bindLong(3, MovementEntry.REASON_RESTOCK);
+            statement.bindLong(4, System.currentTimeMillis());
+            statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Prepares the selected books for their stored quantity to be overwritten with the given value.
+     * The difference is recorded as an adjustment, and the uncompacted movements are marked as compacted
+     * since the new snapshot replaces them. Must be called in the same transaction as the update.
+     */
+    static void setQuantity(SQLiteDatabase database, int quantity, String selection, String[] selectionArgs) {
+        String insertSql = SQL_INSERT_MOVEMENTS +
+                "SELECT " + BookEntry._ID + ", ? - " + SQL_EFFECTIVE_QUANTITY + ", ?, ?, 1 FROM " + BookEntry.TABLE_NAME +
+                " WHERE " + SQL_EFFECTIVE_QUANTITY + " != ?" + andSelection(selection);
+        SQLiteStatement statement = database.compileStatement(insertSql);
+        try {
+            statement.bindLong(1, quantity);
+            statement.bindLong(2, MovementEntry.REASON_ADJUSTMENT);
+            statement.bindLong(3, System.currentTimeMillis());
+            statement.bindLong(4, quantity);
+            bindSelectionArgs(statement, 5, selectionArgs);
+            statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+
+        String compactSql = "UPDATE " + MovementEntry.TABLE_NAME +
+                " SET " + MovementEntry.COLUMN_MOVEMENT_COMPACTED + " = 1" +
+                " WHERE " + MovementEntry.COLUMN_MOVEMENT_COMPACTED + " = 0 AND " +
+                MovementEntry.COLUMN_MOVEMENT_BOOK_ID + " IN (" + selectBookIds(selection) + ")";
+        statement = database.compileStatement(compactSql);
+        try {
+            bindSelectionArgs(statement, 1, selectionArgs);
+            statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Deletes the movements of the selected books. Must be called before the books are deleted.
+     */
+    static void deleteMovements(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        database.delete(MovementEntry.TABLE_NAME,
+                MovementEntry.COLUMN_MOVEMENT_BOOK_ID + " IN (" + selectBookIds(selection) + ")",
+                selectionArgs);
+    }
+
+    /**
+     * Folds up to batchSize of the oldest uncompacted movements into the stored book quantities.
+     * Must run in a transaction, which should be short. The displayed quantities don't change.
+     * Returns the number of movements folded, which is 0 when there are none left.
+     */
+    static int compact(SQLiteDatabase database, int batchSize) {
+        // Finds the last movement ID of the batch
+        long lastId;
+        Cursor cursor = database.rawQuery("SELECT MAX(" + MovementEntry._ID + ") FROM (SELECT " + MovementEntry._ID +
+                " FROM " + MovementEntry.TABLE_NAME +
+                " WHERE " + MovementEntry.COLUMN_MOVEMENT_COMPACTED + " = 0" +
+                " ORDER BY " + MovementEntry._ID + " LIMIT " + batchSize + ")", null);
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                return 0;
+            }
+            lastId = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+
+        String batch = " FROM " + MovementEntry.TABLE_NAME +
+                " WHERE " + MovementEntry.COLUMN_MOVEMENT_COMPACTED + " = 0 AND " + MovementEntry._ID + " <= " + lastId;
+
+        // Adds the batch to the snapshot of each book in it
+        database.execSQL("UPDATE " + BookEntry.TABLE_NAME +
+                " SET " + BookEntry.COLUMN_BOOK_QUANTITY + " = " + BookEntry.COLUMN_BOOK_QUANTITY +
+                " + (SELECT SUM(" + MovementEntry.COLUMN_MOVEMENT_DELTA + ")" + batch +
+                " AND " + MovementEntry.COLUMN_MOVEMENT_BOOK_ID + " = " + BookEntry.TABLE_NAME + "." + BookEntry._ID + ")" +
+                " WHERE " + BookEntry._ID + " IN (SELECT " + MovementEntry.COLUMN_MOVEMENT_BOOK_ID + batch + ")");
+
+        // Marks the batch as folded
+        SQLiteStatement statement = database.compileStatement("UPDATE " + MovementEntry.TABLE_NAME +
+                " SET " + MovementEntry.COLUMN_MOVEMENT_COMPACTED + " = 1" +
+                " WHERE " + MovementEntry.COLUMN_MOVEMENT_COMPACTED + " = 0 AND " + MovementEntry._ID + " <= " + lastId);
+        try {
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Returns a subquery for the IDs of the selected books.
+     */
+    private static String selectBookIds(String selection) {
+        return "SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME +
+                (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection);
+    }
+
+    /**
+     * Returns the selection to append to a WHERE clause, or an empty String if there is none.
+     */
+    private static String andSelection(String selection) {
+        return TextUtils.isEmpty(selection) ? "" : " AND (" + selection + ")";
+    }
+
+    /**
+     * Binds the selection arguments to the statement starting at the given index.
+     */
+    static void bindSelectionArgs(SQLiteStatement statement, int startIndex, String[] selectionArgs) {
+        if (selectionArgs == null) {
+            return;
+        }
+        for (int i = 0; i < selectionArgs.length; i++) {
+            statement.bindString(startIndex + i, selectionArgs[i]);
+        }
+    }
+}
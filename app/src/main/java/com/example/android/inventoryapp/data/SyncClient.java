@@ -0,0 +1,72 @@
+package com.example.android.inventoryapp.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Sends an encoded {@link ChangeSet} to the sync server in one POST and returns the encoded response.
+ * The body is already gzip compressed by ChangeSet, so it is sent as is.
+ */
+public class SyncClient {
+
+    /** Content type of encoded change-sets **/
+    public static final String CONTENT_TYPE = "application/x-book-changes";
+
+    /** Time to wait for the connection and for each read **/
+    private static final int TIMEOUT_MILLIS = 15000;
+
+    private final URL mUrl;
+
+    public SyncClient(URL url) {
+        mUrl = url;
+    }
+
+    /**
+     * Posts the request and returns the response body.
+     * Throws an IOException if the server can't be reached or doesn't answer with 200 OK.
+     */
+    public byte[] exchange(byte[] request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+            connection.setFixedLengthStreamingMode(request.length);
+
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(request);
+            } finally {
+                out.close();
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Sync server returned " + responseCode);
+            }
+            return readFully(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
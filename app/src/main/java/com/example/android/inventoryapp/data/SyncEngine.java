@@ -0,0 +1,158 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.CONTENT_AUTHORITY;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_CHANGES;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_COUNT;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_LAST_MOVEMENT_ID;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_LAST_SEQ;
+import static com.example.android.inventoryapp.data.BookContract.METHOD_GET_CHANGES;
+import static com.example.android.inventoryapp.data.BookContract.MovementEntry;
+import static com.example.android.inventoryapp.data.BookContract.SyncEntry;
+
+/**
+ * Syncs the inventory with the other devices in the store through a sync server.
+ * Each round pushes one batch of local changes read from {@link BookProvider}, pulls one batch
+ * of the other devices' changes in the same request, and applies the pull with the new sync state
+ * in one applyBatch() transaction. Rounds repeat until there is nothing left either way,
+ * so the cost of a sync depends on the number of changes, not on the size of the catalog.
+ */
+public final class SyncEngine {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = SyncEngine.class.getSimpleName();
+
+    /** Most books and most movements in each direction per round **/
+    private static final int BATCH_SIZE = 200;
+
+    /** Private constructor to prevent instantiating the class **/
+    private SyncEngine() {}
+
+    /**
+     * Sets the address of the sync server, or turns sync off if it is null.
+     * The address is kept in the sync state, so the app's process and the :sync process
+     * read the same value. Writes to the database, so it shouldn't be called on the main thread.
+     */
+    public static void setServerUrl(Context context, String url) {
+        ContentValues values = new ContentValues();
+        values.put(SyncEntry.STATE_SERVER_URL, url);
+        context.getContentResolver().update(SyncEntry.CONTENT_URI, values, null, null);
+    }
+
+    /**
+     * Syncs with the saved server, if there is one. Runs the network requests on the calling thread.
+     */
+    public static void syncIfConfigured(Context context) {
+        String url = getServerUrl(context.getContentResolver());
+        if (url == null) {
+            return;
+        }
+        try {
+            int changes = sync(context.getContentResolver(), new SyncClient(new URL(url)));
+            Log.d(LOG_TAG, "Synced " + changes + " changes");
+        } catch (IOException | RemoteException | OperationApplicationException e) {
+            // The marks only move once a round is stored, so the next sync resumes from here
+            Log.e(LOG_TAG, "Sync failed", e);
+        }
+    }
+
+    /**
+     * Returns the address of the sync server, or null if sync is off.
+     */
+    private static String getServerUrl(ContentResolver contentResolver) {
+        Cursor cursor = contentResolver.query(SyncEntry.CONTENT_URI, new String[] { SyncEntry.COLUMN_STATE_TEXT },
+                SyncEntry.COLUMN_STATE_NAME + " = ?", new String[] { SyncEntry.STATE_SERVER_URL }, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs sync rounds until no changes are pushed or pulled. Returns the number of changes exchanged.
+     */
+    public static int sync(ContentResolver contentResolver, SyncClient client)
+            throws IOException, RemoteException, OperationApplicationException {
+        int total = 0;
+        while (true) {
+            // Reads the next batch of local changes
+            Bundle local = contentResolver.call(BookEntry.CONTENT_URI, METHOD_GET_CHANGES,
+                    String.valueOf(BATCH_SIZE), null);
+            int pushed = local.getInt(EXTRA_COUNT);
+
+            // Pushes them and pulls the other devices' changes
+            ChangeSet remote = ChangeSet.decode(client.exchange(local.getByteArray(EXTRA_CHANGES)));
+
+            // Applies the pull and records the new marks together
+            ArrayList<ContentProviderOperation> operations = buildOperations(remote);
+            ContentValues state = new ContentValues();
+            state.put(SyncEntry.STATE_SERVER_CURSOR, remote.cursor);
+            state.put(SyncEntry.STATE_ENABLED, 1);
+            if (remote.accepted) {
+                state.put(SyncEntry.STATE_PUSHED_SEQ, local.getLong(EXTRA_LAST_SEQ));
+                state.put(SyncEntry.STATE_PUSHED_MOVEMENT_ID, local.getLong(EXTRA_LAST_MOVEMENT_ID));
+            }
+            operations.add(ContentProviderOperation.newUpdate(SyncEntry.CONTENT_URI).withValues(state).build());
+            contentResolver.applyBatch(CONTENT_AUTHORITY, operations);
+
+            int pulled = remote.size();
+            total += (remote.accepted ? pushed : 0) + pulled;
+
+            // Stops when the last local batch was stored and the pull came back short
+            // The server only refuses a push while there is more to pull, which keeps the loop going
+            if (pulled < BATCH_SIZE && (pushed == 0 || remote.accepted && pushed < BATCH_SIZE)) {
+                return total;
+            }
+        }
+    }
+
+    /**
+     * Returns the operations that apply the pulled changes, books first so their movements find them.
+     */
+    private static ArrayList<ContentProviderOperation> buildOperations(ChangeSet remote) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(remote.size() + 1);
+        for (ChangeSet.BookChange book : remote.books) {
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_BOOK_SYNC_ID, book.syncId);
+            values.put(BookEntry.COLUMN_BOOK_NAME, book.name);
+            values.put(BookEntry.COLUMN_BOOK_AUTHOR, book.author);
+            values.put(BookEntry.COLUMN_BOOK_PRICE, book.price);
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, book.supplierName);
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, book.supplierPhone);
+            values.put(BookEntry.COLUMN_BOOK_ISBN, book.isbn);
+            if (book.deletedAt == ChangeSet.NOT_DELETED) {
+                values.putNull(BookEntry.COLUMN_BOOK_DELETED_AT);
+            } else {
+                values.put(BookEntry.COLUMN_BOOK_DELETED_AT, book.deletedAt);
+            }
+            operations.add(ContentProviderOperation.newInsert(SyncEntry.CONTENT_URI).withValues(values).build());
+        }
+        for (ChangeSet.MovementChange movement : remote.movements) {
+            ContentValues values = new ContentValues();
+            values.put(MovementEntry.KEY_BOOK_SYNC_ID, movement.bookSyncId);
+            values.put(MovementEntry.COLUMN_MOVEMENT_DELTA, movement.delta);
+            values.put(MovementEntry.COLUMN_MOVEMENT_REASON, movement.reason);
+            values.put(MovementEntry.COLUMN_MOVEMENT_CREATED_AT, movement.createdAt);
+            operations.add(ContentProviderOperation.newInsert(MovementEntry.CONTENT_URI).withValues(values).build());
+        }
+        return operations;
+    }
+}
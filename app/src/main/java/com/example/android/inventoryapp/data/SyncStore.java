@@ -0,0 +1,285 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.IOException;
+
+import static com.example.android.inventoryapp.data.BookContract.BookEntry;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_CHANGES;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_COUNT;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_LAST_MOVEMENT_ID;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_LAST_SEQ;
+import static com.example.android.inventoryapp.data.BookContract.MovementEntry;
+import static com.example.android.inventoryapp.data.BookContract.SyncEntry;
+
+/**
+ * SQL statements used by {@link BookProvider} to read local changes for the sync server
+ * and apply the changes pulled from other devices.
+ *
+ * Local changes are found through the change sequence index and the movement IDs above
+ * the pushed marks, so a sync reads only what changed. Pulled book changes are applied in
+ * server order unless the book has a local change that isn't pushed yet, since that change
+ * will reach the server later and win. Pulled movements are always added, which merges
+ * concurrent sales instead of letting the last writer win.
+ */
+final class SyncStore {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = SyncStore.class.getSimpleName();
+
+    /** Private constructor to prevent instantiating the class **/
+    private SyncStore() {}
+
+    /** Columns of the books read for a push **/
+    private static final String[] BOOK_CHANGE_COLUMNS = {
+            BookEntry.COLUMN_BOOK_SYNC_ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_AUTHOR,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+            BookEntry.COLUMN_BOOK_ISBN,
+            BookEntry.COLUMN_BOOK_DELETED_AT,
+            BookEntry.COLUMN_BOOK_CHANGE_SEQ };
+
+    /** Query for the local movements above the pushed mark with their book's sync ID and change number **/
+    private static final String SQL_MOVEMENT_CHANGES =
+            "SELECT m." + MovementEntry._ID + ", b." + BookEntry.COLUMN_BOOK_SYNC_ID + ", b." + BookEntry.COLUMN_BOOK_CHANGE_SEQ +
+                    ", m." + MovementEntry.COLUMN_MOVEMENT_DELTA + ", m." + MovementEntry.COLUMN_MOVEMENT_REASON +
+                    ", m." + MovementEntry.COLUMN_MOVEMENT_CREATED_AT +
+                    " FROM " + MovementEntry.TABLE_NAME + " m JOIN " + BookEntry.TABLE_NAME + " b" +
+                    " ON b." + BookEntry._ID + " = m." + MovementEntry.COLUMN_MOVEMENT_BOOK_ID +
+                    " WHERE m." + MovementEntry._ID + " > ? AND m." + MovementEntry.COLUMN_MOVEMENT_REMOTE + " = 0" +
+                    " ORDER BY m." + MovementEntry._ID + " LIMIT ?";
+
+    /** Selection for the deleted books the server already has, or all deleted books if sync was never used **/
+    static final String SQL_PUSHED_OR_NOT_SYNCED =
+            "(" + stateValue(SyncEntry.STATE_ENABLED) + " = 0 OR " +
+                    BookEntry.COLUMN_BOOK_CHANGE_SEQ + " <= " + stateValue(SyncEntry.STATE_PUSHED_SEQ) + ")";
+
+    /** Query for the local ID of the book that had the sync ID before it took another one **/
+    static final String SQL_ALIASED_BOOK_ID = "SELECT " + SyncEntry.COLUMN_ALIAS_BOOK_ID + " FROM " +
+            SyncEntry.ALIAS_TABLE_NAME + " WHERE " + SyncEntry.COLUMN_ALIAS_SYNC_ID + " = ?";
+
+    /**
+     * Returns up to limit changed books and up to limit new local movements as an encoded change-set,
+     * with the highest change sequence and movement ID included so they can be marked as pushed.
+     * A movement is held back, with every movement after it, until its book has been pushed,
+     * so other devices always know the book before its movements arrive.
+     * Doesn't need a transaction: writes are numbered in commit order, and a book changed
+     * after the books were read has a higher change number, which holds back its movements
+     * until the next round. The cipher decrypts the price and supplier phone, which are pushed
+     * in plain form.
+     */
+    static Bundle getChanges(SQLiteDatabase database, ColumnCipher cipher, int limit) {
+        ChangeSet changeSet = new ChangeSet();
+        long pushedSeq;
+        long lastSeq;
+        long lastMovementId;
+
+        changeSet.deviceId = String.valueOf(getState(database, SyncEntry.STATE_DEVICE_ID));
+        changeSet.cursor = getState(database, SyncEntry.STATE_SERVER_CURSOR);
+        changeSet.maxResults = limit;
+        pushedSeq = getState(database, SyncEntry.STATE_PUSHED_SEQ);
+        lastMovementId = getState(database, SyncEntry.STATE_PUSHED_MOVEMENT_ID);
+        lastSeq = pushedSeq;
+
+        // Reads the changed books in change order, including deleted ones
+        Cursor cursor = cipher.decrypt(database.query(BookEntry.TABLE_NAME, BOOK_CHANGE_COLUMNS,
+                BookEntry.COLUMN_BOOK_CHANGE_SEQ + " > ?", new String[] { String.valueOf(pushedSeq) },
+                null, null, BookEntry.COLUMN_BOOK_CHANGE_SEQ, String.valueOf(limit)));
+        try {
+            while (cursor.moveToNext()) {
+                ChangeSet.BookChange book = new ChangeSet.BookChange();
+                book.syncId = cursor.getString(0);
+                book.name = cursor.getString(1);
+                book.author = cursor.getString(2);
+                book.price = cursor.getDouble(3);
+                book.supplierName = cursor.getString(4);
+                book.supplierPhone = cursor.getLong(5);
+                book.isbn = cursor.isNull(6) ? null : cursor.getString(6);
+                book.deletedAt = cursor.isNull(7) ? ChangeSet.NOT_DELETED : cursor.getLong(7);
+                changeSet.books.add(book);
+                lastSeq = cursor.getLong(8);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Reads the new local movements until one belongs to a book that isn't pushed yet
+        cursor = database.rawQuery(SQL_MOVEMENT_CHANGES,
+                new String[] { String.valueOf(lastMovementId), String.valueOf(limit) });
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.getLong(2) > lastSeq) {
+                    break;
+                }
+                ChangeSet.MovementChange movement = new ChangeSet.MovementChange();
+                movement.bookSyncId = cursor.getString(1);
+                movement.delta = cursor.getInt(3);
+                movement.reason = cursor.getInt(4);
+                movement.createdAt = cursor.getLong(5);
+                changeSet.movements.add(movement);
+                lastMovementId = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Bundle result = new Bundle();
+        try {
+            result.putByteArray(EXTRA_CHANGES, changeSet.encode());
+        } catch (IOException e) {
+            // Encoding only writes to memory
+            throw new IllegalStateException(e);
+        }
+        result.putLong(EXTRA_LAST_SEQ, lastSeq);
+        result.putLong(EXTRA_LAST_MOVEMENT_ID, lastMovementId);
+        result.putInt(EXTRA_COUNT, changeSet.size());
+        return result;
+    }
+
+    /**
+     * Applies a book change pulled from another device. The values hold the sync ID and the
+     * descriptive columns. A new book starts at quantity 0, since its movements follow.
+     * If the book isn't known but one with the same ISBN is, that book takes the pulled sync ID,
+     * so the movements pulled for it are added to it. Its earlier sync ID is kept as an alias,
+     * since the server may already have it, and the changes and movements pulled for it
+     * still reach the same book.
+     * Returns the local ID of the book, or -1 if the change was skipped.
+     */
+    static long applyRemoteBook(SQLiteDatabase database, ContentValues values) {
+        String syncId = values.getAsString(BookEntry.COLUMN_BOOK_SYNC_ID);
+        String isbn = values.getAsString(BookEntry.COLUMN_BOOK_ISBN);
+        values.remove(BookEntry.COLUMN_BOOK_QUANTITY);
+
+        long[] book = findBook(database, BookEntry.COLUMN_BOOK_SYNC_ID + " = ?", syncId);
+        if (book == null) {
+            book = findBook(database, BookEntry._ID + " = (" + SQL_ALIASED_BOOK_ID + ")", syncId);
+        }
+        if (book == null && isbn != null) {
+            book = findBook(database, BookEntry.COLUMN_BOOK_ISBN + " = ?", isbn);
+            if (book != null) {
+                // The local book's changes and movements are pushed under the pulled sync ID from now on,
+                // but those already pushed, and the other devices' changes to them, keep the earlier one
+                Log.i(LOG_TAG, "Pulled book " + syncId + " matches local book " + book[0] + " by ISBN");
+                database.execSQL("INSERT OR REPLACE INTO " + SyncEntry.ALIAS_TABLE_NAME + " SELECT " +
+                        BookEntry.COLUMN_BOOK_SYNC_ID + ", " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME +
+                        " WHERE " + BookEntry._ID + " = ?", new Object[] { book[0] });
+                ContentValues syncIdValues = new ContentValues();
+                syncIdValues.put(BookEntry.COLUMN_BOOK_SYNC_ID, syncId);
+                database.update(BookEntry.TABLE_NAME, syncIdValues, BookEntry._ID + " = ?",
+                        new String[] { String.valueOf(book[0]) });
+            }
+        }
+        long id = book == null ? -1 : book[0];
+        long changeSeq = book == null ? 0 : book[1];
+
+        if (id == -1) {
+            values.put(BookEntry.COLUMN_BOOK_QUANTITY, 0);
+            id = database.insert(BookEntry.TABLE_NAME, null, values);
+            if (id == -1) {
+                Log.e(LOG_TAG, "Failed to insert pulled book " + syncId);
+                return -1;
+            }
+        } else if (changeSeq > getState(database, SyncEntry.STATE_PUSHED_SEQ)) {
+            // The local change reaches the server after this one, so it wins
+            return -1;
+        } else {
+            values.remove(BookEntry.COLUMN_BOOK_SYNC_ID);
+            database.update(BookEntry.TABLE_NAME, values, BookEntry._ID + " = ?",
+                    new String[] { String.valueOf(id) });
+        }
+
+        // The trigger numbered the write as a local change, which would push it back
+        ContentValues cleanValues = new ContentValues();
+        cleanValues.put(BookEntry.COLUMN_BOOK_CHANGE_SEQ, 0);
+        database.update(BookEntry.TABLE_NAME, cleanValues, BookEntry._ID + " = ?",
+                new String[] { String.valueOf(id) });
+        return id;
+    }
+
+    /**
+     * Returns the ID and change number of the book the selection finds with the value, or null if there is none.
+     */
+    private static long[] findBook(SQLiteDatabase database, String selection, String value) {
+        Cursor cursor = database.query(BookEntry.TABLE_NAME,
+                new String[] { BookEntry._ID, BookEntry.COLUMN_BOOK_CHANGE_SEQ },
+                selection, new String[] { value }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? new long[] { cursor.getLong(0), cursor.getLong(1) } : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Records how far the device has synced. The values map state names to their new values.
+     * The pushed marks only move forward, and the device ID, last change number, reorder scan mark
+     * and data version can't be set.
+     * The server address is a text value, which may be null.
+     */
+    static void updateState(SQLiteDatabase database, ContentValues values) {
+        for (String name : values.keySet()) {
+            if (SyncEntry.STATE_SERVER_URL.equals(name)) {
+                ContentValues textValues = new ContentValues();
+                textValues.put(SyncEntry.COLUMN_STATE_TEXT, values.getAsString(name));
+                database.update(SyncEntry.TABLE_NAME, textValues, SyncEntry.COLUMN_STATE_NAME + " = ?",
+                        new String[] { name });
+                continue;
+            }
+            Long value = values.getAsLong(name);
+            if (value == null || SyncEntry.STATE_DEVICE_ID.equals(name) || SyncEntry.STATE_LAST_SEQ.equals(name)
+                    || SyncEntry.STATE_REORDER_SCANNED_MOVEMENT_ID.equals(name) || SyncEntry.STATE_DATA_VERSION.equals(name)) {
+                throw new IllegalArgumentException("Invalid sync state " + name);
+            }
+            boolean onlyForward = SyncEntry.STATE_PUSHED_SEQ.equals(name)
+                    || SyncEntry.STATE_PUSHED_MOVEMENT_ID.equals(name);
+            SQLiteStatement statement = database.compileStatement("UPDATE " + SyncEntry.TABLE_NAME +
+                    " SET " + SyncEntry.COLUMN_STATE_VALUE + " = " +
+                    (onlyForward ? "MAX(" + SyncEntry.COLUMN_STATE_VALUE + ", ?)" : "?") +
+                    " WHERE " + SyncEntry.COLUMN_STATE_NAME + " = ?");
+            try {
+                statement.bindLong(1, value);
+                statement.bindString(2, name);
+                if (statement.executeUpdateDelete() == 0) {
+                    throw new IllegalArgumentException("Unknown sync state " + name);
+                }
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Moves the data version past the given one, when the books are replaced by others
+     * whose versions were counted separately.
+     */
+    static void moveDataVersionPast(SQLiteDatabase database, long version) {
+        database.execSQL("UPDATE " + SyncEntry.TABLE_NAME + " SET " + SyncEntry.COLUMN_STATE_VALUE +
+                " = MAX(" + SyncEntry.COLUMN_STATE_VALUE + ", ?) + 1 WHERE " +
+                SyncEntry.COLUMN_STATE_NAME + " = ?", new Object[] { version, SyncEntry.STATE_DATA_VERSION });
+    }
+
+    /**
+     * Returns a sync state value.
+     */
+    static long getState(SQLiteDatabase database, String name) {
+        return DatabaseUtils.longForQuery(database, "SELECT " + SyncEntry.COLUMN_STATE_VALUE + " FROM " +
+                SyncEntry.TABLE_NAME + " WHERE " + SyncEntry.COLUMN_STATE_NAME + " = ?", new String[] { name });
+    }
+
+    /**
+     * Returns a subquery for a sync state value.
+     */
+    private static String stateValue(String name) {
+        return "(SELECT " + SyncEntry.COLUMN_STATE_VALUE + " FROM " + SyncEntry.TABLE_NAME +
+                " WHERE " + SyncEntry.COLUMN_STATE_NAME + " = '" + name + "')";
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_FAILURES;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_MAX_HOLD_MICROS;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_MAX_WAIT_MICROS;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_RETRIES;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_TOTAL_HOLD_MICROS;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_TOTAL_WAIT_MICROS;
+import static com.example.android.inventoryapp.data.BookContract.EXTRA_TRANSACTIONS;
+
+/**
+ * Runs each write of {@link BookProvider} in one explicit IMMEDIATE transaction and records
+ * how long writers wait for the write lock and how long they hold it.
+ *
+ * The app, the :sync process and the companion app all write through binder calls into the
+ * provider's process, so their writes queue for its one write connection instead of fighting
+ * over file locks. They queue on the coordinator's lock first, for up to the busy timeout,
+ * since the connection pool would make them wait for the write connection without limit.
+ * A busy database, e.g. while a backup is restored, makes SQLite wait up to the same timeout.
+ * Either way the attempt fails and is retried a few times with backoff,
+ * so a write fails after a bounded time instead of hanging a binder thread.
+ *
+ * Every transaction ends by increasing the write version, which {@link QueryCache} uses to tell
+ * whether a result read earlier is still current.
+ */
+final class WriteCoordinator {
+
+    /** Log messages tag **/
+    private static final String LOG_TAG = WriteCoordinator.class.getSimpleName();
+
+    /**
+     * Longest time SQLite waits for a lock held by another connection before failing a statement,
+     * and a writer waits for another writer of this process.
+     */
+    static final int BUSY_TIMEOUT_MILLIS = 1000;
+
+    /** Number of times a write is tried before its lock error is returned to the caller **/
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** Wait before the first retry, doubled for each retry after it **/
+    private static final long FIRST_BACKOFF_MILLIS = 50;
+
+    /**
+     * Work done in one write transaction. It may run more than once if the database is busy,
+     * so it must only change the database.
+     */
+    interface Work<T> {
+        T run(SQLiteDatabase database);
+    }
+
+    /** Database helper object **/
+    private final SQLiteOpenHelper mDbHelper;
+
+    /** Held by the writer of this process that has the write connection **/
+    private final ReentrantLock mWriteLock = new ReentrantLock();
+
+    /** Number of write transactions ended since the provider started **/
+    private final AtomicLong mWriteVersion = new AtomicLong();
+
+    /** Contention statistics since the provider started, guarded by this **/
+    private long mTransactions;
+    private long mRetries;
+    private long mFailures;
+    private long mTotalWaitNanos;
+    private long mMaxWaitNanos;
+    private long mTotalHoldNanos;
+    private long mMaxHoldNanos;
+
+    WriteCoordinator(SQLiteOpenHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Runs the work in a write transaction and commits it if the work returns normally.
+     * If the calling thread is already in a transaction, e.g. in applyBatch(), the work joins it,
+     * since retrying only part of the outer transaction would be wrong.
+     */
+    <T> T write(Work<T> work) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (database.inTransaction()) {
+            return work.run(database);
+        }
+
+        long backoffMillis = FIRST_BACKOFF_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            long acquired = start;
+            boolean locked = false;
+            boolean began = false;
+            try {
+                try {
+                    locked = mWriteLock.tryLock(BUSY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (!locked) {
+                    throw new SQLiteDatabaseLockedException("Another write held the lock for " +
+                            BUSY_TIMEOUT_MILLIS + " ms");
+                }
+                // BEGIN IMMEDIATE takes the write lock up front, so no statement in the work waits for it
+                database.beginTransactionNonExclusive();
+                began = true;
+                acquired = System.nanoTime();
+                T result = work.run(database);
+                database.setTransactionSuccessful();
+                return result;
+            } catch (SQLiteDatabaseLockedException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    synchronized (this) {
+                        mFailures++;
+                    }
+                    Log.e(LOG_TAG, "Database still busy after " + attempt + " attempts", e);
+                    throw e;
+                }
+                synchronized (this) {
+                    mRetries++;
+                }
+            } finally {
+                if (began) {
+                    database.endTransaction();
+                    // Increased only once the transaction has ended, so a query that read the new version
+                    // also sees the changes
+                    mWriteVersion.incrementAndGet();
+                    record(acquired - start, System.nanoTime() - acquired);
+                }
+                if (locked) {
+                    mWriteLock.unlock();
+                }
+            }
+            SystemClock.sleep(backoffMillis);
+            backoffMillis *= 2;
+        }
+    }
+
+    /**
+     * Returns the write version, which increases after every write transaction.
+     * Read it before a query to know which writes the query's result includes.
+     */
+    long getWriteVersion() {
+        return mWriteVersion.get();
+    }
+
+    /**
+     * Adds a transaction's lock wait and hold times to the statistics.
+     */
+    private synchronized void record(long waitNanos, long holdNanos) {
+        mTransactions++;
+        mTotalWaitNanos += waitNanos;
+        mTotalHoldNanos += holdNanos;
+        if (waitNanos > mMaxWaitNanos) {
+            mMaxWaitNanos = waitNanos;
+        }
+        if (holdNanos > mMaxHoldNanos) {
+            mMaxHoldNanos = holdNanos;
+        }
+    }
+
+    /**
+     * Returns the contention statistics since the provider started.
+     */
+    synchronized Bundle getStats() {
+        Bundle stats = new Bundle();
+        stats.putLong(EXTRA_TRANSACTIONS, mTransactions);
+        stats.putLong(EXTRA_RETRIES, mRetries);
+        stats.putLong(EXTRA_FAILURES, mFailures);
+        stats.putLong(EXTRA_TOTAL_WAIT_MICROS, mTotalWaitNanos / 1000);
+        stats.putLong(EXTRA_MAX_WAIT_MICROS, mMaxWaitNanos / 1000);
+        stats.putLong(EXTRA_TOTAL_HOLD_MICROS, mTotalHoldNanos / 1000);
+        stats.putLong(EXTRA_MAX_HOLD_MICROS, mMaxHoldNanos / 1000);
+        return stats;
+    }
+}
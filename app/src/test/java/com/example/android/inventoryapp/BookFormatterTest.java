@@ -0,0 +1,57 @@
+package com.example.android.inventoryapp;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the output of {@link BookFormatter}. The time of each call is measured by BookFormatterBenchmark.
+ */
+public class BookFormatterTest {
+
+    @Test
+    public void formatPhone_groupsTheDigitsItHas() {
+        assertEquals("0", BookFormatter.formatPhone(0));
+        assertEquals("5678", BookFormatter.formatPhone(5678));
+        assertEquals("4-5678", BookFormatter.formatPhone(45678));
+        assertEquals("234-5678", BookFormatter.formatPhone(2345678));
+        assertEquals("(1) 234-5678", BookFormatter.formatPhone(12345678));
+        assertEquals("(210) 060-1414", BookFormatter.formatPhone(2100601414L));
+        assertEquals("+30 (210) 060-1414", BookFormatter.formatPhone(302100601414L));
+        assertEquals(BookFormatter.MAX_PHONE_LENGTH, BookFormatter.formatPhone(Long.MAX_VALUE).length());
+    }
+
+    @Test
+    public void formatPhone_writesIntoTheBuffer() {
+        char[] buffer = new char[BookFormatter.MAX_PHONE_LENGTH];
+        int length = BookFormatter.formatPhone(2100601414L, buffer);
+        assertEquals("(210) 060-1414", new String(buffer, 0, length));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void formatPhone_rejectsNegativeNumbers() {
+        BookFormatter.formatPhone(-2100601414L);
+    }
+
+    @Test
+    public void formatPrice_usesTheLocaleCurrency() {
+        assertEquals("$12.50", new BookFormatter(Locale.US).formatPrice(12.5));
+        assertEquals("\u00a31,234.00", new BookFormatter(Locale.UK).formatPrice(1234));
+    }
+
+    @Test
+    public void getInstance_followsTheDefaultLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            BookFormatter formatter = BookFormatter.getInstance();
+            assertSame(formatter, BookFormatter.getInstance());
+            Locale.setDefault(Locale.UK);
+            assertNotSame(formatter, BookFormatter.getInstance());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.example.android.inventoryapp.data.BookValidator.FIELD_AUTHOR;
+import static com.example.android.inventoryapp.data.BookValidator.FIELD_NAME;
+import static com.example.android.inventoryapp.data.BookValidator.FIELD_PRICE;
+import static com.example.android.inventoryapp.data.BookValidator.FIELD_QUANTITY;
+import static com.example.android.inventoryapp.data.BookValidator.FIELD_SUPPLIER_NAME;
+import static com.example.android.inventoryapp.data.BookValidator.FIELD_SUPPLIER_PHONE;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the field rules of {@link BookValidator}.
+ */
+public class BookValidatorTest {
+
+    private BookValidator mValidator;
+
+    @Before
+    public void setUp() {
+        mValidator = new BookValidator();
+    }
+
+    @Test
+    public void validInput_hasNoErrors() {
+        mValidator.checkText(FIELD_NAME, "Gone With the Wind");
+        mValidator.checkText(FIELD_AUTHOR, "Margaret Mitchell");
+        mValidator.checkInput(FIELD_PRICE, " 12.50 ");
+        mValidator.checkInput(FIELD_QUANTITY, "7");
+        mValidator.checkText(FIELD_SUPPLIER_NAME, "Scribner");
+        mValidator.checkInput(FIELD_SUPPLIER_PHONE, "2100601414");
+
+        assertTrue(mValidator.isValid());
+        assertEquals(-1, mValidator.getFirstError());
+        assertEquals(12.5, mValidator.getReal(FIELD_PRICE), 0);
+        assertEquals(7, mValidator.getInteger(FIELD_QUANTITY));
+        assertEquals(2100601414L, mValidator.getInteger(FIELD_SUPPLIER_PHONE));
+    }
+
+    @Test
+    public void invalidInput_collectsEveryError() {
+        mValidator.checkText(FIELD_NAME, "   ");
+        mValidator.checkText(FIELD_AUTHOR, "Margaret Mitchell");
+        mValidator.checkInput(FIELD_PRICE, "twelve");
+        mValidator.checkInput(FIELD_QUANTITY, "-1");
+        mValidator.checkText(FIELD_SUPPLIER_NAME, null);
+        mValidator.checkInput(FIELD_SUPPLIER_PHONE, "210-0601");
+
+        assertFalse(mValidator.isValid());
+        assertEquals(FIELD_NAME, mValidator.getFirstError());
+        assertTrue(mValidator.hasError(FIELD_NAME));
+        assertFalse(mValidator.hasError(FIELD_AUTHOR));
+        assertTrue(mValidator.hasError(FIELD_PRICE));
+        assertTrue(mValidator.hasError(FIELD_QUANTITY));
+        assertTrue(mValidator.hasError(FIELD_SUPPLIER_NAME));
+        assertTrue(mValidator.hasError(FIELD_SUPPLIER_PHONE));
+    }
+
+    @Test
+    public void numbers_rejectNegativeAndOutOfRange() {
+        mValidator.checkReal(FIELD_PRICE, Double.NaN);
+        mValidator.checkInteger(FIELD_QUANTITY, Integer.MAX_VALUE + 1L);
+        assertTrue(mValidator.hasError(FIELD_PRICE));
+        assertTrue(mValidator.hasError(FIELD_QUANTITY));
+
+        mValidator.reset();
+        mValidator.checkReal(FIELD_PRICE, 0);
+        mValidator.checkInteger(FIELD_QUANTITY, Integer.MAX_VALUE);
+        mValidator.checkInput(FIELD_SUPPLIER_PHONE, "99999999999999999999");
+        assertFalse(mValidator.hasError(FIELD_PRICE));
+        assertFalse(mValidator.hasError(FIELD_QUANTITY));
+        assertTrue(mValidator.hasError(FIELD_SUPPLIER_PHONE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void throwIfInvalid_throwsFirstError() {
+        mValidator.checkInput(FIELD_QUANTITY, "");
+        mValidator.throwIfInvalid();
+    }
+
+    @Test
+    public void normalizeIsbn_convertsIsbn10To13() {
+        assertEquals("9780441013593", BookValidator.normalizeIsbn("0-441-01359-7"));
+        assertEquals("9780441013593", BookValidator.normalizeIsbn("978-0-441-01359-3"));
+        // An X check digit of the ISBN-10 is replaced by the ISBN-13 one
+        assertEquals("9780802141828", BookValidator.normalizeIsbn("080214182x"));
+        assertNull(BookValidator.normalizeIsbn("0-441-01359-8"));
+        assertNull(BookValidator.normalizeIsbn("9780441013594"));
+        assertNull(BookValidator.normalizeIsbn("97804410135"));
+    }
+}
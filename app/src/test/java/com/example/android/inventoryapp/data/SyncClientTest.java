@@ -0,0 +1,155 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exchanges change-sets between two devices through {@link SyncStandInServer}.
+ */
+public class SyncClientTest {
+
+    private SyncStandInServer mServer;
+    private SyncClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new SyncStandInServer();
+        mServer.start();
+        mClient = new SyncClient(mServer.getUrl());
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void encode_decode_keepsEveryField() throws IOException {
+        ChangeSet changeSet = request("1", 7, 50);
+        changeSet.books.add(book("1:1", null));
+        changeSet.books.add(book("1:2", "9780446365383"));
+        changeSet.books.get(1).deletedAt = 1234;
+        changeSet.movements.add(movement("1:1", -3));
+
+        ChangeSet decoded = ChangeSet.decode(changeSet.encode());
+
+        assertEquals("1", decoded.deviceId);
+        assertEquals(7, decoded.cursor);
+        assertEquals(50, decoded.maxResults);
+        assertEquals(2, decoded.books.size());
+        assertNull(decoded.books.get(0).isbn);
+        assertEquals(ChangeSet.NOT_DELETED, decoded.books.get(0).deletedAt);
+        assertEquals("9780446365383", decoded.books.get(1).isbn);
+        assertEquals(1234, decoded.books.get(1).deletedAt);
+        assertEquals(9.99, decoded.books.get(0).price, 0);
+        assertEquals(1, decoded.movements.size());
+        assertEquals("1:1", decoded.movements.get(0).bookSyncId);
+        assertEquals(-3, decoded.movements.get(0).delta);
+    }
+
+    @Test
+    public void concurrentSales_areMergedOnBothDevices() throws IOException {
+        // Device A creates a book with 10 copies and sells one
+        ChangeSet pushA = request("A", 0, 100);
+        pushA.books.add(book("A:1", null));
+        pushA.movements.add(movement("A:1", 10));
+        pushA.movements.add(movement("A:1", -1));
+        ChangeSet responseA = exchange(pushA);
+        assertTrue(responseA.accepted);
+        assertEquals(0, responseA.size());
+
+        // Device B pulls the book, then both sell copies before syncing again
+        ChangeSet responseB = exchange(request("B", 0, 100));
+        assertEquals(1, responseB.books.size());
+        assertEquals(2, responseB.movements.size());
+        int quantityB = sum(responseB);
+
+        ChangeSet saleB = request("B", responseB.cursor, 100);
+        saleB.movements.add(movement("A:1", -2));
+        quantityB -= 2;
+        ChangeSet saleA = request("A", responseA.cursor, 100);
+        saleA.movements.add(movement("A:1", -3));
+        int quantityA = 10 - 1 - 3;
+
+        // Each device receives only the other's sale, and both end at 10 - 1 - 2 - 3
+        ChangeSet afterB = exchange(saleB);
+        ChangeSet afterA = exchange(saleA);
+        assertEquals(0, afterB.size());
+        assertEquals(1, afterA.movements.size());
+        quantityA += sum(afterA);
+        quantityB += sum(exchange(request("B", afterB.cursor, 100)));
+
+        assertEquals(4, quantityA);
+        assertEquals(4, quantityB);
+        assertEquals(5, mServer.getLogSize());
+    }
+
+    @Test
+    public void push_isRefusedUntilPullIsComplete() throws IOException {
+        ChangeSet pushA = request("A", 0, 100);
+        pushA.movements.add(movement("A:1", 1));
+        pushA.movements.add(movement("A:1", 1));
+        exchange(pushA);
+
+        // Device B can only pull one change at a time, so its push waits for the second round
+        ChangeSet pushB = request("B", 0, 1);
+        pushB.movements.add(movement("A:1", -1));
+        ChangeSet first = exchange(pushB);
+        assertFalse(first.accepted);
+        assertEquals(1, first.size());
+        assertEquals(2, mServer.getLogSize());
+
+        pushB.cursor = first.cursor;
+        ChangeSet second = exchange(pushB);
+        assertTrue(second.accepted);
+        assertEquals(1, second.size());
+        assertEquals(3, mServer.getLogSize());
+        assertEquals(3, second.cursor);
+    }
+
+    private ChangeSet exchange(ChangeSet request) throws IOException {
+        return ChangeSet.decode(mClient.exchange(request.encode()));
+    }
+
+    private static ChangeSet request(String deviceId, long cursor, int maxResults) {
+        ChangeSet changeSet = new ChangeSet();
+        changeSet.deviceId = deviceId;
+        changeSet.cursor = cursor;
+        changeSet.maxResults = maxResults;
+        return changeSet;
+    }
+
+    private static ChangeSet.BookChange book(String syncId, String isbn) {
+        ChangeSet.BookChange book = new ChangeSet.BookChange();
+        book.syncId = syncId;
+        book.name = "Gone With the Wind";
+        book.author = "Margaret Mitchell";
+        book.price = 9.99;
+        book.supplierName = "Scribner";
+        book.supplierPhone = 2100601414L;
+        book.isbn = isbn;
+        return book;
+    }
+
+    private static ChangeSet.MovementChange movement(String bookSyncId, int delta) {
+        ChangeSet.MovementChange movement = new ChangeSet.MovementChange();
+        movement.bookSyncId = bookSyncId;
+        movement.delta = delta;
+        movement.reason = delta < 0 ? 0 : 1;
+        movement.createdAt = System.currentTimeMillis();
+        return movement;
+    }
+
+    private static int sum(ChangeSet changeSet) {
+        int sum = 0;
+        for (ChangeSet.MovementChange movement : changeSet.movements) {
+            sum += movement.delta;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.inventoryapp.data;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-process stand-in for the sync server, used to test {@link SyncClient} and the change-set protocol.
+ * It keeps one log of every device's changes in the order they were pushed. A request gets the
+ * entries after its cursor from the other devices, and its own changes are appended only once
+ * its pull is complete, so they always come after everything the device has applied.
+ */
+class SyncStandInServer {
+
+    /** Path the server answers on **/
+    private static final String PATH = "/sync";
+
+    /** One pushed change and the device that pushed it **/
+    private static final class Entry {
+        final String deviceId;
+        final Object change;
+
+        Entry(String deviceId, Object change) {
+            this.deviceId = deviceId;
+            this.change = change;
+        }
+    }
+
+    private final List<Entry> mLog = new ArrayList<>();
+    private HttpServer mServer;
+
+    /**
+     * Starts the server on a free local port.
+     */
+    void start() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] response = respond(ChangeSet.decode(readFully(exchange.getRequestBody()))).encode();
+                exchange.getResponseHeaders().set("Content-Type", SyncClient.CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        mServer.start();
+    }
+
+    void stop() {
+        mServer.stop(0);
+    }
+
+    URL getUrl() throws IOException {
+        return new URL("http", "127.0.0.1", mServer.getAddress().getPort(), PATH);
+    }
+
+    /** Returns the number of changes stored **/
+    synchronized int getLogSize() {
+        return mLog.size();
+    }
+
+    /**
+     * Returns the other devices' changes after the request's cursor and stores the pushed changes
+     * if nothing is left to pull.
+     */
+    synchronized ChangeSet respond(ChangeSet request) {
+        ChangeSet response = new ChangeSet();
+        int position = (int) request.cursor;
+        while (position < mLog.size() && response.size() < request.maxResults) {
+            Entry entry = mLog.get(position++);
+            if (entry.deviceId.equals(request.deviceId)) {
+                continue;
+            }
+            if (entry.change instanceof ChangeSet.BookChange) {
+                response.books.add((ChangeSet.BookChange) entry.change);
+            } else {
+                response.movements.add((ChangeSet.MovementChange) entry.change);
+            }
+        }
+
+        response.accepted = position == mLog.size();
+        if (response.accepted) {
+            for (ChangeSet.BookChange book : request.books) {
+                mLog.add(new Entry(request.deviceId, book));
+            }
+            for (ChangeSet.MovementChange movement : request.movements) {
+                mLog.add(new Entry(request.deviceId, movement));
+            }
+            position = mLog.size();
+        }
+        response.cursor = position;
+        return response;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+}